@@ -84,6 +84,7 @@ public abstract class AbstractConfiguredComponent implements ConfigurableCompone
 
             final String oldValue = properties.put(descriptor, value);
             if (!value.equals(oldValue)) {
+                onPropertiesModified();
 
 
                 try {
@@ -123,6 +124,7 @@ public abstract class AbstractConfiguredComponent implements ConfigurableCompone
             final PropertyDescriptor descriptor = component.getPropertyDescriptor(name);
             String value = null;
             if (!descriptor.isRequired() && (value = properties.remove(descriptor)) != null) {
+                onPropertiesModified();
 
 
                 try {
@@ -228,6 +230,14 @@ public abstract class AbstractConfiguredComponent implements ConfigurableCompone
 
     public abstract void verifyModifiable() throws IllegalStateException;
 
+    /**
+     * Hook method called whenever a property value is set, changed or removed,
+     * allowing subclasses to drop anything derived from the previous values.
+     */
+    protected void onPropertiesModified() {
+        // Provided for subclasses to override
+    }
+
     @Override
     public Collection<ValidationResult> validate(final ValidationContext context) {
 
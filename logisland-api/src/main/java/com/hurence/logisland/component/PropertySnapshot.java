@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.component;
+
+
+import com.hurence.logisland.controller.ControllerServiceLookup;
+import com.hurence.logisland.registry.VariableRegistry;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable view of the resolved properties of a component.
+ * <p>
+ * Every supported or set property is resolved once (configured value or default value of its descriptor)
+ * and stored in a slot indexed by descriptor name, so that reading a property neither scans the supported
+ * descriptors nor allocates a new {@link PropertyValue}. Numbers, booleans and regular expressions are parsed
+ * the first time they are read and then kept in the slot.
+ * </p>
+ * <p>
+ * A snapshot never reflects later configuration changes, the owning context is responsible for building
+ * a new one when a property is modified.
+ * </p>
+ */
+public final class PropertySnapshot {
+
+    private final Map<String, SnapshotPropertyValue> slots;
+
+    private PropertySnapshot(final Map<String, SnapshotPropertyValue> slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * Resolve the properties of a component.
+     *
+     * @param component     the component whose supported descriptors are resolved
+     * @param properties    the configured values, including dynamic properties
+     * @param serviceLookup the lookup used to resolve controller service properties, may be null
+     * @return the snapshot
+     */
+    public static PropertySnapshot of(final ConfigurableComponent component,
+                                      final Map<PropertyDescriptor, String> properties,
+                                      final ControllerServiceLookup serviceLookup) {
+        final Map<String, SnapshotPropertyValue> slots = new LinkedHashMap<>();
+        for (final PropertyDescriptor descriptor : component.getPropertyDescriptors()) {
+            final String value = properties.get(descriptor);
+            slots.put(descriptor.getName(), new SnapshotPropertyValue(descriptor,
+                    value == null ? descriptor.getDefaultValue() : value, serviceLookup));
+        }
+        for (final Map.Entry<PropertyDescriptor, String> entry : properties.entrySet()) {
+            final PropertyDescriptor descriptor = entry.getKey();
+            if (!slots.containsKey(descriptor.getName())) {
+                final String value = entry.getValue();
+                slots.put(descriptor.getName(), new SnapshotPropertyValue(descriptor,
+                        value == null ? descriptor.getDefaultValue() : value, serviceLookup));
+            }
+        }
+        return new PropertySnapshot(slots);
+    }
+
+    /**
+     * @return true if the given property has a slot in this snapshot
+     */
+    public boolean contains(final String propertyName) {
+        return slots.containsKey(propertyName);
+    }
+
+    /**
+     * @return the descriptors of all the resolved properties
+     */
+    public Set<PropertyDescriptor> getDescriptors() {
+        final Set<PropertyDescriptor> descriptors = new LinkedHashSet<>();
+        slots.values().forEach(slot -> descriptors.add(slot.descriptor));
+        return descriptors;
+    }
+
+    /**
+     * @return the resolved value of the given property, or null if the property is unknown to this snapshot
+     */
+    public PropertyValue getPropertyValue(final String propertyName) {
+        return slots.get(propertyName);
+    }
+
+    public PropertyValue getPropertyValue(final PropertyDescriptor descriptor) {
+        return slots.get(descriptor.getName());
+    }
+
+    public boolean isSet(final PropertyDescriptor descriptor) {
+        final SnapshotPropertyValue slot = slots.get(descriptor.getName());
+        return slot != null && slot.isSet();
+    }
+
+    public String getString(final PropertyDescriptor descriptor) {
+        final SnapshotPropertyValue slot = slots.get(descriptor.getName());
+        return slot == null ? null : slot.asString();
+    }
+
+    public Integer getInteger(final PropertyDescriptor descriptor) {
+        final SnapshotPropertyValue slot = slots.get(descriptor.getName());
+        return slot == null ? null : slot.asInteger();
+    }
+
+    public Long getLong(final PropertyDescriptor descriptor) {
+        final SnapshotPropertyValue slot = slots.get(descriptor.getName());
+        return slot == null ? null : slot.asLong();
+    }
+
+    public Boolean getBoolean(final PropertyDescriptor descriptor) {
+        final SnapshotPropertyValue slot = slots.get(descriptor.getName());
+        return slot == null ? null : slot.asBoolean();
+    }
+
+    public Double getDouble(final PropertyDescriptor descriptor) {
+        final SnapshotPropertyValue slot = slots.get(descriptor.getName());
+        return slot == null ? null : slot.asDouble();
+    }
+
+    /**
+     * @return the property value compiled as a regular expression, or null if not set
+     * @throws java.util.regex.PatternSyntaxException if the value is not a valid regular expression
+     */
+    public Pattern getPattern(final PropertyDescriptor descriptor) {
+        return getPattern(descriptor.getName());
+    }
+
+    public Pattern getPattern(final String propertyName) {
+        final SnapshotPropertyValue slot = slots.get(propertyName);
+        return slot == null ? null : slot.asPattern();
+    }
+
+
+    /**
+     * A resolved property value which keeps its parsed forms. Parsing is idempotent so concurrent readers
+     * may at worst parse the same value twice, the parsed objects being immutable.
+     */
+    private static final class SnapshotPropertyValue extends StandardPropertyValue {
+
+        private final PropertyDescriptor descriptor;
+
+        private transient Integer integerValue;
+        private transient Long longValue;
+        private transient Boolean booleanValue;
+        private transient Double doubleValue;
+        private transient Float floatValue;
+        private transient Pattern patternValue;
+
+        SnapshotPropertyValue(final PropertyDescriptor descriptor, final String rawValue,
+                              final ControllerServiceLookup serviceLookup) {
+            super(rawValue, serviceLookup, VariableRegistry.EMPTY_REGISTRY);
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public Integer asInteger() {
+            Integer value = integerValue;
+            if (value == null && isSet()) {
+                value = integerValue = super.asInteger();
+            }
+            return value;
+        }
+
+        @Override
+        public Long asLong() {
+            Long value = longValue;
+            if (value == null && isSet()) {
+                value = longValue = super.asLong();
+            }
+            return value;
+        }
+
+        @Override
+        public Boolean asBoolean() {
+            Boolean value = booleanValue;
+            if (value == null && isSet()) {
+                value = booleanValue = super.asBoolean();
+            }
+            return value;
+        }
+
+        @Override
+        public Float asFloat() {
+            Float value = floatValue;
+            if (value == null && isSet()) {
+                value = floatValue = super.asFloat();
+            }
+            return value;
+        }
+
+        @Override
+        public Double asDouble() {
+            Double value = doubleValue;
+            if (value == null && isSet()) {
+                value = doubleValue = super.asDouble();
+            }
+            return value;
+        }
+
+        Pattern asPattern() {
+            Pattern value = patternValue;
+            if (value == null && isSet()) {
+                value = patternValue = Pattern.compile(getRawValue());
+            }
+            return value;
+        }
+    }
+}
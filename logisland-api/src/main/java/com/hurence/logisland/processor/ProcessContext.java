@@ -18,6 +18,7 @@ package com.hurence.logisland.processor;
 
 import com.hurence.logisland.component.ComponentContext;
 import com.hurence.logisland.component.InitializationException;
+import com.hurence.logisland.component.PropertySnapshot;
 import com.hurence.logisland.controller.ControllerServiceLookup;
 
 public interface ProcessContext extends ComponentContext {
@@ -32,4 +33,13 @@ public interface ProcessContext extends ComponentContext {
     void addControllerServiceLookup(ControllerServiceLookup controllerServiceLookup) throws InitializationException;
 
     Processor getProcessor();
+
+    /**
+     * Get an immutable view of the resolved processor properties, with typed accessors that parse
+     * each value only once. The returned snapshot is not updated by later configuration changes,
+     * so it should be fetched again at each batch rather than kept by the processor.
+     *
+     * @return the current property snapshot
+     */
+    PropertySnapshot getPropertySnapshot();
 }
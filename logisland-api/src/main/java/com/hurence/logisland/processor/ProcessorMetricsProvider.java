@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor;
+
+import java.util.Map;
+
+/**
+ * Opt-in contract for processors that measure things the engine can't see by itself,
+ * such as the hit ratio of a cache or the latency of an external service.
+ * <p>
+ * The engines collect these metrics after each batch and add them to the metrics
+ * record of the processor, next to the record counters they compute themselves.
+ */
+public interface ProcessorMetricsProvider {
+
+    /**
+     * Get the metrics gathered since the previous call and reset them
+     *
+     * @return the metric values keyed by metric name, integral values are reported
+     * as longs and decimal ones as doubles
+     */
+    Map<String, Number> drainMetrics();
+}
@@ -25,6 +25,8 @@ public class StandardProcessContext extends AbstractConfiguredComponent implemen
 
     private ControllerServiceLookup controllerServiceLookup;
 
+    private transient volatile PropertySnapshot propertySnapshot;
+
     public StandardProcessContext(final Processor processor, final String id) {
         super(processor, id);
     }
@@ -32,6 +34,7 @@ public class StandardProcessContext extends AbstractConfiguredComponent implemen
     @Override
     public void addControllerServiceLookup(ControllerServiceLookup controllerServiceLookup) throws InitializationException {
         this.controllerServiceLookup = controllerServiceLookup;
+        onPropertiesModified();
     }
 
     @Override
@@ -44,8 +47,36 @@ public class StandardProcessContext extends AbstractConfiguredComponent implemen
         return getPropertyValue(descriptor.getName());
     }
 
+    @Override
+    public PropertySnapshot getPropertySnapshot() {
+        final PropertySnapshot snapshot = propertySnapshot;
+        return snapshot != null ? snapshot : buildPropertySnapshot();
+    }
+
+    /**
+     * Building and dropping the snapshot share the same monitor so that a snapshot resolved
+     * while a property is being modified can never outlive the modification.
+     */
+    private synchronized PropertySnapshot buildPropertySnapshot() {
+        if (propertySnapshot == null) {
+            propertySnapshot = PropertySnapshot.of(component, properties, controllerServiceLookup);
+        }
+        return propertySnapshot;
+    }
+
+    @Override
+    protected synchronized void onPropertiesModified() {
+        propertySnapshot = null;
+    }
+
     @Override
     public PropertyValue getPropertyValue(final String propertyName) {
+        final PropertyValue snapshotValue = getPropertySnapshot().getPropertyValue(propertyName);
+        if (snapshotValue != null) {
+            return snapshotValue;
+        }
+
+        // neither supported nor set, the component may still provide a dynamic descriptor with a default value
         final PropertyDescriptor descriptor = component.getPropertyDescriptor(propertyName);
         if (descriptor == null) {
             return null;
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor;
+
+import com.hurence.logisland.record.Record;
+
+import java.util.Iterator;
+
+/**
+ * Opt-in contract for processors that can handle records one by one.
+ * <p>
+ * The engines chain such processors lazily : records are pulled through the
+ * whole chain one at a time instead of materializing a collection of records
+ * between each processor. Processors which need to see the whole batch at once
+ * (aggregations, sessions, multi-get lookups...) should stay on the
+ * collection based {@link Processor#process(ProcessContext, java.util.Collection)},
+ * they're still handled through {@link StreamingProcessors#process(Processor, ProcessContext, Iterator)}.
+ */
+public interface StreamingProcessor extends Processor {
+
+    /**
+     * Lazily process the incoming records
+     *
+     * @param context the current process context
+     * @param records the records to handle, pulled on demand
+     * @return an iterator over the computed records
+     * @throws ProcessException if something went wrong
+     */
+    Iterator<Record> process(ProcessContext context, Iterator<Record> records);
+}
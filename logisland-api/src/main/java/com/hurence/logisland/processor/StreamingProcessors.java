@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor;
+
+import com.hurence.logisland.record.Record;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Helpers to chain processors over iterators of records.
+ */
+public final class StreamingProcessors {
+
+    private StreamingProcessors() {
+    }
+
+    /**
+     * Process the records with the given processor.
+     * <p>
+     * A {@link StreamingProcessor} is called directly, any other processor is adapted :
+     * its input is materialized into a collection only when the first output record is requested.
+     *
+     * @param processor the processor to run
+     * @param context   the processor context
+     * @param records   the incoming records
+     * @return a lazy iterator over the outgoing records
+     */
+    public static Iterator<Record> process(final Processor processor,
+                                           final ProcessContext context,
+                                           final Iterator<Record> records) {
+        if (processor instanceof StreamingProcessor) {
+            return ((StreamingProcessor) processor).process(context, records);
+        }
+        return new CollectionProcessorIterator(processor, context, records);
+    }
+
+    /**
+     * Apply an action on each record as it is pulled through the iterator.
+     *
+     * @param records the records
+     * @param action  the action to apply on each record
+     * @return a lazy iterator over the same records
+     */
+    public static Iterator<Record> forEachRecord(final Iterator<Record> records, final Consumer<Record> action) {
+        return new Iterator<Record>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public Record next() {
+                final Record record = records.next();
+                action.accept(record);
+                return record;
+            }
+        };
+    }
+
+    /**
+     * Adapter for collection based processors
+     */
+    private static class CollectionProcessorIterator implements Iterator<Record> {
+
+        private final Processor processor;
+        private final ProcessContext context;
+        private Iterator<Record> records;
+        private Iterator<Record> outgoingRecords;
+
+        CollectionProcessorIterator(Processor processor, ProcessContext context, Iterator<Record> records) {
+            this.processor = processor;
+            this.context = context;
+            this.records = records;
+        }
+
+        private Iterator<Record> outgoingRecords() {
+            if (outgoingRecords == null) {
+                final List<Record> incomingRecords = new ArrayList<>();
+                records.forEachRemaining(incomingRecords::add);
+                // let the upstream iterator be garbage collected
+                records = null;
+
+                final Collection<Record> processedRecords = processor.process(context, incomingRecords);
+                outgoingRecords = processedRecords == null ?
+                        Collections.<Record>emptyIterator() :
+                        processedRecords.iterator();
+            }
+            return outgoingRecords;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return outgoingRecords().hasNext();
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return outgoingRecords.next();
+        }
+    }
+}
@@ -0,0 +1,590 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.record;
+
+import com.hurence.logisland.logging.ComponentLog;
+import org.apache.commons.collections.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.*;
+
+/**
+ * A memory efficient {@link Record} for streams with a stable set of field names.
+ *
+ * Field names are referenced through the shared {@link FieldSlots} table, or kept by name once
+ * the table is full, INT, LONG, FLOAT,
+ * DOUBLE and BOOLEAN values are kept unboxed in a primitive array and {@link Field} objects
+ * are only built when a field is read. It behaves exactly like a {@link StandardRecord}
+ * except that the collections returned by getAllFields, getAllFieldNames and
+ * getFieldsEntrySet are snapshots instead of live views.
+ */
+public class CompactRecord implements Record {
+
+    private static Logger logger = LoggerFactory.getLogger(CompactRecord.class);
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * set on a type when the value is held in the primitives array
+     */
+    private static final byte UNBOXED = (byte) 0x80;
+
+    private static final FieldType[] FIELD_TYPES = FieldType.values();
+
+    private static final int ID_SLOT = FieldSlots.slotOf(FieldDictionary.RECORD_ID);
+    private static final int TYPE_SLOT = FieldSlots.slotOf(FieldDictionary.RECORD_TYPE);
+    private static final int TIME_SLOT = FieldSlots.slotOf(FieldDictionary.RECORD_TIME);
+
+    private transient int[] slots;
+    /**
+     * the names of the fields without slot, only allocated when the record holds one
+     */
+    private transient String[] names;
+    private transient byte[] types;
+    private transient long[] primitives;
+    private transient Object[] values;
+    private transient int count;
+
+    private List<String> errors = new ArrayList<>();
+
+    public CompactRecord() {
+        this(StandardRecord.DEFAULT_RECORD_TYPE);
+    }
+
+    public CompactRecord(String type) {
+        allocate(INITIAL_CAPACITY);
+        this.setType(type);
+        this.setTime(new Date());
+        this.setId(UUID.randomUUID().toString());
+    }
+
+    public CompactRecord(Record toClone) {
+        if (toClone instanceof CompactRecord) {
+            CompactRecord other = (CompactRecord) toClone;
+            count = other.count;
+            slots = Arrays.copyOf(other.slots, other.slots.length);
+            names = other.names == null ? null : Arrays.copyOf(other.names, other.names.length);
+            types = Arrays.copyOf(other.types, other.types.length);
+            primitives = Arrays.copyOf(other.primitives, other.primitives.length);
+            values = Arrays.copyOf(other.values, other.values.length);
+        } else {
+            allocate(Math.max(INITIAL_CAPACITY, toClone.getAllFieldNames().size()));
+            this.setType(toClone.getType());
+            this.setTime(toClone.getTime());
+            this.setId(UUID.randomUUID().toString());
+            toClone.getAllFieldsSorted().forEach(this::setField);
+        }
+        this.errors = (List<String>) toClone.getErrors();
+    }
+
+    private void allocate(int capacity) {
+        slots = new int[capacity];
+        names = null;
+        types = new byte[capacity];
+        primitives = new long[capacity];
+        values = new Object[capacity];
+        count = 0;
+    }
+
+    private void ensureCapacity() {
+        if (count == slots.length) {
+            int capacity = slots.length * 2;
+            slots = Arrays.copyOf(slots, capacity);
+            if (names != null)
+                names = Arrays.copyOf(names, capacity);
+            types = Arrays.copyOf(types, capacity);
+            primitives = Arrays.copyOf(primitives, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    private int indexOf(int slot) {
+        for (int i = 0; i < count; i++) {
+            if (slots[i] == slot)
+                return i;
+        }
+        return -1;
+    }
+
+    private int indexOf(String fieldName) {
+        int slot = FieldSlots.find(fieldName);
+        if (slot != FieldSlots.NO_SLOT)
+            return indexOf(slot);
+
+        if (names != null) {
+            for (int i = 0; i < count; i++) {
+                if (slots[i] == FieldSlots.NO_SLOT && names[i].equals(fieldName))
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    private String nameAt(int index) {
+        int slot = slots[index];
+        return slot == FieldSlots.NO_SLOT ? names[index] : FieldSlots.nameOf(slot);
+    }
+
+    private void put(String fieldName, FieldType fieldType, Object value) {
+        int slot = FieldSlots.slotOf(fieldName);
+        if (slot != FieldSlots.NO_SLOT) {
+            put(slot, fieldType, value);
+            return;
+        }
+
+        int index = indexOf(fieldName);
+        if (index == -1) {
+            ensureCapacity();
+            if (names == null)
+                names = new String[slots.length];
+            index = count++;
+            slots[index] = FieldSlots.NO_SLOT;
+            names[index] = fieldName;
+        }
+        store(index, fieldType, value);
+    }
+
+    private void put(int slot, FieldType fieldType, Object value) {
+        int index = indexOf(slot);
+        if (index == -1) {
+            ensureCapacity();
+            index = count++;
+            slots[index] = slot;
+        }
+        store(index, fieldType, value);
+    }
+
+    private void store(int index, FieldType fieldType, Object value) {
+        if (isUnboxable(fieldType, value)) {
+            types[index] = (byte) (fieldType.ordinal() | UNBOXED);
+            primitives[index] = toPrimitive(value);
+            values[index] = null;
+        } else {
+            types[index] = (byte) fieldType.ordinal();
+            primitives[index] = 0L;
+            values[index] = value;
+        }
+    }
+    private static boolean isUnboxable(FieldType fieldType, Object value) {
+        switch (fieldType) {
+            case LONG:
+                return value instanceof Long;
+            case INT:
+                return value instanceof Integer;
+            case DOUBLE:
+                return value instanceof Double;
+            case FLOAT:
+                return value instanceof Float;
+            case BOOLEAN:
+                return value instanceof Boolean;
+            default:
+                return false;
+        }
+    }
+
+    private static long toPrimitive(Object value) {
+        if (value instanceof Double)
+            return Double.doubleToRawLongBits((Double) value);
+        if (value instanceof Float)
+            return Float.floatToRawIntBits((Float) value);
+        if (value instanceof Boolean)
+            return ((Boolean) value) ? 1L : 0L;
+        return ((Number) value).longValue();
+    }
+
+    private FieldType typeAt(int index) {
+        return FIELD_TYPES[types[index] & ~UNBOXED];
+    }
+
+    private Object valueAt(int index) {
+        if ((types[index] & UNBOXED) == 0)
+            return values[index];
+
+        long primitive = primitives[index];
+        switch (typeAt(index)) {
+            case LONG:
+                return primitive;
+            case INT:
+                return (int) primitive;
+            case DOUBLE:
+                return Double.longBitsToDouble(primitive);
+            case FLOAT:
+                return Float.intBitsToFloat((int) primitive);
+            case BOOLEAN:
+                return primitive != 0L;
+            default:
+                throw new IllegalStateException("unexpected unboxed type " + typeAt(index));
+        }
+    }
+
+    private Field fieldAt(int index) {
+        return new Field(nameAt(index), typeAt(index), valueAt(index));
+    }
+
+    @Override
+    public String toString() {
+        Map<String, Field> fields = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            fields.put(nameAt(i), fieldAt(i));
+        }
+        return "Record{" +
+                "fields=" + fields +
+                ", time=" + getTime() +
+                ", type='" + getType() + '\'' +
+                ", id='" + getId() + '\'' +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CompactRecord record = (CompactRecord) o;
+
+        if (!CollectionUtils.isEqualCollection(this.getAllFields(), record.getAllFields()))
+            return false;
+        return getId() != null ? getId().equals(record.getId()) : record.getId() == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for (int i = 0; i < count; i++) {
+            result += nameAt(i).hashCode() ^ fieldAt(i).hashCode();
+        }
+        result = 31 * result + (getId() != null ? getId().hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public Date getTime() {
+        int index = indexOf(TIME_SLOT);
+        if (index == -1)
+            return null;
+        if ((types[index] & UNBOXED) != 0 && typeAt(index) == FieldType.LONG)
+            return new Date(primitives[index]);
+        try {
+            return new Date((long) valueAt(index));
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public Record setTime(Date recordTime) {
+        if (recordTime != null)
+            put(TIME_SLOT, FieldType.LONG, recordTime.getTime());
+        return this;
+    }
+
+    @Override
+    public Record setFields(Map<String, Field> fields) {
+        allocate(Math.max(INITIAL_CAPACITY, fields.size()));
+        for (Map.Entry<String, Field> entry : fields.entrySet()) {
+            Field field = entry.getValue();
+            put(entry.getKey(), field.getType(), field.getRawValue());
+        }
+        return this;
+    }
+
+    @Override
+    public Record addFields(Map<String, Field> fields) {
+        fields.values().forEach(this::setField);
+        return this;
+    }
+
+    @Override
+    public Record setType(String type) {
+        put(TYPE_SLOT, FieldType.STRING, type);
+        return this;
+    }
+
+    @Override
+    public String getType() {
+        return getField(FieldDictionary.RECORD_TYPE).asString();
+    }
+
+    @Override
+    public String getId() {
+        return getField(FieldDictionary.RECORD_ID).asString();
+    }
+
+    @Override
+    public Record setId(String id) {
+        put(ID_SLOT, FieldType.STRING, id);
+        return this;
+    }
+
+    @Override
+    public boolean hasField(String fieldName) {
+        return indexOf(fieldName) != -1;
+    }
+
+    @Override
+    public Record setField(Field field) {
+        put(field.getName(), field.getType(), field.getRawValue());
+        return this;
+    }
+
+    @Override
+    public Record setField(String fieldName, FieldType fieldType, Object value) {
+        put(fieldName, fieldType, value);
+        return this;
+    }
+
+    @Override
+    public Record setStringField(String fieldName, String value) {
+        put(fieldName, FieldType.STRING, value);
+        return this;
+    }
+
+    @Override
+    public Field removeField(String fieldName) {
+        int index = indexOf(fieldName);
+        if (index == -1)
+            return null;
+
+        Field removed = fieldAt(index);
+        int moved = count - index - 1;
+        if (moved > 0) {
+            System.arraycopy(slots, index + 1, slots, index, moved);
+            if (names != null)
+                System.arraycopy(names, index + 1, names, index, moved);
+            System.arraycopy(types, index + 1, types, index, moved);
+            System.arraycopy(primitives, index + 1, primitives, index, moved);
+            System.arraycopy(values, index + 1, values, index, moved);
+        }
+        count--;
+        values[count] = null;
+        if (names != null)
+            names[count] = null;
+        return removed;
+    }
+
+    @Override
+    public Field getField(String fieldName) {
+        int index = indexOf(fieldName);
+        return index == -1 ? null : fieldAt(index);
+    }
+
+    @Override
+    public Record setStringFields(Map<String, String> entrySets) {
+        Objects.requireNonNull(entrySets, "Argument can not be null");
+        for (Map.Entry<String, String> entry : entrySets.entrySet()) {
+            this.setStringField(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    @Override
+    public Collection<Field> getAllFieldsSorted() {
+        List<Field> fields = new ArrayList<>(getAllFields());
+        Collections.sort(fields, (left, right) -> left.getName().compareTo(right.getName()));
+        return fields;
+    }
+
+    @Override
+    public Collection<Field> getAllFields() {
+        List<Field> fields = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            fields.add(fieldAt(i));
+        }
+        return fields;
+    }
+
+    @Override
+    public Set<String> getAllFieldNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            names.add(nameAt(i));
+        }
+        return names;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Field>> getFieldsEntrySet() {
+        Set<Map.Entry<String, Field>> entries = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(nameAt(i), fieldAt(i)));
+        }
+        return entries;
+    }
+
+    /**
+     * checks if record has no fields other than id, time and type
+     *
+     * @return true if fields is emty
+     */
+    @Override
+    public boolean isEmpty() {
+        return count == 3;
+    }
+
+    @Override
+    public boolean isValid() {
+        for (int i = 0; i < count; i++) {
+            if ((types[i] & UNBOXED) != 0)
+                continue;
+
+            Field field = fieldAt(i);
+            boolean isValid = true;
+            if (field.isSet()) {
+                switch (field.getType()) {
+                    case STRING:
+                        isValid = field.getRawValue() instanceof String;
+                        break;
+                    case ARRAY:
+                        isValid = field.getRawValue() instanceof Collection;
+                        break;
+                    default:
+                        // primitives reaching this point were not stored unboxed, so they have the wrong java type
+                        isValid = false;
+                        break;
+                }
+            }
+            if (!isValid) {
+                logger.info("field {} is not an instance of type {}", field.getName(), field.getType());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The number of fields (minus the 3 technical ones)
+     *
+     * @return number of real fields
+     */
+    @Override
+    public int size() {
+        return count - 3;
+    }
+
+    /**
+     * compute roughly the size in bytes for an event, strings being counted as UTF-8
+     *
+     * @return
+     */
+    @Override
+    public int sizeInBytes() {
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            switch (typeAt(i)) {
+                case STRING:
+                    if (values[i] instanceof String)
+                        size += utf8Length((String) values[i]);
+                    break;
+                case INT:
+                case FLOAT:
+                    size += 4;
+                    break;
+                case LONG:
+                case DOUBLE:
+                    size += 8;
+                    break;
+                case BOOLEAN:
+                    size += 1;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return size;
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public Record addError(final String type, final String message) {
+        StringBuilder finalMessage = new StringBuilder();
+        finalMessage.append(type);
+        if (message == null || !message.isEmpty()) {
+            finalMessage.append(": ");
+            finalMessage.append(message);
+        }
+        errors.add(finalMessage.toString());
+        setField(FieldDictionary.RECORD_ERRORS, FieldType.ARRAY, errors);
+        return this;
+    }
+
+    @Override
+    public Record addError(String errorType) {
+        return addError(errorType, null);
+    }
+
+    @Override
+    public Record addError(String errorType, ComponentLog logger, String errorMessage) {
+        logger.error(errorMessage);
+        return addError(errorType, errorMessage);
+    }
+
+    @Override
+    public Record addError(String errorType, ComponentLog logger, String errorMessage, Object[] os) {
+        logger.error(errorMessage, os);
+        return addError(errorType, errorMessage);
+    }
+
+    @Override
+    public Collection<String> getErrors() {
+        return new ArrayList<>(errors);
+    }
+
+    /**
+     * slots are local to the JVM, so fields are written by name
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeUTF(nameAt(i));
+            out.writeObject(typeAt(i));
+            out.writeObject(valueAt(i));
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        allocate(Math.max(INITIAL_CAPACITY, size));
+        for (int i = 0; i < size; i++) {
+            String name = in.readUTF();
+            FieldType type = (FieldType) in.readObject();
+            put(name, type, in.readObject());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.record;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * JVM wide table of interned field names.
+ *
+ * Each distinct field name gets a stable integer slot the first time it is registered, so that
+ * records can reference their fields by slot instead of holding one String key per field.
+ * The technical names of {@link FieldDictionary} are registered first.
+ *
+ * Slots are never released, so the table stops growing once it holds {@link #MAX_SLOTS} names:
+ * the names that are not registered by then get no slot and records keep them by name.
+ * Slot numbers are only meaningful inside the current JVM and must never be serialized.
+ */
+public final class FieldSlots {
+
+    /**
+     * the maximum number of registered field names
+     */
+    public static final int MAX_SLOTS = 65536;
+
+    /**
+     * the slot of the field names that could not be registered
+     */
+    public static final int NO_SLOT = -1;
+
+    // lowered by tests only
+    static volatile int maxSlots = MAX_SLOTS;
+
+    private static final ConcurrentMap<String, Integer> slotsByName = new ConcurrentHashMap<>();
+
+    private static volatile String[] names = new String[64];
+
+    private static int size = 0;
+
+    static {
+        slotOf(FieldDictionary.RECORD_ID);
+        slotOf(FieldDictionary.RECORD_TYPE);
+        slotOf(FieldDictionary.RECORD_TIME);
+        slotOf(FieldDictionary.RECORD_ERRORS);
+        slotOf(FieldDictionary.RECORD_DAYTIME);
+        slotOf(FieldDictionary.RECORD_KEY);
+        slotOf(FieldDictionary.RECORD_VALUE);
+        slotOf(FieldDictionary.RECORD_RAW_KEY);
+        slotOf(FieldDictionary.RECORD_RAW_VALUE);
+        slotOf(FieldDictionary.PROCESSOR_NAME);
+    }
+
+    private FieldSlots() {
+    }
+
+    /**
+     * get the slot of a field name, registering it if needed
+     *
+     * @param fieldName the field name
+     * @return the slot of the field name or {@link #NO_SLOT} if the table is full
+     */
+    public static int slotOf(String fieldName) {
+        Integer slot = slotsByName.get(fieldName);
+        if (slot != null)
+            return slot;
+
+        synchronized (FieldSlots.class) {
+            slot = slotsByName.get(fieldName);
+            if (slot == null) {
+                if (size >= maxSlots)
+                    return NO_SLOT;
+
+                String[] current = names;
+                if (size == current.length) {
+                    current = Arrays.copyOf(current, size * 2);
+                }
+                current[size] = fieldName;
+                slot = size++;
+                names = current;
+                slotsByName.put(fieldName, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * get the slot of an already registered field name
+     *
+     * @param fieldName the field name
+     * @return the slot of the field name or {@link #NO_SLOT} if it has never been registered
+     */
+    public static int find(String fieldName) {
+        Integer slot = slotsByName.get(fieldName);
+        return slot == null ? NO_SLOT : slot;
+    }
+
+    /**
+     * get the field name registered for a given slot
+     *
+     * @param slot a slot returned by {@link #slotOf(String)}
+     * @return the interned field name
+     */
+    public static String nameOf(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @return the number of registered field names
+     */
+    public static int size() {
+        return slotsByName.size();
+    }
+}
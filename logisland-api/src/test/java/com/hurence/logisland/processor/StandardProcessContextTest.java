@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor;
+
+import com.hurence.logisland.component.PropertyDescriptor;
+import com.hurence.logisland.component.PropertySnapshot;
+import com.hurence.logisland.component.PropertyValue;
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.validator.StandardValidators;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class StandardProcessContextTest {
+
+    private static Logger logger = LoggerFactory.getLogger(StandardProcessContextTest.class);
+
+    private static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("batch.size")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("100")
+            .build();
+
+    private static final PropertyDescriptor KEEP_RAW_CONTENT = new PropertyDescriptor.Builder()
+            .name("keep.raw.content")
+            .required(false)
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .defaultValue("false")
+            .build();
+
+    private static final PropertyDescriptor VALUE_REGEX = new PropertyDescriptor.Builder()
+            .name("value.regex")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    private static class MockProcessor extends AbstractProcessor {
+
+        @Override
+        public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+            final List<PropertyDescriptor> descriptors = new ArrayList<>();
+            descriptors.add(BATCH_SIZE);
+            descriptors.add(KEEP_RAW_CONTENT);
+            descriptors.add(VALUE_REGEX);
+            return Collections.unmodifiableList(descriptors);
+        }
+
+        @Override
+        protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(final String propertyDescriptorName) {
+            return new PropertyDescriptor.Builder()
+                    .name(propertyDescriptorName)
+                    .expressionLanguageSupported(false)
+                    .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+                    .defaultValue("dynamic default")
+                    .dynamic(true)
+                    .build();
+        }
+
+        @Override
+        public Collection<Record> process(ProcessContext context, Collection<Record> records) {
+            return records;
+        }
+    }
+
+    @Test
+    public void testSnapshotResolvesValuesOnce() {
+        final StandardProcessContext context = new StandardProcessContext(new MockProcessor(), "mock");
+        context.setProperty(VALUE_REGEX.getName(), "(\\w+) (\\d+)");
+        context.setProperty("alt.value.fields", "a,b");
+
+        final PropertySnapshot snapshot = context.getPropertySnapshot();
+        assertSame(snapshot, context.getPropertySnapshot());
+
+        assertEquals(Integer.valueOf(100), snapshot.getInteger(BATCH_SIZE));
+        assertEquals(Long.valueOf(100), snapshot.getLong(BATCH_SIZE));
+        assertEquals(Boolean.FALSE, snapshot.getBoolean(KEEP_RAW_CONTENT));
+        assertEquals("a,b", snapshot.getString(new PropertyDescriptor.Builder().name("alt.value.fields").build()));
+        assertTrue(snapshot.isSet(VALUE_REGEX));
+
+        final Pattern pattern = snapshot.getPattern(VALUE_REGEX);
+        assertTrue(pattern.matcher("abc 123").matches());
+        assertSame(pattern, snapshot.getPattern(VALUE_REGEX));
+
+        // property values handed to processors come from the snapshot
+        final PropertyValue batchSize = context.getPropertyValue(BATCH_SIZE);
+        assertSame(batchSize, context.getPropertyValue(BATCH_SIZE.getName()));
+        assertSame(batchSize.asInteger(), batchSize.asInteger());
+
+        // neither supported nor set : resolved through the dynamic descriptor
+        assertFalse(snapshot.contains("unknown"));
+        assertEquals("dynamic default", context.getPropertyValue("unknown").asString());
+    }
+
+    @Test
+    public void testSnapshotIsRebuiltWhenPropertiesChange() {
+        final StandardProcessContext context = new StandardProcessContext(new MockProcessor(), "mock");
+
+        final PropertySnapshot snapshot = context.getPropertySnapshot();
+        assertFalse(snapshot.isSet(VALUE_REGEX));
+        assertNull(snapshot.getPattern(VALUE_REGEX));
+
+        // same value again, nothing changes
+        context.setProperty(BATCH_SIZE.getName(), "100");
+        context.setProperty(BATCH_SIZE.getName(), "100");
+        final PropertySnapshot sameValueSnapshot = context.getPropertySnapshot();
+        assertEquals(Integer.valueOf(100), sameValueSnapshot.getInteger(BATCH_SIZE));
+        assertSame(sameValueSnapshot, context.getPropertySnapshot());
+
+        context.setProperty(BATCH_SIZE.getName(), "250");
+        final PropertySnapshot updatedSnapshot = context.getPropertySnapshot();
+        assertNotSame(sameValueSnapshot, updatedSnapshot);
+        assertEquals(Integer.valueOf(250), updatedSnapshot.getInteger(BATCH_SIZE));
+        assertEquals(Integer.valueOf(100), sameValueSnapshot.getInteger(BATCH_SIZE));
+
+        assertTrue(context.removeProperty(BATCH_SIZE.getName()));
+        assertEquals(Integer.valueOf(100), context.getPropertySnapshot().getInteger(BATCH_SIZE));
+        assertEquals(Integer.valueOf(100), context.getPropertyValue(BATCH_SIZE).asInteger());
+    }
+
+    /**
+     * Not a real benchmark : compares a per record property lookup done the way it was done before
+     * the snapshot (descriptor lookup and new property value for each call) with the snapshot path.
+     */
+    @Ignore("benchmark, only logs timings")
+    @Test
+    public void testPropertyLookupThroughput() {
+        final MockProcessor processor = new MockProcessor();
+        final StandardProcessContext context = new StandardProcessContext(processor, "mock");
+        context.setProperty(BATCH_SIZE.getName(), "250");
+        final int iterations = 1000000;
+
+        long checksum = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                final PropertyDescriptor descriptor = processor.getPropertyDescriptor(BATCH_SIZE.getName());
+                final String value = context.getProperty(descriptor);
+                checksum += Integer.parseInt(value == null ? descriptor.getDefaultValue() : value);
+            }
+            final long descriptorLookupDuration = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += context.getPropertyValue(BATCH_SIZE).asInteger();
+            }
+            final long snapshotDuration = System.nanoTime() - start;
+
+            logger.info("property lookup : {} ns/op with descriptor lookup, {} ns/op with snapshot",
+                    descriptorLookupDuration / iterations, snapshotDuration / iterations);
+        }
+        assertEquals(4L * iterations * 250, checksum);
+    }
+}
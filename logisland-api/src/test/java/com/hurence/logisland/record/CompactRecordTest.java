@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.record;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CompactRecordTest {
+
+    private static Logger logger = LoggerFactory.getLogger(CompactRecordTest.class);
+
+    private static Record fill(Record record) {
+        return record.setId("firewall_record1")
+                .setField("timestamp", FieldType.LONG, 1488196800000L)
+                .setField("method", FieldType.STRING, "GET")
+                .setField("ip_source", FieldType.STRING, "123.34.45.123")
+                .setStringField("url_host", "origin-www.20minutes.fr")
+                .setField("url_port", FieldType.STRING, "80")
+                .setField("request_size", FieldType.INT, 1399)
+                .setField("response_size", FieldType.INT, 452)
+                .setField("duration", FieldType.DOUBLE, 0.75d)
+                .setField("ratio", FieldType.FLOAT, 1.5f)
+                .setField("is_outside_office_hours", FieldType.BOOLEAN, false)
+                .setField("is_host_blacklisted", FieldType.BOOLEAN, true)
+                .setField("tags", FieldType.ARRAY, new ArrayList<>(Arrays.asList("spam", "filter", "mail")))
+                .setField("type", FieldType.UNION, new ArrayList<>(Arrays.asList("null", "string")));
+    }
+
+    @Test
+    public void validateSameBehaviorAsStandardRecord() {
+
+        Record standard = fill(new StandardRecord("cisco"));
+        Record compact = fill(new CompactRecord("cisco"));
+        compact.setTime(standard.getTime());
+
+        assertEquals(standard.size(), compact.size());
+        assertEquals(standard.sizeInBytes(), compact.sizeInBytes());
+        assertEquals(standard.getAllFieldNames(), compact.getAllFieldNames());
+        assertEquals(new ArrayList<>(standard.getAllFieldsSorted()), new ArrayList<>(compact.getAllFieldsSorted()));
+        assertEquals(standard.getId(), compact.getId());
+        assertEquals(standard.getType(), compact.getType());
+        assertEquals(standard.getTime(), compact.getTime());
+        assertEquals(standard.isValid(), compact.isValid());
+
+        for (String name : standard.getAllFieldNames()) {
+            assertEquals(standard.getField(name), compact.getField(name));
+        }
+        assertEquals(1399, compact.getField("request_size").getRawValue());
+        assertEquals(0.75d, compact.getField("duration").getRawValue());
+        assertEquals(1.5f, compact.getField("ratio").getRawValue());
+        assertEquals(Boolean.TRUE, compact.getField("is_host_blacklisted").getRawValue());
+
+        assertFalse(compact.hasField("unkown_field"));
+        assertNull(compact.getField("unkown_field"));
+        assertNull(compact.removeField("unkown_field"));
+
+        assertEquals(standard.removeField("method"), compact.removeField("method"));
+        assertFalse(compact.hasField("method"));
+        assertEquals(standard.size(), compact.size());
+        assertEquals(standard.getField("ip_source"), compact.getField("ip_source"));
+
+        compact.addError("error_type", "something went wrong");
+        assertEquals(Collections.singletonList("error_type: something went wrong"), compact.getErrors());
+        assertEquals(FieldType.ARRAY, compact.getField(FieldDictionary.RECORD_ERRORS).getType());
+    }
+
+    @Test
+    public void validateEmptyRecord() {
+        Record record = new CompactRecord();
+        assertTrue(record.isEmpty());
+        assertEquals(0, record.size());
+        assertEquals(StandardRecord.DEFAULT_RECORD_TYPE, record.getType());
+        assertEquals(record.getTime().getTime(), record.getField(FieldDictionary.RECORD_TIME).asLong().longValue());
+    }
+
+    @Test
+    public void validateRecordValidity() {
+        Record record = new CompactRecord();
+        record.setField("request_size", FieldType.INT, 1399);
+        assertTrue(record.isValid());
+        record.setField("request_size", FieldType.INT, "zer");
+        assertFalse(record.isValid());
+        assertEquals("zer", record.getField("request_size").getRawValue());
+        record.setField("request_size", FieldType.INT, 45L);
+        assertFalse(record.isValid());
+        assertEquals(45L, record.getField("request_size").getRawValue());
+        record.setField("request_size", FieldType.LONG, 45L);
+        assertTrue(record.isValid());
+        record.setField("request_size", FieldType.FLOAT, 45.5d);
+        assertFalse(record.isValid());
+        record.setField("request_size", FieldType.STRING, null);
+        assertTrue(record.isValid());
+        assertNull(record.getField("request_size").getRawValue());
+    }
+
+    @Test
+    public void validateCopies() throws Exception {
+        Record compact = fill(new CompactRecord("cisco"));
+
+        Record clone = new CompactRecord(compact);
+        assertEquals(compact, clone);
+        assertEquals(compact.hashCode(), clone.hashCode());
+        clone.setField("request_size", FieldType.INT, 1);
+        assertEquals(1399, compact.getField("request_size").getRawValue());
+
+        Record fromStandard = new CompactRecord(fill(new StandardRecord("cisco")));
+        assertEquals("firewall_record1", fromStandard.getId());
+        assertEquals(compact.getAllFieldNames(), fromStandard.getAllFieldNames());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(compact);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(compact, in.readObject());
+        }
+    }
+
+    @Test
+    public void validateFieldsWithoutSlot() throws Exception {
+        Record compact = fill(new CompactRecord("cisco"));
+        Record standard = fill(new StandardRecord("cisco"));
+        standard.setTime(compact.getTime());
+        standard.setId(compact.getId());
+
+        // no name can be registered anymore, the new ones are kept by the records
+        int maxSlots = FieldSlots.maxSlots;
+        FieldSlots.maxSlots = FieldSlots.size();
+        try {
+            for (Record record : Arrays.asList(compact, standard)) {
+                record.setField("unslotted_size", FieldType.INT, 12)
+                        .setStringField("unslotted_name", "first")
+                        .setStringField("unslotted_name", "second")
+                        .setStringField("unslotted_removed", "removed");
+                record.removeField("unslotted_removed");
+            }
+            assertEquals(FieldSlots.NO_SLOT, FieldSlots.slotOf("unslotted_name"));
+            assertEquals(FieldSlots.size(), FieldSlots.maxSlots);
+
+            assertEquals(standard.getAllFieldNames(), compact.getAllFieldNames());
+            assertEquals(new ArrayList<>(standard.getAllFieldsSorted()), new ArrayList<>(compact.getAllFieldsSorted()));
+            assertEquals(12, compact.getField("unslotted_size").getRawValue());
+            assertEquals("second", compact.getField("unslotted_name").asString());
+            assertFalse(compact.hasField("unslotted_removed"));
+
+            Record clone = new CompactRecord(compact);
+            assertEquals(compact, clone);
+            clone.setStringField("unslotted_name", "third");
+            assertEquals("second", compact.getField("unslotted_name").asString());
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(compact);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                assertEquals(compact, in.readObject());
+            }
+        } finally {
+            FieldSlots.maxSlots = maxSlots;
+        }
+    }
+
+    /**
+     * Rough side by side timing of the set/get/clone/sizeInBytes paths, only logged.
+     */
+    @Ignore("benchmark, only logs timings")
+    @Test
+    public void compareWithStandardRecord() {
+        final int iterations = 20000;
+        for (int round = 0; round < 2; round++) {
+            logger.info("StandardRecord {}", measure(iterations, () -> new StandardRecord("cisco")));
+            logger.info("CompactRecord {}", measure(iterations, () -> new CompactRecord("cisco")));
+        }
+    }
+
+    private interface RecordFactory {
+        Record create();
+    }
+
+    private static String measure(int iterations, RecordFactory factory) {
+        long checksum = 0;
+        long start = System.nanoTime();
+        List<Record> records = new ArrayList<>(iterations);
+        for (int i = 0; i < iterations; i++) {
+            records.add(fill(factory.create()));
+        }
+        long set = System.nanoTime();
+        for (Record record : records) {
+            checksum += record.getField("request_size").asInteger();
+            checksum += record.getField("method").asString().length();
+        }
+        long get = System.nanoTime();
+        for (Record record : records) {
+            checksum += (record instanceof CompactRecord ? new CompactRecord(record) : new StandardRecord(record)).size();
+        }
+        long clone = System.nanoTime();
+        for (Record record : records) {
+            checksum += record.sizeInBytes();
+        }
+        long sizeInBytes = System.nanoTime();
+        assertTrue(checksum > 0);
+        return String.format("set %d ms, get %d ms, clone %d ms, sizeInBytes %d ms",
+                (set - start) / 1000000, (get - set) / 1000000, (clone - get) / 1000000, (sizeInBytes - clone) / 1000000);
+    }
+}
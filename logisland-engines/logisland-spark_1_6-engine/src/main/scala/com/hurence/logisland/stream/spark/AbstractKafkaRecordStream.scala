@@ -143,6 +143,15 @@ object AbstractKafkaRecordStream {
         .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
         .build
 
+    val METRICS_FLUSH_INTERVAL_MS = new PropertyDescriptor.Builder()
+        .name("kafka.metrics.flush.interval.ms")
+        .description("processing metrics are gathered by each executor and sent to the metrics topic " +
+            "at this interval instead of with every partition")
+        .required(false)
+        .addValidator(StandardValidators.POSITIVE_LONG_VALIDATOR)
+        .defaultValue("10000")
+        .build
+
     val KAFKA_TOPIC_AUTOCREATE = new PropertyDescriptor.Builder()
         .name("kafka.topic.autoCreate")
         .description("define wether a topic should be created automatically if not already exists")
@@ -209,6 +218,64 @@ object AbstractKafkaRecordStream {
         .required(false)
         .defaultValue(FieldDictionary.RECORD_ID)
         .build
+
+    val KAFKA_PRODUCER_ACKS = new PropertyDescriptor.Builder()
+        .name("kafka.producer.acks")
+        .description("the number of acknowledgments the producer requires the leader to have received " +
+            "before considering a request complete : all, 1 or 0")
+        .required(false)
+        .allowableValues("all", "1", "0")
+        .defaultValue("all")
+        .build
+
+    val KAFKA_PRODUCER_RETRIES = new PropertyDescriptor.Builder()
+        .name("kafka.producer.retries")
+        .description("the number of times the producer resends a record whose send fails")
+        .required(false)
+        .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+        .defaultValue("3")
+        .build
+
+    val KAFKA_PRODUCER_RETRY_BACKOFF_MS = new PropertyDescriptor.Builder()
+        .name("kafka.producer.retry.backoff.ms")
+        .description("the amount of time to wait before attempting to retry a failed request")
+        .required(false)
+        .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+        .defaultValue("1000")
+        .build
+
+    val KAFKA_PRODUCER_BATCH_SIZE = new PropertyDescriptor.Builder()
+        .name("kafka.producer.batch.size")
+        .description("the size in bytes of the batches of records sent to the same partition")
+        .required(false)
+        .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+        .defaultValue("500")
+        .build
+
+    val KAFKA_PRODUCER_LINGER_MS = new PropertyDescriptor.Builder()
+        .name("kafka.producer.linger.ms")
+        .description("the time the producer waits for other records to fill a batch before sending it")
+        .required(false)
+        .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+        .defaultValue("0")
+        .build
+
+    val KAFKA_PRODUCER_COMPRESSION_TYPE = new PropertyDescriptor.Builder()
+        .name("kafka.producer.compression.type")
+        .description("the compression codec of the batches sent by the producer")
+        .required(false)
+        .allowableValues("none", "gzip", "snappy", "lz4")
+        .defaultValue("none")
+        .build
+
+    val KAFKA_PRODUCER_DELIVERY_TIMEOUT_MS = new PropertyDescriptor.Builder()
+        .name("kafka.producer.delivery.timeout.ms")
+        .description("the time to wait for all the records of a partition to be acknowledged " +
+            "before its offsets are saved, the partition is processed again if it is exceeded")
+        .required(false)
+        .addValidator(StandardValidators.POSITIVE_LONG_VALIDATOR)
+        .defaultValue("60000")
+        .build
 }
 
 abstract class AbstractKafkaRecordStream extends AbstractRecordStream with KafkaRecordStream {
@@ -229,6 +296,7 @@ abstract class AbstractKafkaRecordStream extends AbstractRecordStream with Kafka
         descriptors.add(AbstractKafkaRecordStream.INPUT_TOPICS)
         descriptors.add(AbstractKafkaRecordStream.OUTPUT_TOPICS)
         descriptors.add(AbstractKafkaRecordStream.METRICS_TOPIC)
+        descriptors.add(AbstractKafkaRecordStream.METRICS_FLUSH_INTERVAL_MS)
         descriptors.add(AbstractKafkaRecordStream.AVRO_INPUT_SCHEMA)
         descriptors.add(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA)
         descriptors.add(AbstractKafkaRecordStream.INPUT_SERIALIZER)
@@ -240,6 +308,13 @@ abstract class AbstractKafkaRecordStream extends AbstractRecordStream with Kafka
         descriptors.add(AbstractKafkaRecordStream.KAFKA_METADATA_BROKER_LIST)
         descriptors.add(AbstractKafkaRecordStream.KAFKA_ZOOKEEPER_QUORUM)
         descriptors.add(AbstractKafkaRecordStream.KAFKA_MANUAL_OFFSET_RESET)
+        descriptors.add(AbstractKafkaRecordStream.KAFKA_PRODUCER_ACKS)
+        descriptors.add(AbstractKafkaRecordStream.KAFKA_PRODUCER_RETRIES)
+        descriptors.add(AbstractKafkaRecordStream.KAFKA_PRODUCER_RETRY_BACKOFF_MS)
+        descriptors.add(AbstractKafkaRecordStream.KAFKA_PRODUCER_BATCH_SIZE)
+        descriptors.add(AbstractKafkaRecordStream.KAFKA_PRODUCER_LINGER_MS)
+        descriptors.add(AbstractKafkaRecordStream.KAFKA_PRODUCER_COMPRESSION_TYPE)
+        descriptors.add(AbstractKafkaRecordStream.KAFKA_PRODUCER_DELIVERY_TIMEOUT_MS)
         descriptors.add(AbstractKafkaRecordStream.KAFKA_MESSAGE_KEY_FIELD)
         Collections.unmodifiableList(descriptors)
     }
@@ -276,10 +351,18 @@ abstract class AbstractKafkaRecordStream extends AbstractRecordStream with Kafka
                 ProducerConfig.CLIENT_ID_CONFIG -> appName,
                 ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG -> classOf[ByteArraySerializer].getCanonicalName,
                 ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG -> classOf[ByteArraySerializer].getName,
-                ProducerConfig.ACKS_CONFIG -> "all",
-                ProducerConfig.RETRIES_CONFIG -> "3",
-                ProducerConfig.BATCH_SIZE_CONFIG -> "500",
-                ProducerConfig.RETRY_BACKOFF_MS_CONFIG -> "1000",
+                ProducerConfig.ACKS_CONFIG ->
+                    streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_ACKS).asString,
+                ProducerConfig.RETRIES_CONFIG ->
+                    streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_RETRIES).asString,
+                ProducerConfig.LINGER_MS_CONFIG ->
+                    streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_LINGER_MS).asString,
+                ProducerConfig.BATCH_SIZE_CONFIG ->
+                    streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_BATCH_SIZE).asString,
+                ProducerConfig.COMPRESSION_TYPE_CONFIG ->
+                    streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_COMPRESSION_TYPE).asString,
+                ProducerConfig.RETRY_BACKOFF_MS_CONFIG ->
+                    streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_RETRY_BACKOFF_MS).asString,
                 ProducerConfig.RECONNECT_BACKOFF_MS_CONFIG -> "1000")
 
             kafkaSink = ssc.sparkContext.broadcast(KafkaSink(kafkaSinkParams, keyField))
@@ -364,12 +447,13 @@ abstract class AbstractKafkaRecordStream extends AbstractRecordStream with Kafka
 
 
     /**
+      * lazily deserialize the records of a partition
       *
       * @param partition
       * @param serializer
       * @return
       */
-    def deserializeRecords(partition: Iterator[(Array[Byte], Array[Byte])], serializer: RecordSerializer): List[Record] = {
+    def deserializeRecords(partition: Iterator[(Array[Byte], Array[Byte])], serializer: RecordSerializer): Iterator[Record] = {
         partition.flatMap(rawEvent => {
 
             try {
@@ -384,7 +468,7 @@ abstract class AbstractKafkaRecordStream extends AbstractRecordStream with Kafka
                     None
             }
 
-        }).toList
+        })
     }
 
 
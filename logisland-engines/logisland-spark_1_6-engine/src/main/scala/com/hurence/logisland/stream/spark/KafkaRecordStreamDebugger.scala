@@ -20,6 +20,7 @@ import java.util.Collections
 
 import com.hurence.logisland.record.{FieldDictionary, Record, RecordUtils}
 import com.hurence.logisland.serializer.SerializerProvider
+import com.hurence.logisland.util.kafka.KafkaDeliveryTracker
 import com.hurence.logisland.util.processor.ProcessorMetrics
 import com.hurence.logisland.util.record.RecordSchemaUtil
 import org.apache.avro.Schema
@@ -104,7 +105,7 @@ class KafkaRecordStreamDebugger extends AbstractKafkaRecordStream {
                                 }).toList
                             } else {
                                 // processor
-                                deserializeRecords(partition, deserializer)
+                                deserializeRecords(partition, deserializer).toList
                             }
 
                             firstPass = false
@@ -156,28 +157,39 @@ class KafkaRecordStreamDebugger extends AbstractKafkaRecordStream {
 
                     logger.info("sending to kafka")
 
+                    val deliveryTracker = new KafkaDeliveryTracker()
+
                     /**
                       * push outgoing events and errors to Kafka
                       */
                     kafkaSink.value.produce(
                         streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString,
                         outgoingEvents.toList,
-                        serializer
+                        serializer,
+                        deliveryTracker
                     )
 
                     kafkaSink.value.produce(
                         streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_TOPICS).asString,
                         outgoingEvents.filter(r => r.hasField(FieldDictionary.RECORD_ERRORS)).toList,
-                        errorSerializer
+                        errorSerializer,
+                        deliveryTracker
                     )
 
                     kafkaSink.value.produce(
                         streamContext.getPropertyValue(AbstractKafkaRecordStream.METRICS_TOPIC).asString,
                         processingMetrics.toList,
-                        serializer
+                        serializer,
+                        deliveryTracker
                     )
                     logger.info("saving offsets")
 
+                    /**
+                      * make sure everything has been delivered before saving offsets
+                      */
+                    kafkaSink.value.awaitDelivery(deliveryTracker,
+                        streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_DELIVERY_TIMEOUT_MS).asLong)
+
                     /**
                       * save latest offset to Zookeeper
                       */
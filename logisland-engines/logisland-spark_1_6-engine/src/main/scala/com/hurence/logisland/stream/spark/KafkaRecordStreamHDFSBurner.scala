@@ -41,6 +41,8 @@ import com.hurence.logisland.util.spark.SparkUtils
 import com.hurence.logisland.validator.StandardValidators
 import org.apache.spark.rdd.RDD
 import org.apache.spark.sql.SaveMode
+import org.apache.spark.sql.functions.col
+import org.apache.spark.storage.StorageLevel
 import org.apache.spark.streaming.kafka.HasOffsetRanges
 import org.slf4j.LoggerFactory
 
@@ -52,6 +54,10 @@ object KafkaRecordStreamHDFSBurner {
     val FILE_FORMAT_JSON = "json"
     val FILE_FORMAT_TXT = "txt"
 
+    val PARTITIONING_MODE_PARTITION_KEY = "partition_key"
+    val PARTITIONING_MODE_COALESCE = "coalesce"
+    val PARTITIONING_MODE_REPARTITION = "repartition"
+
     val OUTPUT_FOLDER_PATH = new PropertyDescriptor.Builder()
         .name("output.folder.path")
         .description("the location where to put files : file:///tmp/out")
@@ -83,6 +89,18 @@ object KafkaRecordStreamHDFSBurner {
         .defaultValue("4")
         .build
 
+    val OUTPUT_PARTITIONING_MODE = new PropertyDescriptor.Builder()
+        .name("output.partitioning.mode")
+        .description("how records are spread over the num.partitions writers : " +
+            "coalesce merges the input partitions without any shuffle, each output folder may then get a file " +
+            "from every writer, partition_key shuffles records hashed by record_daytime and record_type so that " +
+            "each output folder is written by as few tasks as possible when the batch spans at least " +
+            "num.partitions folders and coalesces otherwise, repartition does a full round robin shuffle")
+        .required(false)
+        .allowableValues(PARTITIONING_MODE_PARTITION_KEY, PARTITIONING_MODE_COALESCE, PARTITIONING_MODE_REPARTITION)
+        .defaultValue(PARTITIONING_MODE_COALESCE)
+        .build
+
     val EXCLUDE_ERRORS = new PropertyDescriptor.Builder()
         .name("exclude.errors")
         .description("do we include records with errors ?")
@@ -100,26 +118,14 @@ class KafkaRecordStreamHDFSBurner extends AbstractKafkaRecordStream {
 
     override def getSupportedPropertyDescriptors: util.List[PropertyDescriptor] = {
         val descriptors: util.List[PropertyDescriptor] = new util.ArrayList[PropertyDescriptor]
-        descriptors.add(AbstractKafkaRecordStream.ERROR_TOPICS)
-        descriptors.add(AbstractKafkaRecordStream.INPUT_TOPICS)
-        descriptors.add(AbstractKafkaRecordStream.OUTPUT_TOPICS)
-        descriptors.add(AbstractKafkaRecordStream.METRICS_TOPIC)
-        descriptors.add(AbstractKafkaRecordStream.AVRO_INPUT_SCHEMA)
-        descriptors.add(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA)
-        descriptors.add(AbstractKafkaRecordStream.INPUT_SERIALIZER)
-        descriptors.add(AbstractKafkaRecordStream.OUTPUT_SERIALIZER)
-        descriptors.add(AbstractKafkaRecordStream.ERROR_SERIALIZER)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_TOPIC_AUTOCREATE)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_TOPIC_DEFAULT_PARTITIONS)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_TOPIC_DEFAULT_REPLICATION_FACTOR)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_METADATA_BROKER_LIST)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_ZOOKEEPER_QUORUM)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_MANUAL_OFFSET_RESET)
+
+        descriptors.addAll(super.getSupportedPropertyDescriptors())
 
         descriptors.add(KafkaRecordStreamHDFSBurner.OUTPUT_FOLDER_PATH)
         descriptors.add(KafkaRecordStreamHDFSBurner.OUTPUT_FORMAT)
         descriptors.add(KafkaRecordStreamHDFSBurner.RECORD_TYPE)
         descriptors.add(KafkaRecordStreamHDFSBurner.NUM_PARTITIONS)
+        descriptors.add(KafkaRecordStreamHDFSBurner.OUTPUT_PARTITIONING_MODE)
         descriptors.add(KafkaRecordStreamHDFSBurner.EXCLUDE_ERRORS)
         Collections.unmodifiableList(descriptors)
     }
@@ -138,90 +144,89 @@ class KafkaRecordStreamHDFSBurner extends AbstractKafkaRecordStream {
                 streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_INPUT_SCHEMA).asString)
 
 
-            val records = rdd.mapPartitions(p => deserializeRecords(p, deserializer).iterator)
-
-
-            if (!records.isEmpty()) {
-
-
-                val sdf = new SimpleDateFormat("yyyy-MM-dd")
-
-
-                val numPartitions = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.NUM_PARTITIONS).asInteger()
-                val outputFormat = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.OUTPUT_FORMAT).asString()
-                val doExcludeErrors = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.EXCLUDE_ERRORS).asBoolean()
-                val recordType = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.RECORD_TYPE).asString()
-                val outPath = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.OUTPUT_FOLDER_PATH).asString()
-
-                val records = rdd.mapPartitions(p => deserializeRecords(p, deserializer).iterator)
-                    .filter(r =>
-                        r.hasField(FieldDictionary.RECORD_TYPE) &&
-                            r.getField(FieldDictionary.RECORD_TYPE).asString() == recordType)
-                    .map(r => {
-                        try {
+            val numPartitions = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.NUM_PARTITIONS).asInteger()
+            val partitioningMode = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.OUTPUT_PARTITIONING_MODE).asString()
+            val outputFormat = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.OUTPUT_FORMAT).asString()
+            val doExcludeErrors = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.EXCLUDE_ERRORS).asBoolean()
+            val recordType = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.RECORD_TYPE).asString()
+            val outPath = streamContext.getPropertyValue(KafkaRecordStreamHDFSBurner.OUTPUT_FOLDER_PATH).asString()
+
+            val sdf = new SimpleDateFormat("yyyy-MM-dd")
+
+            // messages are deserialized only once, the schema inference and the write both read the cached records
+            val records = rdd.mapPartitions(p => deserializeRecords(p, deserializer))
+                .filter(r =>
+                    r.hasField(FieldDictionary.RECORD_TYPE) &&
+                        r.getField(FieldDictionary.RECORD_TYPE).asString() == recordType &&
+                        !(doExcludeErrors && r.hasField(FieldDictionary.RECORD_ERRORS)))
+                .map(r => {
+                    try {
+                        if (r.hasField(FieldDictionary.RECORD_DAYTIME))
+                            r
+                        else
+                            r.setField(FieldDictionary.RECORD_DAYTIME, FieldType.STRING, sdf.format(r.getTime))
+                    }
+                    catch {
+                        case ex: Throwable => r
+                    }
+                })
+                .persist(StorageLevel.MEMORY_AND_DISK)
+
+            try {
+                // merge the fields of every record of the batch, an empty result means nothing to write,
+                // and gather the output folders in the same pass
+                val (fieldTypes, daytimes) = records
+                    .mapPartitions(p => {
+                        val partitionDaytimes = scala.collection.mutable.HashSet[String]()
+                        val partitionFieldTypes = SparkUtils.collectFieldTypes(p.map(r => {
                             if (r.hasField(FieldDictionary.RECORD_DAYTIME))
-                                r
-                            else
-                                r.setField(FieldDictionary.RECORD_DAYTIME, FieldType.STRING, sdf.format(r.getTime))
-                        }
-                        catch {
-                            case ex: Throwable => r
-                        }
+                                partitionDaytimes += r.getField(FieldDictionary.RECORD_DAYTIME).asString()
+                            r
+                        }))
+                        Iterator((partitionFieldTypes, partitionDaytimes.toSet))
                     })
+                    .fold((Map.empty[String, FieldType], Set.empty[String]))((left, right) =>
+                        (SparkUtils.mergeFieldTypes(left._1, right._1), left._2 ++ right._2))
 
+                if (fieldTypes.nonEmpty) {
+                    val schema = SparkUtils.convertFieldsNameToSchema(fieldTypes)
+                    logger.info(schema.toString())
 
+                    val rows = records.map(r => SparkUtils.convertToRow(r, schema))
+                    val df = sqlContext.createDataFrame(rows, schema)
 
-                if (!records.isEmpty()) {
-                    val schema = SparkUtils.convertFieldsNameToSchema(records.take(1)(0))
-                    val rows = if (doExcludeErrors) {
-                        records
-                            .filter(r => !r.hasField(FieldDictionary.RECORD_ERRORS))
-                            .map(r => SparkUtils.convertToRow(r, schema))
-                    } else {
-                        records.map(r => SparkUtils.convertToRow(r, schema))
+                    // records share a single type, hashing a batch of a few days would leave most tasks idle
+                    val partitionedDf = partitioningMode match {
+                        case KafkaRecordStreamHDFSBurner.PARTITIONING_MODE_REPARTITION =>
+                            df.repartition(numPartitions)
+                        case KafkaRecordStreamHDFSBurner.PARTITIONING_MODE_PARTITION_KEY if daytimes.size >= numPartitions =>
+                            df.repartition(numPartitions, col(FieldDictionary.RECORD_DAYTIME), col(FieldDictionary.RECORD_TYPE))
+                        case _ =>
+                            df.coalesce(numPartitions)
                     }
 
-
-                    logger.info(schema.toString())
-                    val df = sqlContext.createDataFrame(rows, schema)
-
+                    val writer = partitionedDf
+                        .write
+                        .partitionBy(FieldDictionary.RECORD_DAYTIME, FieldDictionary.RECORD_TYPE)
+                        .mode(SaveMode.Append)
 
                     outputFormat match {
-                        case KafkaRecordStreamHDFSBurner.FILE_FORMAT_PARQUET =>
-                            df.repartition(numPartitions)
-                                .write
-                                .partitionBy(FieldDictionary.RECORD_DAYTIME, FieldDictionary.RECORD_TYPE)
-                                .mode(SaveMode.Append)
-                                .parquet(outPath)
-                        case KafkaRecordStreamHDFSBurner.FILE_FORMAT_JSON =>
-                            df.repartition(numPartitions)
-                                .write
-                                .partitionBy(FieldDictionary.RECORD_DAYTIME, FieldDictionary.RECORD_TYPE)
-                                .mode(SaveMode.Append)
-                                .json(outPath)
-                        case KafkaRecordStreamHDFSBurner.FILE_FORMAT_ORC =>
-                            df.repartition(numPartitions)
-                                .write
-                                .partitionBy(FieldDictionary.RECORD_DAYTIME, FieldDictionary.RECORD_TYPE)
-                                .mode(SaveMode.Append)
-                                .orc(outPath)
-                        case KafkaRecordStreamHDFSBurner.FILE_FORMAT_TXT =>
-                            df.repartition(numPartitions)
-                                .write
-                                .partitionBy(FieldDictionary.RECORD_DAYTIME, FieldDictionary.RECORD_TYPE)
-                                .mode(SaveMode.Append)
-                                .text(outPath)
+                        case KafkaRecordStreamHDFSBurner.FILE_FORMAT_PARQUET => writer.parquet(outPath)
+                        case KafkaRecordStreamHDFSBurner.FILE_FORMAT_JSON => writer.json(outPath)
+                        case KafkaRecordStreamHDFSBurner.FILE_FORMAT_ORC => writer.orc(outPath)
+                        case KafkaRecordStreamHDFSBurner.FILE_FORMAT_TXT => writer.text(outPath)
                         case _ =>
                             throw new IllegalArgumentException(s"$outputFormat not supported yet")
                     }
-
-                    /**
-                      * save latest offset to Zookeeper
-                      */
-                    offsetRanges.foreach(offsetRange => zkSink.value.saveOffsetRangesToZookeeper(appName, offsetRange))
                 }
-
+            } finally {
+                records.unpersist(blocking = false)
             }
+
+            /**
+              * save latest offset to Zookeeper
+              */
+            offsetRanges.foreach(offsetRange => zkSink.value.saveOffsetRangesToZookeeper(appName, offsetRange))
         }
     }
 }
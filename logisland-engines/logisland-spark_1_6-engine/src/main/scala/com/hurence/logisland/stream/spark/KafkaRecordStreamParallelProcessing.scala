@@ -32,13 +32,17 @@ package com.hurence.logisland.stream.spark
 
 import java.util
 import java.util.Collections
+import java.util.function.{Consumer, Supplier}
 
 import com.hurence.logisland.component.{PropertyDescriptor, StandardPropertyValue}
 import com.hurence.logisland.processor.AbstractProcessor
 import com.hurence.logisland.record.{FieldDictionary, Record, RecordUtils}
 import com.hurence.logisland.registry.VariableRegistry
 import com.hurence.logisland.serializer.SerializerProvider
-import com.hurence.logisland.util.processor.ProcessorMetrics
+import com.hurence.logisland.util.kafka.KafkaDeliveryTracker
+import com.hurence.logisland.util.metrics.MetricsReporter
+import com.hurence.logisland.util.processor.{ProcessorChain, ProcessorMetrics}
+import com.hurence.logisland.util.spark.{ProcessingPipeline, ProcessingPipelineRegistry}
 import com.hurence.logisland.util.record.RecordSchemaUtil
 import com.hurence.logisland.validator.StandardValidators
 import org.apache.avro.Schema
@@ -76,27 +80,39 @@ class KafkaRecordStreamParallelProcessing extends AbstractKafkaRecordStream {
 
     override def getSupportedPropertyDescriptors: util.List[PropertyDescriptor] = {
         val descriptors: util.List[PropertyDescriptor] = new util.ArrayList[PropertyDescriptor]
-        descriptors.add(AbstractKafkaRecordStream.ERROR_TOPICS)
-        descriptors.add(AbstractKafkaRecordStream.INPUT_TOPICS)
-        descriptors.add(AbstractKafkaRecordStream.OUTPUT_TOPICS)
-        descriptors.add(AbstractKafkaRecordStream.METRICS_TOPIC)
-        descriptors.add(AbstractKafkaRecordStream.AVRO_INPUT_SCHEMA)
-        descriptors.add(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA)
-        descriptors.add(AbstractKafkaRecordStream.INPUT_SERIALIZER)
-        descriptors.add(AbstractKafkaRecordStream.OUTPUT_SERIALIZER)
-        descriptors.add(AbstractKafkaRecordStream.ERROR_SERIALIZER)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_TOPIC_AUTOCREATE)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_TOPIC_DEFAULT_PARTITIONS)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_TOPIC_DEFAULT_REPLICATION_FACTOR)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_METADATA_BROKER_LIST)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_ZOOKEEPER_QUORUM)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_MANUAL_OFFSET_RESET)
+
+        descriptors.addAll(super.getSupportedPropertyDescriptors())
 
         descriptors.add(KafkaRecordStreamSQLAggregator.MAX_RESULTS_COUNT)
         descriptors.add(KafkaRecordStreamSQLAggregator.SQL_QUERY)
         Collections.unmodifiableList(descriptors)
     }
 
+    /**
+      * get the metrics reporter of this executor for the given stream, it is created by
+      * the first task and periodically flushes the metrics of all tasks to the metrics topic
+      */
+    private def getMetricsReporter(streamName: String): MetricsReporter = {
+        val metricsTopic = streamContext.getPropertyValue(AbstractKafkaRecordStream.METRICS_TOPIC).asString
+        val sink = kafkaSink
+        MetricsReporter.getOrCreate(
+            s"$appName.$streamName",
+            streamContext.getPropertyValue(AbstractKafkaRecordStream.METRICS_FLUSH_INTERVAL_MS).asLong,
+            new Supplier[Consumer[util.Collection[Record]]] {
+                override def get(): Consumer[util.Collection[Record]] = {
+                    // only used by the flushing thread
+                    val metricsSerializer = SerializerProvider.getSerializer(
+                        AbstractKafkaRecordStream.KRYO_SERIALIZER.getValue,
+                        null)
+
+                    new Consumer[util.Collection[Record]] {
+                        override def accept(metrics: util.Collection[Record]): Unit =
+                            sink.value.produce(metricsTopic, metrics.toList, metricsSerializer)
+                    }
+                }
+            })
+    }
+
     /**
       * launch the chain of processing for each partition of the RDD in parallel
       *
@@ -109,6 +125,9 @@ class KafkaRecordStreamParallelProcessing extends AbstractKafkaRecordStream {
 
             val inputTopics = streamContext.getPropertyValue(AbstractKafkaRecordStream.INPUT_TOPICS).asString
             val outputTopics = streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString
+            val streamName = streamContext.getName
+            // no agent to live update the configuration with this engine
+            val jobVersion = 0
 
             rdd.foreachPartition(partition => {
                 try {
@@ -122,129 +141,154 @@ class KafkaRecordStreamParallelProcessing extends AbstractKafkaRecordStream {
                         val offsetRange = offsetRanges(TaskContext.get.partitionId)
 
                         /**
-                          * create serializers
+                          * get an initialized chain of processors and serializers for this stream,
+                          * they're built once per executor
                           */
-                        val deserializer = SerializerProvider.getSerializer(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.INPUT_SERIALIZER).asString,
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_INPUT_SCHEMA).asString)
-                        val serializer = SerializerProvider.getSerializer(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_SERIALIZER).asString,
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString)
-                        val errorSerializer = SerializerProvider.getSerializer(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_SERIALIZER).asString,
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString)
-                        val metricsSerializer = SerializerProvider.getSerializer(
-                            AbstractKafkaRecordStream.KRYO_SERIALIZER.getValue,
-                            null)
-
-                        /**
-                          * process events by chaining output records
-                          */
-                        var firstPass = true
-                        var incomingEvents: util.Collection[Record] = Collections.emptyList()
-                        var outgoingEvents: util.Collection[Record] = Collections.emptyList()
-                        val processingMetrics: util.Collection[Record] = new util.ArrayList[Record]()
-
-                        streamContext.getProcessContexts.foreach(processorContext => {
-                            val startTime = System.currentTimeMillis()
-                            val processor = processorContext.getProcessor
-
-
-                            if (firstPass) {
-                                /**
-                                  * convert incoming Kafka messages into Records
-                                  * if there's no serializer we assume that we need to compute a Record from K/V
-                                  */
-                                incomingEvents = if (
-                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.INPUT_SERIALIZER).asString
-                                        == AbstractKafkaRecordStream.NO_SERIALIZER.getValue) {
-                                    // parser
-                                    partition.map(rawMessage => {
-                                        val key = if (rawMessage._1 != null) new String(rawMessage._1) else ""
-                                        val value = if (rawMessage._2 != null) new String(rawMessage._2) else ""
-                                        RecordUtils.getKeyValueRecord(key, value)
-                                    }).toList
-                                } else {
-                                    // processor
-                                    deserializeRecords(partition, deserializer)
-                                }
+                        val pipeline = ProcessingPipelineRegistry.borrow(streamName, jobVersion, () => {
+                            val initDurations = ProcessingPipelineRegistry.initProcessors(
+                                streamContext,
+                                () => controllerServiceLookupSink.value.getControllerServiceLookup())
+
+                            new ProcessingPipeline(
+                                streamName,
+                                jobVersion,
+                                streamContext,
+                                SerializerProvider.getSerializer(
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.INPUT_SERIALIZER).asString,
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_INPUT_SCHEMA).asString),
+                                SerializerProvider.getSerializer(
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_SERIALIZER).asString,
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString),
+                                SerializerProvider.getSerializer(
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_SERIALIZER).asString,
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString),
+                                initDurations)
+                        })
+                        val pipelineContext = pipeline.streamContext
+                        val deserializer = pipeline.deserializer
+                        val serializer = pipeline.serializer
+                        val errorSerializer = pipeline.errorSerializer
 
-                                firstPass = false
+                        try {
+                            /**
+                              * convert incoming Kafka messages into Records
+                              * if there's no serializer we assume that we need to compute a Record from K/V
+                              */
+                            val incomingEvents: Iterator[Record] = if (
+                                pipelineContext.getPropertyValue(AbstractKafkaRecordStream.INPUT_SERIALIZER).asString
+                                    == AbstractKafkaRecordStream.NO_SERIALIZER.getValue) {
+                                // parser
+                                partition.map(rawMessage => {
+                                    val key = if (rawMessage._1 != null) new String(rawMessage._1) else ""
+                                    val value = if (rawMessage._2 != null) new String(rawMessage._2) else ""
+                                    RecordUtils.getKeyValueRecord(key, value)
+                                })
                             } else {
-                                incomingEvents = outgoingEvents
+                                // processor
+                                deserializeRecords(partition, deserializer)
                             }
 
                             /**
-                              * process incoming events
+                              * process events by lazily chaining processors, records are only
+                              * materialized by the processors that need the whole batch at once
                               */
-                            if (processor.hasControllerService) {
-                                val controllerServiceLookup = controllerServiceLookupSink.value.getControllerServiceLookup()
-                                processorContext.addControllerServiceLookup(controllerServiceLookup)
+                            val processorChain = new ProcessorChain(pipelineContext.getProcessContexts)
+                            var outgoingEvents: Iterator[Record] = processorChain.process(incomingEvents)
+
+                            /**
+                              * Do we make records compliant with a given Avro schema ?
+                              */
+                            if (streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).isSet) {
+                                try {
+                                    val strSchema = streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString()
+                                    val parser = new Schema.Parser
+                                    val schema = parser.parse(strSchema)
+
+                                    outgoingEvents = outgoingEvents.map(record => {
+                                        try {
+                                            RecordSchemaUtil.convertToValidRecord(record, schema)
+                                        } catch {
+                                            case t: Throwable =>
+                                                logger.warn("something wrong while converting records " +
+                                                    "to valid accordingly to provide Avro schema " + t.getMessage)
+                                                record
+                                        }
+                                    })
+                                } catch {
+                                    case t: Throwable =>
+                                        logger.warn("something wrong while converting records " +
+                                            "to valid accordingly to provide Avro schema " + t.getMessage)
+                                }
+
                             }
-                            processor.init(processorContext)
-                            outgoingEvents = processor.process(processorContext, incomingEvents)
 
                             /**
-                              * send metrics if requested
+                              * push outgoing events to Kafka as they're computed, errors are kept aside
                               */
-                            processingMetrics.addAll(ProcessorMetrics.computeMetrics(
-                                appName,
-                                processorContext.getName,
-                                inputTopics,
-                                outputTopics,
-                                partitionId,
-                                incomingEvents,
-                                outgoingEvents,
-                                offsetRange.fromOffset,
-                                offsetRange.untilOffset,
-                                System.currentTimeMillis() - startTime))
+                            val errorEvents = new util.ArrayList[Record]()
+                            outgoingEvents = outgoingEvents.map(record => {
+                                if (record.hasField(FieldDictionary.RECORD_ERRORS))
+                                    errorEvents.add(record)
+                                record
+                            })
 
-                        })
+                            val deliveryTracker = new KafkaDeliveryTracker()
 
+                            kafkaSink.value.produce(
+                                streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString,
+                                outgoingEvents,
+                                serializer,
+                                deliveryTracker
+                            )
 
-                        /**
-                          * Do we make records compliant with a given Avro schema ?
-                          */
-                        if (streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).isSet) {
-                            try {
-                                val strSchema = streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString()
-                                val parser = new Schema.Parser
-                                val schema = parser.parse(strSchema)
-
-                                outgoingEvents = outgoingEvents.map(record => RecordSchemaUtil.convertToValidRecord(record, schema))
-                            } catch {
-                                case t: Throwable =>
-                                    logger.warn("something wrong while converting records " +
-                                        "to valid accordingly to provide Avro schema " + t.getMessage)
-                            }
+                            kafkaSink.value.produce(
+                                streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_TOPICS).asString,
+                                errorEvents.toList,
+                                errorSerializer,
+                                deliveryTracker
+                            )
 
-                        }
+                            /**
+                              * hand metrics over to the reporter of this executor, it sends them
+                              * asynchronously so that offsets don't wait for their delivery
+                              */
+                            val metricsReporter = getMetricsReporter(streamName)
+                            processorChain.getProcessorMeters.foreach(meter => {
+                                metricsReporter.recordProcessingTime(
+                                    appName,
+                                    meter.getProcessorName,
+                                    meter.getProcessingDurationInMicros)
+                                metricsReporter.report(ProcessorMetrics.computeMetrics(
+                                    appName,
+                                    meter.getProcessorName,
+                                    inputTopics,
+                                    outputTopics,
+                                    partitionId,
+                                    meter.getNumIncomingRecords,
+                                    meter.getNumOutgoingRecords,
+                                    meter.getNumErrorRecords,
+                                    meter.getNumberOfProcessedBytes,
+                                    meter.getNumberOfProcessedFields,
+                                    offsetRange.fromOffset,
+                                    offsetRange.untilOffset,
+                                    meter.getProcessingDurationInMillis,
+                                    pipeline.getInitDuration(meter.getProcessorId),
+                                    meter.drainProcessorMetrics))
+                            })
 
-                        /**
-                          * push outgoing events and errors to Kafka
-                          */
-                        kafkaSink.value.produce(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString,
-                            outgoingEvents.toList,
-                            serializer
-                        )
-
-                        kafkaSink.value.produce(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_TOPICS).asString,
-                            outgoingEvents.filter(r => r.hasField(FieldDictionary.RECORD_ERRORS)).toList,
-                            errorSerializer
-                        )
-
-                        kafkaSink.value.produce(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.METRICS_TOPIC).asString,
-                            processingMetrics.toList,
-                            metricsSerializer
-                        )
+                            /**
+                              * make sure everything has been delivered before saving offsets
+                              */
+                            kafkaSink.value.awaitDelivery(deliveryTracker,
+                                streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_DELIVERY_TIMEOUT_MS).asLong)
 
-                        /**
-                          * save latest offset to Zookeeper
-                          */
-                        zkSink.value.saveOffsetRangesToZookeeper(appName, offsetRange)
+                            /**
+                              * save latest offset to Zookeeper
+                              */
+                            zkSink.value.saveOffsetRangesToZookeeper(appName, offsetRange)
+                        } finally {
+                            ProcessingPipelineRegistry.release(pipeline)
+                        }
                     }
                 } catch {
                     case ex: OffsetOutOfRangeException =>
@@ -22,6 +22,7 @@ import com.hurence.logisland.annotation.documentation.{CapabilityDescription, Ta
 import com.hurence.logisland.component.PropertyDescriptor
 import com.hurence.logisland.record.{FieldDictionary, Record}
 import com.hurence.logisland.serializer.SerializerProvider
+import com.hurence.logisland.util.kafka.KafkaDeliveryTracker
 import com.hurence.logisland.util.processor.ProcessorMetrics
 import com.hurence.logisland.util.spark.SparkUtils
 import com.hurence.logisland.validator.StandardValidators
@@ -87,21 +88,8 @@ class KafkaRecordStreamSQLAggregator extends AbstractKafkaRecordStream {
 
     override def getSupportedPropertyDescriptors: util.List[PropertyDescriptor] = {
         val descriptors: util.List[PropertyDescriptor] = new util.ArrayList[PropertyDescriptor]
-        descriptors.add(AbstractKafkaRecordStream.ERROR_TOPICS)
-        descriptors.add(AbstractKafkaRecordStream.INPUT_TOPICS)
-        descriptors.add(AbstractKafkaRecordStream.OUTPUT_TOPICS)
-        descriptors.add(AbstractKafkaRecordStream.METRICS_TOPIC)
-        descriptors.add(AbstractKafkaRecordStream.AVRO_INPUT_SCHEMA)
-        descriptors.add(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA)
-        descriptors.add(AbstractKafkaRecordStream.INPUT_SERIALIZER)
-        descriptors.add(AbstractKafkaRecordStream.OUTPUT_SERIALIZER)
-        descriptors.add(AbstractKafkaRecordStream.ERROR_SERIALIZER)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_TOPIC_AUTOCREATE)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_TOPIC_DEFAULT_PARTITIONS)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_TOPIC_DEFAULT_REPLICATION_FACTOR)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_METADATA_BROKER_LIST)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_ZOOKEEPER_QUORUM)
-        descriptors.add(AbstractKafkaRecordStream.KAFKA_MANUAL_OFFSET_RESET)
+
+        descriptors.addAll(super.getSupportedPropertyDescriptors())
 
         descriptors.add(KafkaRecordStreamSQLAggregator.MAX_RESULTS_COUNT)
         descriptors.add(KafkaRecordStreamSQLAggregator.SQL_QUERY)
@@ -128,7 +116,7 @@ class KafkaRecordStreamSQLAggregator extends AbstractKafkaRecordStream {
             val outputTopics = streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString
 
 
-            val records = rdd.mapPartitions(p => deserializeRecords(p, deserializer).iterator)
+            val records = rdd.mapPartitions(p => deserializeRecords(p, deserializer))
 
             /**
               * get a Dataframe schema (either from an Avro schema or from the first record)
@@ -192,26 +180,37 @@ class KafkaRecordStreamSQLAggregator extends AbstractKafkaRecordStream {
                             0,
                             System.currentTimeMillis() - startTime))
 
+                        val deliveryTracker = new KafkaDeliveryTracker()
+
                         /**
                           * push outgoing events and errors to Kafka
                           */
                         kafkaSink.value.produce(
                             streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString,
                             outgoingEvents,
-                            serializer
+                            serializer,
+                            deliveryTracker
                         )
 
                         kafkaSink.value.produce(
                             streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_TOPICS).asString,
                             outgoingEvents.filter(r => r.hasField(FieldDictionary.RECORD_ERRORS)).toList,
-                            errorSerializer
+                            errorSerializer,
+                            deliveryTracker
                         )
 
                         kafkaSink.value.produce(
                             streamContext.getPropertyValue(AbstractKafkaRecordStream.METRICS_TOPIC).asString,
                             processingMetrics.toList,
-                            serializer
+                            serializer,
+                            deliveryTracker
                         )
+
+                        /**
+                          * make sure everything has been delivered before the offsets are committed
+                          */
+                        kafkaSink.value.awaitDelivery(deliveryTracker,
+                            streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_DELIVERY_TIMEOUT_MS).asLong)
                     })
 
 
@@ -61,34 +61,106 @@ class KafkaSink(createProducer: () => (KafkaProducer[Array[Byte], Array[Byte]],
     def send(topic: String, key: Array[Byte], value: Array[Byte]): Unit =
         producer.send(new ProducerRecord(topic, value))
 
+    /**
+      * Send events to Kafka topics without tracking their delivery
+      *
+      * @param events the records to send, possibly a lazy iterator
+      */
+    def produce(topic: String, events: TraversableOnce[Record], serializer: RecordSerializer): Unit =
+        produce(topic, events, serializer, null)
+
     /**
       * Send events to Kafka topics
       *
-      * @param events
+      * @param events  the records to send, possibly a lazy iterator
+      * @param tracker notified of each delivery, may be null
       */
-    def produce(topic: String, events: List[Record], serializer: RecordSerializer) = {
+    def produce(topic: String,
+                events: TraversableOnce[Record],
+                serializer: RecordSerializer,
+                tracker: KafkaDeliveryTracker): Unit = {
+
+        val buffer = KafkaSink.borrowBuffer()
+        try {
+            events.foreach(event => {
+                // messages are serialized into a buffer reused by the current thread
+                buffer.reset()
+                serializer.serialize(buffer, event)
+
+                // and then converted to KeyedMessage
+                val keyValue = event.getField(keyField)
+                val key = if (keyValue != null && keyValue.isSet)
+                    keyValue.asString().getBytes()
+                else
+                    null
+
+                send(new ProducerRecord(topic, key, buffer.toByteArray), tracker)
+            })
+        } finally {
+            KafkaSink.releaseBuffer(buffer)
+        }
+    }
 
-        events.foreach(event => {
-            // messages are serialized with kryo first
-            val baos: ByteArrayOutputStream = new ByteArrayOutputStream
-            serializer.serialize(baos, event)
+    private def send(message: ProducerRecord[Array[Byte], Array[Byte]], tracker: KafkaDeliveryTracker): Unit = {
+        if (tracker == null) {
+            producer.send(message)
+        } else {
+            tracker.onSend()
+            try {
+                producer.send(message, tracker)
+            } catch {
+                case e: Exception =>
+                    tracker.onCompletion(null, e)
+                    throw e
+            }
+        }
+    }
 
-            // and then converted to KeyedMessage
-            val key = if (event.hasField(keyField))
-                event.getField(keyField).asString().getBytes()
-            else
-                null
+    /**
+      * Wait for all the messages sent through the tracker to be acknowledged,
+      * this is the barrier to go through before saving offsets
+      *
+      * @param tracker   the tracker given to produce
+      * @param timeoutMs the maximum time to wait
+      * @throws KafkaDeliveryException if any message could not be delivered
+      */
+    def awaitDelivery(tracker: KafkaDeliveryTracker, timeoutMs: Long): Unit = {
+        // the 0.8 producer has no flush, records are sent as soon as batch size or linger time is reached
+        tracker.await(timeoutMs)
+    }
+}
 
-            val message = new ProducerRecord(topic, key, baos.toByteArray)
-            baos.close()
+object KafkaSink {
 
+    /**
+      * buffers that grew bigger than this are not kept between two batches
+      */
+    private val MAX_RETAINED_BUFFER_SIZE = 1024 * 1024
 
-            producer.send(message)
-        })
+    /**
+      * a ByteArrayOutputStream exposing the size of its backing array, which only grows,
+      * whereas size() is reset for each message
+      */
+    private class SerializationBuffer(initialSize: Int) extends ByteArrayOutputStream(initialSize) {
+        def capacity: Int = buf.length
+    }
+
+    private val buffers = new ThreadLocal[SerializationBuffer]()
+
+    private def borrowBuffer(): SerializationBuffer = {
+        val buffer = buffers.get()
+        if (buffer != null) {
+            buffers.remove()
+            buffer
+        } else
+            new SerializationBuffer(4096)
+    }
+
+    private def releaseBuffer(buffer: SerializationBuffer): Unit = {
+        if (buffer.capacity <= MAX_RETAINED_BUFFER_SIZE)
+            buffers.set(buffer)
     }
-}
 
-object KafkaSink {
     def apply(config: Map[String, Object], keyField: String): KafkaSink = {
         val f = () => {
             val producer = new KafkaProducer[Array[Byte], Array[Byte]](config)
@@ -101,4 +173,4 @@ object KafkaSink {
         }
         new KafkaSink(f)
     }
-}
\ No newline at end of file
+}
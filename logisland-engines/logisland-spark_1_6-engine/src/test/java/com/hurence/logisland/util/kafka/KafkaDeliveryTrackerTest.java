@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.kafka;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class KafkaDeliveryTrackerTest {
+
+    @Test
+    public void awaitReturnsOnceEverySendIsAcknowledged() throws Exception {
+        final KafkaDeliveryTracker tracker = new KafkaDeliveryTracker();
+        for (int i = 0; i < 3; i++) {
+            tracker.onSend();
+        }
+        assertEquals(3, tracker.getPendingCount());
+
+        Thread acknowledger = new Thread(() -> {
+            for (int i = 0; i < 3; i++) {
+                tracker.onCompletion(null, null);
+            }
+        });
+        acknowledger.start();
+
+        tracker.await(10000);
+        acknowledger.join();
+        assertEquals(0, tracker.getPendingCount());
+        assertEquals(3, tracker.getSentCount());
+    }
+
+    @Test
+    public void awaitReportsFirstFailure() {
+        KafkaDeliveryTracker tracker = new KafkaDeliveryTracker();
+        tracker.onSend();
+        tracker.onSend();
+        Exception failure = new RuntimeException("broker down");
+        tracker.onCompletion(null, failure);
+        tracker.onCompletion(null, new RuntimeException("another one"));
+
+        try {
+            tracker.await(1000);
+            fail("a failed send must be reported");
+        } catch (KafkaDeliveryException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test(expected = KafkaDeliveryException.class)
+    public void awaitTimesOutOnMissingAcknowledgments() {
+        KafkaDeliveryTracker tracker = new KafkaDeliveryTracker();
+        tracker.onSend();
+        tracker.await(50);
+    }
+}
@@ -38,7 +38,9 @@ import java.util.regex.Pattern
 import com.hurence.logisland.component.PropertyDescriptor
 import com.hurence.logisland.engine.{AbstractProcessingEngine, EngineContext}
 import com.hurence.logisland.stream.spark.KafkaRecordStream
+import com.hurence.logisland.util.metrics.MetricsReporter
 import com.hurence.logisland.util.spark.SparkUtils
+import com.hurence.logisland.util.store.StateStore
 import com.hurence.logisland.validator.StandardValidators
 import org.apache.spark.streaming.{Milliseconds, StreamingContext}
 import org.apache.spark.{SparkConf, SparkContext}
@@ -441,6 +443,10 @@ class KafkaStreamProcessingEngine extends AbstractProcessingEngine {
             }
 
         })
+
+        // checkpoint the processors state and send the pending metrics of this JVM, executors rely on their shutdown hooks
+        StateStore.closeAll()
+        MetricsReporter.closeAll()
     }
 
     override def onPropertyModified(descriptor: PropertyDescriptor, oldValue: String, newValue: String) = {
@@ -17,12 +17,15 @@ package com.hurence.logisland.stream.spark
 
 import java.util
 import java.util.Collections
+import java.util.function.{Consumer, Supplier}
 
 import com.hurence.logisland.component.PropertyDescriptor
 import com.hurence.logisland.record.{FieldDictionary, Record, RecordUtils}
 import com.hurence.logisland.schema.{SchemaManager, StandardSchemaManager}
 import com.hurence.logisland.serializer.SerializerProvider
-import com.hurence.logisland.util.processor.ProcessorMetrics
+import com.hurence.logisland.util.metrics.MetricsReporter
+import com.hurence.logisland.util.processor.{ProcessorChain, ProcessorMetrics}
+import com.hurence.logisland.util.spark.{KafkaDeliveryTracker, ProcessingPipeline, ProcessingPipelineRegistry}
 import com.hurence.logisland.util.record.RecordSchemaUtil
 import com.hurence.logisland.validator.StandardValidators
 import org.apache.avro.Schema
@@ -69,6 +72,31 @@ class KafkaRecordStreamParallelProcessing extends AbstractKafkaRecordStream {
         Collections.unmodifiableList(descriptors)
     }
 
+    /**
+      * get the metrics reporter of this executor for the given stream, it is created by
+      * the first task and periodically flushes the metrics of all tasks to the metrics topic
+      */
+    private def getMetricsReporter(streamName: String): MetricsReporter = {
+        val metricsTopic = streamContext.getPropertyValue(AbstractKafkaRecordStream.METRICS_TOPIC).asString
+        val sink = kafkaSink
+        MetricsReporter.getOrCreate(
+            s"$appName.$streamName",
+            streamContext.getPropertyValue(AbstractKafkaRecordStream.METRICS_FLUSH_INTERVAL_MS).asLong,
+            new Supplier[Consumer[util.Collection[Record]]] {
+                override def get(): Consumer[util.Collection[Record]] = {
+                    // only used by the flushing thread
+                    val metricsSerializer = SerializerProvider.getSerializer(
+                        AbstractKafkaRecordStream.KRYO_SERIALIZER.getValue,
+                        null)
+
+                    new Consumer[util.Collection[Record]] {
+                        override def accept(metrics: util.Collection[Record]): Unit =
+                            sink.value.produce(metricsTopic, metrics.toList, metricsSerializer)
+                    }
+                }
+            })
+    }
+
     /**
       * launch the chain of processing for each partition of the RDD in parallel
       *
@@ -81,6 +109,8 @@ class KafkaRecordStreamParallelProcessing extends AbstractKafkaRecordStream {
 
             val inputTopics = streamContext.getPropertyValue(AbstractKafkaRecordStream.INPUT_TOPICS).asString
             val outputTopics = streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString
+            val streamName = streamContext.getName
+            val jobVersion = currentJobVersion
 
             rdd.foreachPartition(partition => {
                 try {
@@ -94,129 +124,159 @@ class KafkaRecordStreamParallelProcessing extends AbstractKafkaRecordStream {
                         val offsetRange = offsetRanges(TaskContext.get.partitionId)
 
                         /**
-                          * create serializers
+                          * get an initialized chain of processors and serializers for this stream,
+                          * they're built once per executor and per job version
                           */
-                        val deserializer = getSerializer(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.INPUT_SERIALIZER).asString,
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_INPUT_SCHEMA).asString)
-                        val serializer = getSerializer(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_SERIALIZER).asString,
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString)
-                        val errorSerializer = getSerializer(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_SERIALIZER).asString,
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString)
-                        val metricsSerializer = SerializerProvider.getSerializer(
-                            AbstractKafkaRecordStream.KRYO_SERIALIZER.getValue,
-                            null)
-                        /**
-                          * process events by chaining output records
-                          */
-                        var firstPass = true
-                        var incomingEvents: util.Collection[Record] = Collections.emptyList()
-                        var outgoingEvents: util.Collection[Record] = Collections.emptyList()
-                        val processingMetrics: util.Collection[Record] = new util.ArrayList[Record]()
-
-                        streamContext.getProcessContexts.foreach(processorContext => {
-                            val startTime = System.currentTimeMillis()
-                            val processor = processorContext.getProcessor
+                        val pipeline = ProcessingPipelineRegistry.borrow(streamName, jobVersion, () => {
+                            val initDurations = ProcessingPipelineRegistry.initProcessors(
+                                streamContext,
+                                () => controllerServiceLookupSink.value.getControllerServiceLookup())
+
+                            new ProcessingPipeline(
+                                streamName,
+                                jobVersion,
+                                streamContext,
+                                getSerializer(
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.INPUT_SERIALIZER).asString,
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_INPUT_SCHEMA).asString),
+                                getSerializer(
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_SERIALIZER).asString,
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString),
+                                getSerializer(
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_SERIALIZER).asString,
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString),
+                                initDurations)
+                        })
+                        val pipelineContext = pipeline.streamContext
+                        val deserializer = pipeline.deserializer
+                        val serializer = pipeline.serializer
+                        val errorSerializer = pipeline.errorSerializer
 
+                        try {
                             /**
                               * convert incoming Kafka messages into Records
                               * if there's no serializer we assume that we need to compute a Record from K/V
                               */
-                            if (firstPass) {
-                                incomingEvents = if (
-                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.INPUT_SERIALIZER).asString
-                                        == AbstractKafkaRecordStream.NO_SERIALIZER.getValue) {
-                                    // parser
-                                    partition.map(rawMessage => {
-                                        val key = if (rawMessage.key() != null) new String(rawMessage.key()) else ""
-                                        val value = if (rawMessage.value() != null) new String(rawMessage.value()) else ""
-                                        RecordUtils.getKeyValueRecord(key, value)
-                                    }).toList
-                                } else {
-                                    // processor
-                                    deserializeRecords(partition, deserializer)
-                                }
-
-                                firstPass = false
+                            val incomingEvents: Iterator[Record] = if (
+                                pipelineContext.getPropertyValue(AbstractKafkaRecordStream.INPUT_SERIALIZER).asString
+                                    == AbstractKafkaRecordStream.NO_SERIALIZER.getValue) {
+                                // parser
+                                partition.map(rawMessage => {
+                                    val key = if (rawMessage.key() != null) new String(rawMessage.key()) else ""
+                                    val value = if (rawMessage.value() != null) new String(rawMessage.value()) else ""
+                                    RecordUtils.getKeyValueRecord(key, value)
+                                })
                             } else {
-                                incomingEvents = outgoingEvents
+                                // processor
+                                deserializeRecords(partition, deserializer)
                             }
 
                             /**
-                              * process incoming events
+                              * process events by lazily chaining processors, records are only
+                              * materialized by the processors that need the whole batch at once
                               */
-                            if (processor.hasControllerService) {
-                                val controllerServiceLookup = controllerServiceLookupSink.value.getControllerServiceLookup()
-                                processorContext.addControllerServiceLookup(controllerServiceLookup)
-                            }
-                            processor.init(processorContext)
-                            outgoingEvents = processor.process(processorContext, incomingEvents)
+                            val processorChain = new ProcessorChain(pipelineContext.getProcessContexts)
+                            var outgoingEvents: Iterator[Record] = processorChain.process(incomingEvents)
 
                             /**
-                              * send metrics if requested
+                              * Do we make records compliant with a given Avro schema ?
                               */
-                            processingMetrics.addAll(ProcessorMetrics.computeMetrics(
-                                appName,
-                                processorContext.getName,
-                                inputTopics,
-                                outputTopics,
-                                partitionId,
-                                incomingEvents,
-                                outgoingEvents,
-                                offsetRange.fromOffset,
-                                offsetRange.untilOffset,
-                                System.currentTimeMillis() - startTime))
-
-                        })
-
+                            if (streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).isSet) {
+                                try {
+                                    val strSchema = streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString()
+                                    val parser = new Schema.Parser
+                                    val schema = parser.parse(strSchema)
+
+                                    outgoingEvents = outgoingEvents.map(record => {
+                                        try {
+                                            RecordSchemaUtil.convertToValidRecord(record, schema)
+                                        } catch {
+                                            case t: Throwable =>
+                                                logger.warn("something wrong while converting records " +
+                                                    "to valid accordingly to provide Avro schema " + t.getMessage)
+                                                record
+                                        }
+                                    })
+                                } catch {
+                                    case t: Throwable =>
+                                        logger.warn("something wrong while converting records " +
+                                            "to valid accordingly to provide Avro schema " + t.getMessage)
+                                }
 
-                        /**
-                          * Do we make records compliant with a given Avro schema ?
-                          */
-                        if (streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).isSet) {
-                            try {
-                                val strSchema = streamContext.getPropertyValue(AbstractKafkaRecordStream.AVRO_OUTPUT_SCHEMA).asString()
-                                val parser = new Schema.Parser
-                                val schema = parser.parse(strSchema)
-
-                                outgoingEvents = outgoingEvents.map(record => RecordSchemaUtil.convertToValidRecord(record, schema))
-                            } catch {
-                                case t: Throwable =>
-                                    logger.warn("something wrong while converting records " +
-                                        "to valid accordingly to provide Avro schema " + t.getMessage)
                             }
 
-                        }
+                            /**
+                              * push outgoing events to Kafka as they're computed, errors are kept aside
+                              */
+                            val errorEvents = new util.ArrayList[Record]()
+                            outgoingEvents = outgoingEvents.map(record => {
+                                if (record.hasField(FieldDictionary.RECORD_ERRORS))
+                                    errorEvents.add(record)
+                                record
+                            })
+
+                            val deliveryTracker = new KafkaDeliveryTracker()
+
+                            if (!streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString.contains("none")) {
+                                kafkaSink.value.produce(
+                                    streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString,
+                                    outgoingEvents,
+                                    serializer,
+                                    deliveryTracker
+                                )
+                            } else {
+                                // records still need to be pulled through the processors
+                                outgoingEvents.foreach(_ => ())
+                            }
 
-                        /**
-                          * push outgoing events and errors to Kafka
-                          */
-                        if(!streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString.contains("none")){
                             kafkaSink.value.produce(
-                                streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString,
-                                outgoingEvents.toList,
-                                serializer
+                                streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_TOPICS).asString,
+                                errorEvents.toList,
+                                errorSerializer,
+                                deliveryTracker
                             )
-                        }
 
-                        kafkaSink.value.produce(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_TOPICS).asString,
-                            outgoingEvents.filter(r => r.hasField(FieldDictionary.RECORD_ERRORS)).toList,
-                            errorSerializer
-                        )
+                            /**
+                              * hand metrics over to the reporter of this executor, it sends them
+                              * asynchronously so that offsets don't wait for their delivery
+                              */
+                            val metricsReporter = getMetricsReporter(streamName)
+                            processorChain.getProcessorMeters.foreach(meter => {
+                                metricsReporter.recordProcessingTime(
+                                    appName,
+                                    meter.getProcessorName,
+                                    meter.getProcessingDurationInMicros)
+                                metricsReporter.report(ProcessorMetrics.computeMetrics(
+                                    appName,
+                                    meter.getProcessorName,
+                                    inputTopics,
+                                    outputTopics,
+                                    partitionId,
+                                    meter.getNumIncomingRecords,
+                                    meter.getNumOutgoingRecords,
+                                    meter.getNumErrorRecords,
+                                    meter.getNumberOfProcessedBytes,
+                                    meter.getNumberOfProcessedFields,
+                                    offsetRange.fromOffset,
+                                    offsetRange.untilOffset,
+                                    meter.getProcessingDurationInMillis,
+                                    pipeline.getInitDuration(meter.getProcessorId),
+                                    meter.drainProcessorMetrics))
+                            })
 
-                        kafkaSink.value.produce(
-                            streamContext.getPropertyValue(AbstractKafkaRecordStream.METRICS_TOPIC).asString,
-                            processingMetrics.toList,
-                            metricsSerializer
-                        )
+                            /**
+                              * make sure everything has been delivered before saving offsets
+                              */
+                            kafkaSink.value.awaitDelivery(deliveryTracker,
+                                streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_DELIVERY_TIMEOUT_MS).asLong)
 
-                        /**
-                          * save latest offset to Zookeeper
-                          */
-                        zkSink.value.saveOffsetRangesToZookeeper(appName, offsetRange)
+                            /**
+                              * save latest offset to Zookeeper
+                              */
+                            zkSink.value.saveOffsetRangesToZookeeper(appName, offsetRange)
+                        } finally {
+                            ProcessingPipelineRegistry.release(pipeline)
+                        }
                     }
                 } catch {
                     case ex: OffsetOutOfRangeException =>
@@ -37,7 +37,7 @@ import com.hurence.logisland.annotation.documentation.{CapabilityDescription, Ta
 import com.hurence.logisland.component.PropertyDescriptor
 import com.hurence.logisland.record.{FieldDictionary, Record}
 import com.hurence.logisland.util.processor.ProcessorMetrics
-import com.hurence.logisland.util.spark.SparkUtils
+import com.hurence.logisland.util.spark.{KafkaDeliveryTracker, SparkUtils}
 import com.hurence.logisland.validator.StandardValidators
 import org.apache.avro.Schema
 import org.apache.kafka.clients.consumer.ConsumerRecord
@@ -122,7 +122,7 @@ class KafkaRecordStreamSQLAggregator extends AbstractKafkaRecordStream {
             val outputTopics = streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString
 
 
-            val records = rdd.mapPartitions(p => deserializeRecords(p, deserializer).iterator)
+            val records = rdd.mapPartitions(p => deserializeRecords(p, deserializer))
 
             /**
               * get a Dataframe schema (either from an Avro schema or from the first record)
@@ -185,26 +185,37 @@ class KafkaRecordStreamSQLAggregator extends AbstractKafkaRecordStream {
                             0,
                             System.currentTimeMillis() - startTime))
 
+                        val deliveryTracker = new KafkaDeliveryTracker()
+
                         /**
                           * push outgoing events and errors to Kafka
                           */
                         kafkaSink.value.produce(
                             streamContext.getPropertyValue(AbstractKafkaRecordStream.OUTPUT_TOPICS).asString,
                             outgoingEvents,
-                            serializer
+                            serializer,
+                            deliveryTracker
                         )
 
                         kafkaSink.value.produce(
                             streamContext.getPropertyValue(AbstractKafkaRecordStream.ERROR_TOPICS).asString,
                             outgoingEvents.filter(r => r.hasField(FieldDictionary.RECORD_ERRORS)),
-                            errorSerializer
+                            errorSerializer,
+                            deliveryTracker
                         )
 
                         kafkaSink.value.produce(
                             streamContext.getPropertyValue(AbstractKafkaRecordStream.METRICS_TOPIC).asString,
                             processingMetrics.toList,
-                            serializer
+                            serializer,
+                            deliveryTracker
                         )
+
+                        /**
+                          * make sure everything has been delivered before the offsets are committed
+                          */
+                        kafkaSink.value.awaitDelivery(deliveryTracker,
+                            streamContext.getPropertyValue(AbstractKafkaRecordStream.KAFKA_PRODUCER_DELIVERY_TIMEOUT_MS).asLong)
                     })
 
 
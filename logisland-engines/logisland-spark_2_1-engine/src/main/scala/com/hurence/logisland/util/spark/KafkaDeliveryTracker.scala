@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.spark
+
+import java.util.concurrent.atomic.AtomicLong
+
+import org.apache.kafka.clients.producer.{Callback, RecordMetadata}
+
+
+/**
+  * Thrown when at least one message of a batch has not been acknowledged by Kafka
+  */
+class KafkaDeliveryException(message: String, cause: Throwable) extends RuntimeException(message, cause)
+
+/**
+  * Keeps track of the messages sent on behalf of a single task, so that the task can wait
+  * for all of them to be acknowledged before saving its offsets.
+  *
+  * It is used as the callback of every send made through it.
+  */
+class KafkaDeliveryTracker extends Callback {
+
+    private val pendingCount = new AtomicLong()
+    private val sentCount = new AtomicLong()
+    @volatile private var firstFailure: Exception = null
+
+    private[spark] def onSend(): Unit = {
+        pendingCount.incrementAndGet()
+        sentCount.incrementAndGet()
+    }
+
+    override def onCompletion(metadata: RecordMetadata, exception: Exception): Unit = {
+        if (exception != null && firstFailure == null)
+            firstFailure = exception
+        if (pendingCount.decrementAndGet() == 0) {
+            this.synchronized {
+                this.notifyAll()
+            }
+        }
+    }
+
+    /**
+      * @return the number of messages sent through this tracker
+      */
+    def getSentCount: Long = sentCount.get()
+
+    /**
+      * @return the number of messages not acknowledged yet
+      */
+    def getPendingCount: Long = pendingCount.get()
+
+    /**
+      * Block until every message has been acknowledged or has failed.
+      *
+      * @param timeoutMs the maximum time to wait
+      * @throws KafkaDeliveryException if a send failed or if the timeout expired
+      */
+    def await(timeoutMs: Long): Unit = {
+        val deadline = System.currentTimeMillis() + timeoutMs
+        this.synchronized {
+            while (pendingCount.get() > 0 && System.currentTimeMillis() < deadline) {
+                this.wait(math.max(1L, deadline - System.currentTimeMillis()))
+            }
+        }
+        if (firstFailure != null)
+            throw new KafkaDeliveryException(s"unable to deliver the ${sentCount.get()} messages of the batch", firstFailure)
+        if (pendingCount.get() > 0)
+            throw new KafkaDeliveryException(s"${pendingCount.get()} messages still not acknowledged after $timeoutMs ms", null)
+    }
+}
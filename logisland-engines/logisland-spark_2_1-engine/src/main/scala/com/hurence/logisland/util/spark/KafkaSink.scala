@@ -31,33 +31,106 @@ class KafkaSink(createProducer: () => KafkaProducer[Array[Byte], Array[Byte]]) e
     def send(topic: String, key: Array[Byte], value: Array[Byte]): Unit =
         producer.send(new ProducerRecord(topic, value))
 
+    /**
+      * Send events to Kafka topics without tracking their delivery
+      *
+      * @param events the records to send, possibly a lazy iterator
+      */
+    def produce(topic: String, events: TraversableOnce[Record], serializer: RecordSerializer): Unit =
+        produce(topic, events, serializer, null)
+
     /**
       * Send events to Kafka topics
       *
-      * @param events
+      * @param events  the records to send, possibly a lazy iterator
+      * @param tracker notified of each delivery, may be null
       */
-    def produce(topic: String, events: List[Record], serializer:RecordSerializer) = {
+    def produce(topic: String,
+                events: TraversableOnce[Record],
+                serializer: RecordSerializer,
+                tracker: KafkaDeliveryTracker): Unit = {
 
-        val messages = events.map(event => {
-            // messages are serialized with kryo first
-            val baos: ByteArrayOutputStream = new ByteArrayOutputStream
-            serializer.serialize(baos, event)
+        val buffer = KafkaSink.borrowBuffer()
+        try {
+            events.foreach(event => {
+                // messages are serialized into a buffer reused by the current thread
+                buffer.reset()
+                serializer.serialize(buffer, event)
 
-            // and then converted to KeyedMessage
-            val key = if( event.hasField(FieldDictionary.RECORD_ID))
-                event.getField(FieldDictionary.RECORD_ID).asString()
-            else
-                ""
-            val message = new ProducerRecord(topic, key.getBytes(), baos.toByteArray)
-            baos.close()
+                // and then converted to KeyedMessage
+                val keyValue = event.getField(FieldDictionary.RECORD_ID)
+                val key = if (keyValue != null && keyValue.isSet)
+                    keyValue.asString().getBytes()
+                else
+                    Array.emptyByteArray
 
+                send(new ProducerRecord(topic, key, buffer.toByteArray), tracker)
+            })
+        } finally {
+            KafkaSink.releaseBuffer(buffer)
+        }
+    }
 
+    private def send(message: ProducerRecord[Array[Byte], Array[Byte]], tracker: KafkaDeliveryTracker): Unit = {
+        if (tracker == null) {
             producer.send(message)
-        })
+        } else {
+            tracker.onSend()
+            try {
+                producer.send(message, tracker)
+            } catch {
+                case e: Exception =>
+                    tracker.onCompletion(null, e)
+                    throw e
+            }
+        }
+    }
+
+    /**
+      * Wait for all the messages sent through the tracker to be acknowledged,
+      * this is the barrier to go through before saving offsets
+      *
+      * @param tracker   the tracker given to produce
+      * @param timeoutMs the maximum time to wait
+      * @throws KafkaDeliveryException if any message could not be delivered
+      */
+    def awaitDelivery(tracker: KafkaDeliveryTracker, timeoutMs: Long): Unit = {
+        producer.flush()
+        tracker.await(timeoutMs)
     }
 }
 
 object KafkaSink {
+
+    /**
+      * buffers that grew bigger than this are not kept between two batches
+      */
+    private val MAX_RETAINED_BUFFER_SIZE = 1024 * 1024
+
+    /**
+      * a ByteArrayOutputStream exposing the size of its backing array, which only grows,
+      * whereas size() is reset for each message
+      */
+    private class SerializationBuffer(initialSize: Int) extends ByteArrayOutputStream(initialSize) {
+        def capacity: Int = buf.length
+    }
+
+    private val buffers = new ThreadLocal[SerializationBuffer]()
+
+    private def borrowBuffer(): SerializationBuffer = {
+        val buffer = buffers.get()
+        if (buffer != null) {
+            buffers.remove()
+            buffer
+        } else
+            new SerializationBuffer(4096)
+    }
+
+    private def releaseBuffer(buffer: SerializationBuffer): Unit = {
+        if (buffer.capacity <= MAX_RETAINED_BUFFER_SIZE)
+            buffers.set(buffer)
+    }
+
     def apply(config: Map[String, Object]): KafkaSink = {
         val f = () => {
             val producer = new KafkaProducer[Array[Byte], Array[Byte]](config)
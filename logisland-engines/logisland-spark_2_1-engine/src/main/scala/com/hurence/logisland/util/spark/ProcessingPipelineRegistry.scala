@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.spark
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue}
+
+import com.hurence.logisland.controller.ControllerServiceLookup
+import com.hurence.logisland.serializer.RecordSerializer
+import com.hurence.logisland.stream.StreamContext
+import org.slf4j.LoggerFactory
+
+import scala.collection.JavaConversions._
+
+
+/**
+  * A fully initialized chain of processors for a given stream, along with the serializers it needs.
+  *
+  * A pipeline is owned by a single task at a time (see [[ProcessingPipelineRegistry.borrow]]),
+  * so neither the processors nor the serializers need to be thread safe.
+  */
+class ProcessingPipeline(val streamName: String,
+                         val jobVersion: Int,
+                         val streamContext: StreamContext,
+                         val deserializer: RecordSerializer,
+                         val serializer: RecordSerializer,
+                         val errorSerializer: RecordSerializer,
+                         val initDurations: Map[String, Long]) {
+
+    private var usageCount: Long = 0L
+
+    /**
+      * @return the time spent in init() by the given processor if this is
+      *         the first batch handled by the pipeline, 0 otherwise
+      */
+    def getInitDuration(processorId: String): Long =
+        if (usageCount == 1) initDurations.getOrElse(processorId, 0L) else 0L
+
+    private[spark] def markUsed(): Unit = usageCount += 1
+}
+
+/**
+  * Executor side registry of processing pipelines.
+  *
+  * The Spark engine serializes the stream context in every task closure, which means that
+  * processors would be initialized for every partition of every micro-batch. This registry keeps
+  * already initialized pipelines per JVM, keyed by stream name and job version, so that init()
+  * is only called again when the agent reports a new configuration version for the stream.
+  */
+object ProcessingPipelineRegistry {
+
+    private val logger = LoggerFactory.getLogger(ProcessingPipelineRegistry.getClass.getName)
+
+    private val pipelines = new ConcurrentHashMap[String, PipelinePool]()
+
+    private val builtPipelinesCount = new AtomicLong()
+
+    private class PipelinePool(val jobVersion: Int) {
+        val idlePipelines = new ConcurrentLinkedQueue[ProcessingPipeline]()
+    }
+
+    /**
+      * Get an idle pipeline for the given stream and job version or build a new one.
+      * The pipeline must be given back through [[release]] once the batch is processed.
+      *
+      * @param streamName     the stream name
+      * @param jobVersion     the configuration version of the job
+      * @param createPipeline builds a new pipeline when none is available
+      * @return a pipeline exclusively owned by the caller
+      */
+    def borrow(streamName: String, jobVersion: Int, createPipeline: () => ProcessingPipeline): ProcessingPipeline = {
+        val pool = pipelines.synchronized {
+            val current = pipelines.get(streamName)
+            if (current == null || current.jobVersion != jobVersion) {
+                if (current != null)
+                    logger.info(s"job version changed from ${current.jobVersion} to $jobVersion, " +
+                        s"dropping cached pipelines for stream $streamName")
+                val updated = new PipelinePool(jobVersion)
+                pipelines.put(streamName, updated)
+                updated
+            } else
+                current
+        }
+
+        val pipeline = Option(pool.idlePipelines.poll()).getOrElse {
+            val created = createPipeline()
+            logger.info(s"built pipeline #${builtPipelinesCount.incrementAndGet()} for stream $streamName " +
+                s"version $jobVersion in ${created.initDurations.values.sum} ms")
+            created
+        }
+        pipeline.markUsed()
+        pipeline
+    }
+
+    /**
+      * Give back a pipeline so that it can be reused by another task. Pipelines built for
+      * an outdated job version are discarded.
+      *
+      * @param pipeline the pipeline to release
+      */
+    def release(pipeline: ProcessingPipeline): Unit = {
+        val pool = pipelines.get(pipeline.streamName)
+        if (pool != null && pool.jobVersion == pipeline.jobVersion)
+            pool.idlePipelines.offer(pipeline)
+    }
+
+    /**
+      * Initialize every processor of the stream, timing each init call.
+      *
+      * @param streamContext           the stream to initialize
+      * @param controllerServiceLookup lookup injected in processors that need a controller service
+      * @return the init duration in millis of each processor, keyed by processor identifier
+      */
+    def initProcessors(streamContext: StreamContext,
+                       controllerServiceLookup: () => ControllerServiceLookup): Map[String, Long] = {
+        streamContext.getProcessContexts.map(processorContext => {
+            val startTime = System.currentTimeMillis()
+            val processor = processorContext.getProcessor
+            if (processor.hasControllerService) {
+                processorContext.addControllerServiceLookup(controllerServiceLookup())
+            }
+            processor.init(processorContext)
+            processorContext.getIdentifier -> (System.currentTimeMillis() - startTime)
+        }).toMap
+    }
+}
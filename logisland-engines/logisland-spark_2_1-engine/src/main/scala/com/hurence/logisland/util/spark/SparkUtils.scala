@@ -256,19 +256,84 @@ object SparkUtils extends LazyLogging {
       */
     def convertFieldsNameToSchema(record: Record): StructType = {
         StructType(
-            record.getAllFieldsSorted.toArray(Array[Field]()).map(f => {
-                f.getType match {
-                    case FieldType.INT => StructField(f.getName, DataTypes.IntegerType, nullable = true)
-                    case FieldType.LONG => StructField(f.getName, DataTypes.LongType, nullable = true)
-                    case FieldType.FLOAT => StructField(f.getName, DataTypes.FloatType, nullable = true)
-                    case FieldType.DOUBLE => StructField(f.getName, DataTypes.DoubleType, nullable = true)
-                    case FieldType.STRING => StructField(f.getName, DataTypes.StringType, nullable = true)
-                    case _ => StructField(f.getName, DataTypes.StringType, nullable = true)
-                }
-            })
+            record.getAllFieldsSorted.toArray(Array[Field]()).map(f => toStructField(f.getName, f.getType))
+        )
+    }
+
+    /**
+      * create a dataframe schema from the field types of a set of records
+      *
+      * @param fieldTypes the type of each field, as given by [[collectFieldTypes]]
+      * @return th schema, with fields sorted by name
+      */
+    def convertFieldsNameToSchema(fieldTypes: Map[String, FieldType]): StructType = {
+        StructType(
+            fieldTypes.toSeq.sortBy(_._1).map(f => toStructField(f._1, f._2))
         )
     }
 
+    private def toStructField(name: String, fieldType: FieldType): StructField = {
+        fieldType match {
+            case FieldType.INT => StructField(name, DataTypes.IntegerType, nullable = true)
+            case FieldType.LONG => StructField(name, DataTypes.LongType, nullable = true)
+            case FieldType.FLOAT => StructField(name, DataTypes.FloatType, nullable = true)
+            case FieldType.DOUBLE => StructField(name, DataTypes.DoubleType, nullable = true)
+            case FieldType.STRING => StructField(name, DataTypes.StringType, nullable = true)
+            case _ => StructField(name, DataTypes.StringType, nullable = true)
+        }
+    }
+
+    /**
+      * collect the type of every field found in the given records,
+      * a field seen with different types gets the widest one (see [[widenFieldType]])
+      *
+      * @param records the records to scan
+      * @return the type of each field keyed by field name
+      */
+    def collectFieldTypes(records: Iterator[Record]): Map[String, FieldType] = {
+        val fieldTypes = scala.collection.mutable.HashMap[String, FieldType]()
+        records.foreach(record => {
+            val fields = record.getAllFields.iterator()
+            while (fields.hasNext) {
+                val field = fields.next()
+                val fieldType = fieldTypes.get(field.getName) match {
+                    case Some(current) => widenFieldType(current, field.getType)
+                    case None => field.getType
+                }
+                fieldTypes.put(field.getName, fieldType)
+            }
+        })
+        fieldTypes.toMap
+    }
+
+    /**
+      * merge two sets of field types, typically computed on different partitions
+      */
+    def mergeFieldTypes(left: Map[String, FieldType], right: Map[String, FieldType]): Map[String, FieldType] = {
+        right.foldLeft(left) { case (merged, (name, fieldType)) =>
+            merged.get(name) match {
+                case Some(current) => merged + (name -> widenFieldType(current, fieldType))
+                case None => merged + (name -> fieldType)
+            }
+        }
+    }
+
+    /**
+      * find a type able to hold the values of both types :
+      * INT and LONG give LONG, any other mix of numeric types gives DOUBLE
+      * and anything else falls back to STRING
+      */
+    def widenFieldType(left: FieldType, right: FieldType): FieldType = {
+        if (left == right)
+            left
+        else (left, right) match {
+            case (FieldType.INT | FieldType.LONG, FieldType.INT | FieldType.LONG) => FieldType.LONG
+            case (FieldType.INT | FieldType.LONG | FieldType.FLOAT | FieldType.DOUBLE,
+            FieldType.INT | FieldType.LONG | FieldType.FLOAT | FieldType.DOUBLE) => FieldType.DOUBLE
+            case _ => FieldType.STRING
+        }
+    }
+
     /**
       * create a dataframe schema from an Avro one
       *
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.spark;
+
+import com.hurence.logisland.record.FieldType;
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.record.StandardRecord;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Assert;
+import org.junit.Test;
+import scala.collection.JavaConversions;
+import scala.collection.immutable.Map;
+
+import java.util.Arrays;
+
+public class SparkUtilsTest {
+
+    @Test
+    public void validateFieldTypeWidening() {
+        Assert.assertEquals(FieldType.INT, SparkUtils.widenFieldType(FieldType.INT, FieldType.INT));
+        Assert.assertEquals(FieldType.LONG, SparkUtils.widenFieldType(FieldType.INT, FieldType.LONG));
+        Assert.assertEquals(FieldType.DOUBLE, SparkUtils.widenFieldType(FieldType.FLOAT, FieldType.DOUBLE));
+        Assert.assertEquals(FieldType.DOUBLE, SparkUtils.widenFieldType(FieldType.LONG, FieldType.FLOAT));
+        Assert.assertEquals(FieldType.STRING, SparkUtils.widenFieldType(FieldType.INT, FieldType.STRING));
+        Assert.assertEquals(FieldType.STRING, SparkUtils.widenFieldType(FieldType.BOOLEAN, FieldType.LONG));
+    }
+
+    @Test
+    public void validateSchemaInferenceAcrossRecords() {
+        Record first = new StandardRecord("apache_log")
+                .setField("size", FieldType.INT, 12)
+                .setField("ratio", FieldType.FLOAT, 0.5f);
+        Record second = new StandardRecord("apache_log")
+                .setField("size", FieldType.LONG, 12345678901L)
+                .setField("user", FieldType.STRING, "bob");
+        Record third = new StandardRecord("apache_log")
+                .setField("ratio", FieldType.DOUBLE, 0.25d);
+
+        Map<String, FieldType> left = SparkUtils.collectFieldTypes(
+                JavaConversions.asScalaIterator(Arrays.asList(first, second).iterator()));
+        Map<String, FieldType> right = SparkUtils.collectFieldTypes(
+                JavaConversions.asScalaIterator(Arrays.asList(third).iterator()));
+        Map<String, FieldType> merged = SparkUtils.mergeFieldTypes(left, right);
+
+        Assert.assertEquals(FieldType.LONG, merged.apply("size"));
+        Assert.assertEquals(FieldType.DOUBLE, merged.apply("ratio"));
+        Assert.assertEquals(FieldType.STRING, merged.apply("user"));
+
+        StructType schema = SparkUtils.convertFieldsNameToSchema(merged);
+        Assert.assertEquals(merged.size(), schema.fields().length);
+        Assert.assertEquals(DataTypes.LongType, schema.apply("size").dataType());
+        Assert.assertEquals(DataTypes.DoubleType, schema.apply("ratio").dataType());
+
+        // fields missing from a record are written as null, widened ones are converted
+        Assert.assertEquals(Long.valueOf(12L), SparkUtils.convertToRow(first, schema).get(schema.fieldIndex("size")));
+        Assert.assertNull(SparkUtils.convertToRow(third, schema).get(schema.fieldIndex("user")));
+    }
+}
@@ -39,27 +39,52 @@ import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.*;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Avro binary serializer for a fixed schema.
+ *
+ * Everything derived from the schema (datum reader and writer, field descriptors) is computed once
+ * per schema and shared by all serializers of the JVM, while binary encoders and decoders are reused
+ * per thread.
+ *
+ * When built with a schema id, each message is framed the Confluent way: the {@link #MAGIC_BYTE},
+ * the schema id on {@link #idSize} bytes (big endian) then the avro payload.
+ */
 public class AvroSerializer implements RecordSerializer {
 
+    private static final ConcurrentMap<Schema, SchemaDescriptor> descriptors = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<BinaryEncoder> encoders = new ThreadLocal<>();
+    private static final ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>();
+
     private final Schema schema;
+    private final Integer schemaId;
+    private transient SchemaDescriptor descriptor;
 
     public AvroSerializer(final Schema schema) {
+        this(schema, null);
+    }
+
+    /**
+     * @param schema   the avro schema
+     * @param schemaId the id of the schema written in front of each message, null for raw avro
+     */
+    public AvroSerializer(final Schema schema, final Integer schemaId) {
         this.schema = schema;
+        this.schemaId = schemaId;
     }
 
     public AvroSerializer(final String strSchema) {
         final Schema.Parser parser = new Schema.Parser();
         try {
             schema = parser.parse(strSchema);
+            schemaId = null;
         } catch (Exception e) {
             throw new RecordSerializationException("unable to create serializer", e);
         }
@@ -69,7 +94,8 @@ public class AvroSerializer implements RecordSerializer {
         assert inputStream != null;
         final Schema.Parser parser = new Schema.Parser();
         try {
-             schema = parser.parse(inputStream);
+            schema = parser.parse(inputStream);
+            schemaId = null;
         } catch (IOException e) {
             throw new RecordSerializationException("unable to create serializer", e);
         }
@@ -78,30 +104,139 @@ public class AvroSerializer implements RecordSerializer {
     protected static final byte MAGIC_BYTE = 0x0;
     protected static final int idSize = 4;
 
+    /**
+     * How an avro value is converted back to a logisland field value
+     */
+    private enum Converter {
+        IDENTITY,
+        STRING,
+        ARRAY,
+        /**
+         * unions and other types that can hold strings or arrays
+         */
+        ANY
+    }
+
+    /**
+     * Precomputed view of a schema field
+     */
+    private static final class FieldDescriptor {
+        final String name;
+        final int index;
+        final FieldType fieldType;
+        final Converter converter;
+
+        FieldDescriptor(Schema.Field schemaField) {
+            Schema.Type type = schemaField.schema().getType();
+            this.name = schemaField.name();
+            this.index = schemaField.pos();
+            this.fieldType = FieldType.valueOf(type.getName().toUpperCase());
+            switch (type) {
+                case STRING:
+                    converter = Converter.STRING;
+                    break;
+                case ARRAY:
+                    converter = Converter.ARRAY;
+                    break;
+                case INT:
+                case LONG:
+                case FLOAT:
+                case DOUBLE:
+                case BOOLEAN:
+                case NULL:
+                    converter = Converter.IDENTITY;
+                    break;
+                default:
+                    converter = Converter.ANY;
+                    break;
+            }
+        }
+
+        Object convert(Object value) {
+            switch (converter) {
+                case STRING:
+                    return value == null ? null : value.toString();
+                case ARRAY:
+                    return value == null ? null : copyArray((GenericData.Array<Object>) value, new ArrayList<>());
+                case ANY:
+                    if (value instanceof org.apache.avro.util.Utf8) {
+                        return value.toString();
+                    } else if (value instanceof GenericData.Array) {
+                        return copyArray((GenericData.Array<Object>) value, new ArrayList<>());
+                    }
+                    return value;
+                default:
+                    return value;
+            }
+        }
+    }
+
+    /**
+     * Everything that only depends on the schema, safe to share between threads
+     */
+    private static final class SchemaDescriptor {
+        final Schema schema;
+        final DatumWriter<GenericRecord> datumWriter;
+        final DatumReader<GenericRecord> datumReader;
+        final FieldDescriptor[] fields;
+        final Map<String, FieldDescriptor> fieldsByName = new HashMap<>();
+
+        SchemaDescriptor(Schema schema) {
+            this.schema = schema;
+            this.datumWriter = new GenericDatumWriter<>(schema);
+            this.datumReader = new GenericDatumReader<>(schema);
+            List<Schema.Field> schemaFields = schema.getFields();
+            this.fields = new FieldDescriptor[schemaFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = new FieldDescriptor(schemaFields.get(i));
+                fieldsByName.put(fields[i].name, fields[i]);
+            }
+        }
+    }
+
+    private SchemaDescriptor getDescriptor() {
+        if (descriptor == null) {
+            SchemaDescriptor cached = descriptors.get(schema);
+            if (cached == null) {
+                cached = new SchemaDescriptor(schema);
+                SchemaDescriptor previous = descriptors.putIfAbsent(schema, cached);
+                if (previous != null)
+                    cached = previous;
+            }
+            descriptor = cached;
+        }
+        return descriptor;
+    }
+
     @Override
     public void serialize(final OutputStream out, final Record record) throws RecordSerializationException {
 
         try {
+            SchemaDescriptor descriptor = getDescriptor();
+
             /**
              * convert the logIsland Event to an Avro GenericRecord
              */
-            GenericRecord eventRecord = new GenericData.Record(schema);
-            for (Map.Entry<String, Field> entry : record.getFieldsEntrySet()) {
-                // retrieve event field
-                String key = entry.getKey();
-                Field field = entry.getValue();
-                Object value = field.getRawValue();
+            GenericRecord eventRecord = new GenericData.Record(descriptor.schema);
+            for (Field field : record.getAllFields()) {
+                FieldDescriptor fieldDescriptor = descriptor.fieldsByName.get(field.getName());
+                if (fieldDescriptor == null)
+                    throw new RecordSerializationException("Not a valid schema field: " + field.getName());
 
                 // dump event field as record attribute
-                eventRecord.put(key, value);
+                eventRecord.put(fieldDescriptor.index, field.getRawValue());
             }
 
-            /**
-             *
-             */
-            DatumWriter<GenericRecord> datumWriter = new GenericDatumWriter<>(schema);
-            Encoder encoder = EncoderFactory.get().binaryEncoder(out, null);
-            datumWriter.write(eventRecord, encoder);
+            if (schemaId != null) {
+                out.write(MAGIC_BYTE);
+                for (int shift = 8 * (idSize - 1); shift >= 0; shift -= 8) {
+                    out.write(schemaId >>> shift);
+                }
+            }
+
+            BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, encoders.get());
+            encoders.set(encoder);
+            descriptor.datumWriter.write(eventRecord, encoder);
             encoder.flush();
 
             out.flush();
@@ -126,36 +261,39 @@ public class AvroSerializer implements RecordSerializer {
 
     public Record deserialize(final InputStream in) throws RecordSerializationException {
         try {
+            SchemaDescriptor descriptor = getDescriptor();
 
-            Decoder decoder = DecoderFactory.get().binaryDecoder(in, null);
-            DatumReader<GenericRecord> datumReader = new GenericDatumReader<>(schema);
-            GenericRecord genericRecord = datumReader.read(null, decoder);
+            if (schemaId != null) {
+                int magicByte = in.read();
+                if (magicByte != MAGIC_BYTE)
+                    throw new RecordSerializationException("Unknown magic byte " + magicByte);
+                int id = 0;
+                for (int i = 0; i < idSize; i++) {
+                    int b = in.read();
+                    if (b < 0)
+                        throw new RecordSerializationException("Truncated schema id");
+                    id = (id << 8) | b;
+                }
+                if (id != schemaId)
+                    throw new RecordSerializationException("Unexpected schema id " + id + ", expecting " + schemaId);
+            }
+
+            BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(in, decoders.get());
+            decoders.set(decoder);
+            GenericRecord genericRecord = descriptor.datumReader.read(null, decoder);
 
 
             Record record = new StandardRecord(genericRecord.get(FieldDictionary.RECORD_TYPE).toString());
 
 
-            for (final Schema.Field schemaField : schema.getFields()) {
+            for (final FieldDescriptor field : descriptor.fields) {
 
-                String fieldName = schemaField.name();
-                Object fieldValue = genericRecord.get(fieldName);
-                String strFieldType = schemaField.schema().getType().getName();
-                FieldType fieldType = FieldType.valueOf(strFieldType.toUpperCase());
+                Object fieldValue = genericRecord.get(field.index);
 
-                if (Objects.equals(fieldName, FieldDictionary.RECORD_ID)) {
+                if (Objects.equals(field.name, FieldDictionary.RECORD_ID)) {
                     record.setId(fieldValue.toString());
-                } else if (!Objects.equals(fieldName, FieldDictionary.RECORD_TYPE)) {
-                    if (fieldValue instanceof org.apache.avro.util.Utf8) {
-                        record.setField(fieldName, fieldType, fieldValue.toString());
-                    } else if (fieldValue instanceof GenericData.Array) {
-                        GenericData.Array avroArray = (GenericData.Array) fieldValue;
-                        List<Object> list = new ArrayList<>();
-                        record.setField(fieldName, fieldType, list);
-                        copyArray(avroArray, list);
-                    } else {
-                        record.setField(fieldName, fieldType, fieldValue);
-                    }
-
+                } else if (!Objects.equals(field.name, FieldDictionary.RECORD_TYPE)) {
+                    record.setField(field.name, field.fieldType, field.convert(fieldValue));
                 }
             }
 
@@ -165,4 +303,4 @@ public class AvroSerializer implements RecordSerializer {
             throw new RecordSerializationException(t.getMessage(), t.getCause());
         }
     }
-}
\ No newline at end of file
+}
@@ -34,8 +34,6 @@ package com.hurence.logisland.serializer;
 import com.fasterxml.jackson.core.*;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.PropertyNamingStrategy;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
@@ -49,25 +47,53 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TimeZone;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
 
+/**
+ * Serializes records as compact json objects
+ *
+ * {"id":"...","type":"...","creationDate":"Thu Sep 08 12:11:08 UTC 2016","fields":{"name":value,...}}
+ *
+ * The mapper is immutable once built, so a single instance of this serializer can be
+ * shared between threads. It is used directly rather than through typed readers and
+ * writers, whose factory methods differ between the jackson versions of the profiles.
+ */
 public class JsonSerializer implements RecordSerializer {
 
     private static Logger logger = LoggerFactory.getLogger(JsonSerializer.class);
 
-    class EventSerializer extends StdSerializer<Record> {
+    /**
+     * same layout as Date.toString(), always written in UTC
+     */
+    private static final DateTimeFormatter CREATION_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.ENGLISH).withZone(ZoneId.of("UTC"));
 
-        public EventSerializer() {
-            this(null);
-        }
+    private static final ObjectMapper MAPPER;
+    private static final JsonFactory FACTORY;
+
+    static {
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(Record.class, new EventSerializer());
+        module.addDeserializer(Record.class, new EventDeserializer());
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(module);
+        mapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        mapper.getFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+        FACTORY = mapper.getFactory();
+        MAPPER = mapper;
+    }
+
+    static class EventSerializer extends StdSerializer<Record> {
 
-        public EventSerializer(Class<Record> t) {
-            super(t);
+        public EventSerializer() {
+            super(Record.class);
         }
 
         @Override
@@ -76,194 +102,177 @@ public class JsonSerializer implements RecordSerializer {
             jgen.writeStartObject();
             jgen.writeStringField("id", record.getId());
             jgen.writeStringField("type", record.getType());
-            jgen.writeStringField("creationDate", record.getTime().toString());
+            Date creationDate = record.getTime();
+            jgen.writeStringField("creationDate", creationDate == null ? null :
+                    CREATION_DATE_FORMAT.format(creationDate.toInstant()));
 
             jgen.writeObjectFieldStart("fields");
-            for (Map.Entry<String, Field> entry : record.getFieldsEntrySet()) {
+            for (Field field : record.getAllFields()) {
                 // retrieve event field
-                String fieldName = entry.getKey();
-                Field field = entry.getValue();
+                String fieldName = field.getName();
                 Object fieldValue = field.getRawValue();
-                String fieldType = field.getType().toString();
 
                 // dump event field as record attribute
-
                 try {
-                    switch (fieldType.toLowerCase()) {
-                        case "string":
+                    switch (field.getType()) {
+                        case STRING:
                             jgen.writeStringField(fieldName, (String) fieldValue);
                             break;
-                        case "integer":
+                        case INT:
                             jgen.writeNumberField(fieldName, (int) fieldValue);
                             break;
-                        case "long":
+                        case LONG:
                             jgen.writeNumberField(fieldName, (long) fieldValue);
                             break;
-                        case "float":
+                        case FLOAT:
                             jgen.writeNumberField(fieldName, (float) fieldValue);
                             break;
-                        case "double":
+                        case DOUBLE:
                             jgen.writeNumberField(fieldName, (double) fieldValue);
                             break;
-                        case "boolean":
+                        case BOOLEAN:
                             jgen.writeBooleanField(fieldName, (boolean) fieldValue);
                             break;
                         default:
+                            // arrays, maps and nested records go through the mapper
                             jgen.writeObjectField(fieldName, fieldValue);
                             break;
                     }
                 } catch (Exception ex) {
-                    logger.debug("exception while serializing field {}", field);
+                    logger.warn("unable to serialize field {} of record {}", field, record.getId(), ex);
                 }
-
             }
             jgen.writeEndObject();
             jgen.writeEndObject();
         }
-
-
     }
 
     @Override
     public void serialize(OutputStream out, Record record) throws RecordSerializationException {
-
-        ObjectMapper mapper = new ObjectMapper();
-        SimpleModule module = new SimpleModule();
-        module.addSerializer(StandardRecord.class, new EventSerializer());
-        mapper.registerModule(module);
-
-        //map json to student
-
-        try {
-            mapper.enable(SerializationFeature.INDENT_OUTPUT);
-            mapper.setPropertyNamingStrategy(PropertyNamingStrategy.CAMEL_CASE_TO_LOWER_CASE_WITH_UNDERSCORES);
-            String jsonString = mapper.writeValueAsString(record);
-
-            out.write(jsonString.getBytes());
-            out.flush();
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            // records are serialized by the module whatever their implementation
+            MAPPER.writeValue(generator, record);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RecordSerializationException("unable to serialize record", e);
         }
-
     }
 
-    // @TODO implements ARray deserialization
-    class EventDeserializer extends StdDeserializer<Record> {
+    static class EventDeserializer extends StdDeserializer<Record> {
 
         protected EventDeserializer() {
-            this(null);
-        }
-
-        protected EventDeserializer(Class<Record> t) {
-            super(t);
+            super(Record.class);
         }
 
         @Override
         public Record deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
-            JsonToken t = jp.getCurrentToken();
-
-            SimpleDateFormat sdf = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy");
-            sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
             String id = null;
             String type = null;
             Date creationDate = null;
-            JsonToken currentToken = null;
             Map<String, Field> fields = new HashMap<>();
 
-            boolean processingFields = false;
-            while ((currentToken = jp.nextValue()) != null) {
-
-                switch (currentToken) {
-
-                    case START_OBJECT:
-                        processingFields = true;
-                        break;
-                    case END_OBJECT:
-                        processingFields = true;
-                        break;
-                    case VALUE_NUMBER_INT:
-                        try {
-                            fields.put(jp.getCurrentName(), new Field(jp.getCurrentName(), FieldType.INT, jp.getIntValue()));
-                        } catch (JsonParseException ex) {
-                            fields.put(jp.getCurrentName(), new Field(jp.getCurrentName(), FieldType.LONG, jp.getLongValue()));
-                        }
-                        break;
+            if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+                throw ctxt.mappingException(Record.class);
+            }
 
-                    case VALUE_NUMBER_FLOAT:
-                        try {
-                            fields.put(jp.getCurrentName(), new Field(jp.getCurrentName(), FieldType.FLOAT, jp.getFloatValue()));
-                        } catch (JsonParseException ex) {
-                            fields.put(jp.getCurrentName(), new Field(jp.getCurrentName(), FieldType.DOUBLE, jp.getDoubleValue()));
-                        }
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String name = jp.getCurrentName();
+                JsonToken token = jp.nextToken();
+                switch (name) {
+                    case "id":
+                        id = jp.getValueAsString();
                         break;
-                    case VALUE_FALSE:
-                    case VALUE_TRUE:
-                        fields.put(jp.getCurrentName(), new Field(jp.getCurrentName(), FieldType.BOOLEAN, jp.getBooleanValue()));
+                    case "type":
+                        type = jp.getValueAsString();
                         break;
-                    case START_ARRAY:
-                        logger.info(jp.getCurrentName());
-                        break;
-
-                    case END_ARRAY:
+                    case "creationDate":
+                        creationDate = parseCreationDate(jp.getValueAsString());
                         break;
-                    case VALUE_STRING:
-
-                        if (jp.getCurrentName() != null) {
-                            switch (jp.getCurrentName()) {
-                                case "id":
-                                    id = jp.getValueAsString();
-                                    break;
-                                case "type":
-                                    type = jp.getValueAsString();
-                                    break;
-                                case "creationDate":
-                                    try {
-                                        creationDate = sdf.parse(jp.getValueAsString()); // "Thu Sep 08 12:11:08 CEST 2016\"
-                                    } catch (ParseException e) {
-                                        e.printStackTrace();
-                                    }
-                                    break;
-                                default:
-                                    fields.put(jp.getCurrentName(), new Field(jp.getCurrentName(), FieldType.STRING, jp.getValueAsString()));
-
-                                    break;
+                    case "fields":
+                        if (token == JsonToken.START_OBJECT) {
+                            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                                String fieldName = jp.getCurrentName();
+                                readField(jp, jp.nextToken(), fieldName, fields);
                             }
+                        } else {
+                            readField(jp, token, name, fields);
                         }
-
                         break;
                     default:
+                        readField(jp, token, name, fields);
                         break;
                 }
             }
 
             Record record = new StandardRecord(type);
-            record.setId(id);
-            record.setType(type);
+            if (id != null)
+                record.setId(id);
             record.setTime(creationDate);
-            record.setFields(fields);
+            record.addFields(fields);
 
             return record;
+        }
 
+        private static void readField(JsonParser jp, JsonToken token, String name, Map<String, Field> fields)
+                throws IOException {
+            switch (token) {
+                case VALUE_STRING:
+                    fields.put(name, new Field(name, FieldType.STRING, jp.getText()));
+                    break;
+                case VALUE_NUMBER_INT:
+                    if (jp.getNumberType() == JsonParser.NumberType.INT) {
+                        fields.put(name, new Field(name, FieldType.INT, jp.getIntValue()));
+                    } else if (jp.getNumberType() == JsonParser.NumberType.LONG) {
+                        fields.put(name, new Field(name, FieldType.LONG, jp.getLongValue()));
+                    } else {
+                        fields.put(name, new Field(name, FieldType.DOUBLE, jp.getDoubleValue()));
+                    }
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    // keep float precision when it does not lose anything
+                    double value = jp.getDoubleValue();
+                    float floatValue = (float) value;
+                    if (Float.toString(floatValue).equals(Double.toString(value))) {
+                        fields.put(name, new Field(name, FieldType.FLOAT, floatValue));
+                    } else {
+                        fields.put(name, new Field(name, FieldType.DOUBLE, value));
+                    }
+                    break;
+                case VALUE_FALSE:
+                case VALUE_TRUE:
+                    fields.put(name, new Field(name, FieldType.BOOLEAN, jp.getBooleanValue()));
+                    break;
+                case START_ARRAY:
+                    fields.put(name, new Field(name, FieldType.ARRAY, jp.readValueAs(List.class)));
+                    break;
+                case START_OBJECT:
+                    fields.put(name, new Field(name, FieldType.MAP, jp.readValueAs(Map.class)));
+                    break;
+                default:
+                    // null values are not kept
+                    jp.skipChildren();
+                    break;
+            }
         }
 
+        private static Date parseCreationDate(String creationDate) {
+            if (creationDate == null)
+                return null;
+            try {
+                return Date.from(Instant.from(ZonedDateTime.parse(creationDate, CREATION_DATE_FORMAT)));
+            } catch (DateTimeParseException e) {
+                logger.debug("unable to parse creation date {}", creationDate);
+                return null;
+            }
+        }
     }
 
-
     @Override
     public Record deserialize(InputStream in) throws RecordSerializationException {
-
-        ObjectMapper mapper = new ObjectMapper();
-        SimpleModule module = new SimpleModule();
-        module.addDeserializer(Record.class, new EventDeserializer());
-        mapper.registerModule(module);
-
-        Record record = null;
         try {
-            return record = mapper.readValue(in, Record.class);
+            return MAPPER.readValue(in, Record.class);
         } catch (IOException e) {
             logger.error(e.toString());
             throw new RecordSerializationException("unable to deserialize record");
         }
-
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.metrics;
+
+import com.hurence.logisland.record.Record;
+
+/**
+ * Estimates the total size in bytes of a stream of records without measuring all of them.
+ * <p>
+ * {@link Record#sizeInBytes()} encodes every string field, which is as expensive as serializing the record.
+ * The first records are measured exactly, then only one record out of samplingInterval is, and the total is
+ * extrapolated from the average size of the measured records.
+ * <p>
+ * An estimator is not thread safe.
+ */
+public class ByteSizeEstimator {
+
+    public static final int DEFAULT_EXACT_RECORDS = 64;
+    public static final int DEFAULT_SAMPLING_INTERVAL = 16;
+
+    private final int exactRecords;
+    private final int samplingInterval;
+
+    private long recordCount = 0;
+    private long sampledCount = 0;
+    private long sampledBytes = 0;
+
+    public ByteSizeEstimator() {
+        this(DEFAULT_EXACT_RECORDS, DEFAULT_SAMPLING_INTERVAL);
+    }
+
+    /**
+     * @param exactRecords     the number of records measured before sampling starts
+     * @param samplingInterval measure one record out of samplingInterval once sampling has started,
+     *                         1 to measure every record
+     */
+    public ByteSizeEstimator(int exactRecords, int samplingInterval) {
+        if (samplingInterval < 1) {
+            throw new IllegalArgumentException("sampling interval must be at least 1");
+        }
+        this.exactRecords = Math.max(exactRecords, 0);
+        this.samplingInterval = samplingInterval;
+    }
+
+    public void add(Record record) {
+        if (recordCount < exactRecords || (recordCount - exactRecords) % samplingInterval == 0) {
+            sampledBytes += record.sizeInBytes();
+            sampledCount++;
+        }
+        recordCount++;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return the estimated size of all the added records, exact as long as no more than
+     * exactRecords records have been added
+     */
+    public long getEstimatedBytes() {
+        if (sampledCount == recordCount) {
+            return sampledBytes;
+        }
+        return Math.round((double) sampledBytes / sampledCount * recordCount);
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies with a bounded relative error, in the spirit of HdrHistogram.
+ * <p>
+ * Values below 32 are counted exactly, bigger values go in log-linear buckets : each power of 2
+ * is split into 32 sub-buckets, so that a value is reported with a relative error below 1/32.
+ * Recording is a couple of atomic increments and can be done concurrently by any number of threads,
+ * a snapshot may be taken (and the histogram reset) at any time without blocking them.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value the latency to record, in any unit as long as it is the same for every value,
+     *              negative values are counted as 0
+     */
+    public void record(long value) {
+        final long v = Math.max(value, 0L);
+        counts.incrementAndGet(bucketIndex(v));
+        total.addAndGet(v);
+        long currentMax;
+        while (v > (currentMax = max.get()) && !max.compareAndSet(currentMax, v)) {
+            // retry
+        }
+    }
+
+    /**
+     * @return the values recorded since the creation or the last reset of the histogram
+     */
+    public Snapshot snapshot() {
+        final long[] snapshotCounts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshotCounts[i] = counts.get(i);
+        }
+        return new Snapshot(snapshotCounts, total.get(), max.get());
+    }
+
+    /**
+     * Take a snapshot and reset the histogram, each recorded value ends up in exactly one snapshot.
+     * Totals and max may be slightly off when values are recorded while the snapshot is taken.
+     *
+     * @return the values recorded since the creation or the last reset of the histogram
+     */
+    public Snapshot snapshotAndReset() {
+        final long[] snapshotCounts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts.get(i) != 0) {
+                snapshotCounts[i] = counts.getAndSet(i, 0L);
+            }
+        }
+        return new Snapshot(snapshotCounts, total.getAndSet(0L), max.getAndSet(0L));
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return the highest value counted in the given bucket
+     */
+    static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long subBucket = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+        final long highest = ((subBucket + 1) << shift) - 1;
+        // the last buckets would overflow
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+
+
+    /**
+     * An immutable copy of the histogram counts
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        Snapshot(long[] counts, long total, long max) {
+            this.counts = counts;
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0.0 : (double) total / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the smallest value such that the given percentage of the recorded values are lower or
+         * equal to it, up to the precision of the histogram, 0 if nothing was recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0L;
+            }
+            final long rank = Math.max(1L, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueInBucket(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.metrics;
+
+import com.hurence.logisland.record.FieldDictionary;
+import com.hurence.logisland.record.FieldType;
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.record.StandardRecord;
+import com.hurence.logisland.util.processor.ProcessorMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Collects the metrics of the processing threads and periodically flushes them to a sink, usually
+ * the metrics topic.
+ * <p>
+ * Processing threads only append their per-batch metric records to a queue and record their processing
+ * time in a {@link LatencyHistogram} per component, none of which ever blocks. A daemon thread drains the
+ * queue every flush interval, adds a latency record per component and hands everything to the sink.
+ * <p>
+ * Reporters are shared by all the tasks of a JVM, see {@link #getOrCreate(String, long, Supplier)}.
+ */
+public class MetricsReporter implements Closeable {
+
+    /**
+     * metric records queued beyond this limit are dropped, to bound memory when the sink can't keep up
+     */
+    public static final int MAX_QUEUED_RECORDS = 100000;
+
+    private static Logger logger = LoggerFactory.getLogger(MetricsReporter.class);
+
+    private static final ConcurrentMap<String, MetricsReporter> reporters = new ConcurrentHashMap<>();
+
+    private static final AtomicBoolean shutdownHookAdded = new AtomicBoolean(false);
+
+    private final String name;
+    private final Consumer<Collection<Record>> sink;
+    private final Queue<Record> queuedRecords = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedRecordsCount = new AtomicInteger();
+    private final LongAdder droppedRecordsCount = new LongAdder();
+    private final ConcurrentMap<String, ComponentLatency> latencies = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Get the reporter of the given name for this JVM, or create it.
+     *
+     * @param name            usually the application name
+     * @param flushIntervalMs the flush period of a new reporter, 0 to only flush explicitly
+     * @param sinkFactory     creates the sink of a new reporter, it is only called by the flushing thread
+     *                        so the sink does not need to be thread safe
+     * @return the shared reporter
+     */
+    public static MetricsReporter getOrCreate(final String name,
+                                              final long flushIntervalMs,
+                                              final Supplier<Consumer<Collection<Record>>> sinkFactory) {
+        if (shutdownHookAdded.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(MetricsReporter::closeAll, "metrics-reporter-flush"));
+        }
+        return reporters.computeIfAbsent(name, key -> new MetricsReporter(key, flushIntervalMs, sinkFactory.get()));
+    }
+
+    /**
+     * Close every shared reporter, sending their pending metrics. Engines call it when they stop,
+     * it is also run when the JVM shuts down.
+     */
+    public static void closeAll() {
+        for (MetricsReporter reporter : new ArrayList<>(reporters.values())) {
+            reporter.close();
+        }
+    }
+
+    public MetricsReporter(final String name, final long flushIntervalMs, final Consumer<Collection<Record>> sink) {
+        this.name = name;
+        this.sink = sink;
+        if (flushIntervalMs > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "logisland-metrics-reporter-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Queue metric records to be sent at the next flush, never blocks.
+     */
+    public void report(final Collection<Record> metrics) {
+        for (Record metric : metrics) {
+            if (queuedRecordsCount.incrementAndGet() > MAX_QUEUED_RECORDS) {
+                queuedRecordsCount.decrementAndGet();
+                droppedRecordsCount.increment();
+            } else {
+                queuedRecords.offer(metric);
+            }
+        }
+    }
+
+    /**
+     * Record the time spent by a component on a batch, never blocks.
+     */
+    public void recordProcessingTime(final String appName, final String componentName, final long durationInMicros) {
+        ComponentLatency latency = latencies.get(componentName);
+        if (latency == null) {
+            latency = latencies.computeIfAbsent(componentName, key -> new ComponentLatency(appName, key));
+        }
+        latency.histogram.record(durationInMicros);
+    }
+
+    /**
+     * @return the queued metric records followed by a latency record per component having processed
+     * at least one batch since the previous call
+     */
+    public Collection<Record> drain() {
+        final List<Record> metrics = new ArrayList<>();
+        Record metric;
+        while ((metric = queuedRecords.poll()) != null) {
+            queuedRecordsCount.decrementAndGet();
+            metrics.add(metric);
+        }
+
+        for (ComponentLatency latency : latencies.values()) {
+            final LatencyHistogram.Snapshot snapshot = latency.histogram.snapshotAndReset();
+            if (snapshot.getCount() != 0) {
+                metrics.add(latency.toRecord(snapshot));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Send the pending metrics to the sink, called by the flushing thread.
+     */
+    public synchronized void flush() {
+        try {
+            final long droppedRecords = droppedRecordsCount.sumThenReset();
+            if (droppedRecords != 0) {
+                logger.warn("{} metric records dropped by reporter {} since the previous flush", droppedRecords, name);
+            }
+            final Collection<Record> metrics = drain();
+            if (!metrics.isEmpty()) {
+                sink.accept(metrics);
+            }
+        } catch (Exception e) {
+            // the scheduler would stop flushing if an exception escaped
+            logger.error("unable to flush metrics of reporter {} : {}", name, e.toString());
+        }
+    }
+
+    /**
+     * Stop the periodic flush and send the pending metrics.
+     */
+    @Override
+    public void close() {
+        reporters.remove(name, this);
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        flush();
+    }
+
+
+    private static class ComponentLatency {
+
+        private final String appName;
+        private final String componentName;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        ComponentLatency(String appName, String componentName) {
+            this.appName = appName;
+            this.componentName = componentName;
+        }
+
+        Record toRecord(LatencyHistogram.Snapshot snapshot) {
+            final Record metrics = new StandardRecord(ProcessorMetrics.METRICS_EVENT_TYPE);
+            metrics.setField("spark_app_name", FieldType.STRING, appName);
+            metrics.setField("component_name", FieldType.STRING, componentName);
+            metrics.setField("num_batches", FieldType.LONG, snapshot.getCount());
+            metrics.setField("processing_time_mean_in_ms", FieldType.DOUBLE, snapshot.getMean() / 1000.0);
+            metrics.setField("processing_time_p50_in_ms", FieldType.DOUBLE, snapshot.getValueAtPercentile(50.0) / 1000.0);
+            metrics.setField("processing_time_p95_in_ms", FieldType.DOUBLE, snapshot.getValueAtPercentile(95.0) / 1000.0);
+            metrics.setField("processing_time_p99_in_ms", FieldType.DOUBLE, snapshot.getValueAtPercentile(99.0) / 1000.0);
+            metrics.setField("processing_time_max_in_ms", FieldType.DOUBLE, snapshot.getMax() / 1000.0);
+            metrics.setField(FieldDictionary.RECORD_TIME, FieldType.LONG, System.currentTimeMillis());
+            return metrics;
+        }
+    }
+}
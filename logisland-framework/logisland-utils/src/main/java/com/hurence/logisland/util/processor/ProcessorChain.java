@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.processor;
+
+import com.hurence.logisland.processor.ProcessContext;
+import com.hurence.logisland.processor.ProcessorMetricsProvider;
+import com.hurence.logisland.processor.StreamingProcessors;
+import com.hurence.logisland.record.FieldDictionary;
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.util.metrics.ByteSizeEstimator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lazily chains the processors of a stream over an iterator of records.
+ * <p>
+ * {@link com.hurence.logisland.processor.StreamingProcessor}s are pulled record by record,
+ * other processors are adapted and only materialize their own input. Each processor is metered
+ * while records flow through it so that metrics can be computed once the output is drained,
+ * without keeping every intermediate collection in memory.
+ * <p>
+ * A chain is not thread safe, it should be used by a single task.
+ */
+public class ProcessorChain {
+
+    private final Collection<ProcessContext> processContexts;
+    private final List<ProcessorMeter> processorMeters = new ArrayList<>();
+
+    public ProcessorChain(final Collection<ProcessContext> processContexts) {
+        this.processContexts = processContexts;
+    }
+
+    /**
+     * Chain all the processors over the incoming records
+     *
+     * @param records the incoming records
+     * @return a lazy iterator over the records computed by the last processor
+     */
+    public Iterator<Record> process(final Iterator<Record> records) {
+        processorMeters.clear();
+
+        Iterator<Record> currentRecords = records;
+        for (ProcessContext processContext : processContexts) {
+            final MeteredIterator incomingRecords = new MeteredIterator(currentRecords, false);
+            final MeteredIterator outgoingRecords = new MeteredIterator(
+                    StreamingProcessors.process(processContext.getProcessor(), processContext, incomingRecords),
+                    true);
+            processorMeters.add(new ProcessorMeter(
+                    processContext, incomingRecords, outgoingRecords));
+            currentRecords = outgoingRecords;
+        }
+        return currentRecords;
+    }
+
+    /**
+     * @return the meters of each processor of the last call to process, they're only
+     * complete once the returned iterator has been drained
+     */
+    public List<ProcessorMeter> getProcessorMeters() {
+        return Collections.unmodifiableList(processorMeters);
+    }
+
+
+    /**
+     * Counters of a processor
+     */
+    public static class ProcessorMeter {
+
+        private final String processorId;
+        private final String processorName;
+        private final Object processor;
+        private final MeteredIterator incomingRecords;
+        private final MeteredIterator outgoingRecords;
+
+        ProcessorMeter(ProcessContext processContext,
+                       MeteredIterator incomingRecords, MeteredIterator outgoingRecords) {
+            this.processorId = processContext.getIdentifier();
+            this.processorName = processContext.getName();
+            this.processor = processContext.getProcessor();
+            this.incomingRecords = incomingRecords;
+            this.outgoingRecords = outgoingRecords;
+        }
+
+        public String getProcessorId() {
+            return processorId;
+        }
+
+        public String getProcessorName() {
+            return processorName;
+        }
+
+        public long getNumIncomingRecords() {
+            return incomingRecords.count;
+        }
+
+        public long getNumOutgoingRecords() {
+            return outgoingRecords.count;
+        }
+
+        public long getNumErrorRecords() {
+            return outgoingRecords.errorCount;
+        }
+
+        /**
+         * @return the size of the outgoing records, estimated from a sample of them
+         */
+        public long getNumberOfProcessedBytes() {
+            return outgoingRecords.bytes.getEstimatedBytes();
+        }
+
+        public long getNumberOfProcessedFields() {
+            return outgoingRecords.fields;
+        }
+
+        /**
+         * @return the time spent in this processor only, upstream processors excluded,
+         * estimated from a sample of the records of large batches
+         */
+        public long getProcessingDurationInMillis() {
+            return getProcessingDurationInNanos() / 1000000L;
+        }
+
+        /**
+         * @return same as {@link #getProcessingDurationInMillis()} with a finer resolution, for latency histograms
+         */
+        public long getProcessingDurationInMicros() {
+            return getProcessingDurationInNanos() / 1000L;
+        }
+
+        private long getProcessingDurationInNanos() {
+            // both sides are sampled estimates, a cheap processor may come out below its upstream
+            return Math.max(0L, outgoingRecords.elapsedNanos - incomingRecords.elapsedNanos);
+        }
+
+        /**
+         * @return the metrics gathered by the processor itself since the previous call,
+         * empty if it is not a {@link ProcessorMetricsProvider}
+         */
+        public Map<String, Number> drainProcessorMetrics() {
+            if (processor instanceof ProcessorMetricsProvider) {
+                return ((ProcessorMetricsProvider) processor).drainMetrics();
+            }
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Counts the records pulled through it and the time spent pulling them.
+     * <p>
+     * Reading the clock around every pull would cost more than most processors, so only the first
+     * {@link #TIMED_CALLS} calls of a batch are timed, which covers the processors materializing their input,
+     * then one call in {@link #SAMPLING_PERIOD} which is accounted for the calls left out.
+     */
+    static class MeteredIterator implements Iterator<Record> {
+
+        static final long TIMED_CALLS = 64;
+        static final int SAMPLING_PERIOD = 16;
+
+        private final Iterator<Record> records;
+        private final boolean measureRecords;
+        private long hasNextCalls = 0;
+        long count = 0;
+        long errorCount = 0;
+        final ByteSizeEstimator bytes = new ByteSizeEstimator();
+        long fields = 0;
+        long elapsedNanos = 0;
+
+        MeteredIterator(Iterator<Record> records, boolean measureRecords) {
+            this.records = records;
+            this.measureRecords = measureRecords;
+        }
+
+        private static boolean isTimed(long call) {
+            return call < TIMED_CALLS || call % SAMPLING_PERIOD == 0;
+        }
+
+        private static long weight(long call) {
+            return call < TIMED_CALLS ? 1 : SAMPLING_PERIOD;
+        }
+
+        @Override
+        public boolean hasNext() {
+            final long call = hasNextCalls++;
+            if (!isTimed(call)) {
+                return records.hasNext();
+            }
+            final long start = System.nanoTime();
+            final boolean hasNext = records.hasNext();
+            elapsedNanos += (System.nanoTime() - start) * weight(call);
+            return hasNext;
+        }
+
+        @Override
+        public Record next() {
+            final long call = count;
+            final Record record;
+            if (isTimed(call)) {
+                final long start = System.nanoTime();
+                record = records.next();
+                elapsedNanos += (System.nanoTime() - start) * weight(call);
+            } else {
+                record = records.next();
+            }
+
+            count++;
+            if (measureRecords) {
+                if (record.hasField(FieldDictionary.RECORD_ERRORS))
+                    errorCount++;
+                bytes.add(record);
+                fields += record.size();
+            }
+            return record;
+        }
+    }
+}
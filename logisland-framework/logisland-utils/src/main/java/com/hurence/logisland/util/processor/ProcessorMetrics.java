@@ -20,11 +20,13 @@ import com.hurence.logisland.record.FieldType;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.record.StandardRecord;
 import com.hurence.logisland.stream.StreamContext;
+import com.hurence.logisland.util.metrics.ByteSizeEstimator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
+import static com.hurence.logisland.record.FieldType.DOUBLE;
 import static com.hurence.logisland.record.FieldType.INT;
 import static com.hurence.logisland.record.FieldType.LONG;
 
@@ -38,7 +40,7 @@ public class ProcessorMetrics {
     private static Logger logger = LoggerFactory.getLogger(ProcessorMetrics.class);
 
 
-    public synchronized static Collection<Record> computeMetrics(
+    public static Collection<Record> computeMetrics(
             final String appName,
             final String componentName,
             final String inputTopics,
@@ -49,9 +51,97 @@ public class ProcessorMetrics {
             final long fromOffset,
             final long untilOffset,
             final long processingDurationInMillis) {
+        return computeMetrics(appName, componentName, inputTopics, outputTopics, partitionId,
+                incomingEvents, outgoingEvents, fromOffset, untilOffset, processingDurationInMillis, 0L);
+    }
+
+    /**
+     * same as above but also reports the time spent initializing the processor,
+     * which is non zero only when the processor chain has been (re)built for this batch
+     */
+    public static Collection<Record> computeMetrics(
+            final String appName,
+            final String componentName,
+            final String inputTopics,
+            final String outputTopics,
+            final int partitionId,
+            final Collection<Record> incomingEvents,
+            final Collection<Record> outgoingEvents,
+            final long fromOffset,
+            final long untilOffset,
+            final long processingDurationInMillis,
+            final long initDurationInMillis) {
 
+        if ((outgoingEvents == null) || (outgoingEvents.size() == 0)) {
+            return Collections.emptyList();
+        }
+
+        long errorCount = 0;
+        long numberOfProcessedFields = 0;
+        final ByteSizeEstimator processedBytes = new ByteSizeEstimator();
+        for (Record record : outgoingEvents) {
+            if (record.hasField(FieldDictionary.RECORD_ERRORS))
+                errorCount++;
+            processedBytes.add(record);
+            numberOfProcessedFields += record.size();
+        }
 
-        if ( (outgoingEvents != null) && (outgoingEvents.size() != 0) ) {
+        return computeMetrics(appName, componentName, inputTopics, outputTopics, partitionId,
+                incomingEvents.size(), outgoingEvents.size(), errorCount,
+                processedBytes.getEstimatedBytes(), numberOfProcessedFields,
+                fromOffset, untilOffset, processingDurationInMillis, initDurationInMillis);
+    }
+
+    /**
+     * compute metrics from counters gathered while records were flowing through a processor,
+     * so that the records don't need to be kept in memory
+     */
+    public static Collection<Record> computeMetrics(
+            final String appName,
+            final String componentName,
+            final String inputTopics,
+            final String outputTopics,
+            final int partitionId,
+            final long numIncomingRecords,
+            final long numOutgoingRecords,
+            final long numErrorRecords,
+            final long numberOfProcessedBytes,
+            final long numberOfProcessedFields,
+            final long fromOffset,
+            final long untilOffset,
+            final long processingDurationInMillis,
+            final long initDurationInMillis) {
+        return computeMetrics(appName, componentName, inputTopics, outputTopics, partitionId,
+                numIncomingRecords, numOutgoingRecords, numErrorRecords,
+                numberOfProcessedBytes, numberOfProcessedFields,
+                fromOffset, untilOffset, processingDurationInMillis, initDurationInMillis,
+                Collections.<String, Number>emptyMap());
+    }
+
+    /**
+     * same as above with the metrics gathered by the processor itself,
+     * see {@link com.hurence.logisland.processor.ProcessorMetricsProvider}.
+     * Only builds a record, so it can be called concurrently by all the processing threads.
+     */
+    public static Collection<Record> computeMetrics(
+            final String appName,
+            final String componentName,
+            final String inputTopics,
+            final String outputTopics,
+            final int partitionId,
+            final long numIncomingRecords,
+            final long numOutgoingRecords,
+            final long numErrorRecords,
+            final long numberOfProcessedBytes,
+            final long numberOfProcessedFields,
+            final long fromOffset,
+            final long untilOffset,
+            final long processingDurationInMillis,
+            final long initDurationInMillis,
+            final Map<String, Number> processorMetrics) {
+
+
+        if (numOutgoingRecords != 0) {
             Record metrics = new StandardRecord(METRICS_EVENT_TYPE);
 
             metrics.setField("spark_app_name", FieldType.STRING, appName);
@@ -62,43 +152,35 @@ public class ProcessorMetrics {
             metrics.setField("topic_offset_from", FieldType.LONG, fromOffset);
             metrics.setField("topic_offset_until", FieldType.LONG, untilOffset);
             metrics.setField("num_incoming_messages", FieldType.INT, untilOffset - fromOffset);
-            metrics.setField("num_incoming_records", FieldType.INT, incomingEvents.size());
-            metrics.setField("num_outgoing_records", FieldType.INT, outgoingEvents.size());
-
-
-
-            float errorCount = outgoingEvents.stream().filter(r -> r.hasField(FieldDictionary.RECORD_ERRORS)).count();
-            metrics.setField("num_errors_records", FieldType.LONG, errorCount );
-            if (outgoingEvents.size() != 0)
-                metrics.setField("error_percentage", FieldType.FLOAT, 100.0f * errorCount / outgoingEvents.size());
-
+            metrics.setField("num_incoming_records", FieldType.INT, (int) numIncomingRecords);
+            metrics.setField("num_outgoing_records", FieldType.INT, (int) numOutgoingRecords);
 
-
-
-            final List<Integer> recordSizesInBytes = new ArrayList<>();
-            final List<Integer> recordNumberOfFields = new ArrayList<>();
-
-            outgoingEvents.forEach(record -> {
-                recordSizesInBytes.add(record.sizeInBytes());
-                recordNumberOfFields.add(record.size());
-            });
-
-            final int numberOfProcessedBytes = recordSizesInBytes.stream().mapToInt(Integer::intValue).sum();
-            final int numberOfProcessedFields = recordNumberOfFields.stream().mapToInt(Integer::intValue).sum();
+            metrics.setField("num_errors_records", FieldType.LONG, numErrorRecords);
+            metrics.setField("error_percentage", FieldType.FLOAT, 100.0f * numErrorRecords / numOutgoingRecords);
 
             if (numberOfProcessedFields != 0) {
-                metrics.setField("average_bytes_per_field", INT, numberOfProcessedBytes / numberOfProcessedFields);
+                metrics.setField("average_bytes_per_field", INT, (int) (numberOfProcessedBytes / numberOfProcessedFields));
             }
             if (processingDurationInMillis != 0) {
                 metrics.setField("average_bytes_per_second", INT, (int) (numberOfProcessedBytes * 1000 / processingDurationInMillis));
-                metrics.setField("average_num_records_per_second", INT, (int) (outgoingEvents.size() * 1000 / processingDurationInMillis));
+                metrics.setField("average_num_records_per_second", INT, (int) (numOutgoingRecords * 1000 / processingDurationInMillis));
             }
 
-            metrics.setField("average_fields_per_record", INT, numberOfProcessedFields / outgoingEvents.size());
-            metrics.setField("average_bytes_per_record", INT, numberOfProcessedBytes / outgoingEvents.size());
-            metrics.setField("total_bytes", INT, numberOfProcessedBytes);
-            metrics.setField("total_fields", INT, numberOfProcessedFields);
+            metrics.setField("average_fields_per_record", INT, (int) (numberOfProcessedFields / numOutgoingRecords));
+            metrics.setField("average_bytes_per_record", INT, (int) (numberOfProcessedBytes / numOutgoingRecords));
+            metrics.setField("total_bytes", INT, (int) numberOfProcessedBytes);
+            metrics.setField("total_fields", INT, (int) numberOfProcessedFields);
             metrics.setField("total_processing_time_in_ms", LONG, processingDurationInMillis);
+            metrics.setField("total_init_time_in_ms", LONG, initDurationInMillis);
+
+            for (Map.Entry<String, Number> processorMetric : processorMetrics.entrySet()) {
+                final Number value = processorMetric.getValue();
+                if (value instanceof Double || value instanceof Float) {
+                    metrics.setField(processorMetric.getKey(), DOUBLE, value.doubleValue());
+                } else if (value != null) {
+                    metrics.setField(processorMetric.getKey(), LONG, value.longValue());
+                }
+            }
 
             metrics.setField(FieldDictionary.RECORD_TIME, LONG, new Date().getTime());
             return Collections.singleton(metrics);
@@ -235,6 +235,14 @@ public class MockProcessContext extends MockControllerServiceLookup implements C
         return (Processor) component;
     }
 
+    /**
+     * Tests may change properties between two runs, so the snapshot is resolved again at each call.
+     */
+    @Override
+    public PropertySnapshot getPropertySnapshot() {
+        return PropertySnapshot.of(component, properties, this);
+    }
+
 
     public void addControllerService(final String serviceIdentifier, final ControllerService controllerService, final Map<PropertyDescriptor, String> properties, final String annotationData) {
         requireNonNull(controllerService);
@@ -0,0 +1,545 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.store;
+
+import com.hurence.logisland.component.PropertyDescriptor;
+import com.hurence.logisland.processor.ProcessContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keyed store of the state that a processor keeps on the executor across batches, such as open sessions
+ * or per series models.
+ * <p>
+ * The spark engine pools several instances of the same processor per stream and each batch is handled by
+ * whichever instance is idle, so the state must not be held by the processor instance itself : stores are
+ * shared per JVM. A store backed by a local directory is shared by every caller using that directory, an
+ * in-memory only store by every caller using the same name, see {@link #nameOf(String, ProcessContext)}.
+ * <p>
+ * The most recently used entries are kept in memory. When the store is backed by a directory, every entry
+ * has a snapshot file in it : entries evicted from memory are written to their snapshot and read back the
+ * next time they are requested, and the entries updated in memory are periodically checkpointed to their
+ * snapshots so that they are restored after a restart. Entries updated after the last checkpoint may be
+ * replayed after a crash. Without a directory the least recently used entries are forgotten once the
+ * store is full.
+ * <p>
+ * Entries put with a timestamp are indexed by it, so that the oldest ones are removed by
+ * {@link #removeOlderThan(long)} without scanning the whole store.
+ * <p>
+ * A store is thread safe. Entries are usually updated in place, so a caller updating an entry must hold
+ * the lock of its key, see {@link #lockOf(String)}, from the {@link #get(String)} to the
+ * {@link #put(String, Serializable)} of the entry. A caller must not hold any key lock while calling
+ * {@link #removeOlderThan(long)} or {@link #checkpoint()}, as they lock the keys they process.
+ *
+ * @param <V> the type of the stored state
+ */
+public class StateStore<V extends Serializable> implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(StateStore.class);
+
+    static final String SNAPSHOT_FILE_PREFIX = "state-";
+    private static final String TMP_FILE_SUFFIX = ".tmp";
+    private static final String ENCODING = "UTF-8";
+    private static final int KEY_LOCKS = 64;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    /** Open stores, keyed by canonical directory path or by name for in-memory only stores. */
+    private static final Map<String, StateStore<?>> openStores = new HashMap<>();
+    private static boolean shutdownHookAdded = false;
+
+    private final String key;
+    private final File directory;
+    private final int maxEntriesInMemory;
+    private final LinkedHashMap<String, V> entries;
+    private final Set<String> snapshotKeys = new HashSet<>();
+    private final Map<String, V> updatedEntries = new HashMap<>();
+    private final Map<String, Long> timestamps = new HashMap<>();
+    private final TreeSet<TimestampedKey> timestampIndex = new TreeSet<>();
+    private final Lock[] keyLocks = new Lock[KEY_LOCKS];
+    private long lastCheckpointTime = System.currentTimeMillis();
+    private volatile boolean closed = false;
+
+    private StateStore(String key, File directory, int maxEntriesInMemory) {
+        this.key = key;
+        this.directory = directory;
+        this.maxEntriesInMemory = maxEntriesInMemory;
+        for (int i = 0; i < keyLocks.length; i++) {
+            keyLocks[i] = new ReentrantLock();
+        }
+        this.entries = new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > StateStore.this.maxEntriesInMemory && evict(eldest.getKey(), eldest.getValue());
+            }
+        };
+    }
+
+    /**
+     * Get the open store with the given name or directory, listing the snapshots the directory already
+     * holds when it is opened for the first time in this JVM.
+     *
+     * @param name               the name of the store, identifies in-memory only stores
+     * @param directory          the local directory backing the store, null for an in-memory only store
+     * @param maxEntriesInMemory the number of entries above which the least recently used ones are evicted
+     * @param <V>                the type of the stored state
+     * @return the store, shared by every caller using the same directory, or the same name if there is none
+     * @throws IOException if the directory cannot be created
+     */
+    @SuppressWarnings("unchecked")
+    public static <V extends Serializable> StateStore<V> open(String name, File directory, int maxEntriesInMemory)
+            throws IOException {
+        final String key = (directory == null) ? "memory:" + name : "directory:" + directory.getCanonicalPath();
+        synchronized (openStores) {
+            StateStore<V> store = (StateStore<V>) openStores.get(key);
+            if (store == null) {
+                if (directory == null) {
+                    store = new StateStore<>(key, null, maxEntriesInMemory);
+                } else {
+                    store = new StateStore<>(key, directory.getCanonicalFile(), maxEntriesInMemory);
+                    store.listSnapshots();
+                    if (!shutdownHookAdded) {
+                        Runtime.getRuntime().addShutdownHook(new Thread(StateStore::closeAll, "state-store-checkpoint"));
+                        shutdownHookAdded = true;
+                    }
+                }
+                openStores.put(key, store);
+            } else if (store.maxEntriesInMemory != maxEntriesInMemory) {
+                logger.warn("state store {} is already open with at most {} entries in memory, ignoring {}",
+                        key, store.maxEntriesInMemory, maxEntriesInMemory);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Build the name of the in-memory store of a processor, so that every instance of the processor with
+     * the same configuration shares its state, whatever the instance handling the batch.
+     *
+     * @param kind    the kind of state, usually the processor class
+     * @param context the processor context
+     * @return the store name
+     */
+    public static String nameOf(String kind, ProcessContext context) {
+        final SortedMap<String, String> properties = new TreeMap<>();
+        for (Map.Entry<PropertyDescriptor, String> property : context.getProperties().entrySet()) {
+            properties.put(property.getKey().getName(), property.getValue());
+        }
+        return kind + "/" + context.getName() + "/" + properties;
+    }
+
+    /**
+     * Close every open store, checkpointing the ones backed by a directory. Engines call it when they stop,
+     * it is also run when the JVM shuts down.
+     */
+    public static void closeAll() {
+        final List<StateStore<?>> stores;
+        synchronized (openStores) {
+            stores = new ArrayList<>(openStores.values());
+        }
+        for (StateStore<?> store : stores) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                logger.error("unable to close state store {} : {}", store.key, e.toString());
+            }
+        }
+    }
+
+    /**
+     * @param key the entry key
+     * @return the lock to hold while updating the entry, shared with a few other keys
+     */
+    public Lock lockOf(String key) {
+        return keyLocks[(key.hashCode() & Integer.MAX_VALUE) % keyLocks.length];
+    }
+
+    /**
+     * @param key the entry key
+     * @return the entry, read back from its snapshot if it is not in memory, or null if the key is unknown
+     */
+    public V get(String key) {
+        synchronized (this) {
+            final V value = entries.get(key);
+            if (value != null || !snapshotKeys.contains(key)) {
+                return value;
+            }
+        }
+
+        // the snapshot is only replaced under the key lock held by the caller
+        final V value = readSnapshot(key);
+        synchronized (this) {
+            if (value == null) {
+                snapshotKeys.remove(key);
+                setTimestamp(key, NO_TIMESTAMP);
+                return null;
+            }
+            final V current = entries.get(key);
+            if (current != null) {
+                return current;
+            }
+            entries.put(key, value);
+            return value;
+        }
+    }
+
+    /**
+     * Add or update an entry, it will be part of the next checkpoint.
+     *
+     * @param key   the entry key
+     * @param value the entry
+     */
+    public void put(String key, V value) {
+        put(key, value, NO_TIMESTAMP);
+    }
+
+    /**
+     * Add or update an entry indexed by a timestamp, it will be part of the next checkpoint.
+     *
+     * @param key       the entry key
+     * @param value     the entry
+     * @param timestamp the timestamp of the entry, as used by {@link #removeOlderThan(long)}
+     */
+    public synchronized void put(String key, V value, long timestamp) {
+        setTimestamp(key, timestamp);
+        updatedEntries.put(key, value);
+        entries.put(key, value);
+    }
+
+    public void remove(String key) {
+        final boolean hasSnapshot;
+        synchronized (this) {
+            entries.remove(key);
+            updatedEntries.remove(key);
+            setTimestamp(key, NO_TIMESTAMP);
+            hasSnapshot = snapshotKeys.remove(key);
+        }
+        if (hasSnapshot) {
+            deleteSnapshot(key);
+        }
+    }
+
+    /**
+     * Remove the entries put with a timestamp older than the given one, reading back the ones which only
+     * have a snapshot. The entries are found through their timestamp index, the other entries are not read.
+     *
+     * @param timestamp the oldest timestamp of the entries to keep
+     * @return the removed entries, oldest first
+     */
+    public List<V> removeOlderThan(long timestamp) {
+        final List<V> removed = new ArrayList<>();
+        while (true) {
+            final String key;
+            synchronized (this) {
+                if (timestampIndex.isEmpty() || timestampIndex.first().timestamp >= timestamp) {
+                    return removed;
+                }
+                key = timestampIndex.first().key;
+            }
+
+            final Lock lock = lockOf(key);
+            lock.lock();
+            try {
+                V value;
+                final boolean hasSnapshot;
+                synchronized (this) {
+                    // the entry may have been updated or removed before we got its lock
+                    final Long entryTimestamp = timestamps.get(key);
+                    if (entryTimestamp == null || entryTimestamp >= timestamp) {
+                        continue;
+                    }
+                    setTimestamp(key, NO_TIMESTAMP);
+                    value = entries.remove(key);
+                    updatedEntries.remove(key);
+                    hasSnapshot = snapshotKeys.remove(key);
+                }
+                if (hasSnapshot) {
+                    if (value == null) {
+                        value = readSnapshot(key);
+                    }
+                    deleteSnapshot(key);
+                }
+                if (value != null) {
+                    removed.add(value);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries currently held in memory
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of entries which only have a snapshot on disk
+     */
+    public synchronized int snapshotOnlySize() {
+        int count = 0;
+        for (String key : snapshotKeys) {
+            if (!entries.containsKey(key)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param now        the current time in milliseconds
+     * @param intervalMs the minimal delay between two checkpoints
+     * @return true if the store is backed by a directory and was not checkpointed for the given interval
+     */
+    public synchronized boolean isCheckpointDue(long now, long intervalMs) {
+        return directory != null && now - lastCheckpointTime >= intervalMs;
+    }
+
+    /**
+     * Write the snapshot of every entry updated since the last checkpoint, each one under the lock of its
+     * key. Each snapshot is first written to a temporary file which then replaces the previous one.
+     *
+     * @throws IOException if a snapshot cannot be written
+     */
+    public void checkpoint() throws IOException {
+        final List<String> updatedKeys;
+        synchronized (this) {
+            lastCheckpointTime = System.currentTimeMillis();
+            if (directory == null || closed) {
+                return;
+            }
+            updatedKeys = new ArrayList<>(updatedEntries.keySet());
+        }
+
+        int count = 0;
+        for (String key : updatedKeys) {
+            final Lock lock = lockOf(key);
+            lock.lock();
+            try {
+                final V value;
+                final long timestamp;
+                synchronized (this) {
+                    // the entry may have been evicted, removed or checkpointed by another thread since
+                    value = updatedEntries.remove(key);
+                    if (value == null) {
+                        continue;
+                    }
+                    timestamp = timestamps.getOrDefault(key, NO_TIMESTAMP);
+                }
+                try {
+                    writeSnapshot(key, value, timestamp);
+                } catch (IOException e) {
+                    synchronized (this) {
+                        updatedEntries.putIfAbsent(key, value);
+                    }
+                    throw e;
+                }
+                synchronized (this) {
+                    snapshotKeys.add(key);
+                }
+                count++;
+            } finally {
+                lock.unlock();
+            }
+        }
+        logger.debug("checkpointed {} entries to {}", count, directory);
+    }
+
+    /**
+     * Checkpoint the store and release it, so that the next {@link #open(String, File, int)} reads the
+     * snapshots back, or starts from an empty store if there is no directory.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            checkpoint();
+        } finally {
+            closed = true;
+            synchronized (openStores) {
+                openStores.remove(key, this);
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * List the snapshots of the directory, reading the timestamp each one starts with to rebuild the index.
+     */
+    private void listSnapshots() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("unable to create state store directory " + directory);
+        }
+
+        final File[] snapshotFiles = directory.listFiles((dir, name) ->
+                name.startsWith(SNAPSHOT_FILE_PREFIX) && !name.endsWith(TMP_FILE_SUFFIX));
+        if (snapshotFiles != null) {
+            for (File snapshotFile : snapshotFiles) {
+                final String key = URLDecoder.decode(snapshotFile.getName().substring(SNAPSHOT_FILE_PREFIX.length()), ENCODING);
+                try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+                    setTimestamp(key, in.readLong());
+                    snapshotKeys.add(key);
+                } catch (IOException e) {
+                    logger.warn("ignoring unreadable state {} : {}", key, e.toString());
+                }
+            }
+        }
+        logger.info("found {} state snapshots in {}", snapshotKeys.size(), directory);
+    }
+
+    private void setTimestamp(String key, long timestamp) {
+        final Long previous = (timestamp == NO_TIMESTAMP) ? timestamps.remove(key) : timestamps.put(key, timestamp);
+        if (previous != null) {
+            timestampIndex.remove(new TimestampedKey(previous, key));
+        }
+        if (timestamp != NO_TIMESTAMP) {
+            timestampIndex.add(new TimestampedKey(timestamp, key));
+        }
+    }
+
+    /**
+     * Evict the least recently used entry, unless another thread is updating it in which case it will be
+     * evicted later.
+     *
+     * @return true if the entry can be removed from memory
+     */
+    private boolean evict(String key, V value) {
+        final Lock lock = lockOf(key);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            final boolean updated = updatedEntries.remove(key) != null;
+            if (directory == null || closed) {
+                logger.debug("dropping state {} evicted from memory", key);
+                setTimestamp(key, NO_TIMESTAMP);
+                return true;
+            }
+            if (updated || !snapshotKeys.contains(key)) {
+                try {
+                    writeSnapshot(key, value, timestamps.getOrDefault(key, NO_TIMESTAMP));
+                    snapshotKeys.add(key);
+                } catch (IOException e) {
+                    logger.warn("unable to write state {} : {}", key, e.toString());
+                    setTimestamp(key, NO_TIMESTAMP);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeSnapshot(String key, V value, long timestamp) throws IOException {
+        final File snapshotFile = getSnapshotFile(key);
+        final File tmpFile = new File(directory, snapshotFile.getName() + TMP_FILE_SUFFIX);
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeLong(timestamp);
+            out.writeObject(value);
+        }
+        Files.move(tmpFile.toPath(), snapshotFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V readSnapshot(String key) {
+        try (ObjectInputStream in = new ContextObjectInputStream(new BufferedInputStream(
+                new FileInputStream(getSnapshotFile(key))))) {
+            in.readLong();
+            return (V) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            logger.warn("unable to read state {} : {}", key, e.toString());
+            return null;
+        }
+    }
+
+    private void deleteSnapshot(String key) {
+        final File snapshotFile = getSnapshotFile(key);
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            logger.warn("unable to delete state snapshot {}", snapshotFile);
+        }
+    }
+
+    private File getSnapshotFile(String key) {
+        try {
+            return new File(directory, SNAPSHOT_FILE_PREFIX + URLEncoder.encode(key, ENCODING));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class TimestampedKey implements Comparable<TimestampedKey> {
+        private final long timestamp;
+        private final String key;
+
+        TimestampedKey(long timestamp, String key) {
+            this.timestamp = timestamp;
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(TimestampedKey other) {
+            final int byTimestamp = Long.compare(timestamp, other.timestamp);
+            return (byTimestamp != 0) ? byTimestamp : key.compareTo(other.key);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof TimestampedKey && compareTo((TimestampedKey) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(timestamp) + key.hashCode();
+        }
+    }
+
+    /**
+     * Resolves the classes of the state with the context class loader first, as they usually come from a
+     * plugin which may not be visible from the class loader of this class.
+     */
+    private static final class ContextObjectInputStream extends ObjectInputStream {
+
+        ContextObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            if (contextClassLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, contextClassLoader);
+                } catch (ClassNotFoundException e) {
+                    // fall back to the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
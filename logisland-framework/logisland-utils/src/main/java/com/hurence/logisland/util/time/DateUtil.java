@@ -34,7 +34,10 @@ public final class DateUtil {
 
     // Init ---------------------------------------------------------------------------------------
 
-    private static final Map<String, String> DATE_FORMAT_REGEXPS = new HashMap<String, String>() {{
+    /**
+     * regexes of the lower cased values and their SimpleDateFormat patterns, no two regexes may match the same value
+     */
+    static final Map<String, String> DATE_FORMAT_REGEXPS = new HashMap<String, String>() {{
         put("^[A-Z,a-z]{3}\\s[A-Z,a-z]{3}\\s\\d{1,2}\\s\\d{1,2}:\\d{1,2}:\\d{1,2}\\s[A-Z,a-z]{3}\\s\\d{4}$", "EEE MMM dd hh:mm:ss zzz yyyy");
         put("^[A-Z,a-z]{3},\\s\\d{1,2}\\s[A-Z,a-z]{3}\\s\\d{4}\\s\\d{1,2}:\\d{1,2}:\\d{1,2}\\s[A-Z,a-z]{3}$", "EEE, dd MMM yyyy HH:mm:ss z");
         put("^\\d{4}-\\d{2}-\\d{2}[T,t]\\d{2}:\\d{2}:\\d{2}\\.\\d{3}[A-Z,a-z]{3}$", "yyyy-MM-dd'T'HH:mm:ss.SSSZ");
@@ -72,11 +75,16 @@ public final class DateUtil {
         put("^\\w{3}\\s\\d{1,2}\\s\\d{1,2}:\\d{2}:\\d{2}$", "MMM dd HH:mm:ss"); // "Jan 02 07:43:49"
         put("^\\d{2}/\\d{2}/\\d{4}-\\d{2}:\\d{2}:\\d{2}:\\d{3}$", "dd/MM/yyyy-HH:mm:ss:SSS");   //'02/01/2016-07:43:49,000'
         put("^\\d{1,2}-\\w{3}-\\d{4}\\s\\d{2}:\\d{2}:\\d{2}:\\d{3}$", "dd-MMM-yyyy HH:mm:ss:SSS");
-        put("^\\d{1,2}-\\w{3}-\\d{4}\\s\\d{2}:\\d{2}:\\d{2}.\\d{3}$", "dd-MMM-yyyy HH:mm:ss.SSS");
+        put("^\\d{1,2}-\\w{3}-\\d{4}\\s\\d{2}:\\d{2}:\\d{2}\\.\\d{3}$", "dd-MMM-yyyy HH:mm:ss.SSS");
         put("^\\d{4}\\s+\\w{3}\\s+\\d{1,2}\\s+\\d{1,2}:\\d{1,2}:\\d{1,2}$", "yyyy MMM dd HH:mm:ss"); // '2017 Jan 17 18:52:18'
         put("^\\d{4}$", "yyyy"); // '2017'
     }};
 
+    /**
+     * detects the formats of {@link #DATE_FORMAT_REGEXPS}, must be declared after them
+     */
+    private static final TimestampParser timestampParser = new TimestampParser();
+
     private DateUtil() {
         // Utility class, hide the constructor.
     }
@@ -91,13 +99,17 @@ public final class DateUtil {
     public static final String ISO_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS zzz";
     public static final String LEGACY_FORMAT = "EEE MMM dd hh:mm:ss zzz yyyy";
     private static final TimeZone tz = TimeZone.getTimeZone("Europe/Paris");
-    private static final SimpleDateFormat legacyFormatter = new SimpleDateFormat(LEGACY_FORMAT, new Locale("en", "US"));
-    private static final SimpleDateFormat isoFormatter = new SimpleDateFormat(ISO_FORMAT, new Locale("en", "US"));
-
-    static {
-        legacyFormatter.setTimeZone(tz);
-        isoFormatter.setTimeZone(tz);
-    }
+    // SimpleDateFormat is not thread safe
+    private static final ThreadLocal<SimpleDateFormat> legacyFormatter = ThreadLocal.withInitial(() -> {
+        final SimpleDateFormat formatter = new SimpleDateFormat(LEGACY_FORMAT, new Locale("en", "US"));
+        formatter.setTimeZone(tz);
+        return formatter;
+    });
+    private static final ThreadLocal<SimpleDateFormat> isoFormatter = ThreadLocal.withInitial(() -> {
+        final SimpleDateFormat formatter = new SimpleDateFormat(ISO_FORMAT, new Locale("en", "US"));
+        formatter.setTimeZone(tz);
+        return formatter;
+    });
 
     private static final Logger log = LoggerFactory.getLogger(DateUtil.class);
 
@@ -222,12 +234,12 @@ public final class DateUtil {
      *
      */
     public static String toString(final Date date) {
-        return isoFormatter.format(date);
+        return isoFormatter.get().format(date);
     }
 
     public static Date fromIsoStringToDate(String isoDateString) throws ParseException {
 
-        return isoFormatter.parse(isoDateString);
+        return isoFormatter.get().parse(isoDateString);
 
     }
 
@@ -245,12 +257,12 @@ public final class DateUtil {
      * @return The given date in Legacy Date.toString() format, e.g. "Tue Jul 03 09:34:17 IDT 2012"
      */
     public static String toLegacyString(final Date date) {
-        return legacyFormatter.format(date);
+        return legacyFormatter.get().format(date);
     }
 
     public static Date fromLegacyStringToDate(String legacyDateString) throws ParseException {
 
-        return legacyFormatter.parse(legacyDateString);
+        return legacyFormatter.get().parse(legacyDateString);
 
     }
 
@@ -415,11 +427,7 @@ public final class DateUtil {
      * the given date string or its actual date is invalid based on the date format pattern.
      */
     public static Date parse(String dateString, TimeZone timezone) throws ParseException {
-        String dateFormat = determineDateFormat(dateString);
-        if (dateFormat == null) {
-            throw new ParseException("Unknown date format for date \'" + dateString + "\'", 0);
-        }
-        return parse(dateString, dateFormat, timezone);
+        return timestampParser.parse(dateString, timezone);
     }
     /**
      * Validate the actual date of the given date string based on the given date format pattern and
@@ -445,22 +453,10 @@ public final class DateUtil {
      * @throws ParseException If the given date string or its actual date is invalid based on the
      * given date format pattern.
      * @see SimpleDateFormat
+     * @see TimestampFormat
      */
     public static Date parse(String dateString, String dateFormat, TimeZone timeZone) throws ParseException {
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(dateFormat, new Locale("en", "US"));
-        simpleDateFormat.setTimeZone(timeZone);
-        simpleDateFormat.setLenient(false); // Don't automatically convert invalid date.
-        if (dateFormat.equals("MMM dd HH:mm:ss")) {
-
-            DateTime today = new DateTime();
-            DateTime parsedDate = new DateTime(simpleDateFormat.parse(dateString));
-
-            DateTime parsedDateWithTodaysYear = parsedDate.withYear(today.getYear());
-
-            return parsedDateWithTodaysYear.toDate();
-        } else {
-            return simpleDateFormat.parse(dateString);
-        }
+        return TimestampFormat.of(dateFormat).parse(dateString, timeZone);
     }
 
     // Validators ---------------------------------------------------------------------------------
@@ -509,12 +505,7 @@ public final class DateUtil {
      * @see SimpleDateFormat
      */
     public static String determineDateFormat(String dateString) {
-        for (String regexp : DATE_FORMAT_REGEXPS.keySet()) {
-            if (dateString.toLowerCase().matches(regexp)) {
-                return DATE_FORMAT_REGEXPS.get(regexp);
-            }
-        }
-        return null; // Unknown format.
+        return timestampParser.determineDateFormat(dateString);
     }
 
     // Changers -----------------------------------------------------------------------------------
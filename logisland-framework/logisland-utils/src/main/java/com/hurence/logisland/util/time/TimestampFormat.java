@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.time;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.*;
+import java.time.format.*;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link SimpleDateFormat} pattern compiled once into an immutable, thread safe {@link DateTimeFormatter}.
+ * <p>
+ * The translation follows the parsing rules of a non lenient SimpleDateFormat : text is case insensitive,
+ * numeric fields accept any number of digits unless they're directly followed by another numeric field,
+ * milliseconds are a number rather than a fraction, zones may be given as offsets or names, and runs
+ * of whitespace are equivalent to a single space.
+ * <p>
+ * Patterns using letters that have no translation, and values java.time can't parse, go through
+ * a SimpleDateFormat instead so that both accept the same values.
+ */
+public final class TimestampFormat {
+
+    private static final Locale LOCALE = new Locale("en", "US");
+
+    /**
+     * the legacy behavior of this pattern is to use the current year
+     */
+    private static final String CURRENT_YEAR_FORMAT = "MMM dd HH:mm:ss";
+
+    private static final int MAX_CACHED_FORMATS = 512;
+
+    private static final ConcurrentMap<String, TimestampFormat> formats = new ConcurrentHashMap<>();
+
+    private final String pattern;
+    private final DateTimeFormatter formatter;
+    private final boolean hasYear;
+    private final boolean hasZone;
+
+    private TimestampFormat(String pattern) {
+        this.pattern = pattern;
+        this.hasYear = hasLetter(pattern, 'y');
+        this.hasZone = hasLetter(pattern, 'z') || hasLetter(pattern, 'Z') || hasLetter(pattern, 'X');
+        this.formatter = compile(pattern);
+    }
+
+    /**
+     * @param pattern a SimpleDateFormat pattern
+     * @return the compiled format, cached
+     */
+    public static TimestampFormat of(String pattern) {
+        TimestampFormat format = formats.get(pattern);
+        if (format == null) {
+            format = new TimestampFormat(pattern);
+            if (formats.size() < MAX_CACHED_FORMATS) {
+                formats.putIfAbsent(pattern, format);
+            }
+        }
+        return format;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return true if the pattern is parsed with java.time, false if it goes through SimpleDateFormat
+     */
+    public boolean isCompiled() {
+        return formatter != null;
+    }
+
+    /**
+     * @param dateString the value to parse
+     * @param timeZone   the time zone of the value, unless it contains one
+     * @return the parsed date
+     * @throws ParseException if the value does not match the pattern or is not a valid date
+     */
+    public Date parse(String dateString, TimeZone timeZone) throws ParseException {
+        if (formatter != null) {
+            try {
+                return Date.from(resolve(formatter.parse(normalizeWhitespaces(dateString)), timeZone.toZoneId()));
+            } catch (DateTimeException e) {
+                // let SimpleDateFormat decide
+            }
+        }
+        return parseLegacy(dateString, timeZone);
+    }
+
+    private Instant resolve(TemporalAccessor parsed, ZoneId defaultZone) {
+        ZoneId zone = parsed.query(TemporalQueries.zone());
+        if (zone == null) {
+            if (hasZone) {
+                throw new DateTimeException("no time zone in " + parsed);
+            }
+            zone = defaultZone;
+        }
+
+        LocalDate date = parsed.query(TemporalQueries.localDate());
+        if (date == null) {
+            // only the year may be missing, the other date fields have defaults
+            final int year = pattern.equals(CURRENT_YEAR_FORMAT) ? Year.now(zone).getValue() : 1970;
+            date = LocalDate.of(year, parsed.get(ChronoField.MONTH_OF_YEAR), parsed.get(ChronoField.DAY_OF_MONTH));
+        }
+        final LocalTime time = parsed.query(TemporalQueries.localTime());
+        if (time == null) {
+            throw new DateTimeException("no time in " + parsed);
+        }
+        return ZonedDateTime.of(date, time, zone).toInstant();
+    }
+
+    private Date parseLegacy(String dateString, TimeZone timeZone) throws ParseException {
+        final SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern, LOCALE);
+        simpleDateFormat.setTimeZone(timeZone);
+        simpleDateFormat.setLenient(false); // Don't automatically convert invalid date.
+        final Date date = simpleDateFormat.parse(dateString);
+        if (pattern.equals(CURRENT_YEAR_FORMAT)) {
+            return Date.from(date.toInstant().atZone(timeZone.toZoneId())
+                    .withYear(Year.now(timeZone.toZoneId()).getValue())
+                    .toInstant());
+        }
+        return date;
+    }
+
+    /**
+     * SimpleDateFormat skips whitespaces before each field
+     */
+    private static String normalizeWhitespaces(String value) {
+        boolean normalized = true;
+        for (int i = 0; i < value.length() && normalized; i++) {
+            final char c = value.charAt(i);
+            if (c == '\t' || (c == ' ' && i + 1 < value.length() && Character.isWhitespace(value.charAt(i + 1)))) {
+                normalized = false;
+            }
+        }
+        if (normalized) {
+            return value;
+        }
+        return value.trim().replaceAll("\\s+", " ");
+    }
+
+    private static boolean hasLetter(String pattern, char letter) {
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == letter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the formatter equivalent to the pattern, null if some of its letters can't be translated
+     */
+    private static DateTimeFormatter compile(String pattern) {
+        final DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder().parseCaseInsensitive();
+        boolean hasMonth = false, hasDay = false, hasHour = false, hasAmPm = false, hasHalfDayHour = false;
+        boolean hasMinute = false, hasSecond = false, hasMillis = false;
+
+        int i = 0;
+        while (i < pattern.length()) {
+            final char c = pattern.charAt(i);
+            if (c == '\'') {
+                final int end = pattern.indexOf('\'', i + 1);
+                if (end < 0) {
+                    return null;
+                }
+                // '' is a single quote
+                builder.appendLiteral(end == i + 1 ? "'" : pattern.substring(i + 1, end));
+                i = end + 1;
+                continue;
+            }
+            if (!isAsciiLetter(c)) {
+                if (Character.isWhitespace(c)) {
+                    // runs of whitespaces are normalized before parsing
+                    while (i + 1 < pattern.length() && Character.isWhitespace(pattern.charAt(i + 1))) {
+                        i++;
+                    }
+                    builder.appendLiteral(' ');
+                } else {
+                    builder.appendLiteral(c);
+                }
+                i++;
+                continue;
+            }
+
+            int count = 1;
+            while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+                count++;
+            }
+            final boolean abutting = i + count < pattern.length() && isNumericLetter(pattern, i + count);
+
+            switch (c) {
+                case 'y':
+                    if (count == 2) {
+                        builder.appendValueReduced(ChronoField.YEAR, 2, 2, LocalDate.now().minusYears(80));
+                    } else {
+                        appendNumber(builder, ChronoField.YEAR, count, abutting, 9);
+                    }
+                    break;
+                case 'M':
+                    hasMonth = true;
+                    if (count >= 3) {
+                        builder.appendText(ChronoField.MONTH_OF_YEAR, count == 3 ? TextStyle.SHORT : TextStyle.FULL);
+                    } else {
+                        appendNumber(builder, ChronoField.MONTH_OF_YEAR, count, abutting, 2);
+                    }
+                    break;
+                case 'd':
+                    hasDay = true;
+                    appendNumber(builder, ChronoField.DAY_OF_MONTH, count, abutting, 2);
+                    break;
+                case 'E':
+                    builder.appendText(ChronoField.DAY_OF_WEEK, count <= 3 ? TextStyle.SHORT : TextStyle.FULL);
+                    break;
+                case 'a':
+                    hasAmPm = true;
+                    builder.appendText(ChronoField.AMPM_OF_DAY, TextStyle.SHORT);
+                    break;
+                case 'H':
+                    hasHour = true;
+                    appendNumber(builder, ChronoField.HOUR_OF_DAY, count, abutting, 2);
+                    break;
+                case 'h':
+                    hasHalfDayHour = true;
+                    appendNumber(builder, ChronoField.CLOCK_HOUR_OF_AMPM, count, abutting, 2);
+                    break;
+                case 'm':
+                    hasMinute = true;
+                    appendNumber(builder, ChronoField.MINUTE_OF_HOUR, count, abutting, 2);
+                    break;
+                case 's':
+                    hasSecond = true;
+                    appendNumber(builder, ChronoField.SECOND_OF_MINUTE, count, abutting, 2);
+                    break;
+                case 'S':
+                    hasMillis = true;
+                    appendNumber(builder, ChronoField.MILLI_OF_SECOND, count, abutting, 3);
+                    break;
+                case 'z':
+                case 'Z':
+                case 'X':
+                    appendZone(builder);
+                    break;
+                default:
+                    return null;
+            }
+            i += count;
+        }
+
+        // fields missing from the pattern get the same defaults as with SimpleDateFormat
+        if (!hasMonth) {
+            builder.parseDefaulting(ChronoField.MONTH_OF_YEAR, 1);
+        }
+        if (!hasDay) {
+            builder.parseDefaulting(ChronoField.DAY_OF_MONTH, 1);
+        }
+        if (hasHalfDayHour && !hasAmPm) {
+            builder.parseDefaulting(ChronoField.AMPM_OF_DAY, 0);
+        }
+        if (!hasHour && !hasHalfDayHour) {
+            builder.parseDefaulting(ChronoField.HOUR_OF_DAY, 0);
+        }
+        if (!hasMinute) {
+            builder.parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0);
+        }
+        if (!hasSecond) {
+            builder.parseDefaulting(ChronoField.SECOND_OF_MINUTE, 0);
+        }
+        if (!hasMillis) {
+            builder.parseDefaulting(ChronoField.MILLI_OF_SECOND, 0);
+        }
+        return builder.toFormatter(LOCALE).withResolverStyle(ResolverStyle.STRICT);
+    }
+
+    private static void appendNumber(DateTimeFormatterBuilder builder, ChronoField field,
+                                     int count, boolean abutting, int maxWidth) {
+        if (abutting) {
+            // directly followed by another number, SimpleDateFormat reads exactly count digits
+            builder.appendValue(field, count);
+        } else {
+            builder.appendValue(field, 1, Math.max(count, maxWidth), SignStyle.NORMAL);
+        }
+    }
+
+    /**
+     * SimpleDateFormat zones accept both offsets and names
+     */
+    private static void appendZone(DateTimeFormatterBuilder builder) {
+        builder.optionalStart().appendOffset("+HH:MM", "Z").optionalEnd()
+                .optionalStart().appendOffset("+HHMM", "Z").optionalEnd()
+                .optionalStart().appendOffset("+HH", "Z").optionalEnd()
+                .optionalStart().appendZoneText(TextStyle.SHORT).optionalEnd();
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isNumericLetter(String pattern, int index) {
+        final char c = pattern.charAt(index);
+        if (c == 'M') {
+            int count = 1;
+            while (index + count < pattern.length() && pattern.charAt(index + count) == 'M') {
+                count++;
+            }
+            return count <= 2;
+        }
+        return "ydHhmsSkKDFwW".indexOf(c) >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.time;
+
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Detects the format of timestamps and parses them.
+ * <p>
+ * The detection regexes of {@link DateUtil} are compiled once. Values are reduced to a fingerprint of their
+ * character classes (digit, letter, whitespace or the character itself) which is mapped to the format
+ * detected for the first value having it, so that usually a single regex is evaluated to confirm the
+ * format instead of trying all of them. Formats are parsed with {@link TimestampFormat}, which is thread safe.
+ * <p>
+ * A parser also remembers the last format it has detected, so that a parser dedicated to a source
+ * of timestamps, which tend to always have the same format, tries it first. Parsers are thread safe.
+ */
+public class TimestampParser {
+
+    private static final int MAX_CACHED_FINGERPRINTS = 4096;
+
+    private static final List<Detector> detectors = new ArrayList<>();
+    private static final ConcurrentMap<String, Detector> detectorsByFingerprint = new ConcurrentHashMap<>();
+
+    static {
+        for (Map.Entry<String, String> dateFormat : DateUtil.DATE_FORMAT_REGEXPS.entrySet()) {
+            detectors.add(new Detector(
+                    Pattern.compile(dateFormat.getKey(), Pattern.CASE_INSENSITIVE),
+                    TimestampFormat.of(dateFormat.getValue())));
+        }
+    }
+
+    private volatile Detector lastDetector;
+
+    /**
+     * @param dateString the value to parse
+     * @param timeZone   the time zone of the value, unless it contains one
+     * @return the parsed date
+     * @throws ParseException if the format of the value is unknown or if it is not a valid date
+     */
+    public Date parse(String dateString, TimeZone timeZone) throws ParseException {
+        final Detector detector = detect(dateString);
+        if (detector == null) {
+            throw new ParseException("Unknown date format for date \'" + dateString + "\'", 0);
+        }
+        return detector.format.parse(dateString, timeZone);
+    }
+
+    /**
+     * @param dateString the value to inspect
+     * @return the SimpleDateFormat pattern of the value, null if unknown
+     */
+    public String determineDateFormat(String dateString) {
+        final Detector detector = detect(dateString);
+        return detector == null ? null : detector.format.getPattern();
+    }
+
+    private Detector detect(String dateString) {
+        final Detector last = lastDetector;
+        if (last != null && last.matches(dateString)) {
+            return last;
+        }
+
+        final String fingerprint = fingerprint(dateString);
+        Detector detector = detectorsByFingerprint.get(fingerprint);
+        if (detector == null || !detector.matches(dateString)) {
+            detector = null;
+            for (Detector candidate : detectors) {
+                if (candidate.matches(dateString)) {
+                    detector = candidate;
+                    break;
+                }
+            }
+            if (detector == null) {
+                return null;
+            }
+            if (detectorsByFingerprint.size() < MAX_CACHED_FINGERPRINTS) {
+                detectorsByFingerprint.put(fingerprint, detector);
+            }
+        }
+        lastDetector = detector;
+        return detector;
+    }
+
+    /**
+     * @return the character classes of the value, "2017-01-02 07:43:49" gives "0000-00-00 00:00:00"
+     */
+    static String fingerprint(String value) {
+        final char[] fingerprint = new char[value.length()];
+        for (int i = 0; i < fingerprint.length; i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                fingerprint[i] = '0';
+            } else if (Character.isLetter(c)) {
+                fingerprint[i] = 'a';
+            } else if (Character.isWhitespace(c)) {
+                fingerprint[i] = ' ';
+            } else {
+                fingerprint[i] = c;
+            }
+        }
+        return new String(fingerprint);
+    }
+
+
+    private static class Detector {
+
+        private final Pattern regex;
+        private final TimestampFormat format;
+
+        Detector(Pattern regex, TimestampFormat format) {
+            this.regex = regex;
+            this.format = format;
+        }
+
+        boolean matches(String dateString) {
+            return regex.matcher(dateString).matches();
+        }
+    }
+}
@@ -32,8 +32,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -42,6 +41,28 @@ import static org.junit.Assert.assertTrue;
 public class AvroSerializerTest {
 
 
+	private static Record buildRecord(String id) {
+		Record record = new StandardRecord("cisco");
+		record.setId(id);
+		record.setField("method", FieldType.STRING, "GET");
+		record.setField("ip_source", FieldType.STRING, "123.34.45.123");
+		record.setField("ip_target", FieldType.STRING, "255.255.255.255");
+		record.setField("url_scheme", FieldType.STRING, "http");
+		record.setField("url_host", FieldType.STRING, "origin-www.20minutes.fr");
+		record.setField("url_port", FieldType.STRING, "80");
+		record.setField("url_path", FieldType.STRING, "/r15lgc-100KB.js");
+		record.setField("request_size", FieldType.INT, 1399);
+		record.setField("response_size", FieldType.UNION, 452);
+		record.setField("is_outside_office_hours", FieldType.BOOLEAN, false);
+		record.setField("is_host_blacklisted", FieldType.BOOLEAN, false);
+		record.setField("tags", FieldType.ARRAY, new ArrayList<>(Arrays.asList("spam", "filter", "mail")));
+		return record;
+	}
+
+	private static Schema loadSchema() throws IOException {
+		return new Schema.Parser().parse(AvroSerializerTest.class.getResourceAsStream("/schemas/event.avsc"));
+	}
+
 	@Test
 	public void avroSerde() throws IOException {
         final AvroSerializer serializer =
@@ -73,4 +94,46 @@ public class AvroSerializerTest {
 
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void avroSerdeWithReusedEncoders() throws IOException {
+		final AvroSerializer serializer = new AvroSerializer(loadSchema());
+
+		for (int i = 0; i < 100; i++) {
+			Record record = buildRecord("firewall_record" + i);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			serializer.serialize(baos, record);
+			Record deserializedRecord = serializer.deserialize(new ByteArrayInputStream(baos.toByteArray()));
+			assertEquals(record, deserializedRecord);
+		}
+	}
+
+	@Test
+	public void avroSerdeWithSchemaIdFraming() throws IOException {
+		final AvroSerializer serializer = new AvroSerializer(loadSchema(), 258);
+
+		Record record = buildRecord("firewall_record1");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(baos, record);
+		byte[] bytes = baos.toByteArray();
+
+		assertEquals(AvroSerializer.MAGIC_BYTE, bytes[0]);
+		assertArrayEquals(new byte[]{0, 0, 1, 2}, Arrays.copyOfRange(bytes, 1, 1 + AvroSerializer.idSize));
+		assertEquals(record, serializer.deserialize(new ByteArrayInputStream(bytes)));
+
+		try {
+			new AvroSerializer(loadSchema(), 3).deserialize(new ByteArrayInputStream(bytes));
+			fail("schema id mismatch should be detected");
+		} catch (RecordSerializationException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = RecordSerializationException.class)
+	public void avroSerializeUnknownField() throws IOException {
+		final AvroSerializer serializer = new AvroSerializer(loadSchema());
+		Record record = buildRecord("firewall_record1");
+		record.setField("unknown_field", FieldType.STRING, "value");
+		serializer.serialize(new ByteArrayOutputStream(), record);
+	}
+
+}
@@ -19,6 +19,7 @@
  */
 package com.hurence.logisland.serializer;
 
+import com.hurence.logisland.record.CompactRecord;
 import com.hurence.logisland.record.FieldType;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.record.StandardRecord;
@@ -27,9 +28,12 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Date;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -85,4 +89,88 @@ public class JsonSerializerTest {
 		assertTrue(deserializedRecord.getTime().getTime() == 1493286300033L);
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void validateArrayAndMapSerialization() throws IOException {
+
+		final JsonSerializer serializer = new JsonSerializer();
+
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("host", "origin-www.20minutes.fr");
+		headers.put("content_length", 452);
+
+		Record record = new StandardRecord("cisco");
+		record.setId("firewall_record1");
+		record.setField("request_size", FieldType.INT, 1399);
+		record.setField("ratio", FieldType.FLOAT, 1.5f);
+		record.setField("duration", FieldType.DOUBLE, 0.123456789d);
+		record.setField("tags", FieldType.ARRAY, new ArrayList<>(Arrays.asList("spam", "filter", "mail")));
+		record.setField("headers", FieldType.MAP, headers);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		serializer.serialize(baos, record);
+		String json = new String(baos.toByteArray());
+		assertFalse("output must be compact", json.contains("\n"));
+
+		Record deserializedRecord = serializer.deserialize(new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals(record, deserializedRecord);
+		assertEquals(FieldType.ARRAY, deserializedRecord.getField("tags").getType());
+		assertEquals(FieldType.MAP, deserializedRecord.getField("headers").getType());
+		assertEquals(FieldType.DOUBLE, deserializedRecord.getField("duration").getType());
+		assertEquals(record.getTime(), deserializedRecord.getTime());
+	}
+
+	@Test
+	public void validateSerializationOfOtherRecordImplementations() throws IOException {
+
+		final JsonSerializer serializer = new JsonSerializer();
+
+		Record standard = new StandardRecord("cisco");
+		standard.setId("firewall_record1");
+		standard.setField("request_size", FieldType.INT, 1399);
+		standard.setField("method", FieldType.STRING, "GET");
+		Record compact = new CompactRecord(standard);
+		compact.setId("firewall_record1");
+
+		ByteArrayOutputStream standardBytes = new ByteArrayOutputStream();
+		serializer.serialize(standardBytes, standard);
+		ByteArrayOutputStream compactBytes = new ByteArrayOutputStream();
+		serializer.serialize(compactBytes, compact);
+
+		Record deserializedRecord = serializer.deserialize(new ByteArrayInputStream(compactBytes.toByteArray()));
+		assertEquals(standard, deserializedRecord);
+		assertEquals(serializer.deserialize(new ByteArrayInputStream(standardBytes.toByteArray())), deserializedRecord);
+	}
+
+	@Test
+	public void validateConcurrentSerialization() throws Exception {
+
+		final JsonSerializer serializer = new JsonSerializer();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				final int threadId = i;
+				results.add(executor.submit(() -> {
+					for (int j = 0; j < 500; j++) {
+						Record record = new StandardRecord("cisco");
+						record.setId("record_" + threadId + "_" + j);
+						record.setField("request_size", FieldType.INT, j);
+
+						ByteArrayOutputStream baos = new ByteArrayOutputStream();
+						serializer.serialize(baos, record);
+						Record deserializedRecord = serializer.deserialize(new ByteArrayInputStream(baos.toByteArray()));
+						if (!record.equals(deserializedRecord) || !record.getTime().equals(deserializedRecord.getTime()))
+							return false;
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testSmallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < LatencyHistogram.SUB_BUCKET_COUNT; value++) {
+            histogram.record(value);
+        }
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(LatencyHistogram.SUB_BUCKET_COUNT, snapshot.getCount());
+        assertEquals(LatencyHistogram.SUB_BUCKET_COUNT - 1, snapshot.getMax());
+        assertEquals(LatencyHistogram.SUB_BUCKET_COUNT / 2 - 1, snapshot.getValueAtPercentile(50.0));
+        assertEquals(LatencyHistogram.SUB_BUCKET_COUNT - 1, snapshot.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void testPercentilesRelativeError() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final List<Long> values = new ArrayList<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            final long value = (long) Math.abs(random.nextGaussian() * 50000) + 100;
+            values.add(value);
+            histogram.record(value);
+        }
+        values.sort(Long::compare);
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        for (double percentile : new double[]{50.0, 95.0, 99.0, 99.9}) {
+            final long expected = values.get((int) Math.ceil(percentile / 100.0 * values.size()) - 1);
+            final long actual = snapshot.getValueAtPercentile(percentile);
+            assertTrue("p" + percentile + " " + actual + " below " + expected, actual >= expected);
+            assertTrue("p" + percentile + " " + actual + " too far from " + expected,
+                    actual - expected <= expected / (LatencyHistogram.SUB_BUCKET_COUNT / 2));
+        }
+        assertEquals(values.get(values.size() - 1).longValue(), snapshot.getMax());
+    }
+
+    @Test
+    public void testSnapshotAndReset() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(1L << 62);
+        histogram.record(-1);
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(3, snapshot.getCount());
+        assertEquals(1L << 62, snapshot.getMax());
+        assertEquals(1L << 62, snapshot.getValueAtPercentile(100.0));
+
+        final LatencyHistogram.Snapshot empty = histogram.snapshot();
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int numThreads = 8;
+        final int valuesPerThread = 100000;
+        final Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < valuesPerThread; i++) {
+                    histogram.record(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(numThreads * valuesPerThread, snapshot.getCount());
+        assertEquals(valuesPerThread - 1, snapshot.getMax());
+    }
+}
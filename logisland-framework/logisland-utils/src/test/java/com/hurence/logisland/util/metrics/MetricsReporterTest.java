@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.metrics;
+
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.record.StandardRecord;
+import com.hurence.logisland.util.processor.ProcessorMetrics;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+public class MetricsReporterTest {
+
+    private static Logger logger = LoggerFactory.getLogger(MetricsReporterTest.class);
+
+    private static Collection<Record> metricRecords(int count) {
+        final List<Record> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new StandardRecord(ProcessorMetrics.METRICS_EVENT_TYPE).setStringField("component_name", "c" + i));
+        }
+        return records;
+    }
+
+    @Test
+    public void testDrainReportsQueuedRecordsAndLatencies() {
+        final MetricsReporter reporter = new MetricsReporter("test", 0L, metrics -> { });
+        reporter.report(metricRecords(3));
+        for (long duration = 1; duration <= 100; duration++) {
+            reporter.recordProcessingTime("app", "parser", duration * 1000L);
+        }
+
+        final List<Record> metrics = new ArrayList<>(reporter.drain());
+        assertEquals(4, metrics.size());
+        final Record latency = metrics.get(3);
+        assertEquals("app", latency.getField("spark_app_name").asString());
+        assertEquals("parser", latency.getField("component_name").asString());
+        assertEquals(100L, latency.getField("num_batches").asLong().longValue());
+        assertEquals(50.0, latency.getField("processing_time_p50_in_ms").asDouble(), 1.0);
+        assertEquals(99.0, latency.getField("processing_time_p99_in_ms").asDouble(), 2.0);
+        assertEquals(100.0, latency.getField("processing_time_max_in_ms").asDouble(), 0.001);
+
+        // latencies are reset and idle components are not reported
+        assertTrue(reporter.drain().isEmpty());
+    }
+
+    @Test
+    public void testQueueIsBounded() {
+        final MetricsReporter reporter = new MetricsReporter("test", 0L, metrics -> { });
+        reporter.report(metricRecords(MetricsReporter.MAX_QUEUED_RECORDS + 10));
+        assertEquals(MetricsReporter.MAX_QUEUED_RECORDS, reporter.drain().size());
+        reporter.report(metricRecords(1));
+        assertEquals(1, reporter.drain().size());
+    }
+
+    @Test
+    public void testPeriodicFlushAndClose() throws InterruptedException {
+        final List<Record> sent = new CopyOnWriteArrayList<>();
+        final CountDownLatch flushed = new CountDownLatch(1);
+        final MetricsReporter reporter = MetricsReporter.getOrCreate("testPeriodicFlushAndClose", 50L,
+                () -> metrics -> {
+                    sent.addAll(metrics);
+                    flushed.countDown();
+                });
+        assertSame(reporter, MetricsReporter.getOrCreate("testPeriodicFlushAndClose", 50L, () -> metrics -> fail()));
+
+        reporter.report(metricRecords(2));
+        assertTrue(flushed.await(10, TimeUnit.SECONDS));
+        assertEquals(2, sent.size());
+
+        reporter.report(metricRecords(1));
+        reporter.close();
+        assertEquals(3, sent.size());
+        assertNotSame(reporter, MetricsReporter.getOrCreate("testPeriodicFlushAndClose", 0L, () -> metrics -> { }));
+    }
+
+    @Test
+    public void testCloseAllSendsPendingMetrics() {
+        final List<Record> sent = new ArrayList<>();
+        final MetricsReporter reporter = MetricsReporter.getOrCreate("testCloseAllSendsPendingMetrics", 60000L,
+                () -> sent::addAll);
+        reporter.report(metricRecords(2));
+        reporter.recordProcessingTime("app", "parser", 1000L);
+
+        MetricsReporter.closeAll();
+        assertEquals(3, sent.size());
+        assertNotSame(reporter, MetricsReporter.getOrCreate("testCloseAllSendsPendingMetrics", 0L, () -> metrics -> { }));
+    }
+
+    @Test
+    public void testFailingSinkDoesNotStopFlushes() {
+        final List<Record> sent = new ArrayList<>();
+        final MetricsReporter reporter = new MetricsReporter("test", 0L, metrics -> {
+            if (sent.isEmpty() && metrics.size() == 1) {
+                sent.add(null);
+                throw new IllegalStateException("broker unavailable");
+            }
+            sent.addAll(metrics);
+        });
+        reporter.report(metricRecords(1));
+        reporter.flush();
+        reporter.report(metricRecords(2));
+        reporter.flush();
+        assertEquals(3, sent.size());
+    }
+
+    /**
+     * Compares the cost of emitting the metrics of a batch with the previous synchronized
+     * ProcessorMetrics.computeMetrics followed by a synchronous send, against queuing them in the reporter.
+     */
+    @Ignore("benchmark, only logs timings")
+    @Test
+    public void testConcurrentReportingThroughput() throws InterruptedException {
+        final int numThreads = 8;
+        final int batchesPerThread = 20000;
+        final MetricsReporter reporter = new MetricsReporter("throughput", 0L, metrics -> { });
+        final Object sinkLock = new Object();
+
+        final long blockingNanos = runConcurrently(numThreads, batchesPerThread, () -> {
+            synchronized (sinkLock) {
+                final Collection<Record> metrics = computeMetrics();
+                metrics.forEach(Record::sizeInBytes);
+            }
+        });
+        final long reporterNanos = runConcurrently(numThreads, batchesPerThread, () -> {
+            reporter.report(computeMetrics());
+            reporter.recordProcessingTime("app", "processor", 1234L);
+        });
+        final int drained = reporter.drain().size();
+
+        logger.info("emitting the metrics of a batch, {} threads : {} ns/batch when serialized, {} ns/batch with the reporter",
+                numThreads,
+                blockingNanos / (numThreads * batchesPerThread),
+                reporterNanos / (numThreads * batchesPerThread));
+        assertEquals(Math.min(numThreads * batchesPerThread, MetricsReporter.MAX_QUEUED_RECORDS) + 1, drained);
+    }
+
+    private static Collection<Record> computeMetrics() {
+        return ProcessorMetrics.computeMetrics("app", "processor", "in", "out", 0,
+                1000L, 1000L, 0L, 100000L, 5000L, 0L, 1000L, 12L, 0L);
+    }
+
+    private static long runConcurrently(int numThreads, int iterations, Runnable task) throws InterruptedException {
+        final Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    task.run();
+                }
+            });
+        }
+        final long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.processor;
+
+import com.hurence.logisland.component.PropertyDescriptor;
+import com.hurence.logisland.processor.AbstractProcessor;
+import com.hurence.logisland.processor.ProcessContext;
+import com.hurence.logisland.processor.ProcessorMetricsProvider;
+import com.hurence.logisland.processor.StandardProcessContext;
+import com.hurence.logisland.processor.StreamingProcessor;
+import com.hurence.logisland.processor.StreamingProcessors;
+import com.hurence.logisland.record.FieldType;
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.record.StandardRecord;
+import com.hurence.logisland.util.runner.MockProcessor;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class ProcessorChainTest {
+
+    private static final int NUM_RECORDS = 10000;
+
+    /**
+     * a stateless processor tagging each record as it flows
+     */
+    public static class TagProcessor extends AbstractProcessor implements StreamingProcessor {
+
+        @Override
+        public Collection<Record> process(ProcessContext context, Collection<Record> records) {
+            records.forEach(record -> record.setStringField("tag", "tagged"));
+            return records;
+        }
+
+        @Override
+        public Iterator<Record> process(ProcessContext context, Iterator<Record> records) {
+            return StreamingProcessors.forEachRecord(records, record -> record.setStringField("tag", "tagged"));
+        }
+
+        @Override
+        public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * counts the records it sees and reports them as its own metric
+     */
+    public static class CountingProcessor extends TagProcessor implements ProcessorMetricsProvider {
+
+        private long seen = 0;
+
+        @Override
+        public Iterator<Record> process(ProcessContext context, Iterator<Record> records) {
+            return StreamingProcessors.forEachRecord(records, record -> seen++);
+        }
+
+        @Override
+        public Map<String, Number> drainMetrics() {
+            Map<String, Number> metrics = new HashMap<>();
+            metrics.put("seen_records", seen);
+            metrics.put("seen_ratio", 1.0);
+            seen = 0;
+            return metrics;
+        }
+    }
+
+    /**
+     * spends about a millisecond on each record
+     */
+    public static class SlowProcessor extends TagProcessor {
+
+        @Override
+        public Iterator<Record> process(ProcessContext context, Iterator<Record> records) {
+            return StreamingProcessors.forEachRecord(records, record -> {
+                try {
+                    Thread.sleep(1L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+    }
+
+    /**
+     * generates records on demand and keeps track of how many of them are alive at the same time
+     */
+    private static class RecordSource implements Iterator<Record> {
+        private int produced = 0;
+        private int consumed = 0;
+        private int peakInFlight = 0;
+
+        @Override
+        public boolean hasNext() {
+            return produced < NUM_RECORDS;
+        }
+
+        @Override
+        public Record next() {
+            produced++;
+            peakInFlight = Math.max(peakInFlight, produced - consumed);
+            return new StandardRecord("chain_test").setId("record" + produced);
+        }
+
+        void consume(Record record) {
+            consumed++;
+        }
+    }
+
+    private static ProcessContext context(AbstractProcessor processor, String name) {
+        return new StandardProcessContext(processor, name);
+    }
+
+    @Test
+    public void testStreamingProcessorsAreChainedLazily() {
+        ProcessorChain chain = new ProcessorChain(Arrays.asList(
+                context(new TagProcessor(), "tagger1"),
+                context(new TagProcessor(), "tagger2")));
+
+        RecordSource source = new RecordSource();
+        Iterator<Record> outgoingRecords = chain.process(source);
+        assertEquals(0, source.produced);
+
+        int count = 0;
+        while (outgoingRecords.hasNext()) {
+            Record record = outgoingRecords.next();
+            assertEquals("tagged", record.getField("tag").asString());
+            source.consume(record);
+            count++;
+        }
+
+        assertEquals(NUM_RECORDS, count);
+        // only one record at a time is held by the chain
+        assertEquals(1, source.peakInFlight);
+
+        List<ProcessorChain.ProcessorMeter> meters = chain.getProcessorMeters();
+        assertEquals(2, meters.size());
+        assertEquals("tagger1", meters.get(0).getProcessorId());
+        assertEquals("TagProcessor", meters.get(0).getProcessorName());
+        assertEquals(NUM_RECORDS, meters.get(0).getNumIncomingRecords());
+        assertEquals(NUM_RECORDS, meters.get(1).getNumOutgoingRecords());
+        assertEquals(0, meters.get(1).getNumErrorRecords());
+        assertTrue(meters.get(1).getNumberOfProcessedFields() > 0);
+    }
+
+    @Test
+    public void testCollectionProcessorsAreAdapted() {
+        ProcessorChain chain = new ProcessorChain(Arrays.asList(
+                context(new TagProcessor(), "tagger"),
+                context(new MockProcessor(), "mock")));
+
+        RecordSource source = new RecordSource();
+        Iterator<Record> outgoingRecords = chain.process(source);
+        assertEquals(0, source.produced);
+
+        int count = 0;
+        while (outgoingRecords.hasNext()) {
+            Record record = outgoingRecords.next();
+            assertEquals("tagged", record.getField("tag").asString());
+            assertEquals(MockProcessor.FAKE_MESSAGE.getDefaultValue(), record.getField("message").asString());
+            source.consume(record);
+            count++;
+        }
+
+        assertEquals(NUM_RECORDS, count);
+        // the collection based processor needs the whole partition in memory
+        assertEquals(NUM_RECORDS, source.peakInFlight);
+        assertEquals(NUM_RECORDS, chain.getProcessorMeters().get(1).getNumIncomingRecords());
+        assertEquals(NUM_RECORDS, chain.getProcessorMeters().get(1).getNumOutgoingRecords());
+    }
+
+    @Test
+    public void testProcessorMetricsAreReported() {
+        ProcessorChain chain = new ProcessorChain(Arrays.asList(
+                context(new TagProcessor(), "tagger"),
+                context(new CountingProcessor(), "counter")));
+
+        Iterator<Record> outgoingRecords = chain.process(new RecordSource());
+        while (outgoingRecords.hasNext()) {
+            outgoingRecords.next();
+        }
+
+        assertTrue(chain.getProcessorMeters().get(0).drainProcessorMetrics().isEmpty());
+
+        ProcessorChain.ProcessorMeter meter = chain.getProcessorMeters().get(1);
+        Collection<Record> metrics = ProcessorMetrics.computeMetrics("app", meter.getProcessorName(), "in", "out", 0,
+                meter.getNumIncomingRecords(), meter.getNumOutgoingRecords(), meter.getNumErrorRecords(),
+                meter.getNumberOfProcessedBytes(), meter.getNumberOfProcessedFields(),
+                0, NUM_RECORDS, meter.getProcessingDurationInMillis(), 0, meter.drainProcessorMetrics());
+
+        Record metricsRecord = metrics.iterator().next();
+        assertEquals(FieldType.LONG, metricsRecord.getField("seen_records").getType());
+        assertEquals(NUM_RECORDS, metricsRecord.getField("seen_records").asLong().longValue());
+        assertEquals(FieldType.DOUBLE, metricsRecord.getField("seen_ratio").getType());
+
+        // metrics are reset once drained
+        assertEquals(0L, meter.drainProcessorMetrics().get("seen_records"));
+    }
+
+    @Test
+    public void testProcessingDurationIsEstimatedFromSampledRecords() {
+        ProcessorChain chain = new ProcessorChain(Arrays.asList(
+                context(new TagProcessor(), "tagger"),
+                context(new SlowProcessor(), "slow")));
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            records.add(new StandardRecord("chain_test").setId("record" + i));
+        }
+        Iterator<Record> outgoingRecords = chain.process(records.iterator());
+        while (outgoingRecords.hasNext()) {
+            outgoingRecords.next();
+        }
+
+        // most of the records are not timed, they're accounted for by the sampled ones
+        long slowDuration = chain.getProcessorMeters().get(1).getProcessingDurationInMillis();
+        assertTrue("estimated " + slowDuration + " ms", slowDuration >= 200);
+        assertTrue(chain.getProcessorMeters().get(0).getProcessingDurationInMillis() < slowDuration);
+    }
+}
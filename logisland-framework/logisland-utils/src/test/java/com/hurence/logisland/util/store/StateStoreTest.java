@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.store;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Test the state store shared by the processors keeping state across batches.
+ */
+public class StateStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final class Counter implements Serializable {
+        private final String name;
+        private long value;
+
+        Counter(String name, long value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    @After
+    public void closeStores() {
+        StateStore.closeAll();
+    }
+
+    @Test
+    public void testInMemoryStoreForgetsEvictedEntries() throws Exception {
+        final StateStore<Counter> store = StateStore.open("forget", null, 2);
+        store.put("a", new Counter("a", 1));
+        store.put("b", new Counter("b", 1));
+        store.get("a");
+        store.put("c", new Counter("c", 1));
+
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(0, store.snapshotOnlySize());
+        Assert.assertNotNull(store.get("a"));
+        Assert.assertNull(store.get("b"));
+        Assert.assertNotNull(store.get("c"));
+    }
+
+    @Test
+    public void testInMemoryStoreSharedByName() throws Exception {
+        final StateStore<Counter> store = StateStore.open("shared", null, 10);
+        Assert.assertSame(store, StateStore.open("shared", null, 10));
+        Assert.assertNotSame(store, StateStore.open("other", null, 10));
+
+        store.put("a", new Counter("a", 1));
+        store.close();
+        Assert.assertNull(StateStore.<Counter>open("shared", null, 10).get("a"));
+    }
+
+    @Test
+    public void testEvictedEntriesAreReadBackAndExpired() throws Exception {
+        final StateStore<Counter> store = StateStore.open("evict", temporaryFolder.newFolder(), 2);
+        for (int i = 0; i < 5; i++) {
+            store.put("cpu/host" + i, new Counter("cpu/host" + i, i), i);
+        }
+        store.put("cpu/untimed", new Counter("cpu/untimed", 0));
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(4, store.snapshotOnlySize());
+
+        // an evicted entry is read back with its state and keeps being updated
+        final Counter counter = store.get("cpu/host0");
+        Assert.assertEquals("cpu/host0", counter.name);
+        counter.value = 10;
+        store.put("cpu/host0", counter, 10);
+
+        // cpu/host1 and cpu/host2 only have a snapshot, entries without timestamp never expire
+        final List<Counter> removed = store.removeOlderThan(3);
+        Assert.assertEquals(2, removed.size());
+        Assert.assertEquals("cpu/host1", removed.get(0).name);
+        Assert.assertEquals("cpu/host2", removed.get(1).name);
+        Assert.assertEquals(0, store.removeOlderThan(3).size());
+        Assert.assertNull(store.get("cpu/host1"));
+        Assert.assertNull(store.get("cpu/host2"));
+        Assert.assertEquals(10, store.get("cpu/host0").value);
+        Assert.assertEquals(3, store.get("cpu/host3").value);
+        Assert.assertNotNull(store.get("cpu/untimed"));
+    }
+
+    @Test
+    public void testTimestampsRestoredFromCheckpoint() throws Exception {
+        final File directory = temporaryFolder.newFolder();
+        final StateStore<Counter> store = StateStore.open("timestamps", directory, 10);
+        store.put("a", new Counter("a", 1), 100);
+        store.put("b", new Counter("b", 2), 200);
+        store.put("c", new Counter("c", 3));
+        store.close();
+
+        final StateStore<Counter> restored = StateStore.open("timestamps", directory, 10);
+        final List<Counter> removed = restored.removeOlderThan(Long.MAX_VALUE);
+        Assert.assertEquals(2, removed.size());
+        Assert.assertEquals("a", removed.get(0).name);
+        Assert.assertEquals("b", removed.get(1).name);
+        Assert.assertEquals(3, restored.get("c").value);
+    }
+
+    @Test
+    public void testConcurrentUpdatesUnderKeyLocks() throws Exception {
+        final StateStore<Counter> store = StateStore.open("concurrent", temporaryFolder.newFolder(), 8);
+        final int threads = 4;
+        final int increments = 2000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < increments; i++) {
+                    final String key = "key" + (i % 32);
+                    final Lock lock = store.lockOf(key);
+                    lock.lock();
+                    try {
+                        Counter counter = store.get(key);
+                        if (counter == null) {
+                            counter = new Counter(key, 0);
+                        }
+                        counter.value++;
+                        store.put(key, counter, i);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                store.checkpoint();
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        long total = 0;
+        for (Counter counter : store.removeOlderThan(Long.MAX_VALUE)) {
+            total += counter.value;
+        }
+        Assert.assertEquals(threads * increments, total);
+        Assert.assertEquals(0, store.size() + store.snapshotOnlySize());
+    }
+
+    @Test
+    public void testRestoreFromCheckpoint() throws Exception {
+        final File directory = temporaryFolder.newFolder();
+        final StateStore<Counter> store = StateStore.open("restore", directory, 10);
+        Assert.assertSame(store, StateStore.open("other name", directory, 10));
+        store.put("a", new Counter("a", 120));
+        store.put("b", new Counter("b", 5));
+        Assert.assertTrue(store.isCheckpointDue(System.currentTimeMillis(), 0));
+        store.checkpoint();
+        store.put("c", new Counter("c", 1));
+        store.remove("b");
+        store.close();
+        Assert.assertTrue(store.isClosed());
+
+        final StateStore<Counter> restored = StateStore.open("restore", directory, 10);
+        Assert.assertNotSame(store, restored);
+        Assert.assertEquals(0, restored.size());
+        Assert.assertEquals(2, restored.snapshotOnlySize());
+        Assert.assertEquals(120, restored.get("a").value);
+        Assert.assertEquals(1, restored.get("c").value);
+        Assert.assertNull(restored.get("b"));
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.util.time;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+
+public class TimestampParserTest {
+
+    private static Logger logger = LoggerFactory.getLogger(TimestampParserTest.class);
+
+    private static final Locale US = new Locale("en", "US");
+
+    private static final TimeZone[] TIME_ZONES = {
+            TimeZone.getTimeZone("UTC"),
+            TimeZone.getTimeZone("Europe/Paris"),
+            TimeZone.getTimeZone("Canada/Atlantic")
+    };
+
+    /**
+     * a timestamp for each known format which is detected, formatted at different dates
+     */
+    private static List<String> corpus() {
+        final List<String> corpus = new ArrayList<>();
+        final long[] dates = {1388648629000L, 1469342729123L, 1500000000999L, 946684800000L};
+        for (String format : DateUtil.DATE_FORMAT_REGEXPS.values()) {
+            for (long date : dates) {
+                final SimpleDateFormat simpleDateFormat = new SimpleDateFormat(format, US);
+                simpleDateFormat.setTimeZone(TimeZone.getTimeZone("Europe/Paris"));
+                final String value = simpleDateFormat.format(new Date(date));
+                if (legacyDetermineDateFormat(value) != null) {
+                    corpus.add(value);
+                }
+            }
+        }
+        corpus.add("2017 Jan  2 7:43:49");
+        corpus.add("02/JAN/2014:09:43:49 +0200");
+        corpus.add("2014-01-02T08:43:49.000CET");
+        corpus.add("2014-01-02T08:43:49.0000+01:00");
+        corpus.add("Thu Jan 02 08:43:49 CET 2014");
+        return corpus;
+    }
+
+    private static String legacyDetermineDateFormat(String dateString) {
+        for (Map.Entry<String, String> dateFormat : DateUtil.DATE_FORMAT_REGEXPS.entrySet()) {
+            if (dateString.toLowerCase().matches(dateFormat.getKey())) {
+                return dateFormat.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static Date legacyParse(String dateString, TimeZone timeZone) throws ParseException {
+        final String dateFormat = legacyDetermineDateFormat(dateString);
+        if (dateFormat == null) {
+            throw new ParseException("Unknown date format for date '" + dateString + "'", 0);
+        }
+        final SimpleDateFormat simpleDateFormat = new SimpleDateFormat(dateFormat, US);
+        simpleDateFormat.setTimeZone(timeZone);
+        simpleDateFormat.setLenient(false);
+        return simpleDateFormat.parse(dateString);
+    }
+
+    @Test
+    public void testDetectionRegexesAreExclusive() {
+        final List<Pattern> regexes = new ArrayList<>();
+        DateUtil.DATE_FORMAT_REGEXPS.keySet().forEach(regex -> regexes.add(Pattern.compile(regex)));
+        for (String value : corpus()) {
+            final long matching = regexes.stream().filter(regex -> regex.matcher(value.toLowerCase()).matches()).count();
+            assertEquals(value, 1L, matching);
+        }
+    }
+
+    @Test
+    public void testSameDatesAsSimpleDateFormat() throws ParseException {
+        final TimestampParser parser = new TimestampParser();
+        int compiled = 0;
+        for (String value : corpus()) {
+            final String format = parser.determineDateFormat(value);
+            assertEquals(value, legacyDetermineDateFormat(value), format);
+            if (TimestampFormat.of(format).isCompiled()) {
+                compiled++;
+            }
+            if (format.equals("MMM dd HH:mm:ss")) {
+                // the current year is used
+                continue;
+            }
+            for (TimeZone timeZone : TIME_ZONES) {
+                assertEquals(value + " in " + timeZone.getID(), legacyParse(value, timeZone), parser.parse(value, timeZone));
+            }
+        }
+        assertEquals("every known format should be parsed with java.time", corpus().size(), compiled);
+    }
+
+    @Test
+    public void testInvalidDates() {
+        final TimestampParser parser = new TimestampParser();
+        for (String value : new String[]{"2017-02-30", "2017-13-01 07:43:49", "not a date", "32/01/2017 07:43", ""}) {
+            try {
+                fail(value + " parsed as " + parser.parse(value, TimeZone.getTimeZone("UTC")));
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testExplicitFormats() throws ParseException {
+        final TimeZone utc = TimeZone.getTimeZone("UTC");
+        assertEquals(1500000000000L, DateUtil.parse("14/07/2017 02:40:00 AM", "dd/MM/yyyy hh:mm:ss a", utc).getTime());
+        assertEquals(1500043200000L, DateUtil.parse("14/07/2017 02:40:00 PM", "dd/MM/yyyy hh:mm:ss a", utc).getTime());
+        assertEquals(1500000000000L, DateUtil.parse("2017-07-14 at 02:40", "yyyy-MM-dd 'at' HH:mm", utc).getTime());
+        // G has no translation, SimpleDateFormat is used
+        assertFalse(TimestampFormat.of("yyyy G").isCompiled());
+        assertEquals(DateUtil.parse("2017", "yyyy", utc), DateUtil.parse("2017 AD", "yyyy G", utc));
+    }
+
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        final List<String> corpus = corpus();
+        final TimestampParser parser = new TimestampParser();
+        final TimeZone timeZone = TimeZone.getTimeZone("Europe/Paris");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        for (String value : corpus) {
+                            if (!parser.determineDateFormat(value).equals("MMM dd HH:mm:ss")
+                                    && !legacyParse(value, timeZone).equals(parser.parse(value, timeZone))) {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Parses a corpus of mixed log timestamps with the previous implementation (regexes compiled for each
+     * value, new SimpleDateFormat for each value) and with the parser. JMH is not available so it is only logged.
+     */
+    @Ignore("benchmark, only logs timings")
+    @Test
+    public void testParsingThroughput() throws ParseException {
+        final List<String> corpus = corpus();
+        final TimeZone timeZone = TimeZone.getTimeZone("UTC");
+        final int rounds = 50;
+        final TimestampParser parser = new TimestampParser();
+
+        // warm up
+        for (int round = 0; round < rounds; round++) {
+            for (String value : corpus) {
+                legacyParse(value, timeZone);
+                parser.parse(value, timeZone);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String value : corpus) {
+                legacyParse(value, timeZone);
+            }
+        }
+        final long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String value : corpus) {
+                parser.parse(value, timeZone);
+            }
+        }
+        final long mixedNanos = System.nanoTime() - start;
+
+        // a single source, always the same format
+        start = System.nanoTime();
+        for (int round = 0; round < rounds * corpus.size(); round++) {
+            parser.parse("2016-07-24 08:45:29,123", timeZone);
+        }
+        final long singleSourceNanos = System.nanoTime() - start;
+
+        final int count = rounds * corpus.size();
+        logger.info("parsing {} mixed timestamps : {} ns/value before, {} ns/value with the parser, {} ns/value from a single source",
+                corpus.size(), legacyNanos / count, mixedNanos / count, singleSourceNanos / count);
+    }
+}
@@ -35,7 +35,7 @@ import java.util.*;
         supportsExpressionLanguage = true,
         value = "the new type",
         description = "convert field value into new type")
-public class ConvertFieldsType extends AbstractProcessor {
+public class ConvertFieldsType extends AbstractProcessor implements StreamingProcessor {
 
 
     private static final Logger logger = LoggerFactory.getLogger(ConvertFieldsType.class);
@@ -70,51 +70,64 @@ public class ConvertFieldsType extends AbstractProcessor {
             init(context);
 
         for (Record record : records) {
-            fieldTypes.keySet().forEach(fieldName -> {
-                if (record.hasField(fieldName)) {
-
-                    try {
-                        Field currentField = record.getField(fieldName);
-                        FieldType currentFieldType = currentField.getType();
-                        FieldType newFieldType = fieldTypes.get(fieldName);
-
-                        if(currentFieldType != newFieldType) {
-
-                            switch (newFieldType) {
-
-                                case STRING:
-                                    record.setField(fieldName, newFieldType, currentField.asString());
-                                    break;
-                                case INT:
-                                    record.setField(fieldName, newFieldType, currentField.asInteger());
-                                    break;
-                                case LONG:
-                                    record.setField(fieldName, newFieldType, currentField.asLong());
-                                    break;
-                                case FLOAT:
-                                    record.setField(fieldName, newFieldType, currentField.asFloat());
-                                    break;
-                                case DOUBLE:
-                                    record.setField(fieldName, newFieldType, currentField.asDouble());
-                                    break;
-                                case BOOLEAN:
-                                    record.setField(fieldName, newFieldType, currentField.asBoolean());
-                                    break;
-                                default:
-                                    logger.info("field type {} is not supported yet", newFieldType.toString());
-                                    break;
-                            }
-                        }
-                    } catch (Throwable ex) {
-                        logger.debug("unable to process a field in record : {}, {}", record, ex.getMessage());
-                    }
-                }
-            });
+            convertFields(record);
         }
 
         return records;
     }
 
+    @Override
+    public Iterator<Record> process(ProcessContext context, Iterator<Record> records) {
+
+        if(fieldTypes == null)
+            init(context);
+
+        return StreamingProcessors.forEachRecord(records, this::convertFields);
+    }
+
+    private void convertFields(Record record) {
+        fieldTypes.keySet().forEach(fieldName -> {
+            if (record.hasField(fieldName)) {
+
+                try {
+                    Field currentField = record.getField(fieldName);
+                    FieldType currentFieldType = currentField.getType();
+                    FieldType newFieldType = fieldTypes.get(fieldName);
+
+                    if(currentFieldType != newFieldType) {
+
+                        switch (newFieldType) {
+
+                            case STRING:
+                                record.setField(fieldName, newFieldType, currentField.asString());
+                                break;
+                            case INT:
+                                record.setField(fieldName, newFieldType, currentField.asInteger());
+                                break;
+                            case LONG:
+                                record.setField(fieldName, newFieldType, currentField.asLong());
+                                break;
+                            case FLOAT:
+                                record.setField(fieldName, newFieldType, currentField.asFloat());
+                                break;
+                            case DOUBLE:
+                                record.setField(fieldName, newFieldType, currentField.asDouble());
+                                break;
+                            case BOOLEAN:
+                                record.setField(fieldName, newFieldType, currentField.asBoolean());
+                                break;
+                            default:
+                                logger.info("field type {} is not supported yet", newFieldType.toString());
+                                break;
+                        }
+                    }
+                } catch (Throwable ex) {
+                    logger.debug("unable to process a field in record : {}, {}", record, ex.getMessage());
+                }
+            }
+        });
+    }
+
     private Map<String, FieldType> getStringFieldTypes(ProcessContext context) {
         Map<String, FieldType> fieldTypes = new HashMap<>();
 
@@ -35,7 +35,7 @@ import java.util.*;
         supportsExpressionLanguage = true,
         value = "a comma separated list of possible field name",
         description = "when a field has a name contained in the list it will be renamed with this property field name")
-public class NormalizeFields extends AbstractProcessor {
+public class NormalizeFields extends AbstractProcessor implements StreamingProcessor {
 
 
     private static final Logger logger = LoggerFactory.getLogger(NormalizeFields.class);
@@ -87,6 +87,13 @@ public class NormalizeFields extends AbstractProcessor {
         return records;
     }
 
+    @Override
+    public Iterator<Record> process(ProcessContext context, Iterator<Record> records) {
+        final Map<String, String[]> fieldsNameMapping = getFieldsNameMapping(context);
+        return StreamingProcessors.forEachRecord(records,
+                record -> normalizeRecord(context, record, fieldsNameMapping));
+    }
+
 
     private void normalizeRecord(ProcessContext context, Record record, Map<String, String[]> fieldsNameMapping) {
 
@@ -27,11 +27,12 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 @Tags({"record", "fields", "remove", "delete"})
 @CapabilityDescription("Removes a list of fields defined by a comma separated list of field names")
-public class RemoveFields extends AbstractProcessor {
+public class RemoveFields extends AbstractProcessor implements StreamingProcessor {
 
     private static final long serialVersionUID = -270933070438408174L;
 
@@ -49,16 +50,10 @@ public class RemoveFields extends AbstractProcessor {
     public Collection<Record> process(ProcessContext context, Collection<Record> records) {
 
         try {
-            List<String> fieldsToRemove = Lists.newArrayList(
-                    context.getPropertyValue(FIELDS_TO_REMOVE).asString().split(","));
+            List<String> fieldsToRemove = getFieldsToRemove(context);
 
             for (Record record : records) {
-                new ArrayList<>(record.getAllFields()).forEach(field -> {
-                    String fieldName = field.getName();
-                    if (fieldsToRemove.contains(fieldName)) {
-                        record.removeField(fieldName);
-                    }
-                });
+                removeFields(record, fieldsToRemove);
             }
         } catch (Exception ex) {
             logger.warn("issue while trying to remove field list {} :  {}",
@@ -69,6 +64,35 @@ public class RemoveFields extends AbstractProcessor {
         return records;
     }
 
+    @Override
+    public Iterator<Record> process(ProcessContext context, Iterator<Record> records) {
+        final List<String> fieldsToRemove = getFieldsToRemove(context);
+
+        return StreamingProcessors.forEachRecord(records, record -> {
+            try {
+                removeFields(record, fieldsToRemove);
+            } catch (Exception ex) {
+                logger.warn("issue while trying to remove field list {} :  {}",
+                        fieldsToRemove,
+                        ex.toString());
+            }
+        });
+    }
+
+    private List<String> getFieldsToRemove(ProcessContext context) {
+        return Lists.newArrayList(
+                context.getPropertyValue(FIELDS_TO_REMOVE).asString().split(","));
+    }
+
+    private void removeFields(Record record, List<String> fieldsToRemove) {
+        new ArrayList<>(record.getAllFields()).forEach(field -> {
+            String fieldName = field.getName();
+            if (fieldsToRemove.contains(fieldName)) {
+                record.removeField(fieldName);
+            }
+        });
+    }
+
 
     @Override
     public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
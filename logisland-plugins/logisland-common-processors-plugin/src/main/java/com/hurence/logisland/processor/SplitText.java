@@ -20,11 +20,13 @@ import com.hurence.logisland.annotation.documentation.CapabilityDescription;
 import com.hurence.logisland.annotation.documentation.SeeAlso;
 import com.hurence.logisland.annotation.documentation.Tags;
 import com.hurence.logisland.component.PropertyDescriptor;
+import com.hurence.logisland.component.PropertySnapshot;
+import com.hurence.logisland.processor.util.MappedPatternSet;
 import com.hurence.logisland.record.FieldDictionary;
 import com.hurence.logisland.record.FieldType;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.record.StandardRecord;
-import com.hurence.logisland.util.time.DateUtil;
+import com.hurence.logisland.util.time.TimestampParser;
 import com.hurence.logisland.validator.StandardValidators;
 import com.hurence.logisland.validator.ValidationContext;
 import com.hurence.logisland.validator.ValidationResult;
@@ -35,7 +37,6 @@ import java.text.ParseException;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 
 @Tags({"parser", "regex", "log", "record"})
@@ -108,24 +109,25 @@ public class SplitText extends AbstractProcessor {
             .addValidator(StandardValidators.TIMEZONE_VALIDATOR)
             .build();
 
-    private class AlternativeMappingPattern{
-
-        private String[] mapping;
-        private Pattern pattern;
-
-        AlternativeMappingPattern(String mapping,Pattern pattern) {
-            this.mapping = mapping.split(",");
-            this.pattern = pattern;
-        }
+    public static final PropertyDescriptor ADAPTIVE_REGEX_ORDER = new PropertyDescriptor.Builder()
+            .name("adaptive.regex.order")
+            .description("try first the value regexes that have matched the most so far. " +
+                    "Only enable it if a value can't be matched by several of the main and alternative regexes, " +
+                    "as the first matching one is used")
+            .required(false)
+            .defaultValue("false")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
 
-        public String[] getMapping() {
-            return mapping;
-        }
+    /**
+     * the main value regex followed by the alternative ones, compiled at init
+     */
+    private transient volatile MappedPatternSet valuePatterns;
 
-        public Pattern getPattern() {
-            return pattern;
-        }
-    }
+    /**
+     * record times of a source usually share the same format, which this parser remembers
+     */
+    private transient volatile TimestampParser timestampParser;
 
     @Override
     public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
@@ -137,6 +139,7 @@ public class SplitText extends AbstractProcessor {
         descriptors.add(RECORD_TYPE);
         descriptors.add(KEEP_RAW_CONTENT);
         descriptors.add(TIME_ZONE_RECORD_TIME);
+        descriptors.add(ADAPTIVE_REGEX_ORDER);
 
         return Collections.unmodifiableList(descriptors);
     }
@@ -189,17 +192,34 @@ public class SplitText extends AbstractProcessor {
         return validationResults;
     }
 
+    @Override
+    public void init(final ProcessContext context) {
+        super.init(context);
+        valuePatterns = buildValuePatterns(context);
+        timestampParser = new TimestampParser();
+    }
+
     @Override
     public Collection<Record> process(ProcessContext context, Collection<Record> records) {
 
-        final String[] keyFields = context.getPropertyValue(KEY_FIELDS).asString().split(",");
-        final String keyRegexString = context.getPropertyValue(KEY_REGEX).asString();
-        final Pattern keyRegex = Pattern.compile(keyRegexString);
-        final String[] valueFields = context.getPropertyValue(VALUE_FIELDS).asString().split(",");
-        final String valueRegexString = context.getPropertyValue(VALUE_REGEX).asString();
-        final String eventType = context.getPropertyValue(RECORD_TYPE).asString();
-        final boolean keepRawContent = context.getPropertyValue(KEEP_RAW_CONTENT).asBoolean();
-        final Pattern valueRegex = Pattern.compile(valueRegexString);
+        final PropertySnapshot properties = context.getPropertySnapshot();
+        final String[] keyFields = properties.getString(KEY_FIELDS).split(",");
+        final String keyRegexString = properties.getString(KEY_REGEX);
+        final Pattern keyRegex = properties.getPattern(KEY_REGEX);
+        final String valueRegexString = properties.getString(VALUE_REGEX);
+        final String eventType = properties.getString(RECORD_TYPE);
+        final boolean keepRawContent = properties.getBoolean(KEEP_RAW_CONTENT);
+        final MappedPatternSet valuePatterns = getValuePatterns(context);
+
+        /**
+         * initializing timezone
+         */
+        final TimeZone timezone;
+        if (properties.isSet(TIME_ZONE_RECORD_TIME)) {
+            timezone = TimeZone.getTimeZone(properties.getString(TIME_ZONE_RECORD_TIME));
+        } else {
+            timezone = TimeZone.getTimeZone("UTC");
+        }
 
 
 
@@ -226,7 +246,8 @@ public class SplitText extends AbstractProcessor {
                             for (int i = 0; i < keyMatcher.groupCount() + 1 && i < keyFields.length; i++) {
                                 String content = keyMatcher.group(i);
                                 if (content != null) {
-                                    outputRecord.setField(keyFields[i], FieldType.STRING, keyMatcher.group(i + 1).replaceAll("\"", ""));
+                                    outputRecord.setField(keyFields[i], FieldType.STRING,
+                                            MappedPatternSet.withoutQuotes(keyMatcher.group(i + 1)));
                                 }
                             }
                         } else {
@@ -241,45 +262,16 @@ public class SplitText extends AbstractProcessor {
                         outputRecord.setField(FieldDictionary.RECORD_RAW_KEY, FieldType.STRING, value);
                     }
                 }
-                /**
-                 * initializing timezone
-                 */
-                TimeZone timezone = null;
-                if (context.getPropertyValue(TIME_ZONE_RECORD_TIME).isSet()) {
-                    timezone = TimeZone.getTimeZone(context.getPropertyValue(TIME_ZONE_RECORD_TIME).asString());
-                } else {
-                    timezone = TimeZone.getTimeZone("UTC");
-                }
-
                 // match the value
                 if (value != null && !value.isEmpty()) {
                     try {
-                        Matcher valueMatcher = valueRegex.matcher(value);
-                        if (valueMatcher.lookingAt()) {
-                            extractValueFields(valueFields, keepRawContent, outputRecord, valueMatcher, timezone);
+                        final MappedPatternSet.Match valueMatch = valuePatterns.lookingAt(value);
+                        if (valueMatch != null) {
+                            extractValueFields(valueMatch, keepRawContent, outputRecord, timezone);
                         } else {
-                            // try the other Regex
-                            List<AlternativeMappingPattern> alternativeRegexList =
-                                    getAlternativePatterns(context, valueRegexString);
-                            boolean hasMatched = false;
-                            for (AlternativeMappingPattern alternativeMatchingRegex : alternativeRegexList) {
-                                Matcher alternativeValueMatcher = alternativeMatchingRegex.getPattern().matcher(value);
-                                if (alternativeValueMatcher.lookingAt()) {
-                                    extractValueFields(
-                                            alternativeMatchingRegex.getMapping(),
-                                            keepRawContent,
-                                            outputRecord,
-                                            alternativeValueMatcher, timezone);
-                                    hasMatched = true;
-                                    break;
-                                }
-                            }
-                            // if we don't have any matches output an error
-                            if (!hasMatched) {
-                                outputRecord.addError(ProcessError.REGEX_MATCHING_ERROR.getName(), "check your conf");
-                                outputRecord.setField(FieldDictionary.RECORD_RAW_VALUE, FieldType.STRING, value);
-                            }
-
+                            // none of the regexes has matched, output an error
+                            outputRecord.addError(ProcessError.REGEX_MATCHING_ERROR.getName(), "check your conf");
+                            outputRecord.setField(FieldDictionary.RECORD_RAW_VALUE, FieldType.STRING, value);
                         }
 
                     } catch (Exception e) {
@@ -303,11 +295,34 @@ public class SplitText extends AbstractProcessor {
         return outputRecords;
     }
 
-    private List<AlternativeMappingPattern> getAlternativePatterns(ProcessContext context, String valueRegexString) {
-        /**
-         * list alternative regex
-         */
-        List<AlternativeMappingPattern> alternativeMappingRegex = new ArrayList<>();
+    private MappedPatternSet getValuePatterns(ProcessContext context) {
+        MappedPatternSet patterns = valuePatterns;
+        if (patterns == null) {
+            // not initialized
+            patterns = buildValuePatterns(context);
+            valuePatterns = patterns;
+        }
+        return patterns;
+    }
+
+    private TimestampParser getTimestampParser() {
+        TimestampParser parser = timestampParser;
+        if (parser == null) {
+            // not initialized
+            parser = new TimestampParser();
+            timestampParser = parser;
+        }
+        return parser;
+    }
+
+    /**
+     * compile the main value regex followed by the alternative ones
+     */
+    private MappedPatternSet buildValuePatterns(ProcessContext context) {
+        final PropertySnapshot properties = context.getPropertySnapshot();
+        final MappedPatternSet patterns = new MappedPatternSet(properties.getBoolean(ADAPTIVE_REGEX_ORDER));
+        patterns.add(properties.getPattern(VALUE_REGEX), properties.getString(VALUE_FIELDS).split(","));
+
         // loop over dynamic properties to add alternative regex
         for (final Map.Entry<PropertyDescriptor, String> entry : context.getProperties().entrySet()) {
             if (!entry.getKey().isDynamic()) {
@@ -318,27 +333,27 @@ public class SplitText extends AbstractProcessor {
             }
             final String patternPropertyKey = entry.getKey().getName().toLowerCase().replace("fields", "regex");
 
-            if(context.getPropertyValue(patternPropertyKey) != null){
-                final String alternativeRegexString = context.getPropertyValue(patternPropertyKey).asString();
-                final String mapping = entry.getValue();
-                final Pattern pattern = Pattern.compile(alternativeRegexString);
-                alternativeMappingRegex.add(new AlternativeMappingPattern(mapping, pattern));
+            final Pattern pattern = properties.getPattern(patternPropertyKey);
+            if(pattern != null){
+                patterns.add(pattern, entry.getValue().split(","));
             }
 
         }
-        return alternativeMappingRegex;
+        return patterns;
     }
 
-    private void extractValueFields(String[] valueFields, boolean keepRawContent, StandardRecord outputRecord, Matcher valueMatcher,
+    private void extractValueFields(MappedPatternSet.Match valueMatch, boolean keepRawContent, StandardRecord outputRecord,
                                     TimeZone timezone) {
+        final Matcher valueMatcher = valueMatch.getMatcher();
+        final String[] valueFields = valueMatch.getMapping();
         if (keepRawContent) {
             outputRecord.setField(FieldDictionary.RECORD_RAW_VALUE, FieldType.STRING, valueMatcher.group(0));
         }
         for (int i = 0; i < Math.min(valueMatcher.groupCount() + 1, valueFields.length); i++) {
-            String content = valueMatcher.group(i + 1);
+            String content = valueMatch.groupWithoutQuotes(i + 1);
             String fieldName = valueFields[i];
             if (content != null) {
-                outputRecord.setStringField(fieldName, content.replaceAll("\"", ""));
+                outputRecord.setStringField(fieldName, content);
             }
         }
 
@@ -351,7 +366,7 @@ public class SplitText extends AbstractProcessor {
             } catch (Exception ex) {
                 Date eventDate = null;
                 try {
-                    eventDate = DateUtil.parse(outputRecord.getField(FieldDictionary.RECORD_TIME).getRawValue().toString(), timezone);
+                    eventDate = getTimestampParser().parse(outputRecord.getField(FieldDictionary.RECORD_TIME).getRawValue().toString(), timezone);
                 } catch (ParseException e) {
                     logger.info("issue while parsing date : {} ", e.toString());
                 }
@@ -16,6 +16,7 @@
 package com.hurence.logisland.processor;
 
 import com.hurence.logisland.component.PropertyDescriptor;
+import com.hurence.logisland.processor.util.MappedPatternSet;
 import com.hurence.logisland.record.FieldDictionary;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.record.StandardRecord;
@@ -27,7 +28,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
@@ -61,6 +61,8 @@ public class SplitTextMultiline extends AbstractProcessor {
 
     private String buffer = "";
 
+    private transient MappedPatternSet patterns;
+
 
     @Override
     public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
@@ -72,13 +74,26 @@ public class SplitTextMultiline extends AbstractProcessor {
         return Collections.unmodifiableList(descriptors);
     }
 
+    @Override
+    public void init(final ProcessContext context) {
+        super.init(context);
+        patterns = buildPatterns(context);
+    }
+
+    private MappedPatternSet buildPatterns(ProcessContext context) {
+        return new MappedPatternSet(false).add(
+                Pattern.compile(context.getPropertyValue(REGEX).asString(), Pattern.DOTALL),
+                context.getPropertyValue(FIELDS).asString().split(","));
+    }
+
     @Override
     public Collection<Record> process(ProcessContext context, Collection<Record> records) {
 
-        final String[] fields = context.getPropertyValue(FIELDS).asString().split(",");
-        final String regexString = context.getPropertyValue(REGEX).asString();
         final String eventType = context.getPropertyValue(EVENT_TYPE).asString();
-        final Pattern regex = Pattern.compile(regexString, Pattern.DOTALL);
+        if (patterns == null) {
+            // not initialized
+            patterns = buildPatterns(context);
+        }
 
         List<Record> outputRecords = new ArrayList<>();
 
@@ -94,15 +109,16 @@ public class SplitTextMultiline extends AbstractProcessor {
         });
 
 
-        Matcher matcher = regex.matcher(buffer);
-        if (matcher.find()) {
+        final MappedPatternSet.Match match = patterns.find(buffer);
+        if (match != null) {
 
 
+            final String[] fields = match.getMapping();
             Record record = new StandardRecord(eventType);
-            for (int i = 0; i < matcher.groupCount() + 1 && i < fields.length; i++) {
-                String content = matcher.group(i);
+            for (int i = 0; i < match.groupCount() + 1 && i < fields.length; i++) {
+                String content = match.groupWithoutQuotes(i);
                 if (content != null) {
-                    record.setStringField(fields[i], matcher.group(i).replaceAll("\"", ""));
+                    record.setStringField(fields[i], content);
                 }
 
             }
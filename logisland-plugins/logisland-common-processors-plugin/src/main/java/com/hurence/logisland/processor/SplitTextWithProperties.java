@@ -53,6 +53,7 @@ public class SplitTextWithProperties extends SplitText {
         descriptors.add(KEY_FIELDS);
         descriptors.add(RECORD_TYPE);
         descriptors.add(KEEP_RAW_CONTENT);
+        descriptors.add(ADAPTIVE_REGEX_ORDER);
         descriptors.add(PROPERTIES_FIELD);
 
         return Collections.unmodifiableList(descriptors);
@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An ordered set of compiled regexes, each one mapped to the names of its capturing groups,
+ * built once when a processor is initialized.
+ * <p>
+ * Matching tries the patterns in turn and returns the first one that matches. Patterns starting with
+ * literal characters are only tried on values starting with (or containing, for {@link #find(String)})
+ * these characters, which skips most hopeless patterns without running the regex engine.
+ * <p>
+ * When adaptive order is enabled, patterns are periodically re-ordered by decreasing number of matches
+ * so that the most frequent formats are tried first. This is only safe when no two patterns can match
+ * the same value, the first matching pattern winning otherwise.
+ * <p>
+ * A set is thread safe once built.
+ */
+public class MappedPatternSet {
+
+    /**
+     * number of matches between two re-orderings of the patterns
+     */
+    static final int REORDER_INTERVAL = 1024;
+
+    private static final String REGEX_META_CHARACTERS = "\\[](){}.*+?^$|";
+
+    private final boolean adaptiveOrder;
+    private final List<MappedPattern> patterns = new ArrayList<>();
+    private volatile MappedPattern[] order = new MappedPattern[0];
+    private final AtomicLong matchesUntilReorder = new AtomicLong(REORDER_INTERVAL);
+
+    public MappedPatternSet(boolean adaptiveOrder) {
+        this.adaptiveOrder = adaptiveOrder;
+    }
+
+    /**
+     * Add a pattern, tried after the ones already added.
+     *
+     * @param pattern the compiled regex
+     * @param mapping the field names of the capturing groups
+     * @return this set
+     */
+    public synchronized MappedPatternSet add(Pattern pattern, String[] mapping) {
+        patterns.add(new MappedPattern(pattern, mapping, literalPrefix(pattern)));
+        order = patterns.toArray(new MappedPattern[patterns.size()]);
+        return this;
+    }
+
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * @return the patterns in the order they're currently tried
+     */
+    public List<MappedPattern> getPatterns() {
+        return Arrays.asList(order.clone());
+    }
+
+    /**
+     * @param value the value to match
+     * @return the first pattern matching the beginning of the value, null if none does
+     */
+    public Match lookingAt(String value) {
+        for (MappedPattern mappedPattern : order) {
+            if (!value.startsWith(mappedPattern.literalPrefix)) {
+                continue;
+            }
+            final Matcher matcher = mappedPattern.pattern.matcher(value);
+            if (matcher.lookingAt()) {
+                return matched(mappedPattern, matcher, value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param value the value to search
+     * @return the first pattern found somewhere in the value, null if none is
+     */
+    public Match find(String value) {
+        for (MappedPattern mappedPattern : order) {
+            if (!value.contains(mappedPattern.literalPrefix)) {
+                continue;
+            }
+            final Matcher matcher = mappedPattern.pattern.matcher(value);
+            if (matcher.find()) {
+                return matched(mappedPattern, matcher, value);
+            }
+        }
+        return null;
+    }
+
+    private Match matched(MappedPattern mappedPattern, Matcher matcher, String value) {
+        if (adaptiveOrder) {
+            mappedPattern.hits.incrementAndGet();
+            if (matchesUntilReorder.decrementAndGet() == 0) {
+                reorder();
+            }
+        }
+        return new Match(mappedPattern, matcher, value);
+    }
+
+    private synchronized void reorder() {
+        final MappedPattern[] reordered = order.clone();
+        final long[] hits = new long[reordered.length];
+        for (int i = 0; i < reordered.length; i++) {
+            // halve the counts so that the order follows changes of the traffic
+            hits[i] = reordered[i].hits.getAndUpdate(count -> count / 2);
+            reordered[i].sortKey = hits[i];
+        }
+        // stable sort, patterns with the same number of matches keep their relative order
+        Arrays.sort(reordered, Comparator.comparingLong((MappedPattern p) -> p.sortKey).reversed());
+        order = reordered;
+        matchesUntilReorder.set(REORDER_INTERVAL);
+    }
+
+    /**
+     * @return the literal characters every value matched by the pattern starts with, empty if unknown
+     */
+    static String literalPrefix(Pattern pattern) {
+        if ((pattern.flags() & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.LITERAL)) != 0) {
+            return "";
+        }
+        final String regex = pattern.pattern();
+        if (hasTopLevelAlternation(regex)) {
+            return "";
+        }
+
+        final StringBuilder prefix = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            final int next;
+            if (c == '\\') {
+                // only escaped punctuation is literal, \d \s \Q... are not
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    break;
+                }
+                prefix.append(regex.charAt(i + 1));
+                next = i + 2;
+            } else if (REGEX_META_CHARACTERS.indexOf(c) >= 0) {
+                break;
+            } else {
+                prefix.append(c);
+                next = i + 1;
+            }
+            // an optional character is not part of the prefix
+            if (next < regex.length() && "?*{".indexOf(regex.charAt(next)) >= 0) {
+                prefix.setLength(prefix.length() - 1);
+                break;
+            }
+            i = next;
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * @return true if the regex contains a | outside of any group or character class
+     */
+    private static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        boolean inCharacterClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inCharacterClass) {
+                if (c == ']') {
+                    inCharacterClass = false;
+                }
+            } else if (c == '[') {
+                inCharacterClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy a capturing group from the matched value, stripping double quotes.
+     * Only the returned string is allocated.
+     *
+     * @return the content of the group without its double quotes, null if the group did not participate
+     */
+    public static String groupWithoutQuotes(Matcher matcher, CharSequence value, int group) {
+        final int start = matcher.start(group);
+        if (start < 0) {
+            return null;
+        }
+        return withoutQuotes(value, start, matcher.end(group));
+    }
+
+    /**
+     * @return the given string without its double quotes, the string itself if it has none
+     */
+    public static String withoutQuotes(String value) {
+        return value.indexOf('"') < 0 ? value : withoutQuotes(value, 0, value.length());
+    }
+
+    private static String withoutQuotes(CharSequence value, int start, int end) {
+        int quotes = 0;
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i) == '"') {
+                quotes++;
+            }
+        }
+        if (quotes == 0) {
+            return value.subSequence(start, end).toString();
+        }
+        final StringBuilder builder = new StringBuilder(end - start - quotes);
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            if (c != '"') {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+
+    /**
+     * A compiled regex with the field names of its capturing groups
+     */
+    public static class MappedPattern {
+
+        private final Pattern pattern;
+        private final String[] mapping;
+        private final String literalPrefix;
+        private final AtomicLong hits = new AtomicLong();
+        private long sortKey;
+
+        MappedPattern(Pattern pattern, String[] mapping, String literalPrefix) {
+            this.pattern = pattern;
+            this.mapping = mapping;
+            this.literalPrefix = literalPrefix;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+
+        public String[] getMapping() {
+            return mapping;
+        }
+
+        public String getLiteralPrefix() {
+            return literalPrefix;
+        }
+    }
+
+    /**
+     * The result of a successful match
+     */
+    public static class Match {
+
+        private final MappedPattern mappedPattern;
+        private final Matcher matcher;
+        private final String value;
+
+        Match(MappedPattern mappedPattern, Matcher matcher, String value) {
+            this.mappedPattern = mappedPattern;
+            this.matcher = matcher;
+            this.value = value;
+        }
+
+        public MappedPattern getMappedPattern() {
+            return mappedPattern;
+        }
+
+        public String[] getMapping() {
+            return mappedPattern.mapping;
+        }
+
+        public Matcher getMatcher() {
+            return matcher;
+        }
+
+        public int groupCount() {
+            return matcher.groupCount();
+        }
+
+        /**
+         * @return the given group without its double quotes, null if it did not participate in the match
+         */
+        public String groupWithoutQuotes(int group) {
+            return MappedPatternSet.groupWithoutQuotes(matcher, value, group);
+        }
+    }
+}
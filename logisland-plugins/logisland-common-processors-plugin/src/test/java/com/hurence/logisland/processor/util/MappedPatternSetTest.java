@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+
+public class MappedPatternSetTest {
+
+    private static Logger logger = LoggerFactory.getLogger(MappedPatternSetTest.class);
+
+    private static final String[] SYSLOG_REGEXES = {
+            "<(\\d+)>(\\w{3}\\s+\\d{1,2}\\s\\d{2}:\\d{2}:\\d{2})\\s(\\S+)\\s(.*)",
+            "\\[(\\S*)\\]\\s+(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2},\\d{3})\\s+(\\S*)\\s+(.*)",
+            "CEF:(\\d+)\\|([^|]*)\\|([^|]*)\\|(.*)",
+            "(\\S+)\\s+(\\S+)\\s+\"([^\"]*)\"\\s+(\\d+)"
+    };
+
+    private static final String[] SYSLOG_VALUES = {
+            "<34>Oct 11 22:14:15 mymachine su: 'su root' failed for lonvick on /dev/pts/8",
+            "[backend] 2016-07-24 08:45:29,123 INFO user logged in",
+            "CEF:0|security|threatmanager|1.0|100|worm successfully stopped|10|src=10.0.0.1",
+            "10.3.10.134 GET \"/usr/rest/bank/purses?activeOnly=true\" 200"
+    };
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals("CEF:", MappedPatternSet.literalPrefix(Pattern.compile("CEF:(\\d+)")));
+        assertEquals("<", MappedPatternSet.literalPrefix(Pattern.compile("^<(\\d+)>")));
+        assertEquals("[", MappedPatternSet.literalPrefix(Pattern.compile("\\[(\\S*)\\]")));
+        assertEquals("GE", MappedPatternSet.literalPrefix(Pattern.compile("GET? (\\S+)")));
+        assertEquals("ab", MappedPatternSet.literalPrefix(Pattern.compile("ab+c")));
+        assertEquals("", MappedPatternSet.literalPrefix(Pattern.compile("\\d+ abc")));
+        assertEquals("", MappedPatternSet.literalPrefix(Pattern.compile("abc|def")));
+        assertEquals("abc", MappedPatternSet.literalPrefix(Pattern.compile("abc(d|e)[|]")));
+        assertEquals("", MappedPatternSet.literalPrefix(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)));
+        assertEquals("", MappedPatternSet.literalPrefix(Pattern.compile("(?i)abc")));
+    }
+
+    @Test
+    public void testFirstMatchingPatternWins() {
+        final MappedPatternSet patterns = new MappedPatternSet(false)
+                .add(Pattern.compile("CEF:(\\d+)"), new String[]{"version"})
+                .add(Pattern.compile("(\\S+) (\\S+)"), new String[]{"first", "second"})
+                .add(Pattern.compile("(\\S+)"), new String[]{"word"});
+
+        MappedPatternSet.Match match = patterns.lookingAt("CEF:0|security");
+        assertArrayEquals(new String[]{"version"}, match.getMapping());
+        assertEquals("0", match.groupWithoutQuotes(1));
+
+        match = patterns.lookingAt("\"quoted\" value");
+        assertArrayEquals(new String[]{"first", "second"}, match.getMapping());
+        assertEquals("quoted", match.groupWithoutQuotes(1));
+        assertEquals("value", match.groupWithoutQuotes(2));
+
+        assertNull(patterns.lookingAt(" "));
+        assertNotNull(patterns.find(" CEF:1"));
+    }
+
+    @Test
+    public void testAdaptiveOrder() {
+        final MappedPatternSet patterns = new MappedPatternSet(true);
+        for (int i = 0; i < SYSLOG_REGEXES.length; i++) {
+            patterns.add(Pattern.compile(SYSLOG_REGEXES[i]), new String[]{"regex" + i});
+        }
+
+        for (int i = 0; i < MappedPatternSet.REORDER_INTERVAL; i++) {
+            final String value = SYSLOG_VALUES[i % 8 == 0 ? 2 : 3];
+            assertNotNull(patterns.lookingAt(value));
+        }
+
+        final List<MappedPatternSet.MappedPattern> order = patterns.getPatterns();
+        assertEquals(SYSLOG_REGEXES[3], order.get(0).getPattern().pattern());
+        assertEquals(SYSLOG_REGEXES[2], order.get(1).getPattern().pattern());
+        // patterns that never matched keep their relative order
+        assertEquals(SYSLOG_REGEXES[0], order.get(2).getPattern().pattern());
+        assertEquals(SYSLOG_REGEXES[1], order.get(3).getPattern().pattern());
+
+        // still matches everything
+        for (int i = 0; i < SYSLOG_VALUES.length; i++) {
+            assertEquals("regex" + i, patterns.lookingAt(SYSLOG_VALUES[i]).getMapping()[0]);
+        }
+    }
+
+    @Test
+    public void testWithoutQuotes() {
+        final String unquoted = "no quotes";
+        assertSame(unquoted, MappedPatternSet.withoutQuotes(unquoted));
+        assertEquals("GET /index.html", MappedPatternSet.withoutQuotes("\"GET /index.html\""));
+        assertEquals("", MappedPatternSet.withoutQuotes("\"\""));
+    }
+
+    /**
+     * Compares matching the last alternative regex by compiling every regex for each value, as
+     * SplitText used to do, with the precompiled set. JMH is not available so it is only logged.
+     */
+    @Ignore("benchmark, only logs timings")
+    @Test
+    public void testMatchingThroughput() {
+        final int numValues = 20000;
+        final List<String> values = new ArrayList<>();
+        for (int i = 0; i < numValues; i++) {
+            values.add(SYSLOG_VALUES[3] + i);
+        }
+
+        long start = System.nanoTime();
+        int compiledMatches = 0;
+        for (String value : values) {
+            for (String regex : SYSLOG_REGEXES) {
+                final Matcher matcher = Pattern.compile(regex).matcher(value);
+                if (matcher.lookingAt()) {
+                    for (int g = 1; g <= matcher.groupCount(); g++) {
+                        matcher.group(g).replaceAll("\"", "");
+                    }
+                    compiledMatches++;
+                    break;
+                }
+            }
+        }
+        final long compiledNanos = System.nanoTime() - start;
+
+        final MappedPatternSet patterns = new MappedPatternSet(false);
+        for (String regex : SYSLOG_REGEXES) {
+            patterns.add(Pattern.compile(regex), new String[0]);
+        }
+        start = System.nanoTime();
+        int setMatches = 0;
+        for (String value : values) {
+            final MappedPatternSet.Match match = patterns.lookingAt(value);
+            if (match != null) {
+                for (int g = 1; g <= match.groupCount(); g++) {
+                    match.groupWithoutQuotes(g);
+                }
+                setMatches++;
+            }
+        }
+        final long setNanos = System.nanoTime() - start;
+
+        logger.info("matching the last of {} regexes : {} ns/value compiling them, {} ns/value with the precompiled set",
+                SYSLOG_REGEXES.length, compiledNanos / numValues, setNanos / numValues);
+        assertEquals(numValues, compiledMatches);
+        assertEquals(numValues, setMatches);
+    }
+}
@@ -20,14 +20,17 @@ import com.hurence.logisland.annotation.documentation.Tags;
 import com.hurence.logisland.component.PropertyDescriptor;
 import com.hurence.logisland.processor.*;
 import com.hurence.logisland.record.*;
+import com.hurence.logisland.util.store.StateStore;
 import com.hurence.logisland.validator.StandardValidators;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Consolidate session processor
@@ -85,6 +88,13 @@ import java.util.stream.Collectors;
                 + " - session.timeout:          Timeframe of inactivity (in seconds) after which a session is considered closed (default: 30mn)."
                 + " - visitedpage.field:        Property name containing the page visited by the customer (default: location)."
                 + " - fields.to.return:         List of fields to return in the aggregated object. (default: N/A)"
+                + " Sessions are kept across batches in a session store, so that only the sessions updated by the current"
+                + " batch or closed since the previous one are emitted. The store is shared by all the instances of the processor"
+                + " running in the same JVM with the same configuration. It can be backed by a local directory where"
+                + " the sessions that do not fit in memory are spilled and where the in-memory sessions are checkpointed:"
+                + " - session.store.directory:           Local directory backing the session store (default: in memory only)."
+                + " - session.store.max.sessions:        Number of sessions kept in memory (default: 100000)."
+                + " - session.store.checkpoint.interval: Delay in seconds between two checkpoints of the store (default: 60)."
 )
 public class ConsolidateSession extends AbstractProcessor {
 
@@ -214,10 +224,52 @@ public class ConsolidateSession extends AbstractProcessor {
             .defaultValue("lastEventDateTime")
             .build();
 
+    public static final PropertyDescriptor SESSION_STORE_DIRECTORY = new PropertyDescriptor.Builder()
+            .name("session.store.directory")
+            .description("the local directory where the sessions that do not fit in memory are spilled and where the "
+                    + "in-memory sessions are checkpointed. Sessions are only kept in memory if not set")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SESSION_STORE_MAX_SESSIONS = new PropertyDescriptor.Builder()
+            .name("session.store.max.sessions")
+            .description("the number of sessions kept in memory, the least recently updated ones are spilled to the "
+                    + "session store directory beyond that number, or forgotten if no directory is set")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("100000")
+            .build();
+
+    public static final PropertyDescriptor SESSION_STORE_CHECKPOINT_INTERVAL = new PropertyDescriptor.Builder()
+            .name("session.store.checkpoint.interval")
+            .description("the delay in seconds between two checkpoints of the in-memory sessions to the session store directory")
+            .required(false)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .defaultValue("60")
+            .build();
+
     @Override
     public void init(final ProcessContext context)
     {
         logger.debug("Initializing Consolidate Session Processor");
+        getSessionStore(context);
+    }
+
+    /**
+     * The session store is shared by every instance of the processor with the same configuration, as
+     * the events of a session may be handled by any of the instances pooled for the stream.
+     */
+    private StateStore<SessionState> getSessionStore(final ProcessContext context)
+    {
+        final String directoryPath = context.getPropertyValue(SESSION_STORE_DIRECTORY).asString();
+        final File directory = (directoryPath == null) ? null : new File(directoryPath);
+        final int maxSessions = context.getPropertyValue(SESSION_STORE_MAX_SESSIONS).asInteger();
+        try {
+            return StateStore.open(StateStore.nameOf(ConsolidateSession.class.getName(), context), directory, maxSessions);
+        } catch (IOException e) {
+            throw new ProcessException("unable to open session store " + directory + " : " + e.toString());
+        }
     }
     
     @Override
@@ -239,6 +291,9 @@ public class ConsolidateSession extends AbstractProcessor {
         descriptors.add(FIRST_EVENT_DATETIME_FIELD);
         descriptors.add(LAST_EVENT_DATETIME_FIELD);
         descriptors.add(SESSION_INACTIVITY_DURATION_FIELD);
+        descriptors.add(SESSION_STORE_DIRECTORY);
+        descriptors.add(SESSION_STORE_MAX_SESSIONS);
+        descriptors.add(SESSION_STORE_CHECKPOINT_INTERVAL);
 
         return Collections.unmodifiableList(descriptors);
     }
@@ -269,178 +324,81 @@ public class ConsolidateSession extends AbstractProcessor {
         String visitedpage_field                = context.getPropertyValue(VISITED_PAGE_FIELD).asString();
         String fields_to_return                 = context.getPropertyValue(FIELDS_TO_RETURN).asString();
         String userid_field                     = context.getPropertyValue(USERID_FIELD).asString();
-        String firstVisitedPage_field           = context.getPropertyValue(FIRST_VISITED_PAGE_FIELD).asString();
-        String lastVisitedPage_field            = context.getPropertyValue(LAST_VISITED_PAGE_FIELD).asString();
-        String isSessionActive_field            = context.getPropertyValue(IS_SESSION_ACTIVE_FIELD).asString();
-        String sessionDuration_field            = context.getPropertyValue(SESSION_DURATION_FIELD).asString();
-        String eventsCounter_field              = context.getPropertyValue(EVENTS_COUNTER_FIELD).asString();
-        String firstEventDateTime_field         = context.getPropertyValue(FIRST_EVENT_DATETIME_FIELD).asString();
-        String lastEventDateTime_field          = context.getPropertyValue(LAST_EVENT_DATETIME_FIELD).asString();
-        String sessionInactivityDuration_field  = context.getPropertyValue(SESSION_INACTIVITY_DURATION_FIELD).asString();
         String[] fields_to_add                  = null;
 
         if ((fields_to_return != null) && ( ! fields_to_return.isEmpty())) {
             fields_to_add = fields_to_return.split(",");
         }
 
-        Map<String, List<Record>> groupedBySessions = records
-                .stream()
-                .filter(e->(e.getField(sessionid_field)!=null))
-                .collect(Collectors.groupingBy((Record e )-> e.getField(sessionid_field).asString()));
-
-        LinkedList<Record> consolidatedSessions = new LinkedList<Record>();
-
-        // Return a record containing the user info (i-e at least the userId)
-        //groupedBySessions.forEach(
-        //        (s, l)-> l.stream()
-        //                .sorted(Comparator.comparing((Record e)-> e.getField(timestamp_field).toString()))
-        //);
-
-        //HashMap<String, List<Record>> sortedMapSessions = new HashMap<String, List<Record>>();
-        //for (String sessionKey : groupedBySessions.keySet())
-        //{
-        //    List<Record> sortedRecords =
-        //    groupedBySessions
-        //            .get(sessionKey)
-        //            .stream()
-        //            .sorted(Comparator.comparing((Record e)-> e.getField(timestamp_field).toString()))
-        //            .collect(Collectors.toList());
-        //    sortedMapSessions.put(sessionKey, sortedRecords);
-        //}
-        //
-       for (String sessionKey : groupedBySessions.keySet())
-        {
-            try {
-                StandardRecord consolidatedSession = new StandardRecord(OUTPUT_RECORD_TYPE);
-
-                // Grab record being the first event of the session
-                Record firstRecord = groupedBySessions.get(sessionKey)
-                        .stream()
-                        .filter(e -> e.getField(timestamp_field) != null)
-                        .min(Comparator.comparingLong((Record e) -> e.getField(timestamp_field).asLong()))
-                        .get();
-
-                // Grab record being the latest event of the session
-                Record latestRecord = groupedBySessions.get(sessionKey)
-                        .stream()
-                        .filter(e -> e.getField(timestamp_field) != null)
-                        .max(Comparator.comparingLong((Record e) -> e.getField(timestamp_field).asLong()))
-                        .get();
-
-                if ((firstRecord == null) || (latestRecord == null)){
-                    // Malformed record
-                    // Ignore the current session
-                    continue;
-                }
-                // Count the number of events for this session
-                long count = groupedBySessions.get(sessionKey)
-                        .stream()
-                        .count();
-
-                // Grab record containing the userid (if any)
-                Optional<Record> optionalUseridRecord = groupedBySessions.get(sessionKey)
-                        .stream()
-                        .filter(p -> ((p.getField(userid_field) != null) &&
-                                (p.getField(userid_field).asString() != null) &&
-                                (! p.getField(userid_field).asString().isEmpty())))
-                        .findFirst();
-
-                Record useridRecord = null;
-                if (optionalUseridRecord.isPresent()) {
-                    useridRecord = optionalUseridRecord.get();
-                }
-
-                // Compute session inactivity duration (in milliseconds)
-                long now = System.currentTimeMillis();
-                long sessionInactivityDuration = (now - latestRecord.getField(timestamp_field).asLong()) / 1000;
-                if (sessionInactivityDuration > session_inactivity_timeout)
-                {
-                    // Mark the session as closed
-                    consolidatedSession.setField(isSessionActive_field, FieldType.BOOLEAN, false);
-                    // Max out the sessionInactivityDuration
-                    sessionInactivityDuration = session_inactivity_timeout;
-                } else {
-                    consolidatedSession.setField(isSessionActive_field, FieldType.BOOLEAN, true);
-                }
+        final long checkpointIntervalMs = context.getPropertyValue(SESSION_STORE_CHECKPOINT_INTERVAL).asLong() * 1000L;
+        final StateStore<SessionState> store = getSessionStore(context);
+        final LinkedList<Record> consolidatedSessions = new LinkedList<Record>();
 
-                long sessionDuration = (latestRecord.getField(timestamp_field).asLong() - firstRecord.getField(timestamp_field).asLong()) / 1000;
-                if (sessionDuration > 0) {
-                    consolidatedSession.setField(sessionDuration_field, FieldType.LONG, sessionDuration);
-                }
-                if (sessionInactivityDuration > 0) {
-                    consolidatedSession.setField(
-                            sessionInactivityDuration_field,
-                            FieldType.LONG,
-                            sessionInactivityDuration);
-                }
+        // Group the events by session, the sessions are then updated one at a time under their own lock
+        final Map<String, List<Record>> eventsBySession = new LinkedHashMap<>();
+        for (Record event : records)
+        {
+            final Field sessionIdField = event.getField(sessionid_field);
+            final String sessionKey = (sessionIdField == null) ? null : sessionIdField.asString();
+            if (sessionKey != null) {
+                eventsBySession.computeIfAbsent(sessionKey, k -> new ArrayList<>()).add(event);
+            }
+        }
 
-                // Grab the firstEventDateTime and the lastEventDateTime
-                Date firstEventDateTime = new Date(firstRecord.getField(timestamp_field).asLong());
-                Date lastEventDateTime = new Date(latestRecord.getField(timestamp_field).asLong());
-                if (firstEventDateTime != null) {
-                    consolidatedSession.setField(firstEventDateTime_field, FieldType.STRING, firstEventDateTime.toString());
-                }
-                if (lastEventDateTime != null) {
-                    consolidatedSession.setField(lastEventDateTime_field, FieldType.STRING, lastEventDateTime.toString());
+        // Emit the updated sessions, closed ones are removed from the store
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<String, List<Record>> sessionEvents : eventsBySession.entrySet())
+        {
+            final String sessionKey = sessionEvents.getKey();
+            final Lock lock = store.lockOf(sessionKey);
+            lock.lock();
+            try {
+                SessionState session = store.get(sessionKey);
+                if (session == null) {
+                    session = new SessionState(sessionKey);
                 }
 
-                // Grab and set the first and last visited page
-                String firstVisitedPage = firstRecord.getField(visitedpage_field).asString();
-                String lastVisitedPage = latestRecord.getField(visitedpage_field).asString();
-                if (firstVisitedPage != null) {
-                    consolidatedSession.setField(firstVisitedPage_field, FieldType.STRING, firstVisitedPage);
-                }
-                if (lastVisitedPage != null) {
-                    consolidatedSession.setField(lastVisitedPage_field, FieldType.STRING, lastVisitedPage);
+                for (Record event : sessionEvents.getValue()) {
+                    try {
+                        session.add(event, timestamp_field, visitedpage_field, userid_field, fields_to_add);
+                    }
+                    catch (Exception x){
+                        logger.warn("issue while trying to consolidate session events {} :  {}", sessionKey, x.toString());
+                    }
                 }
 
-                // Set the events counter
-                consolidatedSession.setField(eventsCounter_field, FieldType.LONG, count);
-
-                // Add the userid record if available
-                if (useridRecord != null) {
-                    consolidatedSession.setField(userid_field, FieldType.STRING, useridRecord.getField(userid_field).asString());
+                if (!session.isTimestamped()) {
+                    // Malformed records
+                    // Ignore the current session
+                    store.remove(sessionKey);
+                    continue;
                 }
 
-                // Add additional fields from the first record in the stream containing it.
-                if ((fields_to_add != null) && (fields_to_add.length > 0)) {
-                    for (String field : fields_to_add)
-                    {
-                        Optional<Record> optionalRecord = groupedBySessions.get(sessionKey)
-                                .stream()
-                                .filter(p -> (
-                                        (p.getField(field) != null) &&
-                                        (p.getField(field).asString() != null) &&
-                                        (! p.getField(field).asString().isEmpty()))
-                                 )
-                                .findFirst();
-
-                        if (optionalRecord.isPresent())
-                        {
-                            Record recordContainingField = optionalRecord.get();
-                            String value = recordContainingField.getField(field).asString();
-                            if ((value != null) && (!value.isEmpty())) {
-                                consolidatedSession.setField(field, FieldType.STRING, value);
-                            }
-                        }
-                    }
+                final boolean expired = session.isExpired(now, session_inactivity_timeout);
+                if (expired) {
+                    store.remove(sessionKey);
+                } else {
+                    store.put(sessionKey, session, session.getLastEventTimestamp());
                 }
+                consolidatedSessions.add(toConsolidatedSession(context, session, now, !expired));
+            } finally {
+                lock.unlock();
+            }
+        }
 
-                // Set the sessionid into the consolidated session record
-                consolidatedSession.setField(sessionid_field, FieldType.STRING, sessionKey);
-
-                // Set the session create timestamp to the create timestamp of the firts event on the session.
-                consolidatedSession.setField(timestamp_field, FieldType.LONG, firstRecord.getField(timestamp_field).asLong());
-
-                // Set the record id
-                consolidatedSession.setStringField(FieldDictionary.RECORD_ID, sessionKey);
+        // Emit the sessions that timed out since the previous batch, found through the index of the stored
+        // sessions by last event time : a session is expired once its last event is timeout + 1 seconds old
+        final long oldestActiveEventTimestamp = now - (session_inactivity_timeout + 1) * 1000L + 1;
+        for (SessionState session : store.removeOlderThan(oldestActiveEventTimestamp))
+        {
+            consolidatedSessions.add(toConsolidatedSession(context, session, now, false));
+        }
 
-                consolidatedSessions.add(consolidatedSession);
-            }
-            catch (Exception x){
-                logger.warn("issue while trying to consolidate session events {} :  {}",
-                        context.getPropertyValue(SESSION_ID_FIELD).asString(),
-                        x.toString());
+        if (store.isCheckpointDue(now, checkpointIntervalMs)) {
+            try {
+                store.checkpoint();
+            } catch (IOException e) {
+                logger.error("unable to checkpoint the session store : {}", e.toString());
             }
         }
 
@@ -451,6 +409,79 @@ public class ConsolidateSession extends AbstractProcessor {
         return consolidatedSessions;
     }
     
+    /**
+     * Build the aggregated session record.
+     */
+    private Record toConsolidatedSession(ProcessContext context, SessionState session, long now, boolean active)
+    {
+        final long session_inactivity_timeout         = context.getPropertyValue(SESSION_INACTIVITY_TIMEOUT).asLong();
+        final String sessionid_field                  = context.getPropertyValue(SESSION_ID_FIELD).asString();
+        final String timestamp_field                  = context.getPropertyValue(TIMESTAMP_FIELD).asString();
+        final String userid_field                     = context.getPropertyValue(USERID_FIELD).asString();
+        final String firstVisitedPage_field           = context.getPropertyValue(FIRST_VISITED_PAGE_FIELD).asString();
+        final String lastVisitedPage_field            = context.getPropertyValue(LAST_VISITED_PAGE_FIELD).asString();
+        final String isSessionActive_field            = context.getPropertyValue(IS_SESSION_ACTIVE_FIELD).asString();
+        final String sessionDuration_field            = context.getPropertyValue(SESSION_DURATION_FIELD).asString();
+        final String eventsCounter_field              = context.getPropertyValue(EVENTS_COUNTER_FIELD).asString();
+        final String firstEventDateTime_field         = context.getPropertyValue(FIRST_EVENT_DATETIME_FIELD).asString();
+        final String lastEventDateTime_field          = context.getPropertyValue(LAST_EVENT_DATETIME_FIELD).asString();
+        final String sessionInactivityDuration_field  = context.getPropertyValue(SESSION_INACTIVITY_DURATION_FIELD).asString();
+
+        final StandardRecord consolidatedSession = new StandardRecord(OUTPUT_RECORD_TYPE);
+
+        // Compute session inactivity duration (in seconds), maxed out for closed sessions
+        long sessionInactivityDuration = session.getInactivityDuration(now);
+        consolidatedSession.setField(isSessionActive_field, FieldType.BOOLEAN, active);
+        if (!active) {
+            sessionInactivityDuration = session_inactivity_timeout;
+        }
+
+        long sessionDuration = (session.getLastEventTimestamp() - session.getFirstEventTimestamp()) / 1000;
+        if (sessionDuration > 0) {
+            consolidatedSession.setField(sessionDuration_field, FieldType.LONG, sessionDuration);
+        }
+        if (sessionInactivityDuration > 0) {
+            consolidatedSession.setField(
+                    sessionInactivityDuration_field,
+                    FieldType.LONG,
+                    sessionInactivityDuration);
+        }
+
+        // Set the firstEventDateTime and the lastEventDateTime
+        consolidatedSession.setField(firstEventDateTime_field, FieldType.STRING, new Date(session.getFirstEventTimestamp()).toString());
+        consolidatedSession.setField(lastEventDateTime_field, FieldType.STRING, new Date(session.getLastEventTimestamp()).toString());
+
+        // Set the first and last visited page
+        if (session.getFirstVisitedPage() != null) {
+            consolidatedSession.setField(firstVisitedPage_field, FieldType.STRING, session.getFirstVisitedPage());
+        }
+        if (session.getLastVisitedPage() != null) {
+            consolidatedSession.setField(lastVisitedPage_field, FieldType.STRING, session.getLastVisitedPage());
+        }
+
+        // Set the events counter
+        consolidatedSession.setField(eventsCounter_field, FieldType.LONG, session.getEventsCount());
+
+        // Add the userid if available
+        if (session.getUserId() != null) {
+            consolidatedSession.setField(userid_field, FieldType.STRING, session.getUserId());
+        }
+
+        // Add additional fields from the first event containing it.
+        session.getFields().forEach((field, value) -> consolidatedSession.setField(field, FieldType.STRING, value));
+
+        // Set the sessionid into the consolidated session record
+        consolidatedSession.setField(sessionid_field, FieldType.STRING, session.getSessionId());
+
+        // Set the session create timestamp to the create timestamp of the first event on the session.
+        consolidatedSession.setField(timestamp_field, FieldType.LONG, session.getFirstEventTimestamp());
+
+        // Set the record id
+        consolidatedSession.setStringField(FieldDictionary.RECORD_ID, session.getSessionId());
+
+        return consolidatedSession;
+    }
+
     @Override
     public void onPropertyModified(PropertyDescriptor descriptor, String oldValue, String newValue) {
 
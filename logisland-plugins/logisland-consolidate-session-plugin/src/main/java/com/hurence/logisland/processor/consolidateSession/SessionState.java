@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor.consolidateSession;
+
+import com.hurence.logisland.record.Field;
+import com.hurence.logisland.record.Record;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The consolidated state of a web session.
+ * <p>
+ * Events are folded one at a time, in a single pass, so that a session spanning several batches is
+ * consolidated as a whole instead of being emitted as several partial sessions.
+ */
+public class SessionState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String sessionId;
+    private long eventsCount = 0L;
+    private boolean timestamped = false;
+    private long firstEventTimestamp;
+    private long lastEventTimestamp;
+    private String firstVisitedPage;
+    private String lastVisitedPage;
+    private String userId;
+    private final Map<String, String> fields = new HashMap<>();
+
+    public SessionState(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * Fold an event into the session.
+     * <p>
+     * The first and last visited pages are those of the events with the lowest and highest timestamps,
+     * the user id and the additional fields are the first non empty values seen.
+     *
+     * @param event            the event to add
+     * @param timestampField   the name of the field holding the event timestamp
+     * @param visitedPageField the name of the field holding the visited page
+     * @param userIdField      the name of the field holding the user id
+     * @param fieldsToAdd      the additional fields to grab, may be null
+     * @throws NumberFormatException if the event timestamp is not a number, in which case the event is ignored
+     */
+    public void add(Record event, String timestampField, String visitedPageField, String userIdField, String[] fieldsToAdd) {
+        final Field timestamp = event.getField(timestampField);
+        if (timestamp != null) {
+            final long eventTimestamp = timestamp.asLong();
+            final String visitedPage = getString(event, visitedPageField);
+            if (!timestamped || eventTimestamp < firstEventTimestamp) {
+                firstEventTimestamp = eventTimestamp;
+                firstVisitedPage = visitedPage;
+            }
+            if (!timestamped || eventTimestamp > lastEventTimestamp) {
+                lastEventTimestamp = eventTimestamp;
+                lastVisitedPage = visitedPage;
+            }
+            timestamped = true;
+        }
+        eventsCount++;
+
+        if (userId == null) {
+            userId = getNonEmptyString(event, userIdField);
+        }
+        if (fieldsToAdd != null) {
+            for (String field : fieldsToAdd) {
+                if (!fields.containsKey(field)) {
+                    final String value = getNonEmptyString(event, field);
+                    if (value != null) {
+                        fields.put(field, value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param now                  the current time in milliseconds
+     * @param inactivityTimeoutSec the session inactivity timeout in seconds
+     * @return true if the last event of the session is older than the inactivity timeout
+     */
+    public boolean isExpired(long now, long inactivityTimeoutSec) {
+        return getInactivityDuration(now) > inactivityTimeoutSec;
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return the number of seconds elapsed since the last event of the session
+     */
+    public long getInactivityDuration(long now) {
+        return (now - lastEventTimestamp) / 1000;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public long getEventsCount() {
+        return eventsCount;
+    }
+
+    /**
+     * @return true if at least one event of the session had a timestamp
+     */
+    public boolean isTimestamped() {
+        return timestamped;
+    }
+
+    public long getFirstEventTimestamp() {
+        return firstEventTimestamp;
+    }
+
+    public long getLastEventTimestamp() {
+        return lastEventTimestamp;
+    }
+
+    public String getFirstVisitedPage() {
+        return firstVisitedPage;
+    }
+
+    public String getLastVisitedPage() {
+        return lastVisitedPage;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    private static String getString(Record event, String fieldName) {
+        final Field field = event.getField(fieldName);
+        return field == null ? null : field.asString();
+    }
+
+    private static String getNonEmptyString(Record event, String fieldName) {
+        final String value = getString(event, fieldName);
+        return (value == null || value.isEmpty()) ? null : value;
+    }
+}
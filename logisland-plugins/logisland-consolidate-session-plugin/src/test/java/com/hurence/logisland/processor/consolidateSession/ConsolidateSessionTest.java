@@ -23,11 +23,13 @@ import com.hurence.logisland.record.StandardRecord;
 import com.hurence.logisland.util.runner.MockRecord;
 import com.hurence.logisland.util.runner.TestRunner;
 import com.hurence.logisland.util.runner.TestRunners;
+import com.hurence.logisland.util.store.StateStore;
 
 import static org.junit.Assert.assertEquals;
 
 import java.util.*;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -40,6 +42,13 @@ public class ConsolidateSessionTest {
     
     private static Logger logger = LoggerFactory.getLogger(ConsolidateSessionTest.class);
 
+    @After
+    public void closeStores()
+    {
+        // session stores are shared per configuration, do not leak sessions between tests
+        StateStore.closeAll();
+    }
+
     @Test
     public void testOneEventOnlyPerSession()
     {
@@ -766,4 +775,151 @@ public class ConsolidateSessionTest {
             Assert.assertFalse(false);
         }
     }
+
+    @Test
+    public void testSessionSpanningSeveralBatches()
+    {
+        long now = System.currentTimeMillis();
+        TestRunner testRunner = TestRunners.newTestRunner(new ConsolidateSession());
+        testRunner.setProperty(ConsolidateSession.SESSION_ID_FIELD, "s");
+        testRunner.setProperty(ConsolidateSession.TIMESTAMP_FIELD, "t");
+        testRunner.setProperty(ConsolidateSession.VISITED_PAGE_FIELD, "v");
+        testRunner.setProperty(ConsolidateSession.USERID_FIELD, "u");
+        testRunner.assertValid();
+
+        testRunner.enqueue(
+                new StandardRecord()
+                        .setField("s", FieldType.STRING, "s1")
+                        .setField("t", FieldType.STRING, String.valueOf(now - 20000))
+                        .setField("v", FieldType.STRING, "http://page1"),
+                new StandardRecord()
+                        .setField("s", FieldType.STRING, "s2")
+                        .setField("t", FieldType.STRING, String.valueOf(now - 15000))
+                        .setField("v", FieldType.STRING, "http://page2"),
+                new StandardRecord()
+                        .setField("s", FieldType.STRING, "s1")
+                        .setField("t", FieldType.STRING, String.valueOf(now - 10000))
+                        .setField("v", FieldType.STRING, "http://page3")
+                        .setField("u", FieldType.STRING, "authuser"));
+        testRunner.run();
+        testRunner.assertOutputRecordsCount(2);
+
+        // only the session updated by the second batch is emitted, consolidated with the first batch
+        testRunner.clearQueues();
+        testRunner.enqueue(new StandardRecord()
+                .setField("s", FieldType.STRING, "s1")
+                .setField("t", FieldType.STRING, String.valueOf(now))
+                .setField("v", FieldType.STRING, "http://pageX"));
+        testRunner.run();
+        testRunner.assertAllInputRecordsProcessed();
+        testRunner.assertOutputRecordsCount(1);
+        testRunner.assertOutputErrorCount(0);
+
+        MockRecord cs = testRunner.getOutputRecords().get(0);
+        cs.assertFieldEquals("s", "s1");
+        cs.assertFieldEquals(ConsolidateSession.EVENTS_COUNTER_FIELD.getDefaultValue(), 3L);
+        cs.assertFieldEquals(ConsolidateSession.FIRST_VISITED_PAGE_FIELD.getDefaultValue(), "http://page1");
+        cs.assertFieldEquals(ConsolidateSession.LAST_VISITED_PAGE_FIELD.getDefaultValue(), "http://pageX");
+        cs.assertFieldEquals(ConsolidateSession.SESSION_DURATION_FIELD.getDefaultValue(), 20L);
+        cs.assertFieldEquals("u", "authuser");
+        cs.assertFieldEquals("t", now - 20000);
+        Assert.assertTrue(cs.getField(ConsolidateSession.IS_SESSION_ACTIVE_FIELD.getDefaultValue()).asBoolean());
+    }
+
+    @Test
+    public void testTimedOutSessionEmittedOnceAsClosed() throws InterruptedException
+    {
+        long now = System.currentTimeMillis();
+        TestRunner testRunner = TestRunners.newTestRunner(new ConsolidateSession());
+        testRunner.setProperty(ConsolidateSession.SESSION_ID_FIELD, "s");
+        testRunner.setProperty(ConsolidateSession.TIMESTAMP_FIELD, "t");
+        testRunner.setProperty(ConsolidateSession.VISITED_PAGE_FIELD, "v");
+        testRunner.setProperty(ConsolidateSession.SESSION_INACTIVITY_TIMEOUT, "1");
+        testRunner.setProperty(ConsolidateSession.IS_SESSION_ACTIVE_FIELD, "i");
+        testRunner.assertValid();
+
+        testRunner.enqueue(new StandardRecord()
+                .setField("s", FieldType.STRING, "s1")
+                .setField("t", FieldType.STRING, String.valueOf(now - 1500))
+                .setField("v", FieldType.STRING, "http://page1"));
+        testRunner.run();
+        testRunner.assertOutputRecordsCount(1);
+        Assert.assertTrue(testRunner.getOutputRecords().get(0).getField("i").asBoolean());
+
+        // s1 times out while the second batch only holds events of s2
+        Thread.sleep(600);
+        testRunner.clearQueues();
+        testRunner.enqueue(new StandardRecord()
+                .setField("s", FieldType.STRING, "s2")
+                .setField("t", FieldType.STRING, String.valueOf(System.currentTimeMillis()))
+                .setField("v", FieldType.STRING, "http://page2"));
+        testRunner.run();
+        testRunner.assertOutputRecordsCount(2);
+
+        MockRecord closed = testRunner.getOutputRecords()
+                .stream()
+                .filter(p -> (p.getField("s").asString()).equals("s1"))
+                .findFirst()
+                .get();
+        Assert.assertFalse(closed.getField("i").asBoolean());
+        closed.assertFieldEquals(ConsolidateSession.EVENTS_COUNTER_FIELD.getDefaultValue(), 1L);
+        closed.assertFieldEquals(ConsolidateSession.SESSION_INACTIVITY_DURATION_FIELD.getDefaultValue(), 1L);
+
+        // nothing changed, nothing is emitted
+        testRunner.clearQueues();
+        testRunner.run();
+        testRunner.assertOutputRecordsCount(0);
+    }
+
+    @Test
+    public void testSessionSharedByProcessorInstances()
+    {
+        long now = System.currentTimeMillis();
+        TestRunner firstRunner = newSessionRunner();
+        TestRunner secondRunner = newSessionRunner();
+
+        firstRunner.enqueue(
+                new StandardRecord()
+                        .setField("s", FieldType.STRING, "s1")
+                        .setField("t", FieldType.STRING, String.valueOf(now - 20000))
+                        .setField("v", FieldType.STRING, "http://page1"),
+                new StandardRecord()
+                        .setField("s", FieldType.STRING, "s1")
+                        .setField("t", FieldType.STRING, String.valueOf(now - 10000))
+                        .setField("v", FieldType.STRING, "http://page2"));
+        firstRunner.run();
+        firstRunner.assertOutputRecordsCount(1);
+
+        // the next batch of the same stream is handled by another pooled instance
+        secondRunner.enqueue(new StandardRecord()
+                .setField("s", FieldType.STRING, "s1")
+                .setField("t", FieldType.STRING, String.valueOf(now))
+                .setField("v", FieldType.STRING, "http://page3"));
+        secondRunner.run();
+        secondRunner.assertAllInputRecordsProcessed();
+        secondRunner.assertOutputRecordsCount(1);
+        secondRunner.assertOutputErrorCount(0);
+
+        MockRecord cs = secondRunner.getOutputRecords().get(0);
+        cs.assertFieldEquals("s", "s1");
+        cs.assertFieldEquals(ConsolidateSession.EVENTS_COUNTER_FIELD.getDefaultValue(), 3L);
+        cs.assertFieldEquals(ConsolidateSession.FIRST_VISITED_PAGE_FIELD.getDefaultValue(), "http://page1");
+        cs.assertFieldEquals(ConsolidateSession.LAST_VISITED_PAGE_FIELD.getDefaultValue(), "http://page3");
+        cs.assertFieldEquals(ConsolidateSession.SESSION_DURATION_FIELD.getDefaultValue(), 20L);
+
+        // the session is not emitted a second time by the first instance
+        firstRunner.clearQueues();
+        firstRunner.run();
+        firstRunner.assertOutputRecordsCount(0);
+    }
+
+    private TestRunner newSessionRunner()
+    {
+        TestRunner testRunner = TestRunners.newTestRunner(new ConsolidateSession());
+        testRunner.setProperty(ConsolidateSession.SESSION_ID_FIELD, "s");
+        testRunner.setProperty(ConsolidateSession.TIMESTAMP_FIELD, "t");
+        testRunner.setProperty(ConsolidateSession.VISITED_PAGE_FIELD, "v");
+        testRunner.assertValid();
+        return testRunner;
+    }
 }
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor.networkpacket;
+
+import com.hurence.logisland.processor.ProcessError;
+import com.hurence.logisland.processor.networkpacket.utils.Endianness;
+import com.hurence.logisland.record.FieldDictionary;
+import com.hurence.logisland.record.FieldType;
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.record.StandardRecord;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.hurence.logisland.processor.networkpacket.PCapConstants.Fields.*;
+
+/**
+ * Decodes pcap bytes straight into packet records.
+ * <p>
+ * Headers are read with absolute gets on a {@link ByteBuffer} wrapping the original array, so neither
+ * the packet data nor the pcap headers are ever copied, and no intermediate kraken packet objects are
+ * built. Only Ethernet (with an optional 802.1Q tag), IPv4, TCP and UDP headers are decoded, producing
+ * the same fields as {@link PcapHelper#packetToFields(PacketInfo)}.
+ * <p>
+ * All methods are stateless and thread safe.
+ */
+public final class PcapBufferDecoder {
+
+    public static final String PACKET_RECORD_TYPE = "pcap_packet";
+
+    /** Magic numbers of pcap files with microsecond timestamps, as read in network byte order. */
+    public static final int MAGIC_NUMBER = 0xA1B2C3D4;
+    public static final int SWAPPED_MAGIC_NUMBER = 0xD4C3B2A1;
+
+    private static final int ETHERNET_HEADER_SIZE = 14;
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int VLAN_TAG_SIZE = 4;
+
+    private static final int IPV4_MIN_HEADER_SIZE = 20;
+    private static final int TCP_MIN_HEADER_SIZE = 20;
+    private static final int UDP_HEADER_SIZE = 8;
+
+    private static final String NOT_IMPLEMENTED_IP_PROTOCOL =
+            "Not Implemented protocol inside ipv4 packet : only TCP and UDP protocols are handled so far.";
+    private static final String NOT_IMPLEMENTED_PROTOCOL =
+            "Not Implemented protocol : only IPv4 protocol (TCP & UDP) is handled so far.";
+
+    private PcapBufferDecoder() {
+    }
+
+    /**
+     * Decodes the content of a pcap file, that is a global header followed by a sequence of
+     * [packet header, packet data] pairs. Packets whose headers are truncated are skipped.
+     *
+     * @param pcap          the pcap file content
+     * @param processorName the name set in the {@link FieldDictionary#PROCESSOR_NAME} field
+     * @return one record per decoded packet
+     * @throws InvalidPCapFileException if the global header is missing or has an unknown magic number
+     */
+    public static List<Record> decodePcap(byte[] pcap, String processorName) throws InvalidPCapFileException {
+        if (pcap == null || pcap.length < PcapHelper.GLOBAL_HEADER_SIZE) {
+            throw new InvalidPCapFileException("Invalid pcap file format : Unable to read the global header.");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(pcap);
+        final int magicNumber = buffer.getInt(0);
+        if (magicNumber != MAGIC_NUMBER && magicNumber != SWAPPED_MAGIC_NUMBER) {
+            throw new InvalidPCapFileException("Invalid pcap file format : Unable to parse the global header magic number.");
+        }
+        final boolean swapped = magicNumber == SWAPPED_MAGIC_NUMBER;
+
+        final List<Record> packets = new ArrayList<>();
+        int offset = PcapHelper.GLOBAL_HEADER_SIZE;
+        while (offset + PcapHelper.PACKET_HEADER_SIZE <= pcap.length) {
+            final long tsSec = readUnsignedInt(buffer, offset, swapped);
+            final long tsUsec = readUnsignedInt(buffer, offset + 4, swapped);
+            final int inclLen = readInt(buffer, offset + 8, swapped);
+            offset += PcapHelper.PACKET_HEADER_SIZE;
+            if (inclLen < 0) {
+                break;
+            }
+
+            final int length = Math.min(inclLen, pcap.length - offset);
+            final Record packet = decodeFrame(buffer, offset, length, magicNumber,
+                    tsSec * 1000000000L + tsUsec * 1000L, processorName);
+            if (packet != null) {
+                packets.add(packet);
+            }
+            offset += length;
+        }
+        return packets;
+    }
+
+    /**
+     * Decodes a single ethernet frame captured off the wire, without any pcap header.
+     *
+     * @param frame            the frame bytes
+     * @param timestampInNanos the capture timestamp
+     * @param processorName    the name set in the {@link FieldDictionary#PROCESSOR_NAME} field
+     * @return the packet record or null if the frame headers are truncated
+     */
+    public static Record decodeFrame(byte[] frame, long timestampInNanos, String processorName) {
+        final int magicNumber = PcapHelper.swapBytes(Endianness.getNativeEndianness()) ? SWAPPED_MAGIC_NUMBER : MAGIC_NUMBER;
+        return decodeFrame(ByteBuffer.wrap(frame), 0, frame.length, magicNumber, timestampInNanos, processorName);
+    }
+
+    private static Record decodeFrame(ByteBuffer buffer, int offset, int length, int magicNumber,
+                                      long timestampInNanos, String processorName) {
+        final int end = offset + length;
+        if (length < ETHERNET_HEADER_SIZE) {
+            return null;
+        }
+
+        int etherType = buffer.getShort(offset + 12) & 0xFFFF;
+        int ipOffset = offset + ETHERNET_HEADER_SIZE;
+        if (etherType == ETHERTYPE_VLAN) {
+            if (ipOffset + VLAN_TAG_SIZE > end) {
+                return null;
+            }
+            etherType = buffer.getShort(ipOffset + 2) & 0xFFFF;
+            ipOffset += VLAN_TAG_SIZE;
+        }
+
+        final StandardRecord record = new StandardRecord(PACKET_RECORD_TYPE);
+        record.setField(FieldDictionary.PROCESSOR_NAME, FieldType.STRING, processorName);
+        record.setField(GLOBAL_MAGICNUMBER.getName(), GLOBAL_MAGICNUMBER.getFieldType(), magicNumber);
+        record.setField(PCKT_TIMESTAMP_IN_NANOS.getName(), PCKT_TIMESTAMP_IN_NANOS.getFieldType(), timestampInNanos);
+
+        if (etherType != ETHERTYPE_IPV4 || ipOffset >= end
+                || ((buffer.get(ipOffset) >> 4) & 0x0F) != Constants.PROTOCOL_IPV4) {
+            record.addError(ProcessError.NOT_IMPLEMENTED_ERROR.getName(), NOT_IMPLEMENTED_PROTOCOL);
+            return record;
+        }
+
+        return decodeIpv4(buffer, ipOffset, end, record) ? record : null;
+    }
+
+    private static boolean decodeIpv4(ByteBuffer buffer, int offset, int end, StandardRecord record) {
+        if (offset + IPV4_MIN_HEADER_SIZE > end) {
+            return false;
+        }
+        final int headerLength = (buffer.get(offset) & 0x0F) * 4;
+        if (headerLength < IPV4_MIN_HEADER_SIZE || offset + headerLength > end) {
+            return false;
+        }
+
+        final int totalLength = buffer.getShort(offset + 2) & 0xFFFF;
+        final int flagsAndFragment = buffer.getShort(offset + 6) & 0xFFFF;
+        final int protocol = buffer.get(offset + 9) & 0xFF;
+        final String srcIp = toIpAddress(buffer, offset + 12);
+        final String dstIp = toIpAddress(buffer, offset + 16);
+
+        setIntField(record, IP_VERSION, Constants.PROTOCOL_IPV4);
+        setIntField(record, IP_INTERNETHEADERLENGTH, headerLength);
+        setIntField(record, IP_TYPEOFSERVICE, buffer.get(offset + 1) & 0xFF);
+        setIntField(record, IP_DATAGRAMTOTALLENGTH, totalLength);
+        setIntField(record, IP_IDENTIFICATION, buffer.getShort(offset + 4) & 0xFFFF);
+        setIntField(record, IP_FLAGS, flagsAndFragment >> 13);
+        setIntField(record, IP_FRAGMENTOFFSET, flagsAndFragment & 0x1FFF);
+        setIntField(record, IP_TIMETOLIVE, buffer.get(offset + 8) & 0xFF);
+        setIntField(record, IP_PROTOCOL, protocol);
+        setIntField(record, IP_CHECKSUM, buffer.getShort(offset + 10) & 0xFFFF);
+        record.setField(IP_SRCIPADDRESS.getName(), IP_SRCIPADDRESS.getFieldType(), srcIp);
+        record.setField(IP_DSTIPADDRESS.getName(), IP_DSTIPADDRESS.getFieldType(), dstIp);
+        if (headerLength > IPV4_MIN_HEADER_SIZE) {
+            record.setField(IP_OPTIONS.getName(), IP_OPTIONS.getFieldType(),
+                    copyOf(buffer, offset + IPV4_MIN_HEADER_SIZE, headerLength - IPV4_MIN_HEADER_SIZE));
+        }
+
+        final int segmentOffset = offset + headerLength;
+        final int segmentLength = totalLength - headerLength;
+        switch (protocol) {
+            case Constants.PROTOCOL_TCP:
+                return decodeTcp(buffer, segmentOffset, end, segmentLength, srcIp, dstIp, record);
+            case Constants.PROTOCOL_UDP:
+                return decodeUdp(buffer, segmentOffset, end, record);
+            default:
+                record.addError(ProcessError.NOT_IMPLEMENTED_ERROR.getName(), NOT_IMPLEMENTED_IP_PROTOCOL);
+                return true;
+        }
+    }
+
+    private static boolean decodeTcp(ByteBuffer buffer, int offset, int end, int segmentLength,
+                                     String srcIp, String dstIp, StandardRecord record) {
+        if (offset + TCP_MIN_HEADER_SIZE > end) {
+            return false;
+        }
+        final int dataOffset = (buffer.get(offset + 12) >> 4) & 0x0F;
+        final int headerLength = dataOffset * 4;
+        if (headerLength < TCP_MIN_HEADER_SIZE || offset + headerLength > end) {
+            return false;
+        }
+
+        setIntField(record, TCP_SRCPORT, buffer.getShort(offset) & 0xFFFF);
+        setIntField(record, TCP_DSTPORT, buffer.getShort(offset + 2) & 0xFFFF);
+        setIntField(record, TCP_SEQUENCENUMBER, buffer.getInt(offset + 4));
+        setIntField(record, TCP_ACKNOWLEDGMENTNUMBER, buffer.getInt(offset + 8));
+        setIntField(record, TCP_DATAOFFSET, dataOffset);
+        setIntField(record, TCP_FLAGS, buffer.getShort(offset + 12) & 0x01FF);
+        setIntField(record, TCP_WINDOWSIZE, buffer.getShort(offset + 14) & 0xFFFF);
+        setIntField(record, TCP_CHECKSUM, buffer.getShort(offset + 16) & 0xFFFF);
+        setIntField(record, TCP_URGENTPOINTER, buffer.getShort(offset + 18) & 0xFFFF);
+        if (headerLength > TCP_MIN_HEADER_SIZE) {
+            record.setField(TCP_OPTIONS.getName(), TCP_OPTIONS.getFieldType(),
+                    copyOf(buffer, offset + TCP_MIN_HEADER_SIZE, headerLength - TCP_MIN_HEADER_SIZE));
+        }
+
+        // sessions are not tracked by this processor, so reassembly and relative numbers stay at 0
+        record.setField(TCP_COMPUTED_SRCIP.getName(), TCP_COMPUTED_SRCIP.getFieldType(), srcIp);
+        record.setField(TCP_COMPUTED_DSTIP.getName(), TCP_COMPUTED_DSTIP.getFieldType(), dstIp);
+        setIntField(record, TCP_COMPUTED_SEGMENTTOTALLENGTH, segmentLength);
+        setIntField(record, TCP_COMPUTED_DATALENGTH, segmentLength - headerLength);
+        setIntField(record, TCP_COMPUTED_REASSEMBLEDLENGTH, 0);
+        setIntField(record, TCP_COMPUTED_RELATIVEACK, 0);
+        setIntField(record, TCP_COMPUTED_RELATIVESEQ, 0);
+        return true;
+    }
+
+    private static boolean decodeUdp(ByteBuffer buffer, int offset, int end, StandardRecord record) {
+        if (offset + UDP_HEADER_SIZE > end) {
+            return false;
+        }
+        setIntField(record, UDP_SRCPORT, buffer.getShort(offset) & 0xFFFF);
+        setIntField(record, UDP_DSTPORT, buffer.getShort(offset + 2) & 0xFFFF);
+        setIntField(record, UDP_SEGMENTTOTALLENGTH, buffer.getShort(offset + 4) & 0xFFFF);
+        setIntField(record, UDP_CHECKSUM, buffer.getShort(offset + 6) & 0xFFFF);
+        return true;
+    }
+
+    private static void setIntField(StandardRecord record, PCapConstants.Fields field, int value) {
+        record.setField(field.getName(), field.getFieldType(), value);
+    }
+
+    private static int readInt(ByteBuffer buffer, int offset, boolean swapped) {
+        final int value = buffer.getInt(offset);
+        return swapped ? Integer.reverseBytes(value) : value;
+    }
+
+    private static long readUnsignedInt(ByteBuffer buffer, int offset, boolean swapped) {
+        return readInt(buffer, offset, swapped) & 0xFFFFFFFFL;
+    }
+
+    private static String toIpAddress(ByteBuffer buffer, int offset) {
+        return new StringBuilder(15)
+                .append(buffer.get(offset) & 0xFF).append('.')
+                .append(buffer.get(offset + 1) & 0xFF).append('.')
+                .append(buffer.get(offset + 2) & 0xFF).append('.')
+                .append(buffer.get(offset + 3) & 0xFF)
+                .toString();
+    }
+
+    private static byte[] copyOf(ByteBuffer buffer, int offset, int length) {
+        return Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + offset, buffer.arrayOffset() + offset + length);
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor.networkpacket;
+
+import com.hurence.logisland.record.Field;
+import com.hurence.logisland.record.FieldDictionary;
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.util.file.FileUtil;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.krakenapps.pcap.decoder.ip.Ipv4Packet;
+import org.krakenapps.pcap.decoder.tcp.TcpPacket;
+import org.krakenapps.pcap.decoder.udp.UdpPacket;
+import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+
+import static com.hurence.logisland.processor.networkpacket.PCapConstants.Fields.*;
+
+/**
+ * Test the buffer based pcap decoder against the kraken based decoding it replaces.
+ */
+public class PcapBufferDecoderTest {
+
+    private static Logger logger = LoggerFactory.getLogger(PcapBufferDecoderTest.class);
+
+    private static final String PROCESSOR_NAME = "ParseNetworkPacket";
+
+    /** An ethernet frame holding an IPv4 TCP segment, as sent by the probe in stream mode. */
+    private static final byte[] TCP_FRAME = new byte[]{0, 18, -49, -27, 84, -96, 0, 31, 60, 35, -37, -45, 8, 0,
+            69, 0, 0, 40, 74, -90, 64, 0, 64, 6, 88, -21, -64, -88, 10, -30, -64, -88, 11, 12, 76,
+            -5, 0, 23, -25, -54, -8, 88, 38, 19, 69, -34, 80, 17, 64, -57, 62, -90, 0, 0};
+
+    /** An ethernet frame holding an IPv4 UDP datagram with a 4 bytes IP options word. */
+    private static final byte[] UDP_FRAME = new byte[]{0, 18, -49, -27, 84, -96, 0, 31, 60, 35, -37, -45, 8, 0,
+            70, 0, 0, 36, 0, 1, 0, 0, 32, 17, 0, 0, 10, 0, 0, 1, 10, 0, 0, 2, 1, 2, 3, 4,
+            0, 53, -61, 80, 0, 12, 18, 52, 1, 2, 3, 4};
+
+    @Test
+    public void testDecodeStreamFrame() {
+        final Record record = PcapBufferDecoder.decodeFrame(TCP_FRAME, 1338882754996790000L, PROCESSOR_NAME);
+
+        Assert.assertNotNull(record);
+        Assert.assertEquals("pcap_packet", record.getType());
+        Assert.assertEquals(PROCESSOR_NAME, record.getField(FieldDictionary.PROCESSOR_NAME).asString());
+        Assert.assertEquals(1338882754996790000L, record.getField(PCKT_TIMESTAMP_IN_NANOS.getName()).asLong().longValue());
+        Assert.assertEquals(20, intValue(record, IP_INTERNETHEADERLENGTH));
+        Assert.assertEquals(19110, intValue(record, IP_IDENTIFICATION));
+        Assert.assertEquals(2, intValue(record, IP_FLAGS));
+        Assert.assertEquals(22763, intValue(record, IP_CHECKSUM));
+        Assert.assertEquals("192.168.10.226", record.getField(IP_SRCIPADDRESS.getName()).asString());
+        Assert.assertEquals("192.168.11.12", record.getField(IP_DSTIPADDRESS.getName()).asString());
+        Assert.assertEquals(19707, intValue(record, TCP_SRCPORT));
+        Assert.assertEquals(23, intValue(record, TCP_DSTPORT));
+        Assert.assertEquals(-406128552, intValue(record, TCP_SEQUENCENUMBER));
+        Assert.assertEquals(17, intValue(record, TCP_FLAGS));
+        Assert.assertEquals(16583, intValue(record, TCP_WINDOWSIZE));
+        Assert.assertEquals(20, intValue(record, TCP_COMPUTED_SEGMENTTOTALLENGTH));
+        Assert.assertEquals(0, intValue(record, TCP_COMPUTED_DATALENGTH));
+        Assert.assertFalse(record.hasField(IP_OPTIONS.getName()));
+        Assert.assertFalse(record.hasField(TCP_OPTIONS.getName()));
+    }
+
+    @Test
+    public void testDecodeVlanTaggedUdpFrame() {
+        final byte[] taggedFrame = new byte[UDP_FRAME.length + 4];
+        System.arraycopy(UDP_FRAME, 0, taggedFrame, 0, 12);
+        taggedFrame[12] = (byte) 0x81;
+        taggedFrame[15] = 42;
+        System.arraycopy(UDP_FRAME, 12, taggedFrame, 16, UDP_FRAME.length - 12);
+
+        for (byte[] frame : Arrays.asList(UDP_FRAME, taggedFrame)) {
+            final Record record = PcapBufferDecoder.decodeFrame(frame, 0L, PROCESSOR_NAME);
+
+            Assert.assertNotNull(record);
+            Assert.assertTrue(record.getErrors().isEmpty());
+            Assert.assertEquals(24, intValue(record, IP_INTERNETHEADERLENGTH));
+            Assert.assertEquals(Constants.PROTOCOL_UDP, intValue(record, IP_PROTOCOL));
+            Assert.assertArrayEquals(new byte[]{1, 2, 3, 4}, (byte[]) record.getField(IP_OPTIONS.getName()).getRawValue());
+            Assert.assertEquals(53, intValue(record, UDP_SRCPORT));
+            Assert.assertEquals(50000, intValue(record, UDP_DSTPORT));
+            Assert.assertEquals(12, intValue(record, UDP_SEGMENTTOTALLENGTH));
+            Assert.assertEquals(0x1234, intValue(record, UDP_CHECKSUM));
+        }
+    }
+
+    @Test
+    public void testTruncatedVlanTag() {
+        // an 802.1Q frame cut anywhere inside its 4 bytes tag
+        final byte[] taggedFrame = new byte[UDP_FRAME.length + 4];
+        System.arraycopy(UDP_FRAME, 0, taggedFrame, 0, 12);
+        taggedFrame[12] = (byte) 0x81;
+        System.arraycopy(UDP_FRAME, 12, taggedFrame, 16, UDP_FRAME.length - 12);
+
+        for (int length = 14; length < 18; length++) {
+            Assert.assertNull(PcapBufferDecoder.decodeFrame(Arrays.copyOf(taggedFrame, length), 0L, PROCESSOR_NAME));
+        }
+    }
+
+    @Test
+    public void testTruncatedAndInvalidInputs() throws Exception {
+        Assert.assertNull(PcapBufferDecoder.decodeFrame(Arrays.copyOf(TCP_FRAME, 40), 0L, PROCESSOR_NAME));
+
+        final byte[] pcap = FileUtil.loadFileContentAsBytes("pcapTestFiles/4-TCP-packets.pcap");
+        Assert.assertEquals(3, PcapBufferDecoder.decodePcap(Arrays.copyOf(pcap, pcap.length - 20), PROCESSOR_NAME).size());
+
+        try {
+            PcapBufferDecoder.decodePcap(FileUtil.loadFileContentAsBytes("pcapTestFiles/picture.pcap"), PROCESSOR_NAME);
+            Assert.fail("an invalid magic number should be rejected");
+        } catch (InvalidPCapFileException expected) {
+        }
+        try {
+            PcapBufferDecoder.decodePcap(new byte[10], PROCESSOR_NAME);
+            Assert.fail("a missing global header should be rejected");
+        } catch (InvalidPCapFileException expected) {
+        }
+    }
+
+    @Test
+    public void testSameFieldsAsKrakenDecoding() throws Exception {
+        for (String file : Arrays.asList("1-TCP-packet.pcap", "4-TCP-packets.pcap", "1-ARP+1-TCP-packets.pcap")) {
+            final byte[] pcap = FileUtil.loadFileContentAsBytes("pcapTestFiles/" + file);
+
+            final List<EnumMap<PCapConstants.Fields, Object>> expected = decodeWithKraken(pcap);
+            final List<Record> actual = PcapBufferDecoder.decodePcap(pcap, PROCESSOR_NAME);
+
+            Assert.assertEquals(file, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSameFields(file + " packet " + i, expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    /**
+     * Compare the decoding throughput of both implementations on a capture made of the
+     * 4-TCP-packets fixture repeated many times.
+     */
+    @Ignore("benchmark, only logs timings")
+    @Test
+    public void testThroughput() throws Exception {
+        final byte[] fixture = FileUtil.loadFileContentAsBytes("pcapTestFiles/4-TCP-packets.pcap");
+        final int repeat = 2500;
+        final int packetsLength = fixture.length - PcapHelper.GLOBAL_HEADER_SIZE;
+        final byte[] pcap = new byte[PcapHelper.GLOBAL_HEADER_SIZE + repeat * packetsLength];
+        System.arraycopy(fixture, 0, pcap, 0, PcapHelper.GLOBAL_HEADER_SIZE);
+        for (int i = 0; i < repeat; i++) {
+            System.arraycopy(fixture, PcapHelper.GLOBAL_HEADER_SIZE, pcap, PcapHelper.GLOBAL_HEADER_SIZE + i * packetsLength, packetsLength);
+        }
+        final int packetCount = 4 * repeat;
+
+        // warm up both paths
+        Assert.assertEquals(packetCount, decodeWithKraken(pcap).size());
+        Assert.assertEquals(packetCount, PcapBufferDecoder.decodePcap(pcap, PROCESSOR_NAME).size());
+
+        long start = System.nanoTime();
+        decodeWithKraken(pcap);
+        final long krakenNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        PcapBufferDecoder.decodePcap(pcap, PROCESSOR_NAME);
+        final long bufferNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < packetCount; i++) {
+            PcapBufferDecoder.decodeFrame(TCP_FRAME, i, PROCESSOR_NAME);
+        }
+        final long streamNanos = System.nanoTime() - start;
+
+        logger.info("decoding {} packets : {} packets/s with kraken, {} packets/s from the buffer, {} packets/s in stream mode",
+                packetCount,
+                packetCount * 1000000000L / Math.max(1, krakenNanos),
+                packetCount * 1000000000L / Math.max(1, bufferNanos),
+                packetCount * 1000000000L / Math.max(1, streamNanos));
+    }
+
+    private static int intValue(Record record, PCapConstants.Fields field) {
+        return record.getField(field.getName()).asInteger();
+    }
+
+    private static void assertSameFields(String message, EnumMap<PCapConstants.Fields, Object> expected, Record actual) {
+        for (PCapConstants.Fields field : PCapConstants.Fields.values()) {
+            final Object expectedValue = expected.get(field);
+            final Field actualField = actual.getField(field.getName());
+            if (expectedValue == null) {
+                // src_port and dest_port are shared by the TCP and UDP headers
+                if (field != UDP_SRCPORT && field != UDP_DSTPORT && field != TCP_SRCPORT && field != TCP_DSTPORT) {
+                    Assert.assertNull(message + " " + field, actualField);
+                }
+            } else if (expectedValue instanceof byte[]) {
+                Assert.assertArrayEquals(message + " " + field, (byte[]) expectedValue, (byte[]) actualField.getRawValue());
+            } else if (expectedValue instanceof Number) {
+                Assert.assertEquals(message + " " + field, ((Number) expectedValue).longValue(),
+                        ((Number) actualField.getRawValue()).longValue());
+            } else {
+                Assert.assertEquals(message + " " + field, expectedValue, actualField.getRawValue());
+            }
+        }
+    }
+
+    /**
+     * The batch mode decoding done by ParseNetworkPacket before the buffer decoder was introduced.
+     */
+    private static List<EnumMap<PCapConstants.Fields, Object>> decodeWithKraken(byte[] pcap) throws Exception {
+        final List<EnumMap<PCapConstants.Fields, Object>> packets = new ArrayList<>();
+        final LogIslandEthernetDecoder decoder = PcapHelper.ETHERNET_DECODER.get();
+        final PcapByteInputStream pcapByteInputStream = new PcapByteInputStream(pcap);
+
+        while (true) {
+            try {
+                PcapPacket packet = pcapByteInputStream.getPacket();
+                TcpPacket tcpPacket = null;
+                UdpPacket udpPacket = null;
+
+                decoder.decode(packet);
+                Ipv4Packet ipv4Packet = Ipv4Packet.parse(packet.getPacketData());
+                if (ipv4Packet.getVersion() == Constants.PROTOCOL_IPV4) {
+                    if (ipv4Packet.getProtocol() == Constants.PROTOCOL_TCP) {
+                        tcpPacket = TcpPacket.parse(ipv4Packet);
+                    } else if (ipv4Packet.getProtocol() == Constants.PROTOCOL_UDP) {
+                        Buffer packetDataBuffer = ipv4Packet.getData();
+                        int sourcePort = packetDataBuffer.getUnsignedShort();
+                        int destinationPort = packetDataBuffer.getUnsignedShort();
+                        udpPacket = new UdpPacket(ipv4Packet, sourcePort, destinationPort);
+                        udpPacket.setLength(packetDataBuffer.getUnsignedShort());
+                        udpPacket.setChecksum(packetDataBuffer.getUnsignedShort());
+                        packetDataBuffer.discardReadBytes();
+                        udpPacket.setData(packetDataBuffer);
+                    }
+                }
+
+                packets.add(PcapHelper.packetToFields(new PacketInfo(pcapByteInputStream.getGlobalHeader(),
+                        packet.getPacketHeader(), packet, ipv4Packet, tcpPacket, udpPacket)));
+            } catch (EOFException eof) {
+                break;
+            }
+        }
+        return packets;
+    }
+}
@@ -21,17 +21,22 @@ import com.hurence.logisland.annotation.documentation.Tags;
 import com.hurence.logisland.component.AllowableValue;
 import com.hurence.logisland.component.PropertyDescriptor;
 import com.hurence.logisland.processor.ProcessContext;
+import com.hurence.logisland.processor.ProcessorMetricsProvider;
 import com.hurence.logisland.record.Field;
 import com.hurence.logisland.record.Record;
+import com.hurence.logisland.service.elasticsearch.bulk.BulkResultHandler;
 import com.hurence.logisland.validator.StandardValidators;
-import org.joda.time.DateTime;
 
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Tags({"elasticsearch"})
 @CapabilityDescription("Indexes the content of a Record in Elasticsearch using elasticsearch's bulk processor")
-public class BulkAddElasticsearch extends AbstractElasticsearchProcessor
+public class BulkAddElasticsearch extends AbstractElasticsearchProcessor implements ProcessorMetricsProvider
 {
 
     public static final PropertyDescriptor DEFAULT_INDEX = new PropertyDescriptor.Builder()
@@ -79,6 +84,24 @@ public class BulkAddElasticsearch extends AbstractElasticsearchProcessor
             .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor BULK_ACK_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("bulk.ack.timeout.ms")
+            .description("How long in ms to wait for the bulk responses of the records of a batch before returning them. " +
+                    "Records that could not be indexed are returned with an error, and so are the ones still " +
+                    "waiting for their bulk response after this delay. 0 to return the records as soon as they " +
+                    "are added to the bulk processor, without any error reporting")
+            .required(false)
+            .addValidator(StandardValidators.createLongValidator(0, Long.MAX_VALUE, true))
+            .defaultValue("60000")
+            .build();
+
+    private static final DateTimeFormatter INDEX_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+
+    private transient volatile TimeBasedIndex timeBasedIndex;
+
+    private final LongAdder failedRecords = new LongAdder();
+    private final LongAdder timedOutRecords = new LongAdder();
+
     @Override
     public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
 
@@ -89,6 +112,7 @@ public class BulkAddElasticsearch extends AbstractElasticsearchProcessor
         props.add(TIMEBASED_INDEX);
         props.add(ES_INDEX_FIELD);
         props.add(ES_TYPE_FIELD);
+        props.add(BULK_ACK_TIMEOUT);
 
         return Collections.unmodifiableList(props);
     }
@@ -110,15 +134,12 @@ public class BulkAddElasticsearch extends AbstractElasticsearchProcessor
             String defaultIndex = context.getPropertyValue(DEFAULT_INDEX).asString();
             String defaultType = context.getPropertyValue(DEFAULT_TYPE).asString();
             if (context.getPropertyValue(TIMEBASED_INDEX).isSet()) {
-                final SimpleDateFormat sdf = new SimpleDateFormat("yyyy.MM.dd");
-                if (context.getPropertyValue(TIMEBASED_INDEX).getRawValue().equals(TODAY_DATE_SUFFIX.getValue())) {
-                    defaultIndex += "." + sdf.format(new Date());
-                } else if (context.getPropertyValue(TIMEBASED_INDEX).getRawValue().equals(YESTERDAY_DATE_SUFFIX.getValue())) {
-                    DateTime dt = new DateTime(new Date()).minusDays(1);
-                    defaultIndex += "." + sdf.format(dt.toDate());
-                }
+                defaultIndex = getTimeBasedIndex(defaultIndex, context.getPropertyValue(TIMEBASED_INDEX).asString());
             }
 
+            final long ackTimeout = context.getPropertyValue(BULK_ACK_TIMEOUT).asLong();
+            final BatchResultHandler resultHandler = ackTimeout > 0 ? new BatchResultHandler(records.size()) : null;
+
             /**
              * loop over events to add them to bulk
              */
@@ -142,11 +163,127 @@ public class BulkAddElasticsearch extends AbstractElasticsearchProcessor
                     }
                 }
 
-                String document = elasticsearchClientService.convertRecordToString(record);
-                elasticsearchClientService.bulkPut(docIndex, docType, document, Optional.of(record.getId()));
+                if (resultHandler != null) {
+                    elasticsearchClientService.bulkPut(docIndex, docType, record, Optional.of(record.getId()), resultHandler);
+                } else {
+                    elasticsearchClientService.bulkPut(docIndex, docType, record, Optional.of(record.getId()));
+                }
+            }
 
+            if (resultHandler != null) {
+                // send what is left of the batch instead of waiting for the flush interval
+                elasticsearchClientService.flushBulkProcessor();
+                if (!resultHandler.await(ackTimeout)) {
+                    // the records not acknowledged yet are marked as timed out, stop tracking them
+                    elasticsearchClientService.discardBulkResults(resultHandler);
+                }
+                resultHandler.markFailedRecords(records);
             }
         }
         return records;
     }
+
+    /**
+     * Add the date suffix to the index name, the name is computed once a day
+     *
+     * @param index the index name
+     * @param dateSuffix one of the time based index allowable values
+     * @return the time based index name
+     */
+    private String getTimeBasedIndex(String index, String dateSuffix) {
+        final LocalDate today = LocalDate.now();
+        TimeBasedIndex timeBasedIndex = this.timeBasedIndex;
+        if (timeBasedIndex == null || !timeBasedIndex.day.equals(today)
+                || !timeBasedIndex.index.equals(index) || !timeBasedIndex.dateSuffix.equals(dateSuffix)) {
+
+            String name = index;
+            if (dateSuffix.equals(TODAY_DATE_SUFFIX.getValue())) {
+                name += "." + INDEX_DATE_FORMATTER.format(today);
+            } else if (dateSuffix.equals(YESTERDAY_DATE_SUFFIX.getValue())) {
+                name += "." + INDEX_DATE_FORMATTER.format(today.minusDays(1));
+            }
+            timeBasedIndex = new TimeBasedIndex(index, dateSuffix, today, name);
+            this.timeBasedIndex = timeBasedIndex;
+        }
+        return timeBasedIndex.name;
+    }
+
+    private static final class TimeBasedIndex {
+
+        private final String index;
+        private final String dateSuffix;
+        private final LocalDate day;
+        private final String name;
+
+        TimeBasedIndex(String index, String dateSuffix, LocalDate day, String name) {
+            this.index = index;
+            this.dateSuffix = dateSuffix;
+            this.day = day;
+            this.name = name;
+        }
+    }
+
+    @Override
+    public Map<String, Number> drainMetrics() {
+        final Map<String, Number> metrics = new LinkedHashMap<>();
+        if (elasticsearchClientService != null) {
+            metrics.putAll(elasticsearchClientService.drainBulkMetrics());
+        }
+        metrics.put("bulk_failed_records", failedRecords.sumThenReset());
+        metrics.put("bulk_timed_out_records", timedOutRecords.sumThenReset());
+        return metrics;
+    }
+
+    /**
+     * Gathers the bulk responses of the records of a batch. Responses are received from the bulk processor
+     * threads, so the records are only marked with errors by the processing thread once it stops waiting.
+     */
+    private final class BatchResultHandler implements BulkResultHandler {
+
+        private final CountDownLatch pendingRecords;
+        // keyed by identity, two records of the batch may be equal
+        private final Map<Record, String> failures = Collections.synchronizedMap(new IdentityHashMap<>());
+        private final Set<Record> acknowledged = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+        BatchResultHandler(int size) {
+            this.pendingRecords = new CountDownLatch(size);
+        }
+
+        @Override
+        public void onSuccess(Record record) {
+            acknowledged.add(record);
+            pendingRecords.countDown();
+        }
+
+        @Override
+        public void onFailure(Record record, String failureMessage) {
+            failures.put(record, failureMessage);
+            acknowledged.add(record);
+            pendingRecords.countDown();
+        }
+
+        boolean await(long timeoutMs) {
+            try {
+                return pendingRecords.await(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        void markFailedRecords(Collection<Record> records) {
+            for (Record record : records) {
+                // a failure is always stored before the record is acknowledged, late responses are ignored
+                if (!acknowledged.contains(record)) {
+                    timedOutRecords.increment();
+                    record.addError("ES_BULK_TIMEOUT", getLogger(),
+                            "no bulk response received for record " + record.getId() + " in time");
+                } else if (failures.containsKey(record)) {
+                    failedRecords.increment();
+                    record.addError("ES_BULK_FAILURE", getLogger(),
+                            "failed to index record " + record.getId() + " : " + failures.get(record));
+                }
+            }
+        }
+    }
 }
@@ -20,15 +20,23 @@ import com.hurence.logisland.annotation.documentation.CapabilityDescription;
 import com.hurence.logisland.annotation.documentation.Tags;
 import com.hurence.logisland.component.PropertyDescriptor;
 import com.hurence.logisland.processor.ProcessContext;
+import com.hurence.logisland.processor.ProcessorMetricsProvider;
+import com.hurence.logisland.service.cache.CacheService;
 import com.hurence.logisland.service.elasticsearch.multiGet.InvalidMultiGetQueryRecordException;
 import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetQueryRecord;
+import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetFailureRecord;
 import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResponseRecord;
+import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResult;
 import com.hurence.logisland.record.*;
 import com.hurence.logisland.validator.StandardValidators;
 
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 @Tags({"elasticsearch"})
 @CapabilityDescription("Enrich input records with content indexed in elasticsearch using multiget queries.\n" +
@@ -39,10 +47,15 @@ import java.util.stream.Collectors;
         "- es.key (String)              : Name of the elasticsearch key on which the multiget query will be performed. This field is mandatory.\n" +
         "- includes (ArrayList<String>) : List of patterns to filter in (include) fields to retrieve. Supports wildcards. This field is not mandatory.\n" +
         "- excludes (ArrayList<String>) : List of patterns to filter out (exclude) fields to retrieve. Supports wildcards. This field is not mandatory.\n" +
+        "- cache.service (String)       : Cache service in which retrieved documents are kept, so that only the ids missing from the cache are looked up. This field is not mandatory.\n" +
+        "- cache.ttl.ms (Long)          : How long retrieved documents are kept in the cache. This field is not mandatory.\n" +
+        "- cache.negative.ttl.ms (Long) : How long the ids of missing documents are kept in the cache. This field is not mandatory.\n" +
+        "- es.multiget.max.ids (Int)    : Maximum number of ids sent in a single multiget request. This field is not mandatory.\n" +
+        "- es.multiget.timeout.ms (Long): Maximum time to wait for the multiget requests of a batch. This field is not mandatory.\n" +
         "\n" +
         "Each outcoming record holds at least the input record plus potentially one or more fields coming from of one elasticsearch document."
 )
-public class EnrichRecordsElasticsearch extends AbstractElasticsearchProcessor
+public class EnrichRecordsElasticsearch extends AbstractElasticsearchProcessor implements ProcessorMetricsProvider
 {
     public static final PropertyDescriptor RECORD_KEY_FIELD = new PropertyDescriptor.Builder()
             .name("record.key")
@@ -81,6 +94,59 @@ public class EnrichRecordsElasticsearch extends AbstractElasticsearchProcessor
             .defaultValue("N/A")
             .build();
 
+    public static final PropertyDescriptor CACHE_SERVICE = new PropertyDescriptor.Builder()
+            .name("cache.service")
+            .description("The instance of the Cache Service in which retrieved documents are kept. " +
+                    "Only the ids missing from the cache are looked up in ES.")
+            .required(false)
+            .identifiesControllerService(CacheService.class)
+            .build();
+
+    public static final PropertyDescriptor CACHE_TTL = new PropertyDescriptor.Builder()
+            .name("cache.ttl.ms")
+            .description("How long the documents retrieved from ES are kept in the cache before being looked up " +
+                    "again, so that their updates are eventually seen, 0 disables the caching of retrieved documents.")
+            .required(false)
+            .addValidator(StandardValidators.createLongValidator(0, Long.MAX_VALUE, true))
+            .defaultValue("3600000")
+            .build();
+
+    public static final PropertyDescriptor NEGATIVE_CACHE_TTL = new PropertyDescriptor.Builder()
+            .name("cache.negative.ttl.ms")
+            .description("How long the ids of documents missing from ES are kept in the cache " +
+                    "before being looked up again, 0 disables the caching of missing documents.")
+            .required(false)
+            .addValidator(StandardValidators.createLongValidator(0, Long.MAX_VALUE, true))
+            .defaultValue("60000")
+            .build();
+
+    public static final PropertyDescriptor MAX_IDS_PER_REQUEST = new PropertyDescriptor.Builder()
+            .name("es.multiget.max.ids")
+            .description("The maximum number of document ids in a single multiget request, " +
+                    "more ids are split in several requests.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("1000")
+            .build();
+
+    public static final PropertyDescriptor MULTIGET_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("es.multiget.timeout.ms")
+            .description("The maximum time in ms to wait for all the multiget requests of a batch, which are sent " +
+                    "concurrently. The records whose document has not been retrieved by then are not enriched.")
+            .required(false)
+            .addValidator(StandardValidators.createLongValidator(1, Long.MAX_VALUE, true))
+            .defaultValue("30000")
+            .build();
+
+    private CacheService<String, Object> cacheService;
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder multiGetRequests = new LongAdder();
+    private final LongAdder multiGetIds = new LongAdder();
+    private final LongAdder multiGetNanos = new LongAdder();
+    private final AtomicLong multiGetMaxNanos = new AtomicLong();
+
     @Override
     public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
 
@@ -91,10 +157,22 @@ public class EnrichRecordsElasticsearch extends AbstractElasticsearchProcessor
         props.add(ES_TYPE_FIELD);
         props.add(ES_INCLUDES_FIELD);
         props.add(ES_EXCLUDES_FIELD);
+        props.add(CACHE_SERVICE);
+        props.add(CACHE_TTL);
+        props.add(NEGATIVE_CACHE_TTL);
+        props.add(MAX_IDS_PER_REQUEST);
+        props.add(MULTIGET_TIMEOUT);
 
         return Collections.unmodifiableList(props);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(final ProcessContext context) {
+        super.init(context);
+        cacheService = context.getPropertyValue(CACHE_SERVICE).asControllerService(CacheService.class);
+    }
+
     /**
      * process events
      *
@@ -115,10 +193,12 @@ public class EnrichRecordsElasticsearch extends AbstractElasticsearchProcessor
             String typeName         = context.getPropertyValue(ES_TYPE_FIELD).asString();
             String includesFieldName = context.getPropertyValue(ES_INCLUDES_FIELD).asString();
             String excludesFieldName = context.getPropertyValue(ES_EXCLUDES_FIELD).asString();
+            long cacheTtl            = context.getPropertyValue(CACHE_TTL).asLong();
+            long negativeCacheTtl    = context.getPropertyValue(NEGATIVE_CACHE_TTL).asLong();
+            int maxIdsPerRequest     = context.getPropertyValue(MAX_IDS_PER_REQUEST).asInteger();
+            long multiGetTimeout     = context.getPropertyValue(MULTIGET_TIMEOUT).asLong();
 
-            List<MultiGetQueryRecord> multiGetQueryRecords = new ArrayList<>();
-            List<MultiGetResponseRecord> multiGetResponseRecords;
-            HashSet<String> ids = new HashSet<>(); // Use a Set to avoid duplicates
+            Set<String> ids = new LinkedHashSet<>(); // Use a Set to avoid duplicates
 
             for (Record record : records) {
                 if(!record.hasField(recordKeyName) ||
@@ -153,31 +233,83 @@ public class EnrichRecordsElasticsearch extends AbstractElasticsearchProcessor
                 excludesArray = excludesFieldName.split("\\s*,\\s*");
             }
 
-            try {
-                multiGetQueryRecords.add(new MultiGetQueryRecord(indexName, typeName, new ArrayList(ids), includesArray, excludesArray));
-            } catch (InvalidMultiGetQueryRecordException e) {
-                // Cannot enrich any records
-                // Return input records
-                return records;
-            }
+            // The retrieved fields of each document, null when the document does not exist
+            Map<String, Map<String, String>> documents = new HashMap<>();
 
-            multiGetResponseRecords = elasticsearchClientService.multiGet(multiGetQueryRecords);
+            // Lookup the cache first, several processors may share it so keys are qualified by the query
+            String cacheKeyPrefix = indexName + '/' + typeName + '/' +
+                    includesFieldName + '/' + excludesFieldName + '/';
+            List<String> missingIds = cacheService == null ?
+                    new ArrayList<>(ids) :
+                    lookupCache(cacheKeyPrefix, ids, documents);
 
-            if (multiGetResponseRecords == null || multiGetResponseRecords.isEmpty()){
-                return records;
+            // Then ES for the remaining ids, in bounded requests all sent before waiting for any of them
+            List<List<String>> requestsIds = new ArrayList<>();
+            List<CompletableFuture<MultiGetResult>> requests = new ArrayList<>();
+            for (int from = 0; from < missingIds.size(); from += maxIdsPerRequest) {
+                List<String> requestIds = new ArrayList<>(
+                        missingIds.subList(from, Math.min(from + maxIdsPerRequest, missingIds.size())));
+
+                MultiGetQueryRecord multiGetQueryRecord;
+                try {
+                    multiGetQueryRecord = new MultiGetQueryRecord(indexName, typeName, requestIds, includesArray, excludesArray);
+                } catch (InvalidMultiGetQueryRecordException e) {
+                    // Cannot enrich any records
+                    // Return input records
+                    return records;
+                }
+
+                int idCount = requestIds.size();
+                long start = System.nanoTime();
+                requestsIds.add(requestIds);
+                requests.add(elasticsearchClientService.multiGetAsync(Collections.singletonList(multiGetQueryRecord))
+                        .whenComplete((multiGetResult, e) -> recordMultiGet(idCount, System.nanoTime() - start)));
             }
 
-            // Transform the returned documents from ES in a Map
-            Map<String, MultiGetResponseRecord> responses = multiGetResponseRecords.
-                    stream().
-                    collect(Collectors.toMap(MultiGetResponseRecord::getDocumentId, Function.identity()));
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(multiGetTimeout);
+            for (int i = 0; i < requests.size(); i++) {
+                List<String> requestIds = requestsIds.get(i);
+
+                MultiGetResult multiGetResult;
+                try {
+                    multiGetResult = requests.get(i).get(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    getLogger().warn("multiget request of {} ids timed out after {} ms, their records are not enriched",
+                            new Object[]{requestIds.size(), multiGetTimeout});
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    getLogger().error("multiget request of {} ids failed : {}", new Object[]{requestIds.size(), e.getCause()});
+                    continue;
+                }
+
+                List<MultiGetResponseRecord> multiGetResponseRecords = multiGetResult.getResponses();
+                if (multiGetResponseRecords == null || multiGetResponseRecords.isEmpty()) {
+                    // Either nothing was found or the request failed, don't remember anything
+                    continue;
+                }
+
+                for (MultiGetResponseRecord responseRecord : multiGetResponseRecords) {
+                    documents.put(responseRecord.getDocumentId(), responseRecord.getRetrievedFields() == null ?
+                            Collections.emptyMap() : responseRecord.getRetrievedFields());
+                }
+                if (cacheService != null) {
+                    // the ids that failed are not known to be missing
+                    for (MultiGetFailureRecord failureRecord : multiGetResult.getFailures()) {
+                        requestIds.remove(failureRecord.getDocumentId());
+                    }
+                    updateCache(cacheKeyPrefix, requestIds, documents, cacheTtl, negativeCacheTtl);
+                }
+            }
 
             recordsToEnrich.forEach(recordToEnrich -> {
                 Record outputRecord = recordToEnrich;
-                MultiGetResponseRecord responseRecord = responses.get(outputRecord.getField(recordKeyName).asString());
-                if((responseRecord != null) && (responseRecord.getRetrievedFields() != null))
+                Map<String, String> retrievedFields = documents.get(outputRecord.getField(recordKeyName).asString());
+                if (retrievedFields != null)
                 {
-                    responseRecord.getRetrievedFields().forEach((k,v) -> {
+                    retrievedFields.forEach((k,v) -> {
                         outputRecord.setStringField(k.toString(), v.toString());
                     });
                 }
@@ -186,4 +318,114 @@ public class EnrichRecordsElasticsearch extends AbstractElasticsearchProcessor
         }
         return outputRecords;
     }
+
+    /**
+     * Get the documents of the given ids from the cache
+     *
+     * @param cacheKeyPrefix the prefix of the cache keys
+     * @param ids the document ids
+     * @param documents the retrieved fields of the cached documents, filled by this method
+     * @return the ids that were not found in the cache, or whose negative entry has expired
+     */
+    private List<String> lookupCache(String cacheKeyPrefix, Set<String> ids, Map<String, Map<String, String>> documents) {
+        List<String> keys = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            keys.add(cacheKeyPrefix + id);
+        }
+        Map<String, Object> cachedEntries = cacheService.getAll(keys);
+
+        List<String> missingIds = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String id : ids) {
+            Object cachedEntry = cachedEntries.get(cacheKeyPrefix + id);
+            if (cachedEntry instanceof CachedDocument && !((CachedDocument) cachedEntry).isExpired(now)) {
+                Map<String, String> retrievedFields = ((CachedDocument) cachedEntry).retrievedFields;
+                if (retrievedFields != null) {
+                    documents.put(id, retrievedFields);
+                }
+            } else {
+                missingIds.add(id);
+            }
+        }
+        cacheHits.add(ids.size() - missingIds.size());
+        cacheMisses.add(missingIds.size());
+        return missingIds;
+    }
+
+    /**
+     * Save the documents retrieved for the given ids in the cache, missing ones
+     * are saved as negative entries, each kind only if enabled
+     */
+    private void updateCache(String cacheKeyPrefix, List<String> requestIds,
+                             Map<String, Map<String, String>> documents, long cacheTtl, long negativeCacheTtl) {
+        Map<String, Object> entriesToCache = new HashMap<>();
+        long now = System.currentTimeMillis();
+        long expirationTime = now + cacheTtl;
+        long negativeExpirationTime = now + negativeCacheTtl;
+        for (String id : requestIds) {
+            Map<String, String> retrievedFields = documents.get(id);
+            if (retrievedFields != null) {
+                if (cacheTtl > 0) {
+                    entriesToCache.put(cacheKeyPrefix + id, new CachedDocument(retrievedFields, expirationTime));
+                }
+            } else if (negativeCacheTtl > 0) {
+                entriesToCache.put(cacheKeyPrefix + id, new CachedDocument(null, negativeExpirationTime));
+            }
+        }
+        cacheService.setAll(entriesToCache);
+    }
+
+    private void recordMultiGet(int idCount, long elapsedNanos) {
+        multiGetRequests.increment();
+        multiGetIds.add(idCount);
+        multiGetNanos.add(elapsedNanos);
+        multiGetMaxNanos.accumulateAndGet(elapsedNanos, Math::max);
+    }
+
+    /**
+     * Cache hit ratio and ES round trip latency since the previous call
+     */
+    @Override
+    public Map<String, Number> drainMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+
+        long hits = cacheHits.sumThenReset();
+        long misses = cacheMisses.sumThenReset();
+        if (cacheService != null) {
+            metrics.put("cache_hits", hits);
+            metrics.put("cache_misses", misses);
+            if (hits + misses != 0) {
+                metrics.put("cache_hit_ratio", (double) hits / (hits + misses));
+            }
+        }
+
+        long requests = multiGetRequests.sumThenReset();
+        long totalNanos = multiGetNanos.sumThenReset();
+        metrics.put("es_multiget_requests", requests);
+        metrics.put("es_multiget_ids", multiGetIds.sumThenReset());
+        metrics.put("es_multiget_max_latency_in_ms", multiGetMaxNanos.getAndSet(0L) / 1000000L);
+        if (requests != 0) {
+            metrics.put("es_multiget_average_latency_in_ms", totalNanos / 1000000.0 / requests);
+        }
+        return metrics;
+    }
+
+    /**
+     * What is kept in the cache for a document id : the retrieved fields, or null with a
+     * shorter expiration time when the document does not exist
+     */
+    private static final class CachedDocument {
+
+        private final Map<String, String> retrievedFields;
+        private final long expirationTime;
+
+        CachedDocument(Map<String, String> retrievedFields, long expirationTime) {
+            this.retrievedFields = retrievedFields;
+            this.expirationTime = expirationTime;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expirationTime;
+        }
+    }
 }
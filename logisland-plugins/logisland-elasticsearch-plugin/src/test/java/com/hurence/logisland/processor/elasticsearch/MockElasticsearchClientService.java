@@ -18,6 +18,7 @@ package com.hurence.logisland.processor.elasticsearch;
 import com.hurence.logisland.component.PropertyDescriptor;
 import com.hurence.logisland.controller.AbstractControllerService;
 import com.hurence.logisland.service.elasticsearch.ElasticsearchClientService;
+import com.hurence.logisland.service.elasticsearch.bulk.BulkResultHandler;
 import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetQueryRecord;
 import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResponseRecord;
 import com.hurence.logisland.record.Record;
@@ -65,6 +66,35 @@ public class MockElasticsearchClientService extends AbstractControllerService im
     private List<StringDocument> stringDocuments = new ArrayList<>();
     //private Map<String, Map<String, Map<String, ?>>> putMapRecords = new HashMap<>();
     private List<MapDocument> mapDocuments = new ArrayList<>();
+    private Set<String> failingDocumentIds = new HashSet<>();
+    private Set<String> unansweredDocumentIds = new HashSet<>();
+    private List<BulkResultHandler> discardedHandlers = new ArrayList<>();
+
+    /**
+     * Make the bulk puts of the given document ids fail
+     */
+    public void failDocuments(String... ids) {
+        failingDocumentIds.addAll(Arrays.asList(ids));
+    }
+
+    /**
+     * Never notify the outcome of the bulk puts of the given document ids
+     */
+    public void ignoreDocuments(String... ids) {
+        unansweredDocumentIds.addAll(Arrays.asList(ids));
+    }
+
+    /**
+     * The handlers whose pending bulk puts were discarded
+     */
+    public List<BulkResultHandler> getDiscardedHandlers() {
+        return discardedHandlers;
+    }
+
+    @Override
+    public void discardBulkResults(BulkResultHandler handler) {
+        discardedHandlers.add(handler);
+    }
 
     @Override
     public void flushBulkProcessor() {
@@ -90,6 +120,21 @@ public class MockElasticsearchClientService extends AbstractControllerService im
         this.mapDocuments.add(mapDocument);
     }
 
+    @Override
+    public void bulkPut(String docIndex, String docType, Record record, Optional<String> OptionalId,
+                        BulkResultHandler handler) {
+        final String id = OptionalId.orElse(null);
+        if (failingDocumentIds.contains(id)) {
+            handler.onFailure(record, "mapper_parsing_exception");
+            return;
+        }
+
+        bulkPut(docIndex, docType, record, OptionalId);
+        if (!unansweredDocumentIds.contains(id)) {
+            handler.onSuccess(record);
+        }
+    }
+
     @Override
     public List<MultiGetResponseRecord> multiGet(List<MultiGetQueryRecord> multiGetQueryRecords){
 
@@ -20,6 +20,7 @@ import com.hurence.logisland.record.FieldDictionary;
 import com.hurence.logisland.record.FieldType;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.record.StandardRecord;
+import com.hurence.logisland.util.runner.MockRecord;
 import com.hurence.logisland.util.runner.TestRunner;
 import com.hurence.logisland.util.runner.TestRunners;
 import org.junit.Assert;
@@ -31,6 +32,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.hurence.logisland.processor.elasticsearch.BulkAddElasticsearch.TODAY_DATE_SUFFIX;
@@ -117,4 +119,41 @@ public class TestBulkAddElasticsearch {
 
     }
 
+    @Test
+    public void testBulkFailuresAreReturnedAsErrors() throws InitializationException {
+
+        final TestRunner runner = TestRunners.newTestRunner(BulkAddElasticsearch.class);
+        runner.setProperty(BulkAddElasticsearch.DEFAULT_INDEX, "test_index");
+        runner.setProperty(BulkAddElasticsearch.DEFAULT_TYPE, "cisco_record");
+        runner.setProperty(BulkAddElasticsearch.BULK_ACK_TIMEOUT, "100");
+        runner.setProperty(BulkAddElasticsearch.ELASTICSEARCH_CLIENT_SERVICE, "elasticsearchClient");
+
+        final MockElasticsearchClientService elasticsearchClient = new MockElasticsearchClientService();
+        runner.addControllerService("elasticsearchClient", elasticsearchClient);
+        runner.enableControllerService(elasticsearchClient);
+        elasticsearchClient.failDocuments("record1");
+        elasticsearchClient.ignoreDocuments("record2");
+
+        for (int i = 0; i < 4; i++) {
+            runner.enqueue(new StandardRecord("cisco_record")
+                    .setId("record" + i)
+                    .setField("method", FieldType.STRING, "GET"));
+        }
+        runner.run();
+        runner.assertAllInputRecordsProcessed();
+        runner.assertOutputRecordsCount(4);
+        runner.assertOutputErrorCount(2);
+
+        final List<MockRecord> outputRecords = runner.getOutputRecords();
+        Assert.assertTrue(outputRecords.get(1).getErrors().stream().anyMatch(error -> error.startsWith("ES_BULK_FAILURE")));
+        Assert.assertTrue(outputRecords.get(2).getErrors().stream().anyMatch(error -> error.startsWith("ES_BULK_TIMEOUT")));
+
+        final Map<String, Number> metrics = ((BulkAddElasticsearch) runner.getProcessor()).drainMetrics();
+        Assert.assertEquals(1L, metrics.get("bulk_failed_records"));
+        Assert.assertEquals(1L, metrics.get("bulk_timed_out_records"));
+
+        // the unanswered record is not tracked by the service anymore
+        Assert.assertEquals(1, elasticsearchClient.getDiscardedHandlers().size());
+    }
+
 }
\ No newline at end of file
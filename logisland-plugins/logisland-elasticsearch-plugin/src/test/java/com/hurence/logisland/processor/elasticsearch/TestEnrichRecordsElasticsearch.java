@@ -16,17 +16,28 @@
 package com.hurence.logisland.processor.elasticsearch;
 
 import com.hurence.logisland.component.InitializationException;
+import com.hurence.logisland.component.PropertyDescriptor;
+import com.hurence.logisland.controller.AbstractControllerService;
+import com.hurence.logisland.controller.ControllerServiceInitializationContext;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.record.StandardRecord;
+import com.hurence.logisland.service.cache.CacheService;
+import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetQueryRecord;
+import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResponseRecord;
+import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResult;
+import com.hurence.logisland.util.runner.MockRecord;
 import com.hurence.logisland.util.runner.TestRunner;
 import com.hurence.logisland.util.runner.TestRunners;
+import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 
 public class TestEnrichRecordsElasticsearch {
@@ -129,4 +140,255 @@ public class TestEnrichRecordsElasticsearch {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testEnrichWithCache() throws IOException, InitializationException {
+
+        final String RECORD_KEY_FIELD = "codeProduct";
+
+        //////////////////
+        final EnrichRecordsElasticsearch processor = new EnrichRecordsElasticsearch();
+        final TestRunner runner = TestRunners.newTestRunner(processor);
+        runner.setProperty(EnrichRecordsElasticsearch.RECORD_KEY_FIELD, RECORD_KEY_FIELD);
+        runner.setProperty(EnrichRecordsElasticsearch.ES_INDEX_FIELD, "index1");
+        runner.setProperty(EnrichRecordsElasticsearch.MAX_IDS_PER_REQUEST, "2");
+        runner.setProperty(EnrichRecordsElasticsearch.ELASTICSEARCH_CLIENT_SERVICE, "elasticsearchClient");
+        runner.setProperty(EnrichRecordsElasticsearch.CACHE_SERVICE, "cacheService");
+
+        ///////////////////
+        final Map<String, Map<String, String>> indexedDocuments = new HashMap<>();
+        indexedDocuments.put("id1", Collections.singletonMap("label", "first product"));
+        indexedDocuments.put("id2", Collections.singletonMap("label", "second product"));
+        final CountingElasticsearchClientService elasticsearchClient = new CountingElasticsearchClientService(indexedDocuments);
+        runner.addControllerService("elasticsearchClient", elasticsearchClient);
+        runner.enableControllerService(elasticsearchClient);
+
+        final MapCacheService cacheService = new MapCacheService();
+        runner.addControllerService("cacheService", cacheService);
+        runner.enableControllerService(cacheService);
+
+        runner.assertValid();
+
+        ///////////////////
+        runner.enqueue(
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id1"),
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id3"),
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id2"),
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id1"));
+        runner.run();
+        runner.assertOutputRecordsCount(4);
+        runner.assertOutputErrorCount(0);
+        assertLabels(runner.getOutputRecords(), RECORD_KEY_FIELD);
+
+        // 3 distinct ids, at most 2 per request
+        Assert.assertEquals(Arrays.asList(2, 1), elasticsearchClient.requestSizes);
+        Map<String, Number> metrics = processor.drainMetrics();
+        Assert.assertEquals(0L, metrics.get("cache_hits"));
+        Assert.assertEquals(3L, metrics.get("cache_misses"));
+        Assert.assertEquals(2L, metrics.get("es_multiget_requests"));
+        Assert.assertEquals(3L, metrics.get("es_multiget_ids"));
+
+        ///////////////////
+        // the next batch is served by the cache, including the missing document
+        runner.clearQueues();
+        elasticsearchClient.requestSizes.clear();
+        runner.enqueue(
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id3"),
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id2"),
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id4"));
+        runner.run();
+        runner.assertOutputRecordsCount(3);
+        assertLabels(runner.getOutputRecords(), RECORD_KEY_FIELD);
+
+        Assert.assertEquals(Collections.singletonList(1), elasticsearchClient.requestSizes);
+        metrics = processor.drainMetrics();
+        Assert.assertEquals(2L, metrics.get("cache_hits"));
+        Assert.assertEquals(1L, metrics.get("cache_misses"));
+        Assert.assertEquals(2.0 / 3.0, metrics.get("cache_hit_ratio").doubleValue(), 0.0001);
+        Assert.assertEquals(1L, metrics.get("es_multiget_requests"));
+    }
+
+    @Test
+    public void testCachedDocumentsExpire() throws IOException, InitializationException {
+
+        final String RECORD_KEY_FIELD = "codeProduct";
+
+        //////////////////
+        final EnrichRecordsElasticsearch processor = new EnrichRecordsElasticsearch();
+        final TestRunner runner = TestRunners.newTestRunner(processor);
+        runner.setProperty(EnrichRecordsElasticsearch.RECORD_KEY_FIELD, RECORD_KEY_FIELD);
+        runner.setProperty(EnrichRecordsElasticsearch.ES_INDEX_FIELD, "index1");
+        runner.setProperty(EnrichRecordsElasticsearch.ELASTICSEARCH_CLIENT_SERVICE, "elasticsearchClient");
+        runner.setProperty(EnrichRecordsElasticsearch.CACHE_SERVICE, "cacheService");
+        runner.setProperty(EnrichRecordsElasticsearch.CACHE_TTL, "0");
+
+        ///////////////////
+        final Map<String, Map<String, String>> indexedDocuments = new HashMap<>();
+        indexedDocuments.put("id1", Collections.singletonMap("label", "first product"));
+        final CountingElasticsearchClientService elasticsearchClient = new CountingElasticsearchClientService(indexedDocuments);
+        runner.addControllerService("elasticsearchClient", elasticsearchClient);
+        runner.enableControllerService(elasticsearchClient);
+
+        final MapCacheService cacheService = new MapCacheService();
+        runner.addControllerService("cacheService", cacheService);
+        runner.enableControllerService(cacheService);
+
+        runner.assertValid();
+
+        ///////////////////
+        runner.enqueue(
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id1"),
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id3"));
+        runner.run();
+        runner.assertOutputRecordsCount(2);
+        assertLabels(runner.getOutputRecords(), RECORD_KEY_FIELD);
+
+        ///////////////////
+        // the retrieved document is looked up again, the missing one is still served by the cache
+        runner.clearQueues();
+        elasticsearchClient.requestSizes.clear();
+        runner.enqueue(
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id1"),
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id3"));
+        runner.run();
+        runner.assertOutputRecordsCount(2);
+        assertLabels(runner.getOutputRecords(), RECORD_KEY_FIELD);
+
+        Assert.assertEquals(Collections.singletonList(1), elasticsearchClient.requestSizes);
+        Map<String, Number> metrics = processor.drainMetrics();
+        Assert.assertEquals(1L, metrics.get("cache_hits"));
+        Assert.assertEquals(3L, metrics.get("cache_misses"));
+    }
+
+    @Test
+    public void testMultiGetRequestsSentConcurrently() throws IOException, InitializationException {
+
+        final String RECORD_KEY_FIELD = "codeProduct";
+
+        //////////////////
+        final EnrichRecordsElasticsearch processor = new EnrichRecordsElasticsearch();
+        final TestRunner runner = TestRunners.newTestRunner(processor);
+        runner.setProperty(EnrichRecordsElasticsearch.RECORD_KEY_FIELD, RECORD_KEY_FIELD);
+        runner.setProperty(EnrichRecordsElasticsearch.ES_INDEX_FIELD, "index1");
+        runner.setProperty(EnrichRecordsElasticsearch.MAX_IDS_PER_REQUEST, "1");
+        runner.setProperty(EnrichRecordsElasticsearch.ELASTICSEARCH_CLIENT_SERVICE, "elasticsearchClient");
+
+        ///////////////////
+        final Map<String, Map<String, String>> indexedDocuments = new HashMap<>();
+        indexedDocuments.put("id1", Collections.singletonMap("label", "first product"));
+        indexedDocuments.put("id2", Collections.singletonMap("label", "second product"));
+        final ConcurrentElasticsearchClientService elasticsearchClient =
+                new ConcurrentElasticsearchClientService(indexedDocuments, 3);
+        runner.addControllerService("elasticsearchClient", elasticsearchClient);
+        runner.enableControllerService(elasticsearchClient);
+
+        runner.assertValid();
+
+        ///////////////////
+        // each request only answers once the three of them have been sent
+        runner.enqueue(
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id1"),
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id2"),
+                new StandardRecord("es_multiget").setStringField(RECORD_KEY_FIELD, "id3"));
+        runner.run();
+        runner.assertOutputRecordsCount(3);
+        assertLabels(runner.getOutputRecords(), RECORD_KEY_FIELD);
+        runner.getOutputRecords().get(0).assertFieldEquals("label", "first product");
+        runner.getOutputRecords().get(1).assertFieldEquals("label", "second product");
+
+        Assert.assertEquals(3L, processor.drainMetrics().get("es_multiget_requests"));
+    }
+
+    private static void assertLabels(List<MockRecord> outputRecords, String recordKeyField) {
+        for (MockRecord outputRecord : outputRecords) {
+            String id = outputRecord.getField(recordKeyField).asString();
+            if (id.equals("id1")) {
+                outputRecord.assertFieldEquals("label", "first product");
+            } else if (id.equals("id2")) {
+                outputRecord.assertFieldEquals("label", "second product");
+            } else {
+                outputRecord.assertFieldNotExists("label");
+            }
+        }
+    }
+
+    /**
+     * Only returns the documents it knows and remembers the size of each request
+     */
+    private static class CountingElasticsearchClientService extends MockElasticsearchClientService {
+
+        private final Map<String, Map<String, String>> documents;
+        private final List<Integer> requestSizes = new ArrayList<>();
+
+        CountingElasticsearchClientService(Map<String, Map<String, String>> documents) {
+            this.documents = documents;
+        }
+
+        @Override
+        public List<MultiGetResponseRecord> multiGet(List<MultiGetQueryRecord> multiGetQueryRecords) {
+            List<MultiGetResponseRecord> multiGetResponseRecords = new ArrayList<>();
+            for (MultiGetQueryRecord multiGetQueryRecord : multiGetQueryRecords) {
+                requestSizes.add(multiGetQueryRecord.getDocumentIds().size());
+                for (String id : multiGetQueryRecord.getDocumentIds()) {
+                    if (documents.containsKey(id)) {
+                        multiGetResponseRecords.add(new MultiGetResponseRecord(
+                                multiGetQueryRecord.getIndexName(), multiGetQueryRecord.getTypeName(), id, documents.get(id)));
+                    }
+                }
+            }
+            return multiGetResponseRecords;
+        }
+    }
+
+    /**
+     * Answers each multiget request from another thread, once the given number of requests has been sent
+     */
+    private static class ConcurrentElasticsearchClientService extends CountingElasticsearchClientService {
+
+        private final CountDownLatch sentRequests;
+
+        ConcurrentElasticsearchClientService(Map<String, Map<String, String>> documents, int requestCount) {
+            super(documents);
+            this.sentRequests = new CountDownLatch(requestCount);
+        }
+
+        @Override
+        public CompletableFuture<MultiGetResult> multiGetAsync(List<MultiGetQueryRecord> multiGetQueryRecords) {
+            final List<MultiGetResponseRecord> multiGetResponseRecords = multiGet(multiGetQueryRecords);
+            sentRequests.countDown();
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    if (!sentRequests.await(5, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("the requests were not sent concurrently");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return new MultiGetResult(multiGetResponseRecords);
+            });
+        }
+    }
+
+    private static class MapCacheService extends AbstractControllerService implements CacheService<String, Object> {
+
+        private final Map<String, Object> map = new HashMap<>();
+
+        @Override
+        public Object get(String key) {
+            return map.get(key);
+        }
+
+        @Override
+        public void set(String key, Object value) {
+            map.put(key, value);
+        }
+
+        @Override
+        public void init(ControllerServiceInitializationContext context) throws InitializationException {
+        }
+
+        @Override
+        public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.hurence.logisland.processor.hbase;
 import com.hurence.logisland.component.AllowableValue;
 import com.hurence.logisland.component.PropertyDescriptor;
 import com.hurence.logisland.service.hbase.HBaseClientService;
+import com.hurence.logisland.service.hbase.put.PutFailureHandler;
 import com.hurence.logisland.service.hbase.put.PutRecord;
 import com.hurence.logisland.logging.ComponentLog;
 import com.hurence.logisland.logging.StandardComponentLogger;
@@ -26,6 +27,7 @@ import com.hurence.logisland.processor.AbstractProcessor;
 import com.hurence.logisland.processor.ProcessContext;
 import com.hurence.logisland.processor.ProcessError;
 import com.hurence.logisland.processor.ProcessException;
+import com.hurence.logisland.processor.ProcessorMetricsProvider;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.serializer.*;
 import com.hurence.logisland.validator.StandardValidators;
@@ -36,11 +38,12 @@ import org.apache.commons.lang3.StringUtils;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Base class for processors that put data to HBase.
  */
-public abstract class AbstractPutHBase extends AbstractProcessor {
+public abstract class AbstractPutHBase extends AbstractProcessor implements ProcessorMetricsProvider {
 
     private ComponentLog logger = new StandardComponentLogger(this.getIdentifier(), AbstractPutHBase.class);
 
@@ -137,6 +140,26 @@ public abstract class AbstractPutHBase extends AbstractProcessor {
             .defaultValue("25")
             .build();
 
+    public static final AllowableValue PUT_MODE_SYNC = new AllowableValue("sync", "synchronous puts",
+            "Sends one put request per table and batch of Records and waits for it to complete.");
+
+    public static final AllowableValue PUT_MODE_BUFFERED = new AllowableValue("buffered", "buffered puts",
+            "Sends the puts through the write buffers of the HBase client service, shared by all the processors " +
+                    "using it, and waits for them to be written before returning so that failed Records are marked with errors.");
+
+    public static final AllowableValue PUT_MODE_ASYNC = new AllowableValue("async", "asynchronous puts",
+            "Sends the puts through the write buffers of the HBase client service and returns without waiting " +
+                    "for them to be written. As the Records may already have been handed over to the next processors, " +
+                    "they are never marked with errors : failures are logged and counted in the hbase_put_failures metric.");
+
+    public static final PropertyDescriptor PUT_MODE = new PropertyDescriptor.Builder()
+            .name("put.mode")
+            .description("How the puts are sent to HBase.")
+            .required(false)
+            .allowableValues(PUT_MODE_SYNC, PUT_MODE_BUFFERED, PUT_MODE_ASYNC)
+            .defaultValue(PUT_MODE_SYNC.getValue())
+            .build();
+
     public static final AllowableValue AVRO_SERIALIZER =
             new AllowableValue(AvroSerializer.class.getName(), "avro serialization", "serialize events as avro blocs");
 
@@ -170,6 +193,9 @@ public abstract class AbstractPutHBase extends AbstractProcessor {
     protected HBaseClientService clientService;
     protected RecordSerializer serializer;
 
+    // written by the threads of the client service when asynchronous puts fail
+    private final LongAdder putFailures = new LongAdder();
+
 
     @Override
     public boolean hasControllerService() {
@@ -264,18 +290,24 @@ public abstract class AbstractPutHBase extends AbstractProcessor {
         final long start = System.nanoTime();
         final List<PutRecord> successes = new ArrayList<>();
 
-        for (Map.Entry<String, List<PutRecord>> entry : tablePuts.entrySet()) {
-            try {
-                clientService.put(entry.getKey(), entry.getValue());
-                successes.addAll(entry.getValue());
-            } catch (Exception e) {
-                logger.error(e.getMessage(), e);
-
-                for (PutRecord putRecord : entry.getValue()) {
-                    String msg = String.format("Failed to send {} to HBase due to {}; routing to failure", putRecord.getRecord(), e);
-                    putRecord.getRecord().addError("HBASE_PUT_RECORD_FAILURE", logger, msg);
+        final String putMode = context.getPropertyValue(PUT_MODE).asString();
+        if (PUT_MODE_SYNC.getValue().equals(putMode)) {
+            for (Map.Entry<String, List<PutRecord>> entry : tablePuts.entrySet()) {
+                try {
+                    clientService.put(entry.getKey(), entry.getValue());
+                    successes.addAll(entry.getValue());
+                } catch (Exception e) {
+                    logger.error(e.getMessage(), e);
+
+                    putFailures.add(entry.getValue().size());
+                    for (PutRecord putRecord : entry.getValue()) {
+                        String msg = String.format("Failed to send {} to HBase due to {}; routing to failure", putRecord.getRecord(), e);
+                        putRecord.getRecord().addError("HBASE_PUT_RECORD_FAILURE", logger, msg);
+                    }
                 }
             }
+        } else {
+            sendAsync(tablePuts, PUT_MODE_BUFFERED.getValue().equals(putMode));
         }
 
         final long sendMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
@@ -289,6 +321,63 @@ public abstract class AbstractPutHBase extends AbstractProcessor {
 
     }
 
+    /**
+     * Hand the puts over to the write buffers of the client service. When waiting for the puts,
+     * the records of the puts that fail are marked with errors by the failure handler. Otherwise
+     * they may already be handled by the next processors when the failure is reported, so the
+     * failure is only logged and counted.
+     *
+     * @param tablePuts the puts grouped by table
+     * @param waitForPuts wait for the puts to be written before returning
+     */
+    private void sendAsync(final Map<String, List<PutRecord>> tablePuts, final boolean waitForPuts) {
+        final PutFailureHandler failureHandler;
+        if (waitForPuts) {
+            failureHandler = (putRecord, cause) -> {
+                putFailures.increment();
+                putRecord.getRecord().addError("HBASE_PUT_RECORD_FAILURE",
+                        logger,
+                        "Failed to send " + putRecord.getRecord() + " to HBase due to " + cause);
+            };
+        } else {
+            failureHandler = (putRecord, cause) -> {
+                putFailures.increment();
+                logger.error("Failed to send {} to HBase table {} due to {}",
+                        new Object[]{putRecord.getRecord().getId(), putRecord.getTableName(), cause});
+            };
+        }
+
+        for (Map.Entry<String, List<PutRecord>> entry : tablePuts.entrySet()) {
+            try {
+                clientService.putAsync(entry.getKey(), entry.getValue(), failureHandler);
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+
+                for (PutRecord putRecord : entry.getValue()) {
+                    failureHandler.onFailure(putRecord, e);
+                }
+            }
+        }
+
+        if (waitForPuts) {
+            for (String tableName : tablePuts.keySet()) {
+                try {
+                    clientService.flush(tableName);
+                } catch (Exception e) {
+                    // the records of the puts that were not written have already been marked by the failure handler
+                    logger.error("Failed to flush puts to HBase table " + tableName, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Number> drainMetrics() {
+        final Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("hbase_put_failures", putFailures.sumThenReset());
+        return metrics;
+    }
+
     protected String getTransitUri(PutRecord putRecord) {
         return "hbase://" + putRecord.getTableName() + "/" + new String(putRecord.getRow(), StandardCharsets.UTF_8);
     }
@@ -21,12 +21,12 @@ import com.hurence.logisland.annotation.documentation.CapabilityDescription;
 import com.hurence.logisland.annotation.documentation.Tags;
 import com.hurence.logisland.component.AllowableValue;
 import com.hurence.logisland.component.PropertyDescriptor;
-import com.hurence.logisland.logging.ComponentLog;
-import com.hurence.logisland.logging.StandardComponentLogger;
 import com.hurence.logisland.processor.AbstractProcessor;
 import com.hurence.logisland.processor.ProcessContext;
 import com.hurence.logisland.processor.ProcessError;
 import com.hurence.logisland.processor.ProcessException;
+import com.hurence.logisland.processor.ProcessorMetricsProvider;
+import com.hurence.logisland.service.cache.CacheService;
 import com.hurence.logisland.service.hbase.HBaseClientService;
 import com.hurence.logisland.service.hbase.scan.Column;
 import com.hurence.logisland.service.hbase.scan.ResultCell;
@@ -39,6 +39,7 @@ import org.apache.commons.lang3.StringUtils;
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
 
 @Tags({"hbase", "scan", "fetch", "get", "enrich"})
@@ -51,7 +52,7 @@ import java.util.regex.Pattern;
         @WritesAttribute(attribute = "hbase.row", description = "A JSON document representing the row. This property is only written when a Destination of flowfile-attributes is selected."),
         @WritesAttribute(attribute = "mime.type", description = "Set to application/json when using a Destination of flowfile-content, not set or modified otherwise")
 })
-public class FetchHBaseRow extends AbstractProcessor {
+public class FetchHBaseRow extends AbstractProcessor implements ProcessorMetricsProvider {
 
     static final Pattern COLUMNS_PATTERN = Pattern.compile("\\w+(:\\w+)?(?:,\\w+(:\\w+)?)*");
 
@@ -125,9 +126,42 @@ public class FetchHBaseRow extends AbstractProcessor {
             .build();
 
 
+    public static final PropertyDescriptor CACHE_SERVICE = new PropertyDescriptor.Builder()
+            .name("cache.service")
+            .description("The instance of the Cache Service in which fetched rows are kept. " +
+                    "Only the rows missing from the cache are fetched from HBase.")
+            .required(false)
+            .identifiesControllerService(CacheService.class)
+            .build();
+
+    public static final PropertyDescriptor CACHE_TTL = new PropertyDescriptor.Builder()
+            .name("cache.ttl.ms")
+            .description("How long the rows fetched from HBase are kept in the cache before being fetched " +
+                    "again, so that their updates are eventually seen, 0 disables the caching of fetched rows.")
+            .required(false)
+            .addValidator(StandardValidators.createLongValidator(0, Long.MAX_VALUE, true))
+            .defaultValue("3600000")
+            .build();
+
+    public static final PropertyDescriptor NEGATIVE_CACHE_TTL = new PropertyDescriptor.Builder()
+            .name("cache.negative.ttl.ms")
+            .description("How long the ids of rows missing from HBase are kept in the cache " +
+                    "before being fetched again, 0 disables the caching of missing rows.")
+            .required(false)
+            .addValidator(StandardValidators.createLongValidator(0, Long.MAX_VALUE, true))
+            .defaultValue("60000")
+            .build();
+
+
     public HBaseClientService clientService;
     public RecordSerializer serializer;
 
+    private CacheService<String, Object> cacheService;
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder requestedRows = new LongAdder();
+
 
     static final String HBASE_TABLE_ATTR = "hbase.table";
     static final String HBASE_ROW_ATTR = "hbase.row";
@@ -143,6 +177,9 @@ public class FetchHBaseRow extends AbstractProcessor {
         props.add(RECORD_SERIALIZER);
         props.add(RECORD_SCHEMA);
         props.add(TABLE_NAME_DEFAULT);
+        props.add(CACHE_SERVICE);
+        props.add(CACHE_TTL);
+        props.add(NEGATIVE_CACHE_TTL);
         properties = Collections.unmodifiableList(props);
     }
 
@@ -160,6 +197,7 @@ public class FetchHBaseRow extends AbstractProcessor {
 
 
     @Override
+    @SuppressWarnings("unchecked")
     public void init(ProcessContext context) {
 
         this.clientService = context.getPropertyValue(HBASE_CLIENT_SERVICE).asControllerService(HBaseClientService.class);
@@ -170,7 +208,7 @@ public class FetchHBaseRow extends AbstractProcessor {
         } else {
             serializer = SerializerProvider.getSerializer(context.getPropertyValue(RECORD_SERIALIZER).asString(), null);
         }
-
+        cacheService = context.getPropertyValue(CACHE_SERVICE).asControllerService(CacheService.class);
 
     }
 
@@ -178,8 +216,8 @@ public class FetchHBaseRow extends AbstractProcessor {
     @Override
     public Collection<Record> process(ProcessContext context, Collection<Record> records) throws ProcessException {
 
-
-        List<Record> outputRecords = new ArrayList<>();
+        // Group the records per table and columns, each group is fetched with batched multi-get requests
+        final Map<String, FetchGroup> groups = new LinkedHashMap<>();
         for (Record record : records) {
 
             try {
@@ -207,28 +245,86 @@ public class FetchHBaseRow extends AbstractProcessor {
                     continue;
                 }
 
-                List<Column> columns = null;
+                String columnsValue = null;
                 if (record.hasField(context.getPropertyValue(COLUMNS_FIELD).asString()))
-                    columns = getColumns(record.getField(context.getPropertyValue(COLUMNS_FIELD).asString()).asString());
+                    columnsValue = record.getField(context.getPropertyValue(COLUMNS_FIELD).asString()).asString();
+
+                final String groupKey = tableName + '/' + columnsValue;
+                FetchGroup group = groups.get(groupKey);
+                if (group == null) {
+                    group = new FetchGroup(tableName, columnsValue);
+                    groups.put(groupKey, group);
+                }
+                group.addRecord(rowId, record);
+
+            } catch (Exception ex) {
+                record.addError(ProcessError.RUNTIME_ERROR.toString(),
+                        getLogger(),
+                        "Unable to fetch row {}",
+                        new Object[]{ex});
+            }
+        }
 
+        final long cacheTtl = context.getPropertyValue(CACHE_TTL).asLong();
+        final long negativeCacheTtl = context.getPropertyValue(NEGATIVE_CACHE_TTL).asLong();
+        List<Record> outputRecords = new ArrayList<>();
+        for (FetchGroup group : groups.values()) {
+            fetch(group, cacheTtl, negativeCacheTtl, outputRecords);
+        }
 
-                final RecordContentHandler handler = new RecordContentHandler(serializer);
+        return outputRecords;
 
-                final byte[] rowIdBytes = rowId.getBytes(StandardCharsets.UTF_8);
+    }
 
-                try {
-                    clientService.scan(tableName, rowIdBytes, rowIdBytes, columns, handler);
-                } catch (Exception e) {
-                    record.addError(
-                            ProcessError.BAD_RECORD.toString(),
-                            getLogger(),
-                            "Unable to fetch row {} from  {} due to {}",
-                            new Object[]{rowId, tableName, e});
-                    continue;
+    /**
+     * Fetch the rows of a group, from the cache first and then from HBase, and output the records they hold
+     */
+    private void fetch(FetchGroup group, long cacheTtl, long negativeCacheTtl, List<Record> outputRecords) {
+
+        final String tableName = group.tableName;
+
+        // The cell values of each row found
+        final Map<String, List<byte[]>> rows = new HashMap<>();
+
+        // Several processors may share the cache so keys are qualified by the table and columns
+        final String cacheKeyPrefix = tableName + '/' + group.columnsValue + '/';
+        final List<String> missingRowIds = cacheService == null ?
+                new ArrayList<>(group.recordsByRowId.keySet()) :
+                lookupCache(cacheKeyPrefix, group.recordsByRowId.keySet(), rows);
+
+        if (!missingRowIds.isEmpty()) {
+            final List<byte[]> rowIdBytes = new ArrayList<>(missingRowIds.size());
+            for (String rowId : missingRowIds) {
+                rowIdBytes.add(rowId.getBytes(StandardCharsets.UTF_8));
+            }
+
+            try {
+                clientService.get(tableName, rowIdBytes, getColumns(group.columnsValue), new RowCellsHandler(rows));
+            } catch (Exception e) {
+                for (String rowId : missingRowIds) {
+                    for (Record record : group.recordsByRowId.get(rowId)) {
+                        record.addError(
+                                ProcessError.BAD_RECORD.toString(),
+                                getLogger(),
+                                "Unable to fetch row {} from  {} due to {}",
+                                new Object[]{rowId, tableName, e});
+                    }
                 }
+                return;
+            }
+            requestedRows.add(missingRowIds.size());
+
+            if (cacheService != null) {
+                updateCache(cacheKeyPrefix, missingRowIds, rows, cacheTtl, negativeCacheTtl);
+            }
+        }
+
+        for (Map.Entry<String, List<Record>> entry : group.recordsByRowId.entrySet()) {
+            final String rowId = entry.getKey();
+            final List<byte[]> cellValues = rows.get(rowId);
 
-                Collection<Record> handlerRecords = handler.getRecords();
-                if (!handler.handledRow()) {
+            for (Record record : entry.getValue()) {
+                if (cellValues == null) {
                     record.addError(
                             ProcessError.BAD_RECORD.toString(),
                             getLogger(),
@@ -237,28 +333,102 @@ public class FetchHBaseRow extends AbstractProcessor {
                     continue;
                 }
 
+                // each record gets its own copy of the row records
+                final Collection<Record> rowRecords = deserialize(cellValues);
                 if (getLogger().isDebugEnabled()) {
-                    getLogger().debug("Fetched {} from {} with row id {}", new Object[]{handlerRecords, tableName, rowId});
+                    getLogger().debug("Fetched {} from {} with row id {}", new Object[]{rowRecords, tableName, rowId});
                 }
+                outputRecords.addAll(rowRecords);
+            }
+        }
+    }
 
-                final Map<String, String> attributes = new HashMap<>();
-                attributes.put(HBASE_TABLE_ATTR, tableName);
-
-
-                outputRecords.addAll(handlerRecords);
-
-
-            } catch (Exception ex) {
-                record.addError(ProcessError.RUNTIME_ERROR.toString(),
-                        getLogger(),
-                        "Unable to fetch row {}",
-                        new Object[]{ex});
+    private Collection<Record> deserialize(List<byte[]> cellValues) {
+        final List<Record> rowRecords = new ArrayList<>(cellValues.size());
+        for (byte[] cellValue : cellValues) {
+            try (ByteArrayInputStream bais = new ByteArrayInputStream(cellValue)) {
+                rowRecords.add(serializer.deserialize(bais));
+            } catch (Exception e) {
+                getLogger().error("error while deserializing cell value : {}", new Object[]{e});
             }
+        }
+        return rowRecords;
+    }
 
+    /**
+     * Get the rows of the given ids from the cache
+     *
+     * @param cacheKeyPrefix the prefix of the cache keys
+     * @param rowIds the row ids
+     * @param rows the cell values of the cached rows, filled by this method
+     * @return the ids that were not found in the cache, or whose negative entry has expired
+     */
+    private List<String> lookupCache(String cacheKeyPrefix, Set<String> rowIds, Map<String, List<byte[]>> rows) {
+        List<String> keys = new ArrayList<>(rowIds.size());
+        for (String rowId : rowIds) {
+            keys.add(cacheKeyPrefix + rowId);
+        }
+        Map<String, Object> cachedEntries = cacheService.getAll(keys);
+
+        List<String> missingRowIds = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String rowId : rowIds) {
+            Object cachedEntry = cachedEntries.get(cacheKeyPrefix + rowId);
+            if (cachedEntry instanceof CachedRow && !((CachedRow) cachedEntry).isExpired(now)) {
+                List<byte[]> cellValues = ((CachedRow) cachedEntry).cellValues;
+                if (cellValues != null) {
+                    rows.put(rowId, cellValues);
+                }
+            } else {
+                missingRowIds.add(rowId);
+            }
         }
+        cacheHits.add(rowIds.size() - missingRowIds.size());
+        cacheMisses.add(missingRowIds.size());
+        return missingRowIds;
+    }
 
-        return outputRecords;
+    /**
+     * Save the rows fetched for the given ids in the cache, missing ones
+     * are saved as negative entries, each kind only if enabled
+     */
+    private void updateCache(String cacheKeyPrefix, List<String> rowIds,
+                             Map<String, List<byte[]>> rows, long cacheTtl, long negativeCacheTtl) {
+        Map<String, Object> entriesToCache = new HashMap<>();
+        long now = System.currentTimeMillis();
+        long expirationTime = now + cacheTtl;
+        long negativeExpirationTime = now + negativeCacheTtl;
+        for (String rowId : rowIds) {
+            List<byte[]> cellValues = rows.get(rowId);
+            if (cellValues != null) {
+                if (cacheTtl > 0) {
+                    entriesToCache.put(cacheKeyPrefix + rowId, new CachedRow(cellValues, expirationTime));
+                }
+            } else if (negativeCacheTtl > 0) {
+                entriesToCache.put(cacheKeyPrefix + rowId, new CachedRow(null, negativeExpirationTime));
+            }
+        }
+        cacheService.setAll(entriesToCache);
+    }
 
+    /**
+     * Cache hit ratio and number of rows requested to HBase since the previous call
+     */
+    @Override
+    public Map<String, Number> drainMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+
+        long hits = cacheHits.sumThenReset();
+        long misses = cacheMisses.sumThenReset();
+        if (cacheService != null) {
+            metrics.put("cache_hits", hits);
+            metrics.put("cache_misses", misses);
+            if (hits + misses != 0) {
+                metrics.put("cache_hit_ratio", (double) hits / (hits + misses));
+            }
+        }
+        metrics.put("hbase_requested_rows", requestedRows.sumThenReset());
+        return metrics;
     }
 
     /**
@@ -287,46 +457,66 @@ public class FetchHBaseRow extends AbstractProcessor {
 
 
     /**
-     * A FetchHBaseRowHandler that writes the resulting row to the Record content.
+     * The records of a batch to fetch from the same table with the same columns, keyed by row id
      */
-    private static class RecordContentHandler implements ResultHandler {
+    private static final class FetchGroup {
+
+        private final String tableName;
+        private final String columnsValue;
+        private final Map<String, List<Record>> recordsByRowId = new LinkedHashMap<>();
+
+        FetchGroup(String tableName, String columnsValue) {
+            this.tableName = tableName;
+            this.columnsValue = columnsValue;
+        }
+
+        void addRecord(String rowId, Record record) {
+            List<Record> rowRecords = recordsByRowId.get(rowId);
+            if (rowRecords == null) {
+                rowRecords = new ArrayList<>(1);
+                recordsByRowId.put(rowId, rowRecords);
+            }
+            rowRecords.add(record);
+        }
+    }
 
-        private ArrayList<Record> records;
-        private final RecordSerializer serializer;
-        private boolean handledRow = false;
+    /**
+     * A ResultHandler that keeps the cell values of each row, they hold serialized records.
+     */
+    private static class RowCellsHandler implements ResultHandler {
 
-        private ComponentLog logger = new StandardComponentLogger("", this.getClass());
+        private final Map<String, List<byte[]>> rows;
 
-        public RecordContentHandler(final RecordSerializer serializer) {
-            this.records = new ArrayList<>();
-            this.serializer = serializer;
+        RowCellsHandler(final Map<String, List<byte[]>> rows) {
+            this.rows = rows;
         }
 
         @Override
         public void handle(byte[] row, ResultCell[] resultCells) {
-
+            final List<byte[]> cellValues = new ArrayList<>(resultCells.length);
             for (ResultCell cell : resultCells) {
-
-                try {
-                    final byte[] cellValue = Arrays.copyOfRange(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength() + cell.getValueOffset());
-                    ByteArrayInputStream bais = new ByteArrayInputStream(cellValue);
-                    Record deserializedRecord = serializer.deserialize(bais);
-                    records.add(deserializedRecord);
-                    bais.close();
-                } catch (Exception e) {
-                    logger.error("error while handling ResultCell for {} : {}", new Object[]{cell, e});
-                }
+                cellValues.add(Arrays.copyOfRange(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength() + cell.getValueOffset()));
             }
-            handledRow = true;
+            rows.put(new String(row, StandardCharsets.UTF_8), cellValues);
         }
+    }
+
+    /**
+     * What is kept in the cache for a row id : the cell values, or null with a
+     * shorter expiration time when the row does not exist
+     */
+    private static final class CachedRow {
 
+        private final List<byte[]> cellValues;
+        private final long expirationTime;
 
-        public Collection<Record> getRecords() {
-            return records;
+        CachedRow(List<byte[]> cellValues, long expirationTime) {
+            this.cellValues = cellValues;
+            this.expirationTime = expirationTime;
         }
 
-        public boolean handledRow() {
-            return handledRow;
+        boolean isExpired(long now) {
+            return now >= expirationTime;
         }
     }
 
@@ -51,6 +51,7 @@ public class PutHBaseCell extends AbstractPutHBase {
         properties.add(COLUMN_FAMILY_FIELD);
         properties.add(COLUMN_QUALIFIER_FIELD);
         properties.add(BATCH_SIZE);
+        properties.add(PUT_MODE);
         properties.add(RECORD_SCHEMA);
         properties.add(RECORD_SERIALIZER);
         properties.add(TABLE_NAME_DEFAULT);
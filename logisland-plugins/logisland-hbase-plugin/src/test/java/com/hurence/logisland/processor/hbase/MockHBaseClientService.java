@@ -19,6 +19,7 @@ import com.hurence.logisland.component.PropertyDescriptor;
 import com.hurence.logisland.controller.AbstractControllerService;
 import com.hurence.logisland.service.hbase.HBaseClientService;
 import com.hurence.logisland.service.hbase.put.PutColumn;
+import com.hurence.logisland.service.hbase.put.PutFailureHandler;
 import com.hurence.logisland.service.hbase.put.PutRecord;
 import com.hurence.logisland.service.hbase.scan.Column;
 import com.hurence.logisland.service.hbase.scan.ResultCell;
@@ -38,8 +39,11 @@ public class MockHBaseClientService extends AbstractControllerService implements
 
     private Map<String,ResultCell[]> results = new HashMap<>();
     private Map<String, List<PutRecord>> recordPuts = new HashMap<>();
+    private Map<String, List<PutRecord>> bufferedPuts = new HashMap<>();
+    private Map<PutRecord, PutFailureHandler> failureHandlers = new HashMap<>();
     private boolean throwException = false;
     private int numScans = 0;
+    private int numGets = 0;
 
     @Override
     public void put(String tableName, Collection<PutRecord> puts) throws IOException {
@@ -50,6 +54,31 @@ public class MockHBaseClientService extends AbstractControllerService implements
         this.recordPuts.put(tableName, new ArrayList<>(puts));
     }
 
+    @Override
+    public void putAsync(String tableName, Collection<PutRecord> puts, PutFailureHandler failureHandler) throws IOException {
+        // puts are only written, or failed, on flush
+        bufferedPuts.computeIfAbsent(tableName, k -> new ArrayList<>()).addAll(puts);
+        for (PutRecord putRecord : puts) {
+            failureHandlers.put(putRecord, failureHandler);
+        }
+    }
+
+    @Override
+    public void flush(String tableName) throws IOException {
+        final List<PutRecord> puts = bufferedPuts.remove(tableName);
+        if (puts == null) {
+            return;
+        }
+
+        if (throwException) {
+            for (PutRecord putRecord : puts) {
+                failureHandlers.remove(putRecord).onFailure(putRecord, new IOException("exception"));
+            }
+        } else {
+            recordPuts.computeIfAbsent(tableName, k -> new ArrayList<>()).addAll(puts);
+        }
+    }
+
     @Override
     public void put(String tableName, byte[] startRow, Collection<PutColumn> columns) throws IOException {
        throw new UnsupportedOperationException();
@@ -62,31 +91,51 @@ public class MockHBaseClientService extends AbstractControllerService implements
         }
 
         for (final Map.Entry<String,ResultCell[]> entry : results.entrySet()) {
+            handler.handle(entry.getKey().getBytes(StandardCharsets.UTF_8), matchCells(entry.getValue(), columns));
+        }
+
+        numScans++;
+    }
 
-            List<ResultCell> matchedCells = new ArrayList<>();
+    @Override
+    public void get(String tableName, List<byte[]> rowIds, Collection<Column> columns, ResultHandler handler) throws IOException {
+        if (throwException) {
+            throw new IOException("exception");
+        }
+
+        // unlike scan, only the staged rows matching the requested ids are passed to the handler
+        for (byte[] rowId : rowIds) {
+            final ResultCell[] cells = results.get(new String(rowId, StandardCharsets.UTF_8));
+            if (cells != null) {
+                handler.handle(rowId, matchCells(cells, columns));
+            }
+        }
+
+        numGets++;
+    }
+
+    private ResultCell[] matchCells(ResultCell[] cells, Collection<Column> columns) {
+        List<ResultCell> matchedCells = new ArrayList<>();
 
-            if (columns == null || columns.isEmpty()) {
-                Arrays.stream(entry.getValue()).forEach(e -> matchedCells.add(e));
-            } else {
-                for (Column column : columns) {
-                    String colFam = new String(column.getFamily(), StandardCharsets.UTF_8);
-                    String colQual = new String(column.getQualifier(), StandardCharsets.UTF_8);
+        if (columns == null || columns.isEmpty()) {
+            Arrays.stream(cells).forEach(e -> matchedCells.add(e));
+        } else {
+            for (Column column : columns) {
+                String colFam = new String(column.getFamily(), StandardCharsets.UTF_8);
+                String colQual = new String(column.getQualifier(), StandardCharsets.UTF_8);
 
-                    for (ResultCell cell : entry.getValue()) {
-                        String cellFam = new String(cell.getFamilyArray(), StandardCharsets.UTF_8);
-                        String cellQual = new String(cell.getQualifierArray(), StandardCharsets.UTF_8);
+                for (ResultCell cell : cells) {
+                    String cellFam = new String(cell.getFamilyArray(), StandardCharsets.UTF_8);
+                    String cellQual = new String(cell.getQualifierArray(), StandardCharsets.UTF_8);
 
-                        if (colFam.equals(cellFam) && colQual.equals(cellQual)) {
-                            matchedCells.add(cell);
-                        }
+                    if (colFam.equals(cellFam) && colQual.equals(cellQual)) {
+                        matchedCells.add(cell);
                     }
                 }
             }
-
-            handler.handle(entry.getKey().getBytes(StandardCharsets.UTF_8), matchedCells.toArray(new ResultCell[matchedCells.size()]));
         }
 
-        numScans++;
+        return matchedCells.toArray(new ResultCell[matchedCells.size()]);
     }
 
     @Override
@@ -138,6 +187,10 @@ public class MockHBaseClientService extends AbstractControllerService implements
         results.put(rowKey, cellArray);
     }
 
+    public Map<String, List<PutRecord>> getBufferedPuts() {
+        return bufferedPuts;
+    }
+
     public Map<String, List<PutRecord>> getRecordPuts() {
         return recordPuts;
     }
@@ -150,6 +203,10 @@ public class MockHBaseClientService extends AbstractControllerService implements
         return numScans;
     }
 
+    public int getNumGets() {
+        return numGets;
+    }
+
     @Override
     public byte[] toBytes(final boolean b) {
         return new byte[] { b ? (byte) -1 : (byte) 0 };
@@ -17,11 +17,15 @@
 package com.hurence.logisland.processor.hbase;
 
 import com.hurence.logisland.component.InitializationException;
+import com.hurence.logisland.component.PropertyDescriptor;
+import com.hurence.logisland.controller.AbstractControllerService;
+import com.hurence.logisland.controller.ControllerServiceInitializationContext;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.record.RecordUtils;
 import com.hurence.logisland.serializer.JsonSerializer;
 import com.hurence.logisland.serializer.KryoSerializer;
 import com.hurence.logisland.serializer.RecordSerializer;
+import com.hurence.logisland.service.cache.CacheService;
 import com.hurence.logisland.util.runner.MockRecord;
 import com.hurence.logisland.util.runner.TestRunner;
 import com.hurence.logisland.util.runner.TestRunners;
@@ -32,8 +36,11 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class TestFetchHBaseRow {
@@ -140,7 +147,7 @@ public class TestFetchHBaseRow {
         runner.assertOutputErrorCount(0);
         runner.assertOutputRecordsCount(0);
 
-        Assert.assertEquals(0, hBaseClientService.getNumScans());
+        Assert.assertEquals(0, hBaseClientService.getNumGets());
     }
 
 
@@ -151,7 +158,7 @@ public class TestFetchHBaseRow {
         cells.put(COLUMN_QUALIFIER_2, "val2");
 
         final long ts1 = 123456789;
-        hBaseClientService.addResult(FAMILY + ":" + COLUMN_QUALIFIER_1, cells, ts1);
+        hBaseClientService.addResult(ROW_ID_1, cells, ts1);
 
 
         Record inRecord = inputRecord;
@@ -164,7 +171,7 @@ public class TestFetchHBaseRow {
         final MockRecord record = runner.getOutputRecords().get(0);
         record.assertContentEquals(inRecord);
 
-        Assert.assertEquals(1, hBaseClientService.getNumScans());
+        Assert.assertEquals(1, hBaseClientService.getNumGets());
     }
 
     @Test
@@ -174,7 +181,7 @@ public class TestFetchHBaseRow {
         cells.put(COLUMN_QUALIFIER_2, serializeRecord(new JsonSerializer(), inputRecord));
 
         final long ts1 = 123456789;
-        hBaseClientService.addResult("row1", cells, ts1);
+        hBaseClientService.addResult(ROW_ID_1, cells, ts1);
 
 
         Record inRecord = inputRecord.setStringField(COLUMNS_KEY, FAMILY + ":cq2");
@@ -189,7 +196,127 @@ public class TestFetchHBaseRow {
 
         record.assertRecordSizeEquals(5);
 
-        Assert.assertEquals(1, hBaseClientService.getNumScans());
+        Assert.assertEquals(1, hBaseClientService.getNumGets());
+    }
+
+    @Test
+    public void testFetchManyRecordsWithOneGet() throws IOException {
+        final Map<String, String> cells = new HashMap<>();
+        cells.put(COLUMN_QUALIFIER_1, serializeRecord(new JsonSerializer(), inputRecord));
+        hBaseClientService.addResult(ROW_ID_1, cells, 123456789);
+
+        final List<Record> inRecords = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            inRecords.add(new MockRecord(RecordUtils.getKeyValueRecord(KEY, VALUE))
+                    .setStringField(ROW_ID_KEY, i % 2 == 0 ? ROW_ID_1 : ROW_ID_2)
+                    .setStringField(COLUMNS_KEY, FAMILY + ":" + COLUMN_QUALIFIER_1)
+                    .setStringField(TABLE_NAME_KEY, TABLE_NAME));
+        }
+        runner.enqueue(inRecords);
+        runner.run();
+
+        // only the records of the existing row are output
+        runner.assertOutputErrorCount(0);
+        runner.assertOutputRecordsCount(5);
+        for (MockRecord record : runner.getOutputRecords()) {
+            record.assertContentEquals(inputRecord);
+        }
+
+        Assert.assertEquals(1, hBaseClientService.getNumGets());
+        Assert.assertEquals(0, hBaseClientService.getNumScans());
+    }
+
+    @Test
+    public void testFetchWithCacheService() throws Exception {
+        final MapCacheService cacheService = new MapCacheService();
+        runner.addControllerService("cacheService", cacheService);
+        runner.enableControllerService(cacheService);
+        runner.setProperty(FetchHBaseRow.CACHE_SERVICE, "cacheService");
+
+        final Map<String, String> cells = new HashMap<>();
+        cells.put(COLUMN_QUALIFIER_1, serializeRecord(new JsonSerializer(), inputRecord));
+        hBaseClientService.addResult(ROW_ID_1, cells, 123456789);
+
+        runner.enqueue(copyInputRecord(ROW_ID_1), copyInputRecord(ROW_ID_2));
+        runner.run();
+        runner.assertOutputRecordsCount(1);
+        Assert.assertEquals(1, hBaseClientService.getNumGets());
+        Assert.assertEquals(2, cacheService.map.size());
+
+        // both the found and the missing rows are now served by the cache
+        runner.clearQueues();
+        runner.enqueue(copyInputRecord(ROW_ID_1), copyInputRecord(ROW_ID_2));
+        runner.run();
+        runner.assertOutputRecordsCount(1);
+        runner.getOutputRecords().get(0).assertContentEquals(inputRecord);
+        Assert.assertEquals(1, hBaseClientService.getNumGets());
+
+        final Map<String, Number> metrics = proc.drainMetrics();
+        Assert.assertEquals(2L, metrics.get("cache_hits"));
+        Assert.assertEquals(2L, metrics.get("cache_misses"));
+        Assert.assertEquals(2L, metrics.get("hbase_requested_rows"));
+    }
+
+    @Test
+    public void testFetchedRowsExpireFromCache() throws Exception {
+        final MapCacheService cacheService = new MapCacheService();
+        runner.addControllerService("cacheService", cacheService);
+        runner.enableControllerService(cacheService);
+        runner.setProperty(FetchHBaseRow.CACHE_SERVICE, "cacheService");
+        runner.setProperty(FetchHBaseRow.CACHE_TTL, "0");
+
+        final Map<String, String> cells = new HashMap<>();
+        cells.put(COLUMN_QUALIFIER_1, serializeRecord(new JsonSerializer(), inputRecord));
+        hBaseClientService.addResult(ROW_ID_1, cells, 123456789);
+
+        runner.enqueue(copyInputRecord(ROW_ID_1), copyInputRecord(ROW_ID_2));
+        runner.run();
+        runner.assertOutputRecordsCount(1);
+        Assert.assertEquals(1, hBaseClientService.getNumGets());
+        Assert.assertEquals(1, cacheService.map.size());
+
+        // the found row is fetched again, the missing one is still served by the cache
+        runner.clearQueues();
+        runner.enqueue(copyInputRecord(ROW_ID_1), copyInputRecord(ROW_ID_2));
+        runner.run();
+        runner.assertOutputRecordsCount(1);
+        runner.getOutputRecords().get(0).assertContentEquals(inputRecord);
+        Assert.assertEquals(2, hBaseClientService.getNumGets());
+
+        final Map<String, Number> metrics = proc.drainMetrics();
+        Assert.assertEquals(1L, metrics.get("cache_hits"));
+        Assert.assertEquals(3L, metrics.get("cache_misses"));
+    }
+
+    private Record copyInputRecord(String rowId) {
+        return new MockRecord(RecordUtils.getKeyValueRecord(KEY, VALUE))
+                .setStringField(ROW_ID_KEY, rowId)
+                .setStringField(COLUMNS_KEY, FAMILY + ":" + COLUMN_QUALIFIER_1)
+                .setStringField(TABLE_NAME_KEY, TABLE_NAME);
+    }
+
+    private static class MapCacheService extends AbstractControllerService implements CacheService<String, Object> {
+
+        private final Map<String, Object> map = new HashMap<>();
+
+        @Override
+        public Object get(String key) {
+            return map.get(key);
+        }
+
+        @Override
+        public void set(String key, Object value) {
+            map.put(key, value);
+        }
+
+        @Override
+        public void init(ControllerServiceInitializationContext context) throws InitializationException {
+        }
+
+        @Override
+        public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+            return Collections.emptyList();
+        }
     }
 /*
     @Test
@@ -200,6 +200,80 @@ public class TestPutHBaseCell {
 
     }
 
+    @Test
+    public void testBufferedPuts() throws IOException, InitializationException {
+        final TestRunner runner = getTestRunner();
+        runner.setProperty(PutHBaseCell.PUT_MODE, PutHBaseCell.PUT_MODE_BUFFERED.getValue());
+        final MockHBaseClientService hBaseClient = getHBaseClientService(runner);
+
+        final Record inputRecord1 = getRecord().setStringField(ROW_ID_KEY, ROW_ID_1);
+        final Record inputRecord2 = getRecord().setStringField(ROW_ID_KEY, ROW_ID_2);
+        runner.enqueue(inputRecord1, inputRecord2);
+
+        runner.run();
+        runner.assertAllInputRecordsProcessed();
+        runner.assertOutputErrorCount(0);
+
+        // the processor waits for the puts to be written
+        assertEquals(0, hBaseClient.getBufferedPuts().size());
+        final List<PutRecord> puts = hBaseClient.getRecordPuts().get(TABLE_NAME);
+        assertEquals(2, puts.size());
+        verifyPut(ROW_ID_1, FAMILY, QUALIFIER, inputRecord1, puts.get(0));
+        verifyPut(ROW_ID_2, FAMILY, QUALIFIER, inputRecord2, puts.get(1));
+    }
+
+    @Test
+    public void testBufferedPutsFailure() throws IOException, InitializationException {
+        final TestRunner runner = getTestRunner();
+        runner.setProperty(PutHBaseCell.PUT_MODE, PutHBaseCell.PUT_MODE_BUFFERED.getValue());
+        final MockHBaseClientService hBaseClient = getHBaseClientService(runner);
+        hBaseClient.setThrowException(true);
+
+        runner.enqueue(getRecord().setStringField(ROW_ID_KEY, ROW_ID_1), getRecord().setStringField(ROW_ID_KEY, ROW_ID_2));
+
+        runner.run();
+        runner.assertOutputErrorCount(2);
+    }
+
+    @Test
+    public void testAsyncPuts() throws IOException, InitializationException {
+        final TestRunner runner = getTestRunner();
+        runner.setProperty(PutHBaseCell.PUT_MODE, PutHBaseCell.PUT_MODE_ASYNC.getValue());
+        final MockHBaseClientService hBaseClient = getHBaseClientService(runner);
+
+        runner.enqueue(getRecord().setStringField(ROW_ID_KEY, ROW_ID_1), getRecord().setStringField(ROW_ID_KEY, ROW_ID_2));
+
+        runner.run();
+        runner.assertAllInputRecordsProcessed();
+        runner.assertOutputErrorCount(0);
+
+        // the puts are left to the client service write buffers
+        assertEquals(2, hBaseClient.getBufferedPuts().get(TABLE_NAME).size());
+        assertEquals(0, hBaseClient.getRecordPuts().size());
+
+        hBaseClient.flush(TABLE_NAME);
+        assertEquals(2, hBaseClient.getRecordPuts().get(TABLE_NAME).size());
+    }
+
+    @Test
+    public void testAsyncPutsFailureOnlyCounted() throws IOException, InitializationException {
+        final TestRunner runner = getTestRunner();
+        runner.setProperty(PutHBaseCell.PUT_MODE, PutHBaseCell.PUT_MODE_ASYNC.getValue());
+        final MockHBaseClientService hBaseClient = getHBaseClientService(runner);
+        hBaseClient.setThrowException(true);
+
+        runner.enqueue(getRecord().setStringField(ROW_ID_KEY, ROW_ID_1), getRecord().setStringField(ROW_ID_KEY, ROW_ID_2));
+        runner.run();
+        runner.assertAllInputRecordsProcessed();
+
+        // the records have been handed over when the puts fail, they are left untouched
+        hBaseClient.flush(TABLE_NAME);
+        runner.assertOutputErrorCount(0);
+        final PutHBaseCell processor = (PutHBaseCell) runner.getProcessor();
+        assertEquals(2L, processor.drainMetrics().get("hbase_put_failures"));
+        assertEquals(0L, processor.drainMetrics().get("hbase_put_failures"));
+    }
+
     @Test
     public void testMultipleRecordsSameTableSameRow() throws IOException, InitializationException {
         final TestRunner runner = getTestRunner();
@@ -27,20 +27,31 @@ import com.twitter.algebird.QTree;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import scala.Tuple2;
 
+import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 
-public class Distribution implements Measurable {
+public class Distribution implements Measurable, Serializable {
 
 
-    public static class Context {
+    public static class Context implements Serializable {
         private Distribution currentDistribution;
         private Distribution previousDistribution;
         private LinkedList<Distribution> chunks = new LinkedList<>();
         private ExponentiallyBiasedAChao<Double> reservoir;
+        private boolean trackMedianAbsoluteDeviation;
 
         public Context(int reservoirSize, double decayRate) {
+            this(reservoirSize, decayRate, false);
+        }
+
+        /**
+         * @param trackMedianAbsoluteDeviation keep a {@link QuantileDigest} in the distributions of the context,
+         *                                     see {@link Distribution#getMadScore(double)}
+         */
+        public Context(int reservoirSize, double decayRate, boolean trackMedianAbsoluteDeviation) {
+            this.trackMedianAbsoluteDeviation = trackMedianAbsoluteDeviation;
             if(reservoirSize > 0) {
                 reservoir = new ExponentiallyBiasedAChao<>(reservoirSize, decayRate, new Random(0));
             }
@@ -72,7 +83,7 @@ public class Distribution implements Measurable {
                                 )
         {
             if(currentDistribution == null) {
-                currentDistribution = new Distribution(dp, scalingFunction, stats);
+                currentDistribution = new Distribution(dp, scalingFunction, stats, trackMedianAbsoluteDeviation);
             }
             else {
                 currentDistribution.addDataPoint(dp, scalingFunction);
@@ -80,7 +91,7 @@ public class Distribution implements Measurable {
             //do I need to create a new chunk?
             boolean needNewChunk = chunks.size() == 0 || outOfPolicy(getCurrentChunk(), chunkingPolicy);
             if(needNewChunk) {
-                addChunk(new Distribution(dp, scalingFunction, stats));
+                addChunk(new Distribution(dp, scalingFunction, stats, trackMedianAbsoluteDeviation));
             }
             else {
                 getCurrentChunk().addDataPoint(dp, scalingFunction);
@@ -161,6 +172,8 @@ public class Distribution implements Measurable {
 
     }
     QTree<Object> distribution;
+    // null unless the median absolute deviation is tracked, it costs an update per point
+    QuantileDigest digest;
     long begin = 0L;
     long end = 0L;
     long amount = 0L;
@@ -168,10 +181,14 @@ public class Distribution implements Measurable {
     GlobalStatistics globalStatistics;
 
     public Distribution(Distribution dist) {
-        this(dist.distribution, dist.getBegin(), dist.getEnd(), dist.getAmount(), dist.getSum(), dist.getGlobalStatistics());
+        this(dist.distribution, dist.digest == null ? null : new QuantileDigest(dist.digest), dist.getBegin(), dist.getEnd(), dist.getAmount(), dist.getSum(), dist.getGlobalStatistics());
     }
     public Distribution(QTree<Object> distribution, long begin, long end, long amount, double sum, GlobalStatistics stats) {
+        this(distribution, null, begin, end, amount, sum, stats);
+    }
+    Distribution(QTree<Object> distribution, QuantileDigest digest, long begin, long end, long amount, double sum, GlobalStatistics stats) {
         this.distribution = distribution;
+        this.digest = digest;
         this.begin = begin;
         this.end = end;
         this.amount = amount;
@@ -180,12 +197,20 @@ public class Distribution implements Measurable {
 
     }
     public Distribution(DataPoint dp, ScalingFunction scalingFunction, GlobalStatistics stats) {
+        this(dp, scalingFunction, stats, false);
+    }
+    public Distribution(DataPoint dp, ScalingFunction scalingFunction, GlobalStatistics stats, boolean trackMedianAbsoluteDeviation) {
         this.begin = dp.getTimestamp();
         this.end = dp.getTimestamp();
         this.globalStatistics = stats;
         this.amount = 1L;
         this.sum = dp.getValue();
-        this.distribution = DistributionUtils.createTree(ImmutableList.of(scalingFunction.scale(dp.getValue(), globalStatistics)));
+        double scaledValue = scalingFunction.scale(dp.getValue(), globalStatistics);
+        this.distribution = DistributionUtils.createTree(ImmutableList.of(scaledValue));
+        if(trackMedianAbsoluteDeviation) {
+            this.digest = new QuantileDigest();
+            this.digest.add(scaledValue);
+        }
     }
 
     public double getSum() {
@@ -201,7 +226,11 @@ public class Distribution implements Measurable {
         this.sum += dp.getValue();
         this.amount++;
 
-        this.distribution = DistributionUtils.merge(this.distribution, DistributionUtils.createTree(ImmutableList.of(scalingFunction.scale(dp.getValue(), globalStatistics))));
+        double scaledValue = scalingFunction.scale(dp.getValue(), globalStatistics);
+        this.distribution = DistributionUtils.merge(this.distribution, DistributionUtils.createTree(ImmutableList.of(scaledValue)));
+        if(digest != null) {
+            this.digest.add(scaledValue);
+        }
     }
 
     @Override
@@ -233,6 +262,48 @@ public class Distribution implements Measurable {
         return Math.abs(0.6745*(val - median)/mad);
     }
 
+    /**
+     * @return true if the distribution was created to track its median absolute deviation
+     */
+    public boolean isTrackingMedianAbsoluteDeviation() {
+        return digest != null;
+    }
+
+    /**
+     * Approximate {@link #getMadScore(Iterable, Double)} over the scaled values of this distribution, using
+     * a digest maintained along with the distribution rather than sorting every value.
+     *
+     * @param scaledValue a value scaled with the scaling function of the distribution
+     * @return the modified z-score of the value
+     * @throws IllegalStateException if the median absolute deviation is not tracked
+     */
+    public double getMadScore(double scaledValue) {
+        return getDigest().getMadScore(scaledValue);
+    }
+
+    /**
+     * @return the approximate median of the scaled values of this distribution, as seen by the digest
+     * @throws IllegalStateException if the median absolute deviation is not tracked
+     */
+    public double getDigestMedian() {
+        return getDigest().getMedian();
+    }
+
+    /**
+     * @return the approximate median absolute deviation of the scaled values of this distribution
+     * @throws IllegalStateException if the median absolute deviation is not tracked
+     */
+    public double getMedianAbsoluteDeviation() {
+        return getDigest().getMedianAbsoluteDeviation();
+    }
+
+    private QuantileDigest getDigest() {
+        if(digest == null) {
+            throw new IllegalStateException("The median absolute deviation is not tracked by this distribution");
+        }
+        return digest;
+    }
+
     public static double kullbackLeibler(Distribution p0, Distribution p1) {
         if(p0 == null || p1 == null ) {
             return 0;
@@ -248,6 +319,7 @@ public class Distribution implements Measurable {
 
     public static Distribution merge(Iterable<Distribution> distributions) {
         QTree<Object> distribution = null;
+        QuantileDigest digest = null;
         long begin = Long.MAX_VALUE;
         long end = -1l;
         long amount = 0l;
@@ -256,17 +328,25 @@ public class Distribution implements Measurable {
         for(Distribution d : distributions) {
             if(distribution == null) {
                 distribution = d.distribution;
+                digest = d.digest == null ? null : new QuantileDigest(d.digest);
                 globalStats = d.getGlobalStatistics();
             }
             else {
                 distribution = DistributionUtils.merge(distribution, d.distribution);
+                // the merged distribution tracks the median absolute deviation only if all of them do
+                if(digest != null && d.digest != null) {
+                    digest.add(d.digest);
+                }
+                else {
+                    digest = null;
+                }
             }
             begin = Math.min(begin, d.begin);
             end = Math.max(end, d.end);
             sum += d.sum;
             amount += d.amount;
         }
-        return new Distribution(distribution, begin, end, amount, sum, globalStats);
+        return new Distribution(distribution, digest, begin, end, amount, sum, globalStats);
     }
 
     public double getMean() {
@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.caseystella.analytics.distribution;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Mergeable sketch of a distribution of values, in the spirit of the merging t-digest
+ * (see https://github.com/tdunning/t-digest).
+ * <p>
+ * Values are kept in a small sorted buffer which is merged into a sorted list of weighted centroids once
+ * full. The number of centroids is bounded by the compression, centroids being smaller near the tails,
+ * and small distributions are kept exactly. Quantiles are interpolated between centroids, with a rank
+ * error in the order of 1 / compression, so that the median and the median absolute deviation can be
+ * estimated in O(compression) whatever the number of values seen, without merging the buffer on every
+ * query.
+ * <p>
+ * A digest is not thread safe.
+ */
+public class QuantileDigest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final double DEFAULT_COMPRESSION = 200;
+    private static final int INITIAL_BUFFER_SIZE = 16;
+
+    private final double compression;
+    private final int maxBufferSize;
+
+    private double[] means = new double[0];
+    private double[] weights = new double[0];
+    private int centroidCount = 0;
+
+    private double[] buffer = new double[0];
+    private int bufferCount = 0;
+
+    /** centroids and buffered values merged together, rebuilt on the first query following an update */
+    private transient double[] viewMeans;
+    private transient double[] viewWeights;
+    private transient int viewCount;
+    private transient boolean viewIsValid = false;
+    private transient double[] deviations;
+    private transient double[] deviationWeights;
+
+    private double totalWeight = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    public QuantileDigest(double compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("compression must be >= 10, got " + compression);
+        }
+        this.compression = compression;
+        this.maxBufferSize = (int) Math.ceil(compression / 2);
+    }
+
+    public QuantileDigest(QuantileDigest digest) {
+        this(digest.compression);
+        digest.compress();
+        means = Arrays.copyOf(digest.means, digest.centroidCount);
+        weights = Arrays.copyOf(digest.weights, digest.centroidCount);
+        centroidCount = digest.centroidCount;
+        totalWeight = digest.totalWeight;
+        min = digest.min;
+        max = digest.max;
+    }
+
+    public void add(double value) {
+        if (bufferCount == buffer.length) {
+            if (bufferCount >= maxBufferSize) {
+                compress();
+            } else {
+                buffer = Arrays.copyOf(buffer, Math.min(maxBufferSize, Math.max(INITIAL_BUFFER_SIZE, 2 * buffer.length)));
+            }
+        }
+        int position = Arrays.binarySearch(buffer, 0, bufferCount, value);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        System.arraycopy(buffer, position, buffer, position + 1, bufferCount - position);
+        buffer[position] = value;
+        bufferCount++;
+        viewIsValid = false;
+        totalWeight++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Merge the values summarized by another digest into this one.
+     *
+     * @param other the digest to merge, left unchanged apart from its pending values being compressed
+     */
+    public void add(QuantileDigest other) {
+        if (other.totalWeight == 0) {
+            return;
+        }
+        compress();
+        other.compress();
+        viewIsValid = false;
+        totalWeight += other.totalWeight;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        merge(other.means, other.weights, other.centroidCount);
+    }
+
+    public double getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * @return the number of centroids once the pending values are compressed
+     */
+    public int getCentroidCount() {
+        compress();
+        return centroidCount;
+    }
+
+    /**
+     * @param q the quantile, between 0 and 1
+     * @return the estimated value at the given quantile, NaN if the digest is empty
+     */
+    public double getQuantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1, got " + q);
+        }
+        updateView();
+        if (viewCount == 0) {
+            return Double.NaN;
+        }
+        return interpolate(viewMeans, viewWeights, viewCount, q * totalWeight, min, max);
+    }
+
+    public double getMedian() {
+        return getQuantile(0.5);
+    }
+
+    /**
+     * @return the estimated median absolute deviation, NaN if the digest is empty
+     */
+    public double getMedianAbsoluteDeviation() {
+        return getMedianAbsoluteDeviation(getMedian());
+    }
+
+    /**
+     * @param value a value
+     * @return the modified z-score of the value, as given by {@link Distribution#getMadScore(Iterable, Double)}
+     */
+    public double getMadScore(double value) {
+        final double median = getMedian();
+        final double mad = getMedianAbsoluteDeviation(median);
+        return Math.abs(0.6745 * (value - median) / mad);
+    }
+
+    /**
+     * The deviations of the centroids from the median are sorted with a single pass walking away from the
+     * median on both sides, so that no sort is needed, and which stops as soon as half of the weight is seen.
+     */
+    private double getMedianAbsoluteDeviation(double median) {
+        if (viewCount == 0) {
+            return Double.NaN;
+        }
+
+        if (deviations == null || deviations.length < viewCount) {
+            deviations = new double[viewMeans.length];
+            deviationWeights = new double[viewMeans.length];
+        }
+        int right = 0;
+        while (right < viewCount && viewMeans[right] < median) {
+            right++;
+        }
+        int left = right - 1;
+        final double index = totalWeight / 2;
+        double cumulated = 0;
+        int count = 0;
+        while (count < viewCount) {
+            if (right >= viewCount || (left >= 0 && median - viewMeans[left] <= viewMeans[right] - median)) {
+                deviations[count] = median - viewMeans[left];
+                deviationWeights[count] = viewWeights[left--];
+            } else {
+                deviations[count] = viewMeans[right] - median;
+                deviationWeights[count] = viewWeights[right++];
+            }
+            cumulated += deviationWeights[count];
+            // the interpolation only needs the deviations up to the first centroid centered beyond the index
+            if (cumulated - deviationWeights[count++] / 2 > index) {
+                break;
+            }
+        }
+        final double maxDeviation = Math.max(max - median, median - min);
+        return interpolate(deviations, deviationWeights, count, index, 0, maxDeviation);
+    }
+
+    /**
+     * Each centroid is seen as spread around its mean, the value at a given rank being interpolated between
+     * the means of the two centroids surrounding it. Singleton centroids give back the exact value.
+     */
+    private static double interpolate(double[] values, double[] weights, int count, double index, double low, double high) {
+        if (count == 1) {
+            return values[0];
+        }
+        double cumulated = weights[0] / 2;
+        if (index < cumulated) {
+            return weights[0] <= 1 ? values[0] : low + (values[0] - low) * index / cumulated;
+        }
+        for (int i = 0; i < count - 1; i++) {
+            final double step = (weights[i] + weights[i + 1]) / 2;
+            if (cumulated + step > index) {
+                return values[i] + (index - cumulated) / step * (values[i + 1] - values[i]);
+            }
+            cumulated += step;
+        }
+        if (weights[count - 1] <= 1) {
+            return values[count - 1];
+        }
+        final double lastHalfWeight = weights[count - 1] / 2;
+        return values[count - 1] + Math.min(1, (index - cumulated) / lastHalfWeight) * (high - values[count - 1]);
+    }
+
+    private void updateView() {
+        if (viewIsValid) {
+            return;
+        }
+        final int count = centroidCount + bufferCount;
+        if (viewMeans == null || viewMeans.length < count) {
+            viewMeans = new double[centroidCount + maxBufferSize];
+            viewWeights = new double[centroidCount + maxBufferSize];
+        }
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < count; k++) {
+            if (j >= bufferCount || (i < centroidCount && means[i] <= buffer[j])) {
+                viewMeans[k] = means[i];
+                viewWeights[k] = weights[i++];
+            } else {
+                viewMeans[k] = buffer[j++];
+                viewWeights[k] = 1.0;
+            }
+        }
+        viewCount = count;
+        viewIsValid = true;
+    }
+
+    private void compress() {
+        if (bufferCount == 0) {
+            return;
+        }
+        viewIsValid = false;
+        final double[] bufferWeights = new double[bufferCount];
+        Arrays.fill(bufferWeights, 1.0);
+        merge(buffer, bufferWeights, bufferCount);
+        bufferCount = 0;
+    }
+
+    /**
+     * Merge sorted centroids into the current ones in a single pass. A centroid grows as long as the
+     * quantiles it spans stay within one unit of the arcsine scale function, which bounds the number of
+     * centroids by the compression while keeping the tails accurate.
+     */
+    private void merge(double[] otherMeans, double[] otherWeights, int otherCount) {
+        final int count = centroidCount + otherCount;
+        final double[] mergedMeans = new double[count];
+        final double[] mergedWeights = new double[count];
+        int merged = 0;
+
+        int i = 0;
+        int j = 0;
+        double currentMean = 0;
+        double currentWeight = 0;
+        double weightSoFar = 0;
+        double weightLimit = 0;
+        while (i < centroidCount || j < otherCount) {
+            final double mean;
+            final double weight;
+            if (j >= otherCount || (i < centroidCount && means[i] <= otherMeans[j])) {
+                mean = means[i];
+                weight = weights[i++];
+            } else {
+                mean = otherMeans[j];
+                weight = otherWeights[j++];
+            }
+
+            if (currentWeight > 0 && weightSoFar + currentWeight + weight <= weightLimit) {
+                currentWeight += weight;
+                currentMean += (mean - currentMean) * weight / currentWeight;
+            } else {
+                if (currentWeight > 0) {
+                    mergedMeans[merged] = currentMean;
+                    mergedWeights[merged++] = currentWeight;
+                    weightSoFar += currentWeight;
+                }
+                currentMean = mean;
+                currentWeight = weight;
+                weightLimit = totalWeight * nextQuantileLimit(weightSoFar / totalWeight);
+            }
+        }
+        if (currentWeight > 0) {
+            mergedMeans[merged] = currentMean;
+            mergedWeights[merged++] = currentWeight;
+        }
+
+        means = mergedMeans;
+        weights = mergedWeights;
+        centroidCount = merged;
+    }
+
+    /**
+     * @return the highest quantile a centroid starting at the given quantile may span
+     */
+    private double nextQuantileLimit(double q) {
+        final double k = compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, q) - 1) + 1;
+        if (k >= compression / 4) {
+            return 1;
+        }
+        return (Math.sin(2 * Math.PI * k / compression) + 1) / 2;
+    }
+}
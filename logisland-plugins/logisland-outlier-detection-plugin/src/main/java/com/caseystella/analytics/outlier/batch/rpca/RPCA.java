@@ -17,47 +17,120 @@ package com.caseystella.analytics.outlier.batch.rpca;
 
 
 import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.QRDecomposition;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.SingularValueDecomposition;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Robust PCA solver splitting a matrix X into a low rank part L, a sparse part S and a noise part E.
+ * <p>
+ * A solver works on buffers sized for a given matrix dimension which are reused by every iteration and every
+ * call to {@link #solve(double[][], boolean)}, so that a solver can be kept for a series and warm started from
+ * its previous solution. The singular value decompositions are computed in closed form for single row or
+ * column matrices, and with a randomized truncated SVD when the rank of L is capped.
+ */
 public class RPCA {
 
-  private RealMatrix X;
-  private RealMatrix L;
-  private RealMatrix S;
-  private RealMatrix E;
+  private static final int MAX_ITERS = 228;
+  private static final int OVERSAMPLING = 5;
+  private static final int POWER_ITERATIONS = 2;
 
-  private double lpenalty;
-  private double spenalty;
+  private final int rows;
+  private final int cols;
+  private final double lpenalty;
+  private final double spenalty;
+  private final int maxRank;
 
-  private static final int MAX_ITERS = 228;
+  private final double[][] X;
+  private final double[][] L;
+  private final double[][] S;
+  private final double[][] E;
+  private final double[][] residual;
+
+  private boolean solved = false;
+  private int iterations = 0;
 
   public RPCA(double[][] data, double lpenalty, double spenalty) {
-    this.X = MatrixUtils.createRealMatrix(data);
-    this.lpenalty = lpenalty;
-    this.spenalty = spenalty;
-    initMatrices();
-    computeRSVD();
+    this(data.length, data[0].length, lpenalty, spenalty, 0);
+    solve(data, false);
   }
 
   public RPCA(RealMatrix X, double lpenalty, double spenalty) {
-    this.X = X;
+    this(X.getData(), lpenalty, spenalty);
+  }
+
+  /**
+   * Build a solver for matrices of the given dimension, see {@link #solve(double[][], boolean)}.
+   *
+   * @param maxRank the maximal rank of the low rank part, 0 for no limit
+   */
+  public RPCA(int rows, int cols, double lpenalty, double spenalty, int maxRank) {
+    this.rows = rows;
+    this.cols = cols;
     this.lpenalty = lpenalty;
     this.spenalty = spenalty;
-    initMatrices();
+    this.maxRank = maxRank;
+    this.X = new double[rows][cols];
+    this.L = new double[rows][cols];
+    this.S = new double[rows][cols];
+    this.E = new double[rows][cols];
+    this.residual = new double[rows][cols];
+  }
+
+  /**
+   * Decompose a matrix.
+   *
+   * @param data      the matrix, of the dimension of the solver
+   * @param warmStart start from the low rank part found by the previous call rather than from zero
+   */
+  public void solve(double[][] data, boolean warmStart) {
+    if (data.length != rows || data[0].length != cols) {
+      throw new IllegalArgumentException("expected a " + rows + "x" + cols + " matrix, got "
+              + data.length + "x" + data[0].length);
+    }
+    for (int i = 0; i < rows; i++) {
+      System.arraycopy(data[i], 0, X[i], 0, cols);
+    }
+    if (!warmStart || !solved) {
+      for (int i = 0; i < rows; i++) {
+        Arrays.fill(L[i], 0);
+        Arrays.fill(S[i], 0);
+        Arrays.fill(E[i], 0);
+      }
+    }
     computeRSVD();
+    solved = true;
+  }
+
+  public int getRowDimension() {
+    return rows;
   }
 
-  private void initMatrices() {
-    this.L = MatrixUtils.createRealMatrix(this.X.getRowDimension(), this.X.getColumnDimension());
-    this.S = MatrixUtils.createRealMatrix(this.X.getRowDimension(), this.X.getColumnDimension());
-    this.E = MatrixUtils.createRealMatrix(this.X.getRowDimension(), this.X.getColumnDimension());
+  public int getColumnDimension() {
+    return cols;
+  }
+
+  public double getLPenalty() {
+    return lpenalty;
+  }
+
+  public double getSPenalty() {
+    return spenalty;
+  }
+
+  /**
+   * @return the number of iterations run by the last call to {@link #solve(double[][], boolean)}
+   */
+  public int getIterations() {
+    return iterations;
   }
 
   private void computeRSVD() {
-    double mu = X.getColumnDimension() * X.getRowDimension() / (4 * l1norm(X.getData()));
-    double objPrev = 0.5*Math.pow(X.getFrobeniusNorm(), 2);
+    double mu = cols * rows / (4 * l1norm(X));
+    double objPrev = 0.5 * sumOfSquares(X);
     double obj = objPrev;
     double tol = 1e-8 * objPrev;
     double diff = 2 * tol;
@@ -76,61 +149,137 @@ public class RPCA {
 
       iter = iter + 1;
     }
+    iterations = iter;
   }
 
-  private double[] softThreshold(double[] x, double penalty) {
-    for(int i = 0; i < x.length; i++) {
-      x[i] = Math.signum(x[i]) * Math.max(Math.abs(x[i]) - penalty, 0);
-    }
-    return x;
+  private static double softThreshold(double x, double penalty) {
+    return Math.signum(x) * Math.max(Math.abs(x) - penalty, 0);
   }
 
-  private double[][] softThreshold(double[][] x, double penalty) {
-    for(int i = 0; i < x.length; i++) {
-      for(int j = 0; j < x[i].length; j++) {
-        x[i][j] = Math.signum(x[i][j]) * Math.max(Math.abs(x[i][j]) - penalty, 0);
+  private double l1norm(double[][] x) {
+    double l1norm = 0;
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        l1norm += Math.abs(x[i][j]);
       }
     }
-    return x;
+    return l1norm;
   }
 
-  private double sum(double[] x) {
+  private double sumOfSquares(double[][] x) {
     double sum = 0;
-    for (int i = 0; i < x.length; i++)
-      sum += x[i];
-    return (sum);
-  }
-
-  private double l1norm(double[][] x) {
-    double l1norm = 0;
-    for (int i = 0; i < x.length; i++) {
-      for (int j = 0; j < x[i].length; j++) {
-        l1norm += Math.abs(x[i][j]);
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        sum += x[i][j] * x[i][j];
       }
     }
-    return l1norm;
+    return sum;
   }
 
   private double computeL(double mu) {
     double LPenalty = lpenalty * mu;
-    SingularValueDecomposition svd = new SingularValueDecomposition(X.subtract(S));
-    double[] penalizedD = softThreshold(svd.getSingularValues(), LPenalty);
-    RealMatrix D_matrix = MatrixUtils.createRealDiagonalMatrix(penalizedD);
-    L = svd.getU().multiply(D_matrix).multiply(svd.getVT());
-    return sum(penalizedD) * LPenalty;
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        residual[i][j] = X[i][j] - S[i][j];
+      }
+    }
+
+    if (rows == 1 || cols == 1) {
+      // the only singular value is the norm of the residual, L is the shrunk residual
+      double norm = Math.sqrt(sumOfSquares(residual));
+      double penalizedNorm = Math.max(norm - LPenalty, 0);
+      double factor = norm > 0 ? penalizedNorm / norm : 0;
+      for (int i = 0; i < rows; i++) {
+        for (int j = 0; j < cols; j++) {
+          L[i][j] = residual[i][j] * factor;
+        }
+      }
+      return penalizedNorm * LPenalty;
+    }
+
+    RealMatrix residualMatrix = MatrixUtils.createRealMatrix(residual);
+    int rank = Math.min(rows, cols);
+    double[] singularValues;
+    RealMatrix U;
+    RealMatrix V;
+    if (maxRank > 0 && maxRank + OVERSAMPLING < rank) {
+      rank = maxRank;
+      RealMatrix Q = randomizedRange(residualMatrix, maxRank + OVERSAMPLING);
+      SingularValueDecomposition svd = new SingularValueDecomposition(Q.transpose().multiply(residualMatrix));
+      singularValues = svd.getSingularValues();
+      U = Q.multiply(svd.getU());
+      V = svd.getV();
+    } else {
+      SingularValueDecomposition svd = new SingularValueDecomposition(residualMatrix);
+      singularValues = svd.getSingularValues();
+      U = svd.getU();
+      V = svd.getV();
+      if (maxRank > 0) {
+        rank = Math.min(rank, maxRank);
+      }
+    }
+
+    for (int i = 0; i < rows; i++) {
+      Arrays.fill(L[i], 0);
+    }
+    double penalizedSum = 0;
+    for (int k = 0; k < rank; k++) {
+      double penalized = Math.max(singularValues[k] - LPenalty, 0);
+      if (penalized == 0) {
+        // singular values are sorted, the following ones are thresholded as well
+        break;
+      }
+      penalizedSum += penalized;
+      for (int i = 0; i < rows; i++) {
+        double u = U.getEntry(i, k) * penalized;
+        for (int j = 0; j < cols; j++) {
+          L[i][j] += u * V.getEntry(j, k);
+        }
+      }
+    }
+    return penalizedSum * LPenalty;
+  }
+
+  /**
+   * @return an orthonormal basis approximating the range of the given matrix, see Halko, Martinsson and Tropp,
+   * "Finding structure with randomness", 2011
+   */
+  private RealMatrix randomizedRange(RealMatrix A, int size) {
+    Random random = new Random(0);
+    RealMatrix omega = MatrixUtils.createRealMatrix(cols, size);
+    for (int i = 0; i < cols; i++) {
+      for (int j = 0; j < size; j++) {
+        omega.setEntry(i, j, random.nextGaussian());
+      }
+    }
+    RealMatrix Q = orthonormalize(A.multiply(omega), size);
+    for (int i = 0; i < POWER_ITERATIONS; i++) {
+      Q = orthonormalize(A.multiply(orthonormalize(A.transpose().multiply(Q), size)), size);
+    }
+    return Q;
+  }
+
+  private static RealMatrix orthonormalize(RealMatrix Y, int size) {
+    return new QRDecomposition(Y).getQ().getSubMatrix(0, Y.getRowDimension() - 1, 0, size - 1);
   }
 
   private double computeS(double mu) {
     double SPenalty = spenalty * mu;
-    double[][] penalizedS = softThreshold(X.subtract(L).getData(), SPenalty);
-    S = MatrixUtils.createRealMatrix(penalizedS);
-    return l1norm(penalizedS) * SPenalty;
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        S[i][j] = softThreshold(X[i][j] - L[i][j], SPenalty);
+      }
+    }
+    return l1norm(S) * SPenalty;
   }
 
   private double computeE() {
-    E = X.subtract(L).subtract(S);
-    double norm = E.getFrobeniusNorm();
-    return Math.pow(norm, 2);
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        E[i][j] = X[i][j] - L[i][j] - S[i][j];
+      }
+    }
+    return sumOfSquares(E);
   }
 
   private double computeObjective(double nuclearnorm, double l1norm, double l2norm) {
@@ -138,50 +287,63 @@ public class RPCA {
   }
 
   private double computeDynamicMu() {
-    int m = E.getRowDimension();
-    int n = E.getColumnDimension();
-
-    double E_sd = standardDeviation(E.getData());
-    double mu = E_sd * Math.sqrt(2*Math.max(m,n));
+    double E_sd = standardDeviation(E);
+    double mu = E_sd * Math.sqrt(2*Math.max(rows, cols));
 
     return Math.max(.01, mu);
   }
 
-	/*private double MedianAbsoluteDeviation(double[][] x) {
-		DescriptiveStatistics stats = new DescriptiveStatistics();
-		for (int i = 0; i < x.length; i ++)
-			for (int j = 0; j < x[i].length; j++)
-				stats.addValue(x[i][j]);
-		double median = stats.getPercentile(50);
-
-		DescriptiveStatistics absoluteDeviationStats = new DescriptiveStatistics();
-		for (int i = 0; i < x.length; i ++)
-			for (int j = 0; j < x[i].length; j++)
-				absoluteDeviationStats.addValue(Math.abs(x[i][j] - median));
-
-		return absoluteDeviationStats.getPercentile(50) * 1.4826;
-	}*/
-
+  /**
+   * Bias corrected standard deviation, computed with the corrected two-pass algorithm used by
+   * {@link org.apache.commons.math3.stat.descriptive.DescriptiveStatistics}.
+   */
   private double standardDeviation(double[][] x) {
-    DescriptiveStatistics stats = new DescriptiveStatistics();
-    for (int i = 0; i < x.length; i ++)
-      for (int j = 0; j < x[i].length; j++)
-        stats.addValue(x[i][j]);
-    return stats.getStandardDeviation();
+    int n = rows * cols;
+    if (n == 1) {
+      return 0;
+    }
+    double mean = 0;
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        mean += x[i][j];
+      }
+    }
+    mean /= n;
+    double correction = 0;
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        correction += x[i][j] - mean;
+      }
+    }
+    mean += correction / n;
+    double accum = 0;
+    double accum2 = 0;
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        double dev = x[i][j] - mean;
+        accum += dev * dev;
+        accum2 += dev;
+      }
+    }
+    return Math.sqrt((accum - (accum2 * accum2 / n)) / (n - 1));
   }
 
   public RealMatrix getL() {
-    return L;
+    return MatrixUtils.createRealMatrix(L);
   }
 
   public RealMatrix getS() {
-    return S;
+    return MatrixUtils.createRealMatrix(S);
   }
 
   public RealMatrix getE() {
-    return E;
+    return MatrixUtils.createRealMatrix(E);
   }
 
-
-
-}
\ No newline at end of file
+  /**
+   * @return the entry of the sparse part at the given position, without copying the matrix
+   */
+  public double getSEntry(int row, int column) {
+    return S[row][column];
+  }
+}
@@ -39,6 +39,8 @@ public class RPCAOutlierAlgorithm implements OutlierAlgorithm{
     public static final String SPENALTY_CONFIG = "spenalty";
     public static final String FORCE_DIFF_CONFIG = "forceDiff";
     public static final String MIN_RECORDS_CONFIG = "minRecords";
+    public static final String MAX_RANK_CONFIG = "maxRank";
+    public static final String WARM_START_CONFIG = "warmStart";
 
     private Double  lpenalty;
     private Double  spenalty;
@@ -46,6 +48,9 @@ public class RPCAOutlierAlgorithm implements OutlierAlgorithm{
     private int minRecords = 0;
     private double threshold = EPSILON;
     private ScalingFunctions scaling = ScalingFunctions.NONE;
+    private int maxRank = 0;
+    private boolean isWarmStart = false;
+    private transient RPCA solver;
 
     public RPCAOutlierAlgorithm() {
 
@@ -72,6 +77,19 @@ public class RPCAOutlierAlgorithm implements OutlierAlgorithm{
         this.scaling = scaling;
         return this;
     }
+    public RPCAOutlierAlgorithm withMaxRank(int maxRank) {
+        this.maxRank = maxRank;
+        this.solver = null;
+        return this;
+    }
+    /**
+     * Start every decomposition from the solution of the previous one when the sample has the same size,
+     * which usually converges in fewer iterations as consecutive samples of a series share most of their points.
+     */
+    public RPCAOutlierAlgorithm withWarmStart(boolean warmStart) {
+        this.isWarmStart = warmStart;
+        return this;
+    }
     // Helper Function
     public double[][] VectorToMatrix(double[] x, int rows, int cols) {
         double[][] input2DArray = new double[rows][cols];
@@ -160,12 +178,14 @@ public class RPCAOutlierAlgorithm implements OutlierAlgorithm{
             double[][] input2DArray = new double[nRows][nCols];
             input2DArray = VectorToMatrix(inputArrayTransformed, nRows, nCols);
 
-            RPCA rSVD = new RPCA(input2DArray, this.lpenalty, this.spenalty);
+            // the solver buffers are reused as long as the sample size and the penalties do not change
+            if (solver == null || solver.getRowDimension() != nRows || solver.getColumnDimension() != nCols
+                    || solver.getLPenalty() != this.lpenalty || solver.getSPenalty() != this.spenalty) {
+                solver = new RPCA(nRows, nCols, this.lpenalty, this.spenalty, this.maxRank);
+            }
+            solver.solve(input2DArray, this.isWarmStart);
 
-            double[][] outputE = rSVD.getE().getData();
-            double[][] outputS = rSVD.getS().getData();
-            double[][] outputL = rSVD.getL().getData();
-            return outputS[nRows-1][0];
+            return solver.getSEntry(nRows-1, 0);
         }
         else {
             return Double.NaN;
@@ -221,5 +241,17 @@ public class RPCAOutlierAlgorithm implements OutlierAlgorithm{
                 withMinRecords(ConfigUtil.INSTANCE.coerceInteger(MIN_RECORDS_CONFIG, minRecordsObj));
             }
         }
+        {
+            Object maxRankObj = config.getConfig().get(MAX_RANK_CONFIG);
+            if (maxRankObj != null) {
+                withMaxRank(ConfigUtil.INSTANCE.coerceInteger(MAX_RANK_CONFIG, maxRankObj));
+            }
+        }
+        {
+            Object warmStartObj = config.getConfig().get(WARM_START_CONFIG);
+            if (warmStartObj != null) {
+                withWarmStart(ConfigUtil.INSTANCE.coerceBoolean(WARM_START_CONFIG, warmStartObj));
+            }
+        }
     }
 }
@@ -42,6 +42,8 @@ public class SketchyMovingMAD implements OutlierAlgorithm{
     private double decay = 0.1;
     private LinkedList<Severity> lastOutlier = new LinkedList<>();
     private boolean smoothOutliers = false;
+    // score against the digest kept by the value distributions rather than the distribution of the deviations
+    private boolean useQuantileDigest = false;
     public SketchyMovingMAD() {
 
     }
@@ -74,25 +76,34 @@ public class SketchyMovingMAD implements OutlierAlgorithm{
 
 
         String groupingKey = Outlier.groupingKey(dp, config.getGroupingKeys());
-        Distribution.Context valueDistribution = getContext(groupingKey, valueDistributions, reservoirSize, decay);
-        Distribution.Context medianDistribution = getContext(groupingKey, medianDistributions, 0, 0);
-        Distribution.Context zScoreDistribution = getContext(groupingKey, zScoreDistributions, 0, 0);
+        Distribution.Context valueDistribution = getContext(groupingKey, valueDistributions, reservoirSize, decay, useQuantileDigest);
+        Distribution.Context medianDistribution = getContext(groupingKey, medianDistributions, 0, 0, false);
+        Distribution.Context zScoreDistribution = getContext(groupingKey, zScoreDistributions, 0, 0, false);
         boolean haveEnoughValues = valueDistribution.getAmount() > minAmountToPredict && Math.abs(scalePoint(dp)) > EPSILON;
-        boolean haveEnoughMedians =medianDistribution.getAmount() > minAmountToPredict;
+        boolean haveEnoughMedians = useQuantileDigest || medianDistribution.getAmount() > minAmountToPredict;
         boolean makePrediction = haveEnoughValues
                               && haveEnoughMedians
                               ;
         Severity ret = Severity.NOT_ENOUGH_DATA;
         Double absDiff = null;
         Double median = null;
+        Double mad = null;
         if(haveEnoughValues) {
-            median = valueDistribution.getCurrentDistribution().getMedian();
+            if(useQuantileDigest) {
+                median = valueDistribution.getCurrentDistribution().getDigestMedian();
+                mad = valueDistribution.getCurrentDistribution().getMedianAbsoluteDeviation();
+            }
+            else {
+                median = valueDistribution.getCurrentDistribution().getMedian();
+            }
         }
         valueDistribution.addDataPoint(dp, config.getRotationPolicy(), config.getChunkingPolicy(), config.getScalingFunction(), config.getGlobalStatistics());
         Double zScore = null;
         if(makePrediction) {
             double k = ZSCORE;
-            double mad = medianDistribution.getCurrentDistribution().getMedian();
+            if(mad == null) {
+                mad = medianDistribution.getCurrentDistribution().getMedian();
+            }
             if(mad < EPSILON) {
                 ret = Severity.NORMAL;
             }
@@ -126,7 +137,7 @@ public class SketchyMovingMAD implements OutlierAlgorithm{
                 }
             }
         }
-        if(haveEnoughValues) {
+        if(haveEnoughValues && !useQuantileDigest) {
             absDiff = Math.abs(scalePoint(dp) - median);
             if(absDiff > EPSILON) {
                 medianDistribution.addDataPoint(new DataPoint(dp.getTimestamp(), absDiff, dp.getMetadata(), dp.getSource())
@@ -211,11 +222,12 @@ public class SketchyMovingMAD implements OutlierAlgorithm{
                                            , Map<String, Distribution.Context> contextMap
                                            , int reservoirSize
                                            , double decay
+                                           , boolean trackMedianAbsoluteDeviation
                                            )
     {
         Distribution.Context context = contextMap.get(source);
         if(context == null) {
-            context = new Distribution.Context(reservoirSize, decay);
+            context = new Distribution.Context(reservoirSize, decay, trackMedianAbsoluteDeviation);
             contextMap.put(source, context);
         }
         return context;
@@ -226,6 +238,7 @@ public class SketchyMovingMAD implements OutlierAlgorithm{
     public static final String RESERVOIR_SIZE = "reservoirSize";
     public static final String DECAY = "decay";
     public static final String SMOOTH = "smooth";
+    public static final String USE_QUANTILE_DIGEST = "useQuantileDigest";
 
 
 
@@ -246,6 +259,10 @@ public class SketchyMovingMAD implements OutlierAlgorithm{
         if(config.getConfig().containsKey(SMOOTH)) {
             smoothOutliers = true;
         }
+        if(config.getConfig().containsKey(USE_QUANTILE_DIGEST)) {
+            Object o = config.getConfig().get(USE_QUANTILE_DIGEST);
+            useQuantileDigest = ConfigUtil.INSTANCE.coerceBoolean(USE_QUANTILE_DIGEST, o);
+        }
         if(config.getConfig().containsKey(DECAY)) {
             Object o = config.getConfig().get(DECAY);
             decay = ConfigUtil.INSTANCE.coerceDouble(DECAY, o);
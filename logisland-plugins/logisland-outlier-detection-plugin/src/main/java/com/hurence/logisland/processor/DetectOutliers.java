@@ -22,7 +22,6 @@ import com.caseystella.analytics.distribution.config.Unit;
 import com.caseystella.analytics.outlier.Outlier;
 import com.caseystella.analytics.outlier.Severity;
 import com.caseystella.analytics.outlier.batch.rpca.RPCAOutlierAlgorithm;
-import com.caseystella.analytics.outlier.streaming.OutlierAlgorithm;
 import com.caseystella.analytics.outlier.streaming.OutlierConfig;
 import com.caseystella.analytics.outlier.streaming.mad.SketchyMovingMAD;
 import com.hurence.logisland.annotation.behavior.Stateful;
@@ -35,11 +34,15 @@ import com.hurence.logisland.record.FieldDictionary;
 import com.hurence.logisland.record.FieldType;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.record.StandardRecord;
+import com.hurence.logisland.util.store.StateStore;
 import com.hurence.logisland.validator.StandardValidators;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 
 
 @Stateful
@@ -59,7 +62,11 @@ import java.util.*;
         "- Use traditional, more computationally complex approaches to outlier analysis (e.g. Robust PCA) on the biased sample\n" +
         "- Expensive computationally, but run infrequently\n" +
         "\n" +
-        "This becomes a data filter which can be attached to a timeseries data stream within a distributed computational framework (i.e. Storm, Spark, Flink, NiFi) to detect outliers.")
+        "This becomes a data filter which can be attached to a timeseries data stream within a distributed computational framework (i.e. Storm, Spark, Flink, NiFi) to detect outliers.\n" +
+        "\n" +
+        "Each series, identified by its record type and optionally by a key field, is scored by its own model. Models are kept " +
+        "across batches in a bounded store, which can be snapshotted to a local directory. Records of a series should be " +
+        "sent with the same Kafka key so that they are always processed by the same executor.")
 public class DetectOutliers extends AbstractProcessor {
 
     static final long serialVersionUID = -1L;
@@ -69,8 +76,6 @@ public class DetectOutliers extends AbstractProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(DetectOutliers.class);
     private OutlierConfig outlierConfig;
-    private OutlierAlgorithm sketchyOutlierAlgorithm;
-    com.caseystella.analytics.outlier.batch.OutlierAlgorithm batchOutlierAlgorithm;
 
 
     public static final PropertyDescriptor RECORD_VALUE_FIELD = new PropertyDescriptor.Builder()
@@ -226,6 +231,15 @@ public class DetectOutliers extends AbstractProcessor {
             .defaultValue("0.1")
             .build();
 
+    public static final PropertyDescriptor USE_QUANTILE_DIGEST = new PropertyDescriptor.Builder()
+            .name("use_quantile_digest")
+            .description("score the values against the median absolute deviation of a digest of the values " +
+                    "themselves instead of a sketch of their distance to the moving median")
+            .required(false)
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .defaultValue("false")
+            .build();
+
     public static final PropertyDescriptor MIN_ZSCORE_PERCENTILE = new PropertyDescriptor.Builder()
             .name("min_zscore_percentile")
             .description("minZscorePercentile")
@@ -300,6 +314,21 @@ public class DetectOutliers extends AbstractProcessor {
             .addValidator(StandardValidators.INTEGER_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor RPCA_MAX_RANK = new PropertyDescriptor.Builder()
+            .name("rpca.max.rank")
+            .description("the maximal rank of the low rank part, computed with a randomized truncated SVD when set")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor RPCA_WARM_START = new PropertyDescriptor.Builder()
+            .name("rpca.warm.start")
+            .description("start every robust PCA of a series from its previous solution")
+            .required(false)
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .defaultValue("false")
+            .build();
+
     public static final PropertyDescriptor OUTPUT_RECORD_TYPE = new PropertyDescriptor.Builder()
             .name("output.record.type")
             .description("the output type of the record")
@@ -308,6 +337,39 @@ public class DetectOutliers extends AbstractProcessor {
             .defaultValue("alert_match")
             .build();
 
+    public static final PropertyDescriptor SERIES_KEY_FIELD = new PropertyDescriptor.Builder()
+            .name("series.key.field")
+            .description("the field identifying a series within a record type, each series being scored by its own model. "
+                    + "Series are only identified by their record type if not set")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MODEL_STORE_DIRECTORY = new PropertyDescriptor.Builder()
+            .name("model.store.directory")
+            .description("the local directory where the models evicted from memory are written and where the "
+                    + "in-memory models are checkpointed. Models are only kept in memory if not set")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor MODEL_STORE_MAX_MODELS = new PropertyDescriptor.Builder()
+            .name("model.store.max.models")
+            .description("the number of series models kept in memory, the least recently used ones are evicted to the "
+                    + "model store directory beyond that number, or forgotten if no directory is set")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("10000")
+            .build();
+
+    public static final PropertyDescriptor MODEL_STORE_CHECKPOINT_INTERVAL = new PropertyDescriptor.Builder()
+            .name("model.store.checkpoint.interval")
+            .description("the delay in seconds between two checkpoints of the in-memory models to the model store directory")
+            .required(false)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .defaultValue("60")
+            .build();
+
     @Override
     public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
         final List<PropertyDescriptor> descriptors = new ArrayList<>();
@@ -333,6 +395,7 @@ public class DetectOutliers extends AbstractProcessor {
         descriptors.add(ZSCORE_CUTOFFS_NOT_ENOUGH_DATA);
         descriptors.add(SMOOTH);
         descriptors.add(DECAY);
+        descriptors.add(USE_QUANTILE_DIGEST);
         descriptors.add(MIN_AMOUNT_TO_PREDICT);
         descriptors.add(MIN_ZSCORE_PERCENTILE);
         descriptors.add(RESERVOIR_SIZE);
@@ -342,7 +405,13 @@ public class DetectOutliers extends AbstractProcessor {
         descriptors.add(RPCA_MIN_RECORDS);
         descriptors.add(RPCA_SPENALTY);
         descriptors.add(RPCA_THRESHOLD);
+        descriptors.add(RPCA_MAX_RANK);
+        descriptors.add(RPCA_WARM_START);
 
+        descriptors.add(SERIES_KEY_FIELD);
+        descriptors.add(MODEL_STORE_DIRECTORY);
+        descriptors.add(MODEL_STORE_MAX_MODELS);
+        descriptors.add(MODEL_STORE_CHECKPOINT_INTERVAL);
 
         return Collections.unmodifiableList(descriptors);
     }
@@ -474,6 +543,11 @@ public class DetectOutliers extends AbstractProcessor {
                     SketchyMovingMAD.DECAY,
                     context.getPropertyValue(DECAY).asDouble());
         }
+        if (context.getPropertyValue(USE_QUANTILE_DIGEST).isSet()) {
+            outlierConfig.getConfig().put(
+                    SketchyMovingMAD.USE_QUANTILE_DIGEST,
+                    context.getPropertyValue(USE_QUANTILE_DIGEST).asBoolean());
+        }
         if (context.getPropertyValue(MIN_ZSCORE_PERCENTILE).isSet()) {
             outlierConfig.getConfig().put(
                     SketchyMovingMAD.MIN_ZSCORE_PERCENTILE,
@@ -532,11 +606,44 @@ public class DetectOutliers extends AbstractProcessor {
                     RPCAOutlierAlgorithm.MIN_RECORDS_CONFIG,
                     context.getPropertyValue(RPCA_MIN_RECORDS).asInteger());
         }
+        if (context.getPropertyValue(RPCA_MAX_RANK).isSet()) {
+            outlierConfig.getConfig().put(
+                    RPCAOutlierAlgorithm.MAX_RANK_CONFIG,
+                    context.getPropertyValue(RPCA_MAX_RANK).asInteger());
+        }
+        outlierConfig.getConfig().put(
+                RPCAOutlierAlgorithm.WARM_START_CONFIG,
+                context.getPropertyValue(RPCA_WARM_START).asBoolean());
+
+        // fail fast on an invalid configuration, models are created when their series shows up
+        new OutlierModel(null, outlierConfig);
+
+        getModelStore(context);
+    }
+
+    /**
+     * The model store is shared by every instance of the processor with the same configuration, as
+     * the points of a series may be handled by any of the instances pooled for the stream.
+     */
+    private StateStore<OutlierModel> getModelStore(final ProcessContext context) {
+        final String directoryPath = context.getPropertyValue(MODEL_STORE_DIRECTORY).asString();
+        final File directory = (directoryPath == null) ? null : new File(directoryPath);
+        final int maxModels = context.getPropertyValue(MODEL_STORE_MAX_MODELS).asInteger();
+        try {
+            return StateStore.open(StateStore.nameOf(DetectOutliers.class.getName(), context), directory, maxModels);
+        } catch (IOException e) {
+            throw new ProcessException("unable to open outlier model store " + directory + " : " + e.toString());
+        }
+    }
 
-        sketchyOutlierAlgorithm = new SketchyMovingMAD();
-        sketchyOutlierAlgorithm.configure(outlierConfig);
-        batchOutlierAlgorithm = new RPCAOutlierAlgorithm();
-        batchOutlierAlgorithm.configure(outlierConfig);
+    /**
+     * @return the key of the series the record belongs to
+     */
+    private static String getSeriesKey(final Record record, final String seriesKeyField) {
+        if (seriesKeyField == null || record.getField(seriesKeyField) == null) {
+            return record.getType();
+        }
+        return record.getType() + "/" + record.getField(seriesKeyField).asString();
     }
 
 
@@ -587,6 +694,9 @@ public class DetectOutliers extends AbstractProcessor {
         final String valueField = context.getPropertyValue(RECORD_VALUE_FIELD).asString();
         final String timeField = context.getPropertyValue(RECORD_TIME_FIELD).asString();
         final String outputRecordType = context.getPropertyValue(OUTPUT_RECORD_TYPE).asString();
+        final String seriesKeyField = context.getPropertyValue(SERIES_KEY_FIELD).asString();
+        final long checkpointIntervalMs = context.getPropertyValue(MODEL_STORE_CHECKPOINT_INTERVAL).asLong() * 1000L;
+        final StateStore<OutlierModel> store = getModelStore(context);
 
         // loop over all events in collection
         for (Record record : records) {
@@ -598,21 +708,35 @@ public class DetectOutliers extends AbstractProcessor {
 
                 DataPoint dp = new DataPoint(timestamp, value, new HashMap<>(), record.getType());
 
-                // now let's look for outliers
-                Outlier outlier = sketchyOutlierAlgorithm.analyze(dp);
-                if (outlier.getSeverity() == Severity.SEVERE_OUTLIER) {
+                // get the model of the series, created or reconfigured if needed, and look for outliers
+                // under the lock of the series only, the other series are scored concurrently
+                final String seriesKey = getSeriesKey(record, seriesKeyField);
+                final Outlier outlier;
+                final Lock lock = store.lockOf(seriesKey);
+                lock.lock();
+                try {
+                    OutlierModel model = store.get(seriesKey);
+                    if (model == null) {
+                        model = new OutlierModel(seriesKey, outlierConfig);
+                    } else if (!model.isConfiguredWith(outlierConfig)) {
+                        model.configure(outlierConfig);
+                    }
 
-                    outlier = batchOutlierAlgorithm.analyze(outlier, outlier.getSample(), dp);
-                    if (outlier.getSeverity() == Severity.SEVERE_OUTLIER) {
+                    outlier = model.analyze(dp);
+                    store.put(seriesKey, model);
+                } finally {
+                    lock.unlock();
+                }
 
-                        Record evt = new StandardRecord(record)
-                                .setType(outputRecordType)
-                                .setTime(new Date(timestamp))
-                                .setStringField("outlier_severity", "severe")
-                                .setField("outlier_score", FieldType.DOUBLE, outlier.getScore())
-                                .setField("outlier_num_points", FieldType.INT, outlier.getNumPts());
-                        list.add(evt);
-                    }
+                if (outlier.getSeverity() == Severity.SEVERE_OUTLIER) {
+
+                    Record evt = new StandardRecord(record)
+                            .setType(outputRecordType)
+                            .setTime(new Date(timestamp))
+                            .setStringField("outlier_severity", "severe")
+                            .setField("outlier_score", FieldType.DOUBLE, outlier.getScore())
+                            .setField("outlier_num_points", FieldType.INT, outlier.getNumPts());
+                    list.add(evt);
                 }
 
             } catch (RuntimeException e) {
@@ -624,6 +748,14 @@ public class DetectOutliers extends AbstractProcessor {
             }
         }
 
+        if (store.isCheckpointDue(System.currentTimeMillis(), checkpointIntervalMs)) {
+            try {
+                store.checkpoint();
+            } catch (IOException e) {
+                logger.error("unable to checkpoint outlier models : {}", e.toString());
+            }
+        }
+
         return list;
     }
 
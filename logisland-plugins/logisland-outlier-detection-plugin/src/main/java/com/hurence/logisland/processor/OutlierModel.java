@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor;
+
+import com.caseystella.analytics.DataPoint;
+import com.caseystella.analytics.outlier.Outlier;
+import com.caseystella.analytics.outlier.Severity;
+import com.caseystella.analytics.outlier.batch.rpca.RPCAOutlierAlgorithm;
+import com.caseystella.analytics.outlier.streaming.OutlierConfig;
+import com.caseystella.analytics.outlier.streaming.mad.SketchyMovingMAD;
+
+import java.io.Serializable;
+
+/**
+ * The outlier detection state of a single series : the moving MAD sketch used to find outlier
+ * candidates, and the robust PCA used to confirm them on the sample gathered by the sketch.
+ */
+public class OutlierModel implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String seriesKey;
+    private final SketchyMovingMAD sketchyOutlierAlgorithm = new SketchyMovingMAD();
+    private final RPCAOutlierAlgorithm batchOutlierAlgorithm = new RPCAOutlierAlgorithm();
+    private long pointsCount = 0L;
+
+    public OutlierModel(String seriesKey, OutlierConfig config) {
+        this.seriesKey = seriesKey;
+        configure(config);
+    }
+
+    /**
+     * Apply a new configuration to the model, keeping the distributions and samples already gathered.
+     *
+     * @param config the outlier configuration
+     */
+    public void configure(OutlierConfig config) {
+        sketchyOutlierAlgorithm.configure(config);
+        batchOutlierAlgorithm.configure(config);
+    }
+
+    /**
+     * @param config an outlier configuration
+     * @return true if the model was last configured with this very configuration instance
+     */
+    public boolean isConfiguredWith(OutlierConfig config) {
+        return sketchyOutlierAlgorithm.getConfig() == config;
+    }
+
+    /**
+     * Add a data point to the model and score it, candidates found by the sketch being confirmed
+     * or not by the batch algorithm.
+     *
+     * @param dp the data point of the series
+     * @return the outlier analysis of the point
+     */
+    public Outlier analyze(DataPoint dp) {
+        pointsCount++;
+        Outlier outlier = sketchyOutlierAlgorithm.analyze(dp);
+        if (outlier.getSeverity() == Severity.SEVERE_OUTLIER) {
+            outlier = batchOutlierAlgorithm.analyze(outlier, outlier.getSample(), dp);
+        }
+        return outlier;
+    }
+
+    public String getSeriesKey() {
+        return seriesKey;
+    }
+
+    /**
+     * @return the number of points analyzed by the model since it was created
+     */
+    public long getPointsCount() {
+        return pointsCount;
+    }
+}
@@ -50,4 +50,53 @@ public class DistributionTest {
         System.out.println("Real : " + realMedian + ", approx: " + approxMedian);
         Assert.assertTrue(Math.abs(realMedian - approxMedian) < 5);
     }
+
+    @Test
+    public void testMadScoreOfMergedChunks() {
+        Random r = new Random(0);
+        List<Double> values = new ArrayList<>();
+        List<Distribution> chunks = new ArrayList<>();
+        for(int i = 0; i < 2000;++i) {
+            double val = 50 + 10 * r.nextGaussian();
+            DataPoint dp = (new DataPoint(i, val, null, "foo"));
+            values.add(val);
+            if(i % 100 == 0) {
+                chunks.add(new Distribution(dp, ScalingFunctions.NONE, new GlobalStatistics(), true));
+            }
+            else {
+                chunks.get(chunks.size() - 1).addDataPoint(dp, ScalingFunctions.NONE);
+            }
+        }
+        Distribution distribution = Distribution.merge(chunks);
+        for(double val : new double[] { 40, 75, 100 }) {
+            double realScore = Distribution.getMadScore(values, val);
+            double approxScore = distribution.getMadScore(val);
+            System.out.println("Real : " + realScore + ", approx: " + approxScore);
+            Assert.assertEquals(realScore, approxScore, realScore * 0.02);
+        }
+        Assert.assertEquals(100, chunks.get(0).getAmount());
+        Assert.assertEquals(Distribution.getMadScore(values.subList(0, 100), 75.0), chunks.get(0).getMadScore(75), 1e-9);
+    }
+
+    @Test
+    public void testMadNotTrackedByDefault() {
+        Distribution tracked = new Distribution(new DataPoint(0, 1.0, null, "foo"), ScalingFunctions.NONE, new GlobalStatistics(), true);
+        Distribution untracked = new Distribution(new DataPoint(1, 2.0, null, "foo"), ScalingFunctions.NONE, new GlobalStatistics());
+        untracked.addDataPoint(new DataPoint(2, 3.0, null, "foo"), ScalingFunctions.NONE);
+        Assert.assertTrue(tracked.isTrackingMedianAbsoluteDeviation());
+        Assert.assertFalse(untracked.isTrackingMedianAbsoluteDeviation());
+
+        List<Distribution> distributions = new ArrayList<>();
+        distributions.add(tracked);
+        distributions.add(untracked);
+        Distribution merged = Distribution.merge(distributions);
+        Assert.assertEquals(3, merged.getAmount());
+        Assert.assertFalse(merged.isTrackingMedianAbsoluteDeviation());
+        try {
+            merged.getMadScore(2.0);
+            Assert.fail("the median absolute deviation is not tracked");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
 }
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.caseystella.analytics.distribution;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class QuantileDigestTest {
+
+    private static double exactMad(List<Double> values) {
+        DescriptiveStatistics stats = new DescriptiveStatistics();
+        for (Double v : values) {
+            stats.addValue(v);
+        }
+        double median = stats.getPercentile(50);
+        DescriptiveStatistics deviations = new DescriptiveStatistics();
+        for (Double v : values) {
+            deviations.addValue(Math.abs(v - median));
+        }
+        return deviations.getPercentile(50);
+    }
+
+    private static List<Double> sample(String law, int size, Random r) {
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < size; ++i) {
+            switch (law) {
+                case "uniform":
+                    values.add(r.nextDouble() * 1000 - 10000);
+                    break;
+                case "gaussian":
+                    values.add(50 + 10 * r.nextGaussian());
+                    break;
+                default:
+                    values.add(-Math.log(1 - r.nextDouble()) * 20);
+            }
+        }
+        return values;
+    }
+
+    @Test
+    public void testSmallDistributionsAreExact() {
+        Random r = new Random(0);
+        for (int size : new int[]{1, 2, 7, 50, 51}) {
+            List<Double> values = sample("gaussian", size, r);
+            QuantileDigest digest = new QuantileDigest();
+            for (Double v : values) {
+                digest.add(v);
+            }
+            Assert.assertEquals(size, digest.getCentroidCount());
+            if (size > 2) {
+                Assert.assertEquals(Distribution.getMadScore(values, 80.0), digest.getMadScore(80.0), 1e-9);
+            }
+            Assert.assertEquals(exactMad(values), digest.getMedianAbsoluteDeviation(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testAccuracyAgainstExact() {
+        Random r = new Random(0);
+        for (String law : new String[]{"uniform", "gaussian", "exponential"}) {
+            List<Double> values = sample(law, 100000, r);
+            QuantileDigest digest = new QuantileDigest();
+            for (Double v : values) {
+                digest.add(v);
+            }
+            Assert.assertTrue(digest.getCentroidCount() <= QuantileDigest.DEFAULT_COMPRESSION + 1);
+
+            double exactMad = exactMad(values);
+            double approxMad = digest.getMedianAbsoluteDeviation();
+            System.out.println(law + " mad, exact : " + exactMad + ", approx: " + approxMad);
+            Assert.assertEquals(exactMad, approxMad, exactMad * 0.01);
+            for (double z : new double[]{1, 3.5, 6}) {
+                double value = digest.getMedian() + z * approxMad / 0.6745;
+                Assert.assertEquals(Distribution.getMadScore(values, value), digest.getMadScore(value), z * 0.03);
+            }
+        }
+    }
+
+    @Test
+    public void testMergedChunksKeepAccuracy() {
+        Random r = new Random(0);
+        List<Double> values = sample("exponential", 20000, r);
+        QuantileDigest merged = new QuantileDigest();
+        QuantileDigest chunk = new QuantileDigest();
+        for (Double v : values) {
+            chunk.add(v);
+            if (chunk.getTotalWeight() == 100) {
+                merged.add(chunk);
+                chunk = new QuantileDigest();
+            }
+        }
+        Assert.assertEquals(values.size(), merged.getTotalWeight(), 0);
+        Assert.assertEquals(exactMad(values), merged.getMedianAbsoluteDeviation(), exactMad(values) * 0.01);
+
+        QuantileDigest copy = new QuantileDigest(merged);
+        copy.add(1e6);
+        Assert.assertEquals(values.size(), merged.getTotalWeight(), 0);
+        Assert.assertEquals(values.size() + 1, copy.getTotalWeight(), 0);
+    }
+
+    /**
+     * Compare the cost of scoring every point of a stream against the values seen so far, in a window
+     * bounded like the reservoirs of a distribution context.
+     */
+    @Ignore("benchmark, only logs timings")
+    @Test
+    public void testScoringCost() {
+        final int windowSize = 1000;
+        final int points = 20000;
+        Random r = new Random(0);
+        List<Double> values = sample("gaussian", points, r);
+
+        long start = System.nanoTime();
+        double exactSum = 0;
+        List<Double> window = new ArrayList<>(values.subList(0, windowSize));
+        for (int i = windowSize; i < points; ++i) {
+            exactSum += Distribution.getMadScore(window, values.get(i));
+            window.set(i % windowSize, values.get(i));
+        }
+        long exactDuration = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        double approxSum = 0;
+        QuantileDigest digest = new QuantileDigest();
+        for (int i = 0; i < windowSize; ++i) {
+            digest.add(values.get(i));
+        }
+        for (int i = windowSize; i < points; ++i) {
+            approxSum += digest.getMadScore(values.get(i));
+            digest.add(values.get(i));
+        }
+        long approxDuration = System.nanoTime() - start;
+
+        int scored = points - windowSize;
+        System.out.println("exact mad score: " + exactDuration / scored + " ns/point, digest mad score: "
+                + approxDuration / scored + " ns/point");
+        Assert.assertEquals(exactSum / scored, approxSum / scored, 0.05 * exactSum / scored);
+    }
+}
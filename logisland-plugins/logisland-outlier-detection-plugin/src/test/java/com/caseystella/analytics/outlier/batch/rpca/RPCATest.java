@@ -20,6 +20,7 @@ import com.caseystella.analytics.outlier.Outlier;
 import com.caseystella.analytics.outlier.OutlierHelper;
 import com.caseystella.analytics.outlier.Severity;
 import com.caseystella.analytics.outlier.batch.rpca.RPCAOutlierAlgorithm;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -48,4 +49,85 @@ public class RPCATest {
                 );
         Assert.assertEquals( Severity.SEVERE_OUTLIER , result.getSeverity() );
     }
+
+    /**
+     * @return a rank one matrix with some noise and a spike at the middle of the second column, with zero mean
+     * and unit variance
+     */
+    private static double[][] lowRankWithSpike(int rows, int cols, Random r) {
+        double[][] data = new double[rows][cols];
+        DescriptiveStatistics stats = new DescriptiveStatistics();
+        for(int i = 0; i < rows;++i) {
+            for(int j = 0; j < cols;++j) {
+                data[i][j] = (3 + j) * (5 + Math.sin(i)) + 0.3 * r.nextGaussian() + (i == rows / 2 && j == 1 ? 50 : 0);
+                stats.addValue(data[i][j]);
+            }
+        }
+        for(int i = 0; i < rows;++i) {
+            for(int j = 0; j < cols;++j) {
+                data[i][j] = (data[i][j] - stats.getMean()) / stats.getStandardDeviation();
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void testRankCap() throws Exception {
+        Random r = new Random(0);
+        double[][] data = lowRankWithSpike(80, 20, r);
+        double spenalty = 1.4 / Math.sqrt(80);
+        RPCA full = new RPCA(data, 1, spenalty);
+
+        // a randomized SVD with a rank above the one of the data gives the same decomposition
+        RPCA truncated = new RPCA(80, 20, 1, spenalty, 5);
+        truncated.solve(data, false);
+        Assert.assertEquals(full.getSEntry(40, 1), truncated.getSEntry(40, 1), 1e-6);
+        Assert.assertEquals(full.getSEntry(41, 1), truncated.getSEntry(41, 1), 1e-6);
+
+        // capping the rank to the one of the data only leaves the spike in the sparse part
+        RPCA rankOne = new RPCA(80, 20, 1, spenalty, 1);
+        rankOne.solve(data, false);
+        Assert.assertTrue(rankOne.getSEntry(40, 1) > 1);
+        Assert.assertEquals(0, rankOne.getSEntry(41, 1), 0);
+        Assert.assertTrue(rankOne.getIterations() < full.getIterations());
+    }
+
+    @Test
+    public void testWarmStart() throws Exception {
+        Random r = new Random(0);
+        double spenalty = 1.4 / Math.sqrt(80);
+        RPCA solver = new RPCA(80, 20, 1, spenalty, 1);
+        solver.solve(lowRankWithSpike(80, 20, r), false);
+        double[][] next = lowRankWithSpike(80, 20, r);
+
+        RPCA cold = new RPCA(80, 20, 1, spenalty, 1);
+        cold.solve(next, false);
+        solver.solve(next, true);
+        Assert.assertTrue(solver.getIterations() < cold.getIterations());
+        Assert.assertEquals(cold.getSEntry(40, 1), solver.getSEntry(40, 1), 1e-2 * cold.getSEntry(40, 1));
+        Assert.assertEquals(0, solver.getSEntry(41, 1), 0);
+    }
+
+    @Test
+    public void testSolverReusedAcrossCandidates() throws Exception {        Random r = new Random(0);
+        List<DataPoint> points = new ArrayList<>();
+        for(int i = 0; i < 100;++i) {
+            points.add(new DataPoint(i, r.nextDouble()*1000, null, "foo"));
+        }
+        RPCAOutlierAlgorithm detector = new RPCAOutlierAlgorithm().withWarmStart(true);
+        for(int i = 0; i < 3;++i) {
+            DataPoint evaluationPoint = new DataPoint(101 + i, 10000 + i, null, "foo");
+            Outlier result = detector.analyze(new Outlier(evaluationPoint, Severity.NORMAL, null, 0d, points.size())
+                    , points
+                    , evaluationPoint
+            );
+            Assert.assertEquals(Severity.SEVERE_OUTLIER, result.getSeverity());
+        }
+        DataPoint normalPoint = new DataPoint(110, 500, null, "foo");
+        Outlier result = detector.analyze(new Outlier(normalPoint, Severity.NORMAL, null, 0d, points.size())
+                , points
+                , normalPoint
+        );
+        Assert.assertEquals(Severity.NORMAL, result.getSeverity());
+    }
 }
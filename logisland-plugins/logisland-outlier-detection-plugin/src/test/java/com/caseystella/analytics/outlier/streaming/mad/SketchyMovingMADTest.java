@@ -16,6 +16,7 @@
 package com.caseystella.analytics.outlier.streaming.mad;
 
 import com.caseystella.analytics.DataPoint;
+import com.caseystella.analytics.distribution.Distribution;
 import com.caseystella.analytics.outlier.streaming.OutlierConfig;
 import com.caseystella.analytics.outlier.Severity;
 import com.caseystella.analytics.util.JSONUtil;
@@ -104,4 +105,64 @@ public class SketchyMovingMADTest {
         Assert.assertTrue(madAlgo.getMedianDistributions().get("foo").getAmount() <= 110);
         Assert.assertTrue(madAlgo.getMedianDistributions().get("foo").getChunks().size() <= 12);
     }
+
+    /**
+     {
+     "rotationPolicy" : {
+                        "type" : "BY_AMOUNT"
+                       ,"amount" : 100
+                       ,"unit" : "POINTS"
+                        }
+     ,"chunkingPolicy" : {
+                        "type" : "BY_AMOUNT"
+                       ,"amount" : 10
+                       ,"unit" : "POINTS"
+                         }
+     ,"globalStatistics" : {
+                         "min" : -10000
+                         }
+     ,"sketchyOutlierAlgorithm" : "SKETCHY_MOVING_MAD"
+     ,"config" : {
+                 "minAmountToPredict" : 50
+                ,"useQuantileDigest" : true
+                ,"zscoreCutoffs" : {
+                                    "NORMAL" : 3.5
+                                   ,"MODERATE_OUTLIER" : 5
+                                   }
+                 }
+     }
+     */
+    @Multiline
+    public static String digestMadConfig;
+
+    @Test
+    public void testSketchyMovingMADWithQuantileDigest() throws IOException {
+        Random r = new Random(0);
+        OutlierConfig config = JSONUtil.INSTANCE.load(digestMadConfig, OutlierConfig.class);
+        SketchyMovingMAD madAlgo = ((SketchyMovingMAD)config.getSketchyOutlierAlgorithm()).withConfig(config);
+        int i = 0;
+        for(i = 0; i < 10000;++i) {
+            madAlgo.analyze(new DataPoint(i, r.nextDouble() * 1000 - 10000, null, "foo"));
+        }
+        // the scores come from the values kept in the current distribution
+        Distribution current = madAlgo.getValueDistributions().get("foo").getCurrentDistribution();
+        double scaledMedian = current.getDigestMedian();
+        double mad = current.getMedianAbsoluteDeviation();
+        double median = scaledMedian - config.getScalingFunction().scale(0, config.getGlobalStatistics());
+        {
+            DataPoint dp = (new DataPoint(i++, getValAtModifiedZScore(4, mad, median), null, "foo"));
+            Assert.assertEquals(Severity.MODERATE_OUTLIER, madAlgo.analyze(dp).getSeverity());
+        }
+        {
+            DataPoint dp = (new DataPoint(i++, getValAtModifiedZScore(8, mad, median), null, "foo"));
+            Assert.assertEquals(Severity.SEVERE_OUTLIER, madAlgo.analyze(dp).getSeverity());
+        }
+        {
+            DataPoint dp = (new DataPoint(i++, median, null, "foo"));
+            Assert.assertEquals(Severity.NORMAL, madAlgo.analyze(dp).getSeverity());
+        }
+
+        // the deviations to the median are not sketched separately
+        Assert.assertEquals(0, madAlgo.getMedianDistributions().get("foo").getAmount());
+    }
 }
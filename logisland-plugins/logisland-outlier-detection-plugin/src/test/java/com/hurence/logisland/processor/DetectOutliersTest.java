@@ -15,18 +15,25 @@
  */
 package com.hurence.logisland.processor;
 
+import com.hurence.logisland.record.FieldType;
 import com.hurence.logisland.record.Record;
+import com.hurence.logisland.record.StandardRecord;
+import com.hurence.logisland.util.runner.MockRecord;
 import com.hurence.logisland.util.runner.TestRunner;
 import com.hurence.logisland.util.runner.TestRunners;
+import com.hurence.logisland.util.store.StateStore;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.apache.commons.math3.util.Pair;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +43,9 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 
 public class DetectOutliersTest {
@@ -45,6 +54,15 @@ public class DetectOutliersTest {
     private final String RESOURCES_DIRECTORY = "target/test-classes/benchmark_data/";
     private static final DateTimeFormatter inputDateFormat = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss");
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @After
+    public void closeStores() {
+        // model stores are shared per configuration, do not leak models between tests
+        StateStore.closeAll();
+    }
+
 
 
     @Test
@@ -111,5 +129,86 @@ public class DetectOutliersTest {
 
     }
 
+    private static Record metric(String host, long timestamp, double value) {
+        return new StandardRecord("cpu")
+                .setField("host", FieldType.STRING, host)
+                .setField("timestamp", FieldType.LONG, timestamp)
+                .setField("value", FieldType.DOUBLE, value);
+    }
+
+    @Test
+    public void testModelsSurviveAcrossBatchesPerSeries() {
+        final TestRunner testRunner = newSeriesRunner();
+        final long timestamp = learnSeries(testRunner);
+        assertOutlierForHost1Only(testRunner, timestamp);
+    }
+
+    @Test
+    public void testModelsRestoredFromCheckpoint() throws IOException {
+        final String directory = temporaryFolder.newFolder().getAbsolutePath();
+        final TestRunner testRunner = newSeriesRunner();
+        testRunner.setProperty(DetectOutliers.MODEL_STORE_DIRECTORY, directory);
+        testRunner.setProperty(DetectOutliers.MODEL_STORE_CHECKPOINT_INTERVAL, "0");
+        testRunner.assertValid();
+        final long timestamp = learnSeries(testRunner);
+
+        // as after a restart, the models are read back from their last checkpoint
+        StateStore.closeAll();
+        final TestRunner restartedRunner = newSeriesRunner();
+        restartedRunner.setProperty(DetectOutliers.MODEL_STORE_DIRECTORY, directory);
+        restartedRunner.setProperty(DetectOutliers.MODEL_STORE_CHECKPOINT_INTERVAL, "0");
+        restartedRunner.assertValid();
+        assertOutlierForHost1Only(restartedRunner, timestamp);
+    }
+
+    private static TestRunner newSeriesRunner() {
+        final TestRunner testRunner = TestRunners.newTestRunner(new DetectOutliers());
+        testRunner.setProperty(DetectOutliers.ROTATION_POLICY_AMOUNT, "1000");
+        testRunner.setProperty(DetectOutliers.CHUNKING_POLICY_AMOUNT, "100");
+        testRunner.setProperty(DetectOutliers.MIN_AMOUNT_TO_PREDICT, "50");
+        testRunner.setProperty(DetectOutliers.ZSCORE_CUTOFFS_NORMAL, "3.5");
+        testRunner.setProperty(DetectOutliers.ZSCORE_CUTOFFS_MODERATE, "5");
+        testRunner.setProperty(DetectOutliers.RECORD_VALUE_FIELD, "value");
+        testRunner.setProperty(DetectOutliers.RECORD_TIME_FIELD, "timestamp");
+        testRunner.setProperty(DetectOutliers.SERIES_KEY_FIELD, "host");
+        testRunner.assertValid();
+        return testRunner;
+    }
+
+    /**
+     * Feed two hosts with very different levels, each batch being too small to learn anything on its own.
+     *
+     * @return the timestamp following the last point
+     */
+    private static long learnSeries(TestRunner testRunner) {
+        final Random random = new Random(0);
+        long timestamp = 0L;
+        for (int batch = 0; batch < 10; batch++) {
+            final List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                records.add(metric("host1", timestamp, 10.0 + random.nextGaussian()));
+                records.add(metric("host2", timestamp, 1000.0 + 10 * random.nextGaussian()));
+                timestamp += 1000L;
+            }
+            testRunner.clearQueues();
+            testRunner.enqueue(records.toArray(new Record[records.size()]));
+            testRunner.run();
+            testRunner.assertAllInputRecordsProcessed();
+            testRunner.assertOutputErrorCount(0);
+        }
+        return timestamp;
+    }
+
+    private static void assertOutlierForHost1Only(TestRunner testRunner, long timestamp) {
+        // a usual value of host2 is an outlier for host1 only
+        testRunner.clearQueues();
+        testRunner.enqueue(metric("host2", timestamp, 1000.0), metric("host1", timestamp, 1000.0));
+        testRunner.run();
+        testRunner.assertAllInputRecordsProcessed();
+        testRunner.assertOutputRecordsCount(1);
+        final MockRecord outlier = testRunner.getOutputRecords().get(0);
+        outlier.assertFieldEquals("host", "host1");
+        outlier.assertFieldEquals("outlier_severity", "severe");
+    }
 
 }
@@ -24,14 +24,11 @@ import com.hurence.logisland.record.StandardRecord;
 import com.hurence.logisland.validator.StandardValidators;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.core.StopAnalyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.DoubleField;
 import org.apache.lucene.document.Field;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.co.flax.luwak.*;
-import uk.co.flax.luwak.matchers.SimpleMatcher;
-import uk.co.flax.luwak.presearcher.TermFilteredPresearcher;
 
 import java.io.IOException;
 import java.util.*;
@@ -70,11 +67,30 @@ public class MatchQuery extends AbstractProcessor {
             .defaultValue("alert_match")
             .build();
 
+    public static final PropertyDescriptor MATCH_BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("match.batch.size")
+            .description("the maximum number of records matched together in a single lucene document batch")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("1000")
+            .build();
+
+    public static final PropertyDescriptor MATCH_THREADS = new PropertyDescriptor.Builder()
+            .name("match.threads")
+            .description("the maximum number of document batches matched concurrently, " +
+                    "threads are taken from a pool shared by every processor of the executor")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("1")
+            .build();
+
     @Override
     public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
         final List<PropertyDescriptor> descriptors = new ArrayList<>();
         descriptors.add(NUMERIC_FIELDS);
         descriptors.add(OUTPUT_RECORD_TYPE);
+        descriptors.add(MATCH_BATCH_SIZE);
+        descriptors.add(MATCH_THREADS);
         descriptors.add(AbstractProcessor.INCLUDE_INPUT_RECORDS);
 
         return Collections.unmodifiableList(descriptors);
@@ -94,109 +110,71 @@ public class MatchQuery extends AbstractProcessor {
     private static Logger logger = LoggerFactory.getLogger(MatchQuery.class);
 
 
-    private Monitor monitor;
-    private KeywordAnalyzer keywordAnalyzer;
-    private StandardAnalyzer standardAnalyzer;
-    private StopAnalyzer stopAnalyzer;
-    private Map<String, MatchingRule> matchingRules;
+    // analyzers are thread safe and hold no per document state
+    private static final KeywordAnalyzer keywordAnalyzer = new KeywordAnalyzer();
+    private static final StopAnalyzer stopAnalyzer = new StopAnalyzer();
+
+    private transient volatile RuleSetMonitor ruleSetMonitor;
+    private transient Set<String> numericFields;
 
     @Override
     public void init(final ProcessContext context) {
 
-
-        keywordAnalyzer = new KeywordAnalyzer();
-        standardAnalyzer = new StandardAnalyzer();
-        stopAnalyzer = new StopAnalyzer();
-        matchingRules = new HashMap<>();
-        NumericQueryParser queryMatcher = new NumericQueryParser("field");
-
+        final Set<String> fields = new HashSet<>();
+        if (context.getPropertyValue(NUMERIC_FIELDS).isSet()) {
+            for (String numericField : context.getPropertyValue(NUMERIC_FIELDS).asString().split(",")) {
+                fields.add(numericField.trim());
+            }
+        }
 
         // loop over dynamic properties to add rules
+        final Map<String, String> rules = new HashMap<>();
         for (final Map.Entry<PropertyDescriptor, String> entry : context.getProperties().entrySet()) {
             if (!entry.getKey().isDynamic()) {
                 continue;
             }
-
-            final String name = entry.getKey().getName();
-            final String query = entry.getValue();
-            matchingRules.put(name, new MatchingRule(name, query));
+            rules.put(entry.getKey().getName(), entry.getValue());
         }
 
         try {
-            monitor = new Monitor(queryMatcher, new TermFilteredPresearcher());
-
-            // TODO infer numeric type here
-            if (context.getPropertyValue(NUMERIC_FIELDS).isSet()) {
-                final String[] numericFields = context.getPropertyValue(NUMERIC_FIELDS).asString().split(",");
-                for (String numericField : numericFields) {
-                    queryMatcher.setNumericField(numericField);
-                }
-            }
-
-
-            //monitor = new Monitor(new LuceneQueryParser("field"), new TermFilteredPresearcher());
-            for (MatchingRule rule : matchingRules.values()) {
-                MonitorQuery mq = new MonitorQuery(rule.getName(), rule.getQuery());
-                monitor.update(mq);
-            }
+            numericFields = fields;
+            ruleSetMonitor = RuleSetMonitor.get(this, fields, rules, ruleSetMonitor);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new ProcessException("unable to register matching rules : " + e.toString());
         }
-
-
     }
 
     @Override
     public Collection<Record> process(ProcessContext context, Collection<Record> records) {
 
         // may have not been initialized
-        if (monitor == null)
+        if (ruleSetMonitor == null)
             init(context);
 
+        final RuleSetMonitor monitor = ruleSetMonitor;
 
         // convert all numeric fields to double to get numeric range working ...
         List<Record> outRecords = new ArrayList<>();
-        List<InputDocument> inputDocs = new ArrayList<>();
+        List<InputDocument> inputDocs = new ArrayList<>(records.size());
         Map<String, Record> inputRecords = new HashMap<>();
         for (Record record : records) {
-            InputDocument.Builder docbuilder = InputDocument.builder(record.getId());
-            for (String fieldName : record.getAllFieldNames()) {
-
-                switch (record.getField(fieldName).getType()) {
-                    case STRING:
-                        docbuilder.addField(fieldName, record.getField(fieldName).asString(), stopAnalyzer);
-                        break;
-                    case INT:
-                        docbuilder.addField(new DoubleField(fieldName, record.getField(fieldName).asInteger(), Field.Store.YES));
-                        break;
-                    case LONG:
-                        docbuilder.addField(new DoubleField(fieldName, record.getField(fieldName).asLong(), Field.Store.YES));
-                        break;
-                    case FLOAT:
-                        docbuilder.addField(new DoubleField(fieldName, record.getField(fieldName).asFloat(), Field.Store.YES));
-                        break;
-                    case DOUBLE:
-                        docbuilder.addField(new DoubleField(fieldName, record.getField(fieldName).asDouble(), Field.Store.YES));
-                        break;
-                    default:
-                        docbuilder.addField(fieldName, record.getField(fieldName).asString(), keywordAnalyzer);
-                }
-            }
-
-            inputDocs.add(docbuilder.build());
+            inputDocs.add(toInputDocument(record));
             inputRecords.put(record.getId(), record);
         }
 
-        // match a batch of documents
-        Matches<QueryMatch> matches = null;
+        // match batches of documents
+        final List<DocumentMatches<QueryMatch>> matches;
         try {
-            matches = monitor.match(DocumentBatch.of(inputDocs), SimpleMatcher.FACTORY);
+            matches = monitor.match(inputDocs,
+                    context.getPropertyValue(MATCH_BATCH_SIZE).asInteger(),
+                    context.getPropertyValue(MATCH_THREADS).asInteger());
         } catch (IOException e) {
             logger.error("Could not match documents", e);
             return outRecords;
         }
 
         String outputRecordType = context.getPropertyValue(OUTPUT_RECORD_TYPE).asString();
+        final Map<String, String> rules = monitor.getRules();
 
         for (DocumentMatches<QueryMatch> docMatch : matches) {
             docMatch.getMatches().forEach(queryMatch -> {
@@ -204,7 +182,7 @@ public class MatchQuery extends AbstractProcessor {
                         new StandardRecord(inputRecords.get(docMatch.getDocId()))
                                 .setType(outputRecordType)
                                 .setStringField("alert_match_name", queryMatch.getQueryId())
-                                .setStringField("alert_match_query", matchingRules.get(queryMatch.getQueryId()).getQuery())
+                                .setStringField("alert_match_query", rules.get(queryMatch.getQueryId()))
                 );
             });
 
@@ -213,5 +191,46 @@ public class MatchQuery extends AbstractProcessor {
         return outRecords;
     }
 
+    /**
+     * Numeric values are indexed as doubles, so are string values of the configured numeric fields,
+     * otherwise range queries on these fields would never match.
+     */
+    private InputDocument toInputDocument(Record record) {
+        InputDocument.Builder docbuilder = InputDocument.builder(record.getId());
+        for (String fieldName : record.getAllFieldNames()) {
+            final com.hurence.logisland.record.Field field = record.getField(fieldName);
+            final Object value = field.getRawValue();
+            if (value == null) {
+                continue;
+            }
+
+            switch (field.getType()) {
+                case INT:
+                case LONG:
+                case FLOAT:
+                case DOUBLE:
+                    final Double number = field.asDouble();
+                    if (number != null) {
+                        docbuilder.addField(new DoubleField(fieldName, number, Field.Store.NO));
+                    }
+                    break;
+                case STRING:
+                    if (numericFields.contains(fieldName)) {
+                        try {
+                            docbuilder.addField(new DoubleField(fieldName, Double.parseDouble(value.toString()), Field.Store.NO));
+                            break;
+                        } catch (NumberFormatException e) {
+                            // not a number, indexed as text below
+                        }
+                    }
+                    docbuilder.addField(fieldName, value.toString(), stopAnalyzer);
+                    break;
+                default:
+                    docbuilder.addField(fieldName, value.toString(), keywordAnalyzer);
+            }
+        }
+        return docbuilder.build();
+    }
+
 
 }
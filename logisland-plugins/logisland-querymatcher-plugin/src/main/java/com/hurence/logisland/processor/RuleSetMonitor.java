@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.flax.luwak.*;
+import uk.co.flax.luwak.matchers.SimpleMatcher;
+import uk.co.flax.luwak.presearcher.TermFilteredPresearcher;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Luwak {@link Monitor} loaded with a set of matching rules.
+ *
+ * Building a monitor means parsing every query and indexing it in the presearcher, so monitors are
+ * shared per JVM and keyed by their rule set : processors deserialized with the same rules reuse the
+ * same monitor. A shared monitor is never modified, a processor initialized again with different rules
+ * only updates its previous monitor with the added, changed and removed rules when no other processor
+ * holds it. Monitors evicted from the cache are closed as soon as no processor holds them anymore.
+ */
+public class RuleSetMonitor {
+
+    private static Logger logger = LoggerFactory.getLogger(RuleSetMonitor.class);
+
+    private static final int MAX_CACHED_MONITORS = 32;
+
+    // guarded by monitors
+    private static final List<RuleSetMonitor> evictedMonitors = new ArrayList<>();
+
+    private static final Map<RuleSet, RuleSetMonitor> monitors =
+            new LinkedHashMap<RuleSet, RuleSetMonitor>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<RuleSet, RuleSetMonitor> eldest) {
+                    if (size() <= MAX_CACHED_MONITORS) {
+                        return false;
+                    }
+                    // a task may still be matching against it, it is closed once released
+                    evictedMonitors.add(eldest.getValue());
+                    return true;
+                }
+            };
+
+    private static final AtomicInteger matchThreadsCount = new AtomicInteger();
+
+    /**
+     * Sub batches are matched on a JVM wide pool so that processors deserialized for every task
+     * do not each start their own threads.
+     */
+    private static final ExecutorService matchExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            runnable -> {
+                final Thread thread = new Thread(runnable, "query-matcher-" + matchThreadsCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final Monitor monitor;
+    private final Set<String> numericFields;
+    private volatile Map<String, String> rules;
+
+    // the processors using this monitor, processors have no close hook so they are weakly referenced, guarded by monitors
+    private final List<WeakReference<Object>> holders = new ArrayList<>();
+    private boolean closed = false;
+
+    private RuleSetMonitor(Set<String> numericFields) throws IOException {
+        final NumericQueryParser queryParser = new NumericQueryParser("field");
+        for (String numericField : numericFields) {
+            queryParser.setNumericField(numericField);
+        }
+        this.monitor = new Monitor(queryParser, new TermFilteredPresearcher());
+        this.numericFields = numericFields;
+        this.rules = Collections.emptyMap();
+    }
+
+    /**
+     * Get a monitor loaded with the given rules.
+     *
+     * @param holder        the processor that will use the monitor
+     * @param numericFields the fields parsed as numbers in range and term queries
+     * @param rules         the queries to register, keyed by rule name
+     * @param previous      the monitor used so far by the holder, updated in place if no monitor already
+     *                      holds the requested rules and no other processor uses it, released otherwise,
+     *                      may be null
+     * @return a monitor holding exactly the given rules
+     * @throws IOException if the monitor cannot be created or updated
+     */
+    public static RuleSetMonitor get(Object holder,
+                                     Set<String> numericFields,
+                                     Map<String, String> rules,
+                                     RuleSetMonitor previous) throws IOException {
+        final RuleSet ruleSet = new RuleSet(numericFields, rules);
+
+        synchronized (monitors) {
+            try {
+                RuleSetMonitor ruleSetMonitor = monitors.get(ruleSet);
+                if (ruleSetMonitor == null && previous != null && !previous.closed
+                        && previous.numericFields.equals(ruleSet.numericFields)
+                        && previous.isOnlyHeldBy(holder)) {
+                    final RuleSet previousRuleSet = previous.getRuleSet();
+                    if (monitors.get(previousRuleSet) == previous) {
+                        monitors.remove(previousRuleSet);
+                    }
+                    evictedMonitors.remove(previous);
+                    previous.update(ruleSet.rules);
+                    monitors.put(ruleSet, previous);
+                    return previous;
+                }
+
+                if (ruleSetMonitor == null) {
+                    ruleSetMonitor = new RuleSetMonitor(ruleSet.numericFields);
+                    ruleSetMonitor.update(ruleSet.rules);
+                    monitors.put(ruleSet, ruleSetMonitor);
+                }
+                if (previous != ruleSetMonitor) {
+                    ruleSetMonitor.holders.add(new WeakReference<>(holder));
+                    if (previous != null) {
+                        previous.release(holder);
+                    }
+                }
+                return ruleSetMonitor;
+            } finally {
+                closeReleasedMonitors();
+            }
+        }
+    }
+
+    private boolean isOnlyHeldBy(Object holder) {
+        boolean heldByHolder = false;
+        for (Iterator<WeakReference<Object>> iterator = holders.iterator(); iterator.hasNext(); ) {
+            final Object current = iterator.next().get();
+            if (current == null) {
+                iterator.remove();
+            } else if (current == holder) {
+                heldByHolder = true;
+            } else {
+                return false;
+            }
+        }
+        return heldByHolder;
+    }
+
+    private boolean isHeld() {
+        holders.removeIf(reference -> reference.get() == null);
+        return !holders.isEmpty();
+    }
+
+    private void release(Object holder) {
+        holders.removeIf(reference -> reference.get() == null || reference.get() == holder);
+    }
+
+    /**
+     * Close the monitors evicted from the cache that are not used by any processor anymore.
+     */
+    private static void closeReleasedMonitors() {
+        for (Iterator<RuleSetMonitor> iterator = evictedMonitors.iterator(); iterator.hasNext(); ) {
+            final RuleSetMonitor evicted = iterator.next();
+            if (!evicted.isHeld()) {
+                iterator.remove();
+                evicted.closed = true;
+                try {
+                    evicted.monitor.close();
+                } catch (IOException e) {
+                    logger.warn("unable to close query monitor : {}", e.toString());
+                }
+            }
+        }
+    }
+
+    private RuleSet getRuleSet() {
+        return new RuleSet(numericFields, rules);
+    }
+
+    /**
+     * Register the added and changed rules and delete the removed ones.
+     */
+    private void update(Map<String, String> updatedRules) throws IOException {
+        final List<MonitorQuery> updatedQueries = new ArrayList<>();
+        for (Map.Entry<String, String> rule : updatedRules.entrySet()) {
+            if (!rule.getValue().equals(rules.get(rule.getKey()))) {
+                updatedQueries.add(new MonitorQuery(rule.getKey(), rule.getValue()));
+            }
+        }
+        final List<String> removedQueries = new ArrayList<>();
+        for (String name : rules.keySet()) {
+            if (!updatedRules.containsKey(name)) {
+                removedQueries.add(name);
+            }
+        }
+
+        if (!removedQueries.isEmpty()) {
+            monitor.deleteById(removedQueries);
+        }
+        if (!updatedQueries.isEmpty()) {
+            // a single update call commits the query index only once
+            for (QueryError error : monitor.update(updatedQueries)) {
+                logger.error("unable to register query {} : {}", error.id, error.error);
+            }
+        }
+        rules = updatedRules;
+
+        logger.info("query monitor updated, {} rules registered, {} removed", updatedQueries.size(), removedQueries.size());
+    }
+
+    /**
+     * @return the registered queries keyed by rule name
+     */
+    public Map<String, String> getRules() {
+        return rules;
+    }
+
+    /**
+     * Match documents against the registered rules.
+     *
+     * @param documents   the documents to match
+     * @param batchSize   the maximum number of documents matched in a single {@link DocumentBatch}
+     * @param parallelism the maximum number of sub batches matched concurrently
+     * @return the matches of every document that matched at least one rule
+     * @throws IOException if a sub batch cannot be matched
+     */
+    public List<DocumentMatches<QueryMatch>> match(List<InputDocument> documents,
+                                                   int batchSize,
+                                                   int parallelism) throws IOException {
+        final List<List<InputDocument>> batches = new ArrayList<>();
+        for (int i = 0; i < documents.size(); i += batchSize) {
+            batches.add(documents.subList(i, Math.min(documents.size(), i + batchSize)));
+        }
+
+        final int lanes = Math.min(parallelism, batches.size());
+        if (lanes <= 1) {
+            return matchBatches(batches, 0, 1);
+        }
+
+        // lane i matches batches i, i + lanes, ... the caller thread takes care of the first one
+        final List<Future<List<DocumentMatches<QueryMatch>>>> futures = new ArrayList<>();
+        for (int lane = 1; lane < lanes; lane++) {
+            final int firstBatch = lane;
+            futures.add(matchExecutor.submit(() -> matchBatches(batches, firstBatch, lanes)));
+        }
+
+        final List<DocumentMatches<QueryMatch>> matches = matchBatches(batches, 0, lanes);
+        for (Future<List<DocumentMatches<QueryMatch>>> future : futures) {
+            try {
+                matches.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while matching documents", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        return matches;
+    }
+
+    private List<DocumentMatches<QueryMatch>> matchBatches(List<List<InputDocument>> batches,
+                                                           int firstBatch,
+                                                           int step) throws IOException {
+        final List<DocumentMatches<QueryMatch>> matches = new ArrayList<>();
+        for (int i = firstBatch; i < batches.size(); i += step) {
+            try (DocumentBatch batch = DocumentBatch.of(batches.get(i))) {
+                final Matches<QueryMatch> batchMatches = monitor.match(batch, SimpleMatcher.FACTORY);
+                for (MatchError error : batchMatches.getErrors()) {
+                    logger.warn("error while matching query {} : {}", error.queryId, error.error.toString());
+                }
+                for (DocumentMatches<QueryMatch> documentMatches : batchMatches) {
+                    if (!documentMatches.getMatches().isEmpty()) {
+                        matches.add(documentMatches);
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * The numeric fields and the queries of a monitor, compared by value.
+     */
+    private static class RuleSet {
+        private final Set<String> numericFields;
+        private final Map<String, String> rules;
+
+        RuleSet(Set<String> numericFields, Map<String, String> rules) {
+            this.numericFields = Collections.unmodifiableSet(new TreeSet<>(numericFields));
+            this.rules = Collections.unmodifiableMap(new TreeMap<>(rules));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final RuleSet ruleSet = (RuleSet) o;
+            return numericFields.equals(ruleSet.numericFields) && rules.equals(ruleSet.rules);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(numericFields, rules);
+        }
+    }
+}
@@ -21,10 +21,17 @@ import com.hurence.logisland.record.Record;
 import com.hurence.logisland.record.StandardRecord;
 import com.hurence.logisland.util.runner.TestRunner;
 import com.hurence.logisland.util.runner.TestRunners;
+import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class MatchQueryTest {
 
     static String docspath = "data/documents/frenchpress";
@@ -150,4 +157,84 @@ public class MatchQueryTest {
         testRunner.assertOutputRecordsCount(3);
     }
 
+    @Test
+    public void testParallelMatching() {
+        final TestRunner testRunner = TestRunners.newTestRunner(new MatchQuery());
+        testRunner.setProperty(MatchQuery.NUMERIC_FIELDS, "exception_count");
+        testRunner.setProperty(MatchQuery.MATCH_BATCH_SIZE, "7");
+        testRunner.setProperty(MatchQuery.MATCH_THREADS, "4");
+        testRunner.setProperty("too_many_exceptions", "exception_count:[500 TO 100000]");
+        testRunner.setProperty("some_message", "message:wrong");
+        testRunner.assertValid();
+
+        final List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(new StandardRecord(EXCEPTION_RECORD)
+                    .setId("id" + i)
+                    .setStringField("message", i % 10 == 0 ? "something wrong" : "something good")
+                    .setField("exception_count", FieldType.INT, i * 10));
+        }
+        testRunner.clearQueues();
+        testRunner.enqueue(records.toArray(new Record[records.size()]));
+        testRunner.run();
+        testRunner.assertAllInputRecordsProcessed();
+        // 50 records with at least 500 exceptions and 10 wrong messages
+        testRunner.assertOutputRecordsCount(60);
+    }
+
+    @Test
+    public void testNumericStringField() {
+        final TestRunner testRunner = TestRunners.newTestRunner(new MatchQuery());
+        testRunner.setProperty(MatchQuery.NUMERIC_FIELDS, "bytes_out");
+        testRunner.setProperty("too_many_bytes", "bytes_out:[1000 TO 100000]");
+        testRunner.assertValid();
+
+        Record[] records = {
+                new StandardRecord(EXCEPTION_RECORD)
+                        .setId("id1")
+                        .setStringField("bytes_out", "123"),
+                new StandardRecord(EXCEPTION_RECORD)
+                        .setId("id2")
+                        .setStringField("bytes_out", "4560")
+        };
+        testRunner.clearQueues();
+        testRunner.enqueue(records);
+        testRunner.run();
+        testRunner.assertAllInputRecordsProcessed();
+        testRunner.assertOutputRecordsCount(1);
+    }
+
+    @Test
+    public void testMonitorReusedAndUpdated() throws Exception {
+        final Map<String, String> rules = new HashMap<>();
+        rules.put("reused_rule_a", "message:reused");
+        rules.put("reused_rule_b", "exception:ReusedException");
+        final Object firstHolder = new Object();
+        final Object secondHolder = new Object();
+
+        final RuleSetMonitor monitor = RuleSetMonitor.get(firstHolder, Collections.emptySet(), rules, null);
+        Assert.assertSame(monitor, RuleSetMonitor.get(secondHolder, Collections.emptySet(), new HashMap<>(rules), null));
+
+        // a monitor shared with another holder is left untouched
+        final Map<String, String> updatedRules = new HashMap<>(rules);
+        updatedRules.remove("reused_rule_b");
+        updatedRules.put("reused_rule_c", "message:updated");
+        final RuleSetMonitor copy = RuleSetMonitor.get(firstHolder, Collections.emptySet(), updatedRules, monitor);
+        Assert.assertNotSame(monitor, copy);
+        Assert.assertEquals(updatedRules, copy.getRules());
+        Assert.assertEquals(rules, monitor.getRules());
+
+        // the sole holder of a monitor gets it updated in place
+        final Map<String, String> otherRules = new HashMap<>(rules);
+        otherRules.put("reused_rule_d", "message:other");
+        final RuleSetMonitor updated = RuleSetMonitor.get(secondHolder, Collections.emptySet(), otherRules, monitor);
+        Assert.assertSame(monitor, updated);
+        Assert.assertEquals(otherRules, updated.getRules());
+
+        // the previous rule set is not cached anymore
+        final RuleSetMonitor rebuilt = RuleSetMonitor.get(new Object(), Collections.emptySet(), rules, null);
+        Assert.assertNotSame(updated, rebuilt);
+        Assert.assertEquals(rules, rebuilt.getRules());
+    }
+
 }
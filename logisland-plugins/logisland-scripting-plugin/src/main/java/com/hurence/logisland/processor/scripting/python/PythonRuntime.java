@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor.scripting.python;
+
+import com.hurence.logisland.processor.ProcessContext;
+import com.hurence.logisland.record.Record;
+import org.python.core.*;
+import org.python.util.PythonInterpreter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A python interpreter loaded with a {@link PythonScript} and holding an initialized python processor.
+ *
+ * The process entry point is resolved once as a python callable, calling it does not go through any source code
+ * parsing. A runtime is not thread safe, it is used by a single task at a time (see {@link PythonRuntimePool}).
+ */
+public class PythonRuntime {
+
+    private final PythonScript script;
+    private final PythonInterpreter interpreter;
+    private final PyObject processFunction;
+
+    PythonRuntime(PythonScript script, ProcessContext context) throws IOException {
+        this.script = script;
+        this.interpreter = new PythonInterpreter();
+
+        for (PyCode code : script.getSetupCode()) {
+            interpreter.exec(code);
+        }
+
+        if (script.isFileMode()) {
+            final PyObject processorClass = interpreter.get(script.getProcessorName());
+            if (processorClass == null) {
+                throw new IllegalStateException("Not a logisland python processor script: no class named " +
+                        script.getProcessorName());
+            }
+
+            // Check that the python class is inheriting from AbstractProcessor python class
+            if (!__builtin__.issubclass(processorClass, interpreter.get("AbstractProcessor"))) {
+                // This is not a python logisland processor
+                throw new IllegalStateException("Not a logisland python processor class: " +
+                        script.getProcessorName() + " does not inherits from AbstractProcessor python class");
+            }
+
+            final PyObject pyProcessor = processorClass.__call__();
+            pyProcessor.invoke("init", Py.java2py(context));
+            processFunction = pyProcessor.__getattr__(script.isRecordMode() ? "processRecord" : "process");
+        } else {
+            if (script.getInitCode() != null) {
+                interpreter.set("context", context);
+                interpreter.exec(script.getInitCode());
+            }
+            processFunction = interpreter.get("process");
+        }
+    }
+
+    PythonScript getScript() {
+        return script;
+    }
+
+    /**
+     * Call the python process entry point with the whole batch of records.
+     *
+     * @return the records returned by the python code
+     * @throws PyException if the python code raised an error
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<Record> process(ProcessContext context, Collection<Record> records) {
+        final PyObject result = processFunction.__call__(Py.java2py(context), Py.java2py(records));
+        if (result == Py.None) {
+            return Collections.emptyList();
+        }
+        return (Collection<Record>) result.__tojava__(Collection.class);
+    }
+
+    /**
+     * Call the python process entry point with a single record.
+     *
+     * @param output receives the record or records returned by the python code, if any
+     * @throws PyException if the python code raised an error
+     */
+    @SuppressWarnings("unchecked")
+    public void processRecord(ProcessContext context, Record record, List<Record> output) {
+        final PyObject result = processFunction.__call__(Py.java2py(context), Py.java2py(record));
+        if (result == Py.None) {
+            return;
+        }
+
+        final Object outputRecord = result.__tojava__(Record.class);
+        if (outputRecord != Py.NoConversion) {
+            output.add((Record) outputRecord);
+            return;
+        }
+
+        final Object outputRecords = result.__tojava__(Collection.class);
+        if (outputRecords == Py.NoConversion) {
+            throw Py.TypeError("process should return a record, a list of records or None, not " +
+                    result.getType().fastGetName());
+        }
+        output.addAll((Collection<Record>) outputRecords);
+    }
+
+    /**
+     * @return a readable description of an error raised by the python code
+     */
+    static String describe(Throwable t) {
+        if (!(t instanceof PyException)) {
+            return t.getMessage();
+        }
+
+        // Error inside the python code, prepare an error message explaining the error
+        final StringBuilder sb = new StringBuilder();
+        final PyException pyException = (PyException) t;
+        sb.append("Error in pyhton code:\nType: ").append(pyException.type.toString());
+        sb.append("\nMessage: ").append(pyException.value.toString());
+        sb.append("\nStack:\n");
+        if (pyException.traceback != null) {
+            pyException.traceback.dumpStack(sb);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor.scripting.python;
+
+import com.hurence.logisland.component.PropertyDescriptor;
+import com.hurence.logisland.processor.ProcessContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor wide pool of warmed python runtimes for a given {@link PythonScript}.
+ *
+ * Starting an interpreter, loading the logisland python modules, the dependencies and the user script and calling
+ * the python init method is by far the most expensive part of a python processor. The Spark engines call init for
+ * every partition of every micro-batch, so runtimes are kept per JVM and handed to one task at a time. The python
+ * init code is only run when a new runtime has to be created, with the context of the processor borrowing it : a
+ * pool is thus keyed by script and by processor identifier and configuration, runtimes are never shared by processors
+ * configured differently.
+ */
+public class PythonRuntimePool {
+
+    private static Logger logger = LoggerFactory.getLogger(PythonRuntimePool.class);
+
+    private static final ConcurrentMap<String, PythonRuntimePool> pools = new ConcurrentHashMap<>();
+
+    private static final AtomicLong createdRuntimesCount = new AtomicLong();
+
+    private final PythonScript script;
+    private final ConcurrentLinkedQueue<PythonRuntime> idleRuntimes = new ConcurrentLinkedQueue<>();
+
+    private PythonRuntimePool(PythonScript script) {
+        this.script = script;
+    }
+
+    /**
+     * @param script  the python code to run
+     * @param context the context of the processor running the script
+     * @return the pool of runtimes loaded with the given script and initialized with the given processor
+     * configuration, shared by every instance of the processor in the JVM
+     */
+    public static PythonRuntimePool get(PythonScript script, ProcessContext context) {
+        final SortedMap<String, String> properties = new TreeMap<>();
+        for (Map.Entry<PropertyDescriptor, String> property : context.getProperties().entrySet()) {
+            properties.put(property.getKey().getName(), property.getValue());
+        }
+        return pools.computeIfAbsent(script.getKey() + "/" + context.getIdentifier() + "/" + properties,
+                key -> new PythonRuntimePool(script));
+    }
+
+    /**
+     * @return the number of runtimes created since the JVM started
+     */
+    public static long getCreatedRuntimesCount() {
+        return createdRuntimesCount.get();
+    }
+
+    /**
+     * Get an idle runtime or create a new one. The runtime must be given back through {@link #release} once the
+     * batch is processed.
+     *
+     * @param context the context given to the python init code if a runtime has to be created
+     * @return a runtime exclusively owned by the caller
+     * @throws IOException if the script cannot be loaded
+     */
+    public PythonRuntime borrow(ProcessContext context) throws IOException {
+        final PythonRuntime runtime = idleRuntimes.poll();
+        if (runtime != null) {
+            return runtime;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final PythonRuntime created = new PythonRuntime(script, context);
+        logger.info("created python runtime #{} for script {} in {} ms", createdRuntimesCount.incrementAndGet(),
+                script.getKey(), System.currentTimeMillis() - startTime);
+        return created;
+    }
+
+    /**
+     * Give back a runtime so that it can be reused by another task.
+     */
+    public void release(PythonRuntime runtime) {
+        if (runtime.getScript() == script) {
+            idleRuntimes.offer(runtime);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor.scripting.python;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.python.core.CompileMode;
+import org.python.core.CompilerFlags;
+import org.python.core.Py;
+import org.python.core.PyCode;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The python code run by a {@link RunPython} processor, either inline or from a script file, along with the paths
+ * of its dependencies.
+ *
+ * The code is compiled once and the compiled code is shared by every interpreter running the script. The key of a
+ * script is a hash of its code, or of its file path, size and modification time in file mode, and of its
+ * dependencies paths.
+ */
+public class PythonScript {
+
+    private static final String INLINE_FILENAME = "<inline>";
+
+    private final String scriptCodeImports;
+    private final String scriptCodeInit;
+    private final String scriptCodeProcess;
+    private final String scriptPath;
+    private final String processorName;
+    private final String dependenciesPath;
+    private final String logislandDependenciesPath;
+    private final boolean recordMode;
+    private final String key;
+
+    private List<PyCode> setupCode;
+    private PyCode initCode;
+
+    /**
+     * @param scriptCodeImports         inline mode import statements, may be null
+     * @param scriptCodeInit            inline mode init code, may be null
+     * @param scriptCodeProcess         inline mode process code, null for file mode
+     * @param scriptPath                absolute path of the processor script, null for inline mode
+     * @param processorName             name of the python processor class, null for inline mode
+     * @param dependenciesPath          path of the processor dependencies, null if there are none
+     * @param logislandDependenciesPath path of the python dependencies shipped with logisland
+     * @param recordMode                true if the process entry point is called once per record
+     * @throws IOException if the script file cannot be read
+     */
+    public PythonScript(String scriptCodeImports,
+                        String scriptCodeInit,
+                        String scriptCodeProcess,
+                        String scriptPath,
+                        String processorName,
+                        String dependenciesPath,
+                        String logislandDependenciesPath,
+                        boolean recordMode) throws IOException {
+        this.scriptCodeImports = scriptCodeImports;
+        this.scriptCodeInit = scriptCodeInit;
+        this.scriptCodeProcess = scriptCodeProcess;
+        this.scriptPath = scriptPath;
+        this.processorName = processorName;
+        this.dependenciesPath = dependenciesPath;
+        this.logislandDependenciesPath = logislandDependenciesPath;
+        this.recordMode = recordMode;
+
+        final Hasher hasher = Hashing.sha256().newHasher();
+        for (String part : new String[]{scriptCodeImports, scriptCodeInit, scriptCodeProcess, scriptPath,
+                dependenciesPath, logislandDependenciesPath, Boolean.toString(recordMode)}) {
+            hasher.putBoolean(part != null);
+            if (part != null) {
+                hasher.putString(part, StandardCharsets.UTF_8);
+            }
+        }
+        if (scriptPath != null) {
+            // a modified script must not be served by interpreters loaded with the previous version, its
+            // attributes are enough to tell without reading it at each init
+            final BasicFileAttributes attributes = Files.readAttributes(Paths.get(scriptPath), BasicFileAttributes.class);
+            hasher.putLong(attributes.size());
+            hasher.putLong(attributes.lastModifiedTime().toMillis());
+        }
+        this.key = hasher.hash().toString();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public boolean isFileMode() {
+        return scriptPath != null;
+    }
+
+    public boolean isRecordMode() {
+        return recordMode;
+    }
+
+    public String getProcessorName() {
+        return processorName;
+    }
+
+    /**
+     * @return the code to run in a new interpreter before the processor is initialized: python path setup, imports
+     * and either the processor script or the definition of the inline process function
+     */
+    public synchronized List<PyCode> getSetupCode() throws IOException {
+        if (setupCode == null) {
+            final List<PyCode> code = new ArrayList<>();
+            final StringBuilder pathSetup = new StringBuilder("import sys\n");
+            appendSysPath(pathSetup, logislandDependenciesPath);
+            appendSysPath(pathSetup, dependenciesPath);
+            pathSetup.append("from AbstractProcessor import AbstractProcessor\n");
+            code.add(compile(pathSetup.toString()));
+
+            if (isFileMode()) {
+                try (InputStream script = new FileInputStream(scriptPath)) {
+                    code.add(Py.compile_flags(script, scriptPath, CompileMode.exec, new CompilerFlags()));
+                }
+            } else {
+                code.add(compile(RunPython.DEFAULT_INLINE_MODE_IMPORTS));
+                if (scriptCodeImports != null) {
+                    code.add(compile(scriptCodeImports));
+                }
+
+                final StringBuilder function = new StringBuilder("def process(context, ")
+                        .append(recordMode ? "record" : "records")
+                        .append("):\n");
+                for (String line : scriptCodeProcess.split("\n")) {
+                    function.append("  ").append(line).append('\n');
+                }
+                code.add(compile(function.toString()));
+            }
+            setupCode = Collections.unmodifiableList(code);
+        }
+        return setupCode;
+    }
+
+    /**
+     * @return the inline mode init code, null if there is none
+     */
+    public synchronized PyCode getInitCode() {
+        if (initCode == null && scriptCodeInit != null) {
+            initCode = compile(scriptCodeInit);
+        }
+        return initCode;
+    }
+
+    /**
+     * Interpreters share the same python system state, a path is only appended once.
+     */
+    private static void appendSysPath(StringBuilder pathSetup, String path) {
+        if (path != null) {
+            final String literal = "'" + path.replace("\\", "\\\\").replace("'", "\\'") + "'";
+            pathSetup.append("if ").append(literal).append(" not in sys.path:\n")
+                    .append("  sys.path.append(").append(literal).append(")\n");
+        }
+    }
+
+    private static PyCode compile(String code) {
+        return Py.compile_flags(code, INLINE_FILENAME, CompileMode.exec, new CompilerFlags());
+    }
+}
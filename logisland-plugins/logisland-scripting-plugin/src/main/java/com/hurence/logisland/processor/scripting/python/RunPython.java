@@ -15,7 +15,6 @@
  */
 package com.hurence.logisland.processor.scripting.python;
 
-import com.google.common.collect.Lists;
 import com.hurence.logisland.annotation.documentation.CapabilityDescription;
 import com.hurence.logisland.annotation.documentation.Tags;
 import com.hurence.logisland.component.PropertyDescriptor;
@@ -28,16 +27,11 @@ import com.hurence.logisland.validator.ValidationResult;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.python.core.PyException;
-import org.python.core.PyInteger;
-import org.python.core.PyObject;
-import org.python.util.PythonInterpreter;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
-import static java.util.stream.Collectors.joining;
-
 /**
  * 
  * !!! WARNING !!!!
@@ -46,7 +40,6 @@ import static java.util.stream.Collectors.joining;
  * 
  * So far identified list of things still to be done:
  * - see TODOs here
- * - init code is always called! Remove this!
  * - inline mode: init usage (access context?))
  * - onPropertyModified up to python code (test)
  * - doc for tutorial (inline?, file? , both?)
@@ -96,11 +89,11 @@ public class RunPython extends AbstractProcessor {
     // Path of the directory containing the logisland pyhton dependencies (shipped with logisland)
     private String logislandDependenciesPath = null;
     
-    // Python interpreter
-    private PythonInterpreter pythonInterpreter = null;
+    // True if the python code is called once per record rather than once per batch
+    private boolean recordMode = false;
 
-    // Reference to the python processor object (instance of the user's processor code)
-    private PyObject pyProcessor = null;
+    // Warmed python runtimes running the configured script, shared by the processors of the JVM with the same configuration
+    private transient volatile PythonRuntimePool runtimePool = null;
 
     private boolean initDone = false;
 
@@ -114,6 +107,10 @@ public class RunPython extends AbstractProcessor {
     private static final String KEY_SCRIPT_PATH = "script.path";
     private static final String KEY_DEPENDENCIES_PATH = "dependencies.path";
     private static final String KEY_LOGISLAND_DEPENDENCIES_PATH = "logisland.dependencies.path";
+    private static final String KEY_PROCESS_MODE = "process.mode";
+
+    private static final String BATCH_PROCESS_MODE = "batch";
+    private static final String RECORD_PROCESS_MODE = "record";
     
     public static final PropertyDescriptor SCRIPT_CODE_IMPORTS = new PropertyDescriptor.Builder()
             .name(KEY_SCRIPT_CODE_IMPORTS)
@@ -173,9 +170,22 @@ public class RunPython extends AbstractProcessor {
             .addValidator(StandardValidators.FILE_EXISTS_VALIDATOR)
             .build();
     
+    public static final PropertyDescriptor PROCESS_MODE = new PropertyDescriptor.Builder()
+            .name(KEY_PROCESS_MODE)
+            .description("How the python process code is called. With **" + BATCH_PROCESS_MODE + "**, it is called"
+                    + " once per batch with the list of records. With **" + RECORD_PROCESS_MODE + "**, it is called"
+                    + " once per record and may return a record, a list of records or None, an error raised for a"
+                    + " record only fails this record. In inline mode, the process code then gets a **record**"
+                    + " variable instead of **records**. In file mode, the processRecord method of the python"
+                    + " processor is called instead of process.")
+            .required(false)
+            .allowableValues(BATCH_PROCESS_MODE, RECORD_PROCESS_MODE)
+            .defaultValue(BATCH_PROCESS_MODE)
+            .build();
+
     // Default import statements automatically done in inline mode, before potential user ones are done.
     // TODO Also import StandardProcessContext, Processor (see when using/testing init method)
-    private static final String DEFAULT_INLINE_MODE_IMPORTS =
+    static final String DEFAULT_INLINE_MODE_IMPORTS =
             "from AbstractProcessor import AbstractProcessor\n" +
             "from com.hurence.logisland.record import StandardRecord"; 
 
@@ -189,6 +199,7 @@ public class RunPython extends AbstractProcessor {
         descriptors.add(SCRIPT_PATH);
         descriptors.add(DEPENDENCIES_PATH);
         descriptors.add(LOGISLAND_DEPENDENCIES_PATH);
+        descriptors.add(PROCESS_MODE);
 
         return Collections.unmodifiableList(descriptors);
     }
@@ -199,6 +210,8 @@ public class RunPython extends AbstractProcessor {
     private void getConfigParams(ProcessContext context)
     {   
         // Extract needed configuration information
+        useScriptFile = false;
+        hasDependencies = false;
         try {
             getInlineModeParams(context);
             getFileModeParams(context);
@@ -212,123 +225,41 @@ public class RunPython extends AbstractProcessor {
     @Override
     public void init(final ProcessContext context)
     {
-        pythonInterpreter = new PythonInterpreter();
         // Get config parameters
         getConfigParams(context);
+        recordMode = RECORD_PROCESS_MODE.equals(context.getPropertyValue(PROCESS_MODE).asString());
 
-        // Load necessary logisland python modules
-        loadLogislandPythonModules();
-        
-        if (hasDependencies)
-        {
-            loadPythonProcessorDependencies();
-        }
-        
         if (useScriptFile)
         {
-            // File mode
-            
             logger.debug("Initializing python processor (script file mode): " + scriptPath);
+        }
 
-            // Load processor script
-            pythonInterpreter.execfile(scriptPath);
-    
-            /**
-             * Instantiate and init the processor python object
-             * 
-             * Run python code:
-             *
-             * pyProcessor = MyProcessor()
-             * # Check that the python class is inheriting from AbstractProcessor python class
-             * isInheritingFromAbstractProcessor = issubclass(pyProcessor.__class__, AbstractProcessor)
-             * pyProcessor.init(context)
-             */
-    
-            pythonInterpreter.exec("pyProcessor = " + processorName + "()" ); // Equivalent to "pyProcessor = MyProcessor()"
-            pyProcessor = pythonInterpreter.get("pyProcessor");
-            
-            // Check that the python class is inheriting from AbstractProcessor python class
-            pythonInterpreter.exec("isInheritingFromAbstractProcessor = issubclass(pyProcessor.__class__, AbstractProcessor)");
-            PyObject pyIsInheritingFromAbstractProcessor = pythonInterpreter.get("isInheritingFromAbstractProcessor");
-            boolean isInheritingFromAbstractProcessor = ((PyInteger) pyIsInheritingFromAbstractProcessor).asInt() != 0;
-            if (!isInheritingFromAbstractProcessor)
-            {
-                // This is not a python logisland processor
-                throw new RuntimeException("Not a logisland python processor class: " +
-                        processorName + " does not inherits from AbstractProcessor python class" );
-            }
-    
-            pythonInterpreter.set("context", context);
-            pythonInterpreter.exec("pyProcessor.init(context)");
-        } else
-        {
-            // Inline mode
-            
-            /**
-             * Do something like:
-             * 
-             * # Default imports
-             * import...
-             * 
-             * # User imports
-             * import....
-             * import...
-             * 
-             * # Call init user code if any
-             * init(context)
-             * 
-             * # Define process method once for all with code from the user
-             * def process(context, records):
-             *     ....
-             */
-
-            pythonInterpreter.exec(DEFAULT_INLINE_MODE_IMPORTS);
-
-            // Declare imports once for all if any
-            if (scriptCodeImports != null)
-            {
-                pythonInterpreter.exec(scriptCodeImports);
-            }
-
-            // Call init method code if any
-            if (scriptCodeInit != null)
-            {
-                pythonInterpreter.set("context", context);
-                pythonInterpreter.exec(scriptCodeInit);
-            }
-            
-            // Define the process method
-
-            String statement = Lists.newArrayList(scriptCodeProcess.split("\n"))
-                    .stream()
-                    .map( t -> String.format("  %s", t))
-                    .collect(joining("\n"));
-            pythonInterpreter.exec("def process(context, records):\n" + statement);
+        /**
+         * Interpreters are pooled per script: the logisland python modules, the dependencies and the user code are
+         * only loaded, and the python init code only called, when no idle interpreter already runs the same script.
+         * Borrowing one here makes sure the script can be loaded.
+         */
+        try {
+            PythonScript script = new PythonScript(
+                    useScriptFile ? null : scriptCodeImports,
+                    useScriptFile ? null : scriptCodeInit,
+                    useScriptFile ? null : scriptCodeProcess,
+                    useScriptFile ? scriptPath : null,
+                    useScriptFile ? processorName : null,
+                    hasDependencies ? dependenciesPath : null,
+                    logislandDependenciesPath,
+                    recordMode);
+            PythonRuntimePool pool = PythonRuntimePool.get(script, context);
+            pool.release(pool.borrow(context));
+            runtimePool = pool;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        
+
         // Allow forwarding calls to onPropertyModified
         initDone = true;
     }
     
-    /**
-     * Loads the logisland python modules
-     */
-    private void loadLogislandPythonModules()
-    {       
-        pythonInterpreter.exec("import sys"); // Allows to call next sys.path.append
-        pythonInterpreter.exec("sys.path.append('" + logislandDependenciesPath + "')");
-    }
-    
-    /**
-     * Loads the python processor dependencies
-     */
-    private void loadPythonProcessorDependencies()
-    {
-        logger.debug("Using python processor dependencies under: " + dependenciesPath);
-        // 'import sys' has already been called in loadLogislandPythonModules, so just add the path to sys.path
-        pythonInterpreter.exec("sys.path.append('" + dependenciesPath + "')");
-    }
-    
     /**
      * Gets parameters needed for file mode.
      * Gets the name and directory of the processor from the processor script file path of the configuration
@@ -490,63 +421,55 @@ public class RunPython extends AbstractProcessor {
     @Override
     public Collection<Record> process(ProcessContext context, Collection<Record> records)
     {
-        if(pythonInterpreter == null)
+        if(runtimePool == null)
             init(context);
 
-        Collection<Record> outputRecords = null;
-        
+        final PythonRuntimePool pool = runtimePool;
+        PythonRuntime runtime = null;
         try {
-        
-            if (useScriptFile)
+            runtime = pool.borrow(context);
+
+            if (!recordMode)
             {
-                // File mode
-                 
                 /**
                  * Call process method of python processor script with the records we received
                  */
-                pythonInterpreter.set("context", context);
-                pythonInterpreter.set("records", records);
-                pythonInterpreter.exec("outputRecords = pyProcessor.process(context, records)");
-                outputRecords = pythonInterpreter.get("outputRecords", Collection.class);
-            } else
+                return runtime.process(context, records);
+            }
+
+            /**
+             * Call the process method once per record, an error only fails the record that caused it
+             */
+            List<Record> outputRecords = new ArrayList<>(records.size());
+            for (Record record : records)
             {
-                // Inline mode
-    
-                /**
-                 * Call process method of python processor script with the records we received
-                 */
-                pythonInterpreter.set("context", context);
-                pythonInterpreter.set("records", records);
-                pythonInterpreter.exec("outputRecords = process(context, records)");
-                outputRecords = pythonInterpreter.get("outputRecords", Collection.class);
+                try {
+                    runtime.processRecord(context, record, outputRecords);
+                } catch (Exception e)
+                {
+                    Record errorRecord = new StandardRecord(record);
+                    errorRecord.addError(ProcessError.UNKNOWN_ERROR.getName(), PythonRuntime.describe(e));
+                    outputRecords.add(errorRecord);
+                }
             }
+            return outputRecords;
         } catch(Throwable t)
         {
             /**
              * Error, return an error record
              */
-            String errorMsg = t.getMessage();
-            if (t instanceof PyException)
-            {
-                // Error inside the python code, prepare an error message explaining the error
-                StringBuilder sb = new StringBuilder();
-                PyException pyException = (PyException)t;
-                String errorType = pyException.type.toString();
-                String errorMesage = pyException.value.toString();
-                sb.append("Error in pyhton code:\nType: ").append(errorType);
-                sb.append("\nMessage: ").append(errorMesage);
-                sb.append("\nStack:\n");
-                pyException.traceback.dumpStack(sb);
-                errorMsg = sb.toString();
-            }
             Record errorRecord = new StandardRecord("error");
-            errorRecord.addError(ProcessError.UNKNOWN_ERROR.getName(), errorMsg);
+            errorRecord.addError(ProcessError.UNKNOWN_ERROR.getName(), PythonRuntime.describe(t));
             List<Record> errorRecords = new ArrayList<Record>();
             errorRecords.add(errorRecord);
             return errorRecords;
+        } finally
+        {
+            if (runtime != null)
+            {
+                pool.release(runtime);
+            }
         }
-
-        return outputRecords;
     }
     
     @Override
@@ -556,25 +479,14 @@ public class RunPython extends AbstractProcessor {
         
         /**
          * In java, onPropertyModified for config properties is called before the init method is called so before our
-         * init method is called our python interpreter is not initialized and we cannot call it before
+         * init method is called our python interpreter is not initialized and we cannot call it before.
+         * Pooled runtimes may be borrowed by other tasks and are initialized with the configuration they are pooled
+         * by, so the change is not pushed into them : the next batch borrows from the pool of the new configuration,
+         * whose runtimes are initialized with it.
          */
         if (initDone)
         {
-            if (useScriptFile)
-            {
-                /**
-                 * pyProcessor.onPropertyModified(context, oldValue, newValue)
-                 */
-                pythonInterpreter.set("descriptor", descriptor);
-                pythonInterpreter.set("oldValue", oldValue);
-                pythonInterpreter.set("newValue", newValue);
-                pythonInterpreter.exec("pyProcessor.onPropertyModified(context, oldValue, newValue)");
-            } else
-            {
-                // TODO
-                logger.warn("Dynamic update of configuration properties is not supported when not using python"
-                        + " script file");
-            }
+            runtimePool = null;
         }
     }
     
@@ -25,3 +25,6 @@ class AbstractProcessor:
     def process(self, context, records):
         """ generated source for method process """
 
+    def processRecord(self, context, record):
+        """ called for each record instead of process when the process.mode of the java processor is record """
+        return self.process(context, [record])
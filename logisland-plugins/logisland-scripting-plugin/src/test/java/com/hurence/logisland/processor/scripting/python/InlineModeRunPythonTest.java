@@ -15,6 +15,7 @@
  */
 package com.hurence.logisland.processor.scripting.python;
 
+import com.hurence.logisland.record.FieldDictionary;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.record.StandardRecord;
 import com.hurence.logisland.util.runner.MockRecord;
@@ -46,6 +47,16 @@ public class InlineModeRunPythonTest {
             INDENT + "    copyRecord.setStringField('python_field', 'python_field_value')\n" +
             INDENT + "    outputRecords.append(copyRecord)\n" +
             INDENT + "return outputRecords";
+
+    private static final String CODE_PROCESS_RECORD =
+            INDENT + "value = record.getField(\"java_field\").getRawValue()\n" +
+            INDENT + "if value == \"drop\":\n" +
+            INDENT + "    return None\n" +
+            INDENT + "if value == \"fail\":\n" +
+            INDENT + "    raise ValueError(\"cannot process \" + record.getId())\n" +
+            INDENT + "copyRecord = StandardRecord(record)\n" +
+            INDENT + "copyRecord.setStringField('python_field', 'python_field_value')\n" +
+            INDENT + "return copyRecord";
     
     @Test
     public void testSimple() {
@@ -69,4 +80,33 @@ public class InlineModeRunPythonTest {
         out.assertRecordSizeEquals(2);
     }
 
+    @Test
+    public void testRecordMode() {
+        final TestRunner testRunner = TestRunners.newTestRunner(new RunPython());
+        testRunner.setProperty(RunPython.SCRIPT_CODE_PROCESS, CODE_PROCESS_RECORD);
+        testRunner.setProperty(RunPython.PROCESS_MODE, "record");
+        testRunner.assertValid();
+
+        final String[] values = {"java_field_value", "drop", "fail", "java_field_value"};
+        for (int i = 0; i < values.length; i++) {
+            Record record = new StandardRecord("simple_record");
+            record.setId("id" + i);
+            record.setStringField("java_field", values[i]);
+            testRunner.enqueue(record);
+        }
+        testRunner.clearQueues();
+        testRunner.run();
+        testRunner.assertAllInputRecordsProcessed();
+        // the dropped record is not in the output, the failed one only fails itself
+        testRunner.assertOutputRecordsCount(3);
+        testRunner.assertOutputErrorCount(1);
+
+        MockRecord out = testRunner.getOutputRecords().get(0);
+        out.assertFieldEquals("python_field", "python_field_value");
+        MockRecord failed = testRunner.getOutputRecords().get(1);
+        failed.assertFieldEquals("java_field", "fail");
+        failed.assertFieldExists(FieldDictionary.RECORD_ERRORS);
+        testRunner.getOutputRecords().get(2).assertFieldEquals("python_field", "python_field_value");
+    }
+
 }
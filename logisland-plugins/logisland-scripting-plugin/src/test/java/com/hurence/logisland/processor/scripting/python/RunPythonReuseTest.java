@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.processor.scripting.python;
+
+import com.hurence.logisland.processor.ProcessContext;
+import com.hurence.logisland.processor.StandardProcessContext;
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.record.StandardRecord;
+import com.hurence.logisland.util.runner.TestRunner;
+import com.hurence.logisland.util.runner.TestRunners;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Check that python interpreters are reused when processors running the same script are initialized again, as the
+ * Spark engines do for every partition of every micro-batch.
+ */
+public class RunPythonReuseTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final String PYTHON_PROCESSOR = "./src/main/python/processors/basic/BasicProcessor.py";
+
+    private static final int BATCHES = 3;
+
+    private static final String CODE_PROCESS =
+            "outputRecords = []\n" +
+            "for record in records:\n" +
+            "    copyRecord = StandardRecord(record)\n" +
+            "    copyRecord.setStringField('reuse_field', 'reuse_field_value')\n" +
+            "    outputRecords.append(copyRecord)\n" +
+            "return outputRecords";
+
+    @Test
+    public void testInlineRuntimeReused() {
+        runBatches(() -> {
+            final TestRunner testRunner = TestRunners.newTestRunner(new RunPython());
+            testRunner.setProperty(RunPython.SCRIPT_CODE_PROCESS, CODE_PROCESS);
+            return testRunner;
+        });
+    }
+
+    @Test
+    public void testFileRuntimeReused() {
+        runBatches(() -> {
+            final TestRunner testRunner = TestRunners.newTestRunner(new RunPython());
+            testRunner.setProperty(RunPython.SCRIPT_PATH, PYTHON_PROCESSOR);
+            return testRunner;
+        });
+    }
+
+    @Test
+    public void testRuntimesNotSharedAcrossProcessors() throws Exception {
+        final PythonScript script = new PythonScript(null, null, CODE_PROCESS, null, null, null, null, false);
+
+        final PythonRuntimePool pool = PythonRuntimePool.get(script, newContext("first", null));
+        Assert.assertSame(pool, PythonRuntimePool.get(script, newContext("first", null)));
+        Assert.assertNotSame(pool, PythonRuntimePool.get(script, newContext("second", null)));
+        Assert.assertNotSame(pool, PythonRuntimePool.get(script, newContext("first", "batch")));
+    }
+
+    private static ProcessContext newContext(String identifier, String processMode) {
+        final ProcessContext context = new StandardProcessContext(new RunPython(), identifier);
+        context.setProperty(RunPython.SCRIPT_CODE_PROCESS.getName(), CODE_PROCESS);
+        if (processMode != null) {
+            context.setProperty(RunPython.PROCESS_MODE.getName(), processMode);
+        }
+        return context;
+    }
+
+    @Test
+    public void testModifiedScriptFileChangesKey() throws Exception {
+        final File scriptFile = temporaryFolder.newFile("Processor.py");
+        Files.write(scriptFile.toPath(), "# version 1\n".getBytes(StandardCharsets.UTF_8));
+        final String key = new PythonScript(null, null, null, scriptFile.getAbsolutePath(), "Processor", null, null, false).getKey();
+        Assert.assertEquals(key, new PythonScript(null, null, null, scriptFile.getAbsolutePath(), "Processor", null, null, false).getKey());
+
+        Files.write(scriptFile.toPath(), "# version 2, longer\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertNotEquals(key, new PythonScript(null, null, null, scriptFile.getAbsolutePath(), "Processor", null, null, false).getKey());
+    }
+
+    private interface TestRunnerFactory {
+        TestRunner create();
+    }
+
+    /**
+     * Every batch goes through a new processor instance, initialized from scratch.
+     */
+    private void runBatches(TestRunnerFactory factory) {
+        final long createdBefore = PythonRuntimePool.getCreatedRuntimesCount();
+
+        for (int i = 0; i < BATCHES; i++) {
+            final TestRunner testRunner = factory.create();
+            testRunner.assertValid();
+            for (int j = 0; j < 100; j++) {
+                Record record = new StandardRecord("simple_record");
+                record.setStringField("java_field", "java_field_value");
+                testRunner.enqueue(record);
+            }
+            testRunner.run();
+            testRunner.assertAllInputRecordsProcessed();
+            testRunner.assertOutputRecordsCount(100);
+            testRunner.assertOutputErrorCount(0);
+        }
+
+        // one runtime at most, none if a previous test already warmed one for the same script
+        Assert.assertTrue(PythonRuntimePool.getCreatedRuntimesCount() - createdBefore <= 1);
+    }
+}
@@ -21,6 +21,10 @@ import com.hurence.logisland.component.PropertyDescriptor;
 import com.hurence.logisland.controller.ControllerService;
 import com.hurence.logisland.validator.StandardValidators;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Created by gregoire on 19/05/17.
  */
@@ -50,4 +54,30 @@ public interface CacheService<K,V> extends ControllerService {
      * @param v
      */
     public void set(K k, V v);
+
+    /**
+     * Get several elements from the cache at once
+     * @param keys
+     * @return the cached elements keyed by their key, missing keys are absent from the map
+     */
+    default Map<K, V> getAll(Collection<K> keys) {
+        final Map<K, V> result = new HashMap<>();
+        for (K k : keys) {
+            final V v = get(k);
+            if (v != null) {
+                result.put(k, v);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Save several elements into the cache at once
+     * @param entries
+     */
+    default void setAll(Map<K, V> entries) {
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            set(entry.getKey(), entry.getValue());
+        }
+    }
 }
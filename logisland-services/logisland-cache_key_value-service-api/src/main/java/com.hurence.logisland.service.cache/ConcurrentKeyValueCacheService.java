@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.service.cache;
+
+import com.hurence.logisland.annotation.documentation.CapabilityDescription;
+import com.hurence.logisland.annotation.documentation.Tags;
+import com.hurence.logisland.annotation.lifecycle.OnEnabled;
+import com.hurence.logisland.component.InitializationException;
+import com.hurence.logisland.component.PropertyDescriptor;
+import com.hurence.logisland.controller.AbstractControllerService;
+import com.hurence.logisland.controller.ControllerServiceInitializationContext;
+import com.hurence.logisland.service.cache.model.CacheStats;
+import com.hurence.logisland.service.cache.model.ConcurrentCache;
+import com.hurence.logisland.validator.StandardValidators;
+
+import java.util.*;
+
+
+/**
+ * <p>A thread safe key value cache, unlike {@link LRUKeyValueCacheService} it can be shared
+ * by all the processors and task threads of an executor without any external synchronization.</p>
+ *
+ * <p>Elements are spread over segments guarded by their own lock and evicted with an LRU policy,
+ * optionally combined with a TinyLFU admission filter and a time to live.
+ * Hits, misses, evictions, expirations and rejections are counted and available through {@link #getStats()}.</p>
+ *
+ * @see ConcurrentCache
+ */
+@Tags({"cache", "service", "key", "value", "pair", "LRU", "LFU", "TTL", "concurrent"})
+@CapabilityDescription("A thread safe controller service for caching data by key value pair, " +
+        "with LRU or TinyLFU eviction and an optional time to live")
+public class ConcurrentKeyValueCacheService<K, V> extends AbstractControllerService implements CacheService<K, V> {
+
+    public static final String EVICTION_POLICY_LRU = "lru";
+    public static final String EVICTION_POLICY_TINY_LFU = "tiny_lfu";
+
+    public static final PropertyDescriptor CACHE_EVICTION_POLICY = new PropertyDescriptor.Builder()
+            .name("cache.eviction.policy")
+            .description("lru evicts the least recently used element, tiny_lfu also refuses new elements " +
+                    "that are requested less often than the element they would evict.")
+            .required(false)
+            .allowableValues(EVICTION_POLICY_LRU, EVICTION_POLICY_TINY_LFU)
+            .defaultValue(EVICTION_POLICY_LRU)
+            .build();
+
+    public static final PropertyDescriptor CACHE_TTL = new PropertyDescriptor.Builder()
+            .name("cache.ttl.ms")
+            .description("The number of milliseconds an element stays in the cache after being set, 0 means for ever.")
+            .required(false)
+            .defaultValue("0")
+            .addValidator(StandardValidators.createLongValidator(0, Long.MAX_VALUE, true))
+            .build();
+
+    public static final PropertyDescriptor CACHE_CONCURRENCY_LEVEL = new PropertyDescriptor.Builder()
+            .name("cache.concurrency.level")
+            .description("The expected number of threads using the cache at the same time.")
+            .required(false)
+            .defaultValue(String.valueOf(ConcurrentCache.DEFAULT_CONCURRENCY_LEVEL))
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    private volatile ConcurrentCache<K, V> cache;
+
+    @Override
+    public V get(K k) {
+        return cache.get(k);
+    }
+
+    @Override
+    public void set(K k, V v) {
+        cache.set(k, v);
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) {
+        return cache.getAll(keys);
+    }
+
+    @Override
+    public void setAll(Map<K, V> entries) {
+        cache.setAll(entries);
+    }
+
+    /**
+     * @return a snapshot of the cache counters
+     */
+    public CacheStats getStats() {
+        return cache.getStats();
+    }
+
+    @Override
+    @OnEnabled
+    public void init(ControllerServiceInitializationContext context) throws InitializationException {
+        try {
+            this.cache = createCache(context);
+        } catch (Exception e) {
+            throw new InitializationException(e);
+        }
+    }
+
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        List<PropertyDescriptor> props = new ArrayList<>();
+        props.add(CACHE_SIZE);
+        props.add(CACHE_EVICTION_POLICY);
+        props.add(CACHE_TTL);
+        props.add(CACHE_CONCURRENCY_LEVEL);
+        return Collections.unmodifiableList(props);
+    }
+
+    protected ConcurrentCache<K, V> createCache(final ControllerServiceInitializationContext context) {
+        final int capacity = context.getPropertyValue(CACHE_SIZE).asInteger();
+        final ConcurrentCache.EvictionPolicy evictionPolicy =
+                EVICTION_POLICY_TINY_LFU.equals(context.getPropertyValue(CACHE_EVICTION_POLICY).asString()) ?
+                        ConcurrentCache.EvictionPolicy.TINY_LFU : ConcurrentCache.EvictionPolicy.LRU;
+        final long timeToLive = context.getPropertyValue(CACHE_TTL).asLong();
+        final int concurrencyLevel = context.getPropertyValue(CACHE_CONCURRENCY_LEVEL).asInteger();
+        return new ConcurrentCache<>(capacity, evictionPolicy, timeToLive, concurrencyLevel);
+    }
+}
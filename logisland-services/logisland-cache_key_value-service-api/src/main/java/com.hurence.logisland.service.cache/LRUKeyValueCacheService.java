@@ -57,6 +57,16 @@ public class LRUKeyValueCacheService<K,V>  extends AbstractControllerService imp
         cache.set(k, v);
     }
 
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) {
+        return cache.getAll(keys);
+    }
+
+    @Override
+    public void setAll(Map<K, V> entries) {
+        cache.setAll(entries);
+    }
+
     @Override
     @OnEnabled
     public void init(ControllerServiceInitializationContext context) throws InitializationException {
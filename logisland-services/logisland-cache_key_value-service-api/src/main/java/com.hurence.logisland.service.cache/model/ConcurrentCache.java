@@ -0,0 +1,329 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.service.cache.model;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+
+/**
+ * <p>A thread safe bounded cache that can be shared by all the tasks of an executor.</p>
+ *
+ * <p>Keys are spread over independent segments, each one being an access ordered {@link LinkedHashMap}
+ * guarded by its own lock, so that threads working on different segments never wait for each other.
+ * The number of segments is the power of 2 closest to the requested concurrency level, reduced when
+ * the capacity is too small for each segment to hold at least 64 elements. Eviction is done per segment.</p>
+ *
+ * <p>Two eviction policies are available :</p>
+ * <ul>
+ * <li>LRU : the least recently used element of the segment is evicted to make room for a new one</li>
+ * <li>TINY_LFU : the access frequency of every key is tracked in a {@link FrequencySketch}, a new element
+ * only replaces the least recently used one if it has been requested more often, otherwise it is not cached.
+ * This keeps the hot keys in the cache when a burst of one time keys goes through it</li>
+ * </ul>
+ *
+ * <p>When a time to live is given, expired elements are dropped lazily, when they are read
+ * or when they reach the eviction end of their segment.</p>
+ *
+ * @see CacheStats
+ */
+public class ConcurrentCache<K, V> implements Cache<K, V> {
+
+    public enum EvictionPolicy {
+        LRU, TINY_LFU
+    }
+
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long timeToLiveMillis;
+    private final LongSupplier clock;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+    private final LongAdder rejectionCount = new LongAdder();
+
+    public ConcurrentCache(int capacity) {
+        this(capacity, EvictionPolicy.LRU, 0L, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param capacity         the maximum number of elements in the cache
+     * @param evictionPolicy   how to make room for new elements
+     * @param timeToLiveMillis how long an element stays in the cache after being set, 0 for ever
+     * @param concurrencyLevel the expected number of threads using the cache at the same time
+     */
+    public ConcurrentCache(int capacity, EvictionPolicy evictionPolicy, long timeToLiveMillis, int concurrencyLevel) {
+        this(capacity, evictionPolicy, timeToLiveMillis, concurrencyLevel, System::currentTimeMillis);
+    }
+
+    @SuppressWarnings("unchecked")
+    ConcurrentCache(int capacity, EvictionPolicy evictionPolicy, long timeToLiveMillis, int concurrencyLevel,
+                    LongSupplier clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        if (timeToLiveMillis < 0) {
+            throw new IllegalArgumentException("time to live can't be negative: " + timeToLiveMillis);
+        }
+
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && (long) segmentCount * 2 * MIN_SEGMENT_CAPACITY <= capacity) {
+            segmentCount <<= 1;
+        }
+
+        this.segments = new ConcurrentCache.Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.clock = clock;
+
+        for (int i = 0; i < segmentCount; i++) {
+            final int segmentCapacity = capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0);
+            segments[i] = new Segment(segmentCapacity, evictionPolicy == EvictionPolicy.TINY_LFU);
+        }
+    }
+
+    @Override
+    public V get(K k) {
+        final int hash = spread(k);
+        return segments[hash & segmentMask].get(k, hash, now());
+    }
+
+    @Override
+    public void set(K k, V v) {
+        final int hash = spread(k);
+        segments[hash & segmentMask].set(k, v, hash, now());
+    }
+
+    /**
+     * Get several elements, locking each segment only once
+     */
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) {
+        final Map<K, V> result = new HashMap<>();
+        final long now = now();
+        forEachSegment(keys, k -> k, (segment, segmentKeys) -> segment.getAll(segmentKeys, result, now));
+        return result;
+    }
+
+    /**
+     * Save several elements, locking each segment only once
+     */
+    @Override
+    public void setAll(Map<K, V> entries) {
+        final long now = now();
+        forEachSegment(entries.entrySet(), Map.Entry::getKey,
+                (segment, segmentEntries) -> segment.setAll(segmentEntries, now));
+    }
+
+    /**
+     * @return the number of elements currently in the cache, including expired ones not dropped yet
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return a snapshot of the cache counters
+     */
+    public CacheStats getStats() {
+        return new CacheStats(
+                hitCount.sum(),
+                missCount.sum(),
+                evictionCount.sum(),
+                expirationCount.sum(),
+                rejectionCount.sum());
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    private <T> void forEachSegment(Collection<T> items,
+                                    Function<T, K> keyOf,
+                                    BiConsumer<Segment, List<T>> action) {
+        if (segments.length == 1) {
+            action.accept(segments[0], new ArrayList<>(items));
+            return;
+        }
+        final List<List<T>> itemsBySegment = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            itemsBySegment.add(null);
+        }
+        for (T item : items) {
+            final int index = spread(keyOf.apply(item)) & segmentMask;
+            List<T> segmentItems = itemsBySegment.get(index);
+            if (segmentItems == null) {
+                segmentItems = new ArrayList<>();
+                itemsBySegment.set(index, segmentItems);
+            }
+            segmentItems.add(item);
+        }
+        for (int i = 0; i < segments.length; i++) {
+            final List<T> segmentItems = itemsBySegment.get(i);
+            if (segmentItems != null) {
+                action.accept(segments[i], segmentItems);
+            }
+        }
+    }
+
+    /**
+     * the clock is only read when elements can expire
+     */
+    private long now() {
+        return timeToLiveMillis > 0 ? clock.getAsLong() : 0L;
+    }
+
+    private static int spread(Object key) {
+        final int h = key == null ? 0 : key.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expirationTime;
+
+        Entry(V value, long expirationTime) {
+            this.value = value;
+            this.expirationTime = expirationTime;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expirationTime;
+        }
+    }
+
+    private final class Segment extends ReentrantLock {
+
+        private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+        private final FrequencySketch sketch;
+
+        Segment(int capacity, boolean admission) {
+            this.capacity = capacity;
+            this.sketch = admission ? new FrequencySketch(capacity) : null;
+        }
+
+        V get(K k, int hash, long now) {
+            lock();
+            try {
+                return getLocked(k, hash, now);
+            } finally {
+                unlock();
+            }
+        }
+
+        void set(K k, V v, int hash, long now) {
+            lock();
+            try {
+                setLocked(k, v, hash, now);
+            } finally {
+                unlock();
+            }
+        }
+
+        void getAll(List<K> keys, Map<K, V> result, long now) {
+            lock();
+            try {
+                for (K k : keys) {
+                    final V v = getLocked(k, spread(k), now);
+                    if (v != null) {
+                        result.put(k, v);
+                    }
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        void setAll(List<Map.Entry<K, V>> entries, long now) {
+            lock();
+            try {
+                for (Map.Entry<K, V> entry : entries) {
+                    setLocked(entry.getKey(), entry.getValue(), spread(entry.getKey()), now);
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        int size() {
+            lock();
+            try {
+                return map.size();
+            } finally {
+                unlock();
+            }
+        }
+
+        private V getLocked(K k, int hash, long now) {
+            if (sketch != null) {
+                sketch.increment(hash);
+            }
+            final Entry<V> entry = map.get(k);
+            if (entry == null) {
+                missCount.increment();
+                return null;
+            }
+            if (entry.isExpired(now)) {
+                map.remove(k);
+                expirationCount.increment();
+                missCount.increment();
+                return null;
+            }
+            hitCount.increment();
+            return entry.value;
+        }
+
+        private void setLocked(K k, V v, int hash, long now) {
+            if (sketch != null) {
+                sketch.increment(hash);
+            }
+            final long expirationTime = timeToLiveMillis > 0 ? now + timeToLiveMillis : Long.MAX_VALUE;
+            final Entry<V> entry = new Entry<>(v, expirationTime);
+            if (map.size() < capacity || map.containsKey(k)) {
+                map.put(k, entry);
+                return;
+            }
+
+            // the segment is full, the least recently used element is the eviction candidate
+            final Iterator<Map.Entry<K, Entry<V>>> iterator = map.entrySet().iterator();
+            final Map.Entry<K, Entry<V>> eldest = iterator.next();
+            if (eldest.getValue().isExpired(now)) {
+                expirationCount.increment();
+            } else if (sketch != null && sketch.frequency(hash) <= sketch.frequency(spread(eldest.getKey()))) {
+                rejectionCount.increment();
+                return;
+            } else {
+                evictionCount.increment();
+            }
+            iterator.remove();
+            map.put(k, entry);
+        }
+    }
+}
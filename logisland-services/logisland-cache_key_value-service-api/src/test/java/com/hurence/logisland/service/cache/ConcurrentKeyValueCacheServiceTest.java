@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.service.cache;
+
+import com.hurence.logisland.component.InitializationException;
+import com.hurence.logisland.controller.ControllerServiceInitializationContext;
+import com.hurence.logisland.service.cache.model.ConcurrentCache;
+import com.hurence.logisland.util.runner.TestRunner;
+import com.hurence.logisland.util.runner.TestRunners;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrentKeyValueCacheServiceTest {
+
+    @Test
+    public void testCache() throws InitializationException {
+
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+
+        // create the controller service and link it to the test processor
+        final ConcurrentKeyValueCacheService<String, String> service = new MockCacheService<>(3);
+        runner.addControllerService("concurrentCache", service);
+        runner.enableControllerService(service);
+        runner.setProperty(TestProcessor.CACHE_SERVICE, "concurrentCache");
+        runner.assertValid(service);
+
+        final CacheService<String, String> cacheService = runner.getProcessContext()
+                .getPropertyValue(TestProcessor.CACHE_SERVICE)
+                .asControllerService(CacheService.class);
+
+        final Map<String, String> entries = new HashMap<>();
+        entries.put("1", "1");
+        entries.put("2", "2");
+        cacheService.setAll(entries);
+        cacheService.set("3", "3");
+        assertEquals("1", cacheService.get("1"));
+        cacheService.set("4", "4");
+
+        final Map<String, String> found = cacheService.getAll(Arrays.asList("1", "2", "3", "4"));
+        assertEquals(3, found.size());
+        assertEquals(null, found.get("2"));
+        assertEquals("4", found.get("4"));
+
+        assertEquals(1, service.getStats().getEvictionCount());
+        assertEquals(4, service.getStats().getHitCount());
+        assertEquals(1, service.getStats().getMissCount());
+    }
+
+    private class MockCacheService<K, V> extends ConcurrentKeyValueCacheService<K, V> {
+
+        private int cacheSize;
+
+        public MockCacheService(final int cacheSize) {
+            this.cacheSize = cacheSize;
+        }
+
+        @Override
+        protected ConcurrentCache<K, V> createCache(ControllerServiceInitializationContext context) {
+            return new ConcurrentCache<>(cacheSize);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.service.cache.model;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentCacheTest {
+
+    private static Logger logger = LoggerFactory.getLogger(ConcurrentCacheTest.class);
+
+    @Test
+    public void testLruEviction() {
+        final ConcurrentCache<String, String> cache = new ConcurrentCache<>(3);
+        assertEquals(1, cache.getSegmentCount());
+
+        cache.set("1", "1");
+        cache.set("2", "2");
+        cache.set("3", "3");
+        assertEquals("1", cache.get("1"));
+        cache.set("4", "4");
+
+        assertNull(cache.get("2"));
+        assertEquals("1", cache.get("1"));
+        assertEquals("3", cache.get("3"));
+        assertEquals("4", cache.get("4"));
+        assertEquals(3, cache.size());
+
+        final CacheStats stats = cache.getStats();
+        assertEquals(4, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getEvictionCount());
+    }
+
+    @Test
+    public void testSegmentsHoldTheWholeCapacity() {
+        final ConcurrentCache<Integer, Integer> cache =
+                new ConcurrentCache<>(1000, ConcurrentCache.EvictionPolicy.LRU, 0L, 16);
+        assertEquals(8, cache.getSegmentCount());
+
+        for (int i = 0; i < 10000; i++) {
+            cache.set(i, i);
+        }
+        assertEquals(1000, cache.size());
+        assertEquals(9000, cache.getStats().getEvictionCount());
+    }
+
+    @Test
+    public void testTimeToLive() {
+        final AtomicLong now = new AtomicLong(1000L);
+        final ConcurrentCache<String, String> cache =
+                new ConcurrentCache<>(2, ConcurrentCache.EvictionPolicy.LRU, 100L, 1, now::get);
+
+        cache.set("1", "1");
+        now.addAndGet(50);
+        cache.set("2", "2");
+        assertEquals("1", cache.get("1"));
+
+        now.addAndGet(60);
+        assertNull(cache.get("1"));
+        assertEquals("2", cache.get("2"));
+
+        // the expired element makes room without counting as an eviction
+        cache.set("3", "3");
+        now.addAndGet(50);
+        cache.set("4", "4");
+        assertNull(cache.get("2"));
+        assertEquals("3", cache.get("3"));
+        assertEquals("4", cache.get("4"));
+
+        final CacheStats stats = cache.getStats();
+        assertEquals(0, stats.getEvictionCount());
+        assertEquals(2, stats.getExpirationCount());
+        assertEquals(2, stats.getMissCount());
+    }
+
+    @Test
+    public void testTinyLfuKeepsHotKeys() {
+        final ConcurrentCache<String, String> cache =
+                new ConcurrentCache<>(100, ConcurrentCache.EvictionPolicy.TINY_LFU, 0L, 1);
+
+        for (int i = 0; i < 100; i++) {
+            cache.set("hot" + i, "hot" + i);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals("hot" + i, cache.get("hot" + i));
+            }
+        }
+
+        // a scan of keys seen only once must not flush the cache
+        for (int i = 0; i < 100; i++) {
+            assertNull(cache.get("cold" + i));
+            cache.set("cold" + i, "cold" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("hot" + i, cache.get("hot" + i));
+        }
+        assertEquals(100, cache.getStats().getRejectionCount());
+
+        // a key requested often enough is finally admitted
+        for (int i = 0; i < 10; i++) {
+            cache.get("cold0");
+        }
+        cache.set("cold0", "cold0");
+        assertEquals("cold0", cache.get("cold0"));
+        assertEquals(1, cache.getStats().getEvictionCount());
+    }
+
+    @Test
+    public void testBulkOperations() {
+        final ConcurrentCache<Integer, String> cache =
+                new ConcurrentCache<>(1024, ConcurrentCache.EvictionPolicy.LRU, 0L, 8);
+
+        final Map<Integer, String> entries = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            entries.put(i, "value" + i);
+        }
+        cache.setAll(entries);
+        assertEquals(500, cache.size());
+
+        final List<Integer> keys = new ArrayList<>();
+        for (int i = 400; i < 600; i++) {
+            keys.add(i);
+        }
+        final Map<Integer, String> found = cache.getAll(keys);
+        assertEquals(100, found.size());
+        for (int i = 400; i < 500; i++) {
+            assertEquals("value" + i, found.get(i));
+        }
+
+        final CacheStats stats = cache.getStats();
+        assertEquals(100, stats.getHitCount());
+        assertEquals(100, stats.getMissCount());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentCache<Integer, Integer> cache =
+                new ConcurrentCache<>(1000, ConcurrentCache.EvictionPolicy.TINY_LFU, 0L, 16);
+        final int threads = 8;
+        final int operations = 100000;
+
+        runConcurrently(threads, operations, key -> {
+            final Integer value = cache.get(key);
+            if (value == null) {
+                cache.set(key, key);
+            } else {
+                assertEquals(key, value);
+            }
+        });
+
+        final CacheStats stats = cache.getStats();
+        assertEquals((long) threads * operations, stats.getHitCount() + stats.getMissCount());
+        assertTrue(cache.size() <= 1000);
+    }
+
+    /**
+     * compare the concurrent cache with the LRUCache used by LRUKeyValueCacheService,
+     * which has to be synchronized to be shared by several threads
+     */
+    @Ignore("benchmark, only logs timings")
+    @Test
+    public void testContentionAgainstLRUCache() throws Exception {
+        final int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        final int operations = 200000;
+        final int capacity = 10000;
+
+        final LRUCache<Integer, Integer> lruCache = new LRUCache<>(capacity);
+        final ConcurrentCache<Integer, Integer> lruConcurrentCache =
+                new ConcurrentCache<>(capacity, ConcurrentCache.EvictionPolicy.LRU, 0L, 16);
+        final ConcurrentCache<Integer, Integer> tinyLfuConcurrentCache =
+                new ConcurrentCache<>(capacity, ConcurrentCache.EvictionPolicy.TINY_LFU, 0L, 16);
+
+        for (int run = 0; run < 3; run++) {
+            final long synchronizedLru = runConcurrently(threads, operations, key -> {
+                synchronized (lruCache) {
+                    if (lruCache.get(key) == null) {
+                        lruCache.set(key, key);
+                    }
+                }
+            });
+            final long concurrentLru = runConcurrently(threads, operations, key -> {
+                if (lruConcurrentCache.get(key) == null) {
+                    lruConcurrentCache.set(key, key);
+                }
+            });
+            final long concurrentTinyLfu = runConcurrently(threads, operations, key -> {
+                if (tinyLfuConcurrentCache.get(key) == null) {
+                    tinyLfuConcurrentCache.set(key, key);
+                }
+            });
+            logger.info("{} threads x {} operations : synchronized LRUCache {} ms, " +
+                            "ConcurrentCache LRU {} ms, ConcurrentCache TinyLFU {} ms",
+                    threads, operations, synchronizedLru, concurrentLru, concurrentTinyLfu);
+        }
+        logger.info("LRU {}, hit rate {}", lruConcurrentCache.getStats(), lruConcurrentCache.getStats().getHitRate());
+        logger.info("TinyLFU {}, hit rate {}", tinyLfuConcurrentCache.getStats(), tinyLfuConcurrentCache.getStats().getHitRate());
+    }
+
+    private interface KeyAction {
+        void apply(Integer key);
+    }
+
+    /**
+     * run the action on skewed random keys from several threads
+     *
+     * @return the elapsed time in millis
+     */
+    private static long runConcurrently(int threads, int operations, KeyAction action) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final long seed = t;
+                futures.add(executor.submit(() -> {
+                    final Random random = new Random(seed);
+                    start.await();
+                    for (int i = 0; i < operations; i++) {
+                        // most requests go to a small set of keys
+                        final int key = random.nextInt(4) == 0 ? random.nextInt(100000) : random.nextInt(2000);
+                        action.apply(key);
+                    }
+                    return null;
+                }));
+            }
+            final long startTime = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -21,8 +21,10 @@ import com.hurence.logisland.annotation.documentation.Tags;
 import com.hurence.logisland.component.AllowableValue;
 import com.hurence.logisland.component.PropertyDescriptor;
 import com.hurence.logisland.controller.ControllerService;
+import com.hurence.logisland.service.elasticsearch.bulk.BulkResultHandler;
 import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetQueryRecord;
 import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResponseRecord;
+import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResult;
 import com.hurence.logisland.record.Record;
 import com.hurence.logisland.validator.StandardValidators;
 import com.hurence.logisland.validator.ValidationResult;
@@ -30,9 +32,11 @@ import com.hurence.logisland.validator.Validator;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 
 @Tags({"elasticsearch", "client"})
@@ -115,6 +119,46 @@ public interface ElasticsearchClientService extends ControllerService {
             .defaultValue("2")
             .build();
 
+    PropertyDescriptor BULK_TARGET_LATENCY = new PropertyDescriptor.Builder()
+            .name("bulk.target.latency.ms")
+            .description("The bulk latency in ms above which the number of concurrent requests and the bulk size are " +
+                    "reduced, they are reduced anyway when documents are rejected by the cluster and grow back up to " +
+                    "concurrent.requests and batch.size while bulks are fast enough. 0 to only adapt to rejections")
+            .required(false)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .defaultValue("0")
+            .build();
+
+    ///////////////////////////////////
+    // Properties of multiget queries //
+    ///////////////////////////////////
+
+    PropertyDescriptor MULTIGET_MAX_IDS_PER_REQUEST = new PropertyDescriptor.Builder()
+            .name("multiget.max.ids.per.request")
+            .description("The maximum number of document ids sent to elasticsearch in a single multiget request, " +
+                    "bigger multiget queries are split into several sub-requests")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("1000")
+            .build();
+
+    PropertyDescriptor MULTIGET_CONCURRENT_REQUESTS = new PropertyDescriptor.Builder()
+            .name("multiget.concurrent.requests")
+            .description("The maximum number of multiget sub-requests of a single query in flight at the same time")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("4")
+            .build();
+
+    PropertyDescriptor MULTIGET_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("multiget.timeout.ms")
+            .description("The maximum time in ms a synchronous multiget waits for its sub-requests, the documents " +
+                    "not fetched by then are left out of the result")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("30000")
+            .build();
+
     //////////////////////
     // Other properties //
     //////////////////////
@@ -220,13 +264,27 @@ public interface ElasticsearchClientService extends ControllerService {
     void flushBulkProcessor();
 
     /**
-     * Get a list of documents based on their index, type and id.
+     * Get a list of documents based on their index, type and id, waiting at most multiget.timeout.ms for them.
      *
      * @param multiGetQueryRecords list of MultiGetQueryRecord to fetch
      * @return the list of fetched MultiGetResponseRecord records
      */
     List<MultiGetResponseRecord> multiGet(List<MultiGetQueryRecord> multiGetQueryRecords);
 
+    /**
+     * Get a list of documents based on their index, type and id without blocking the caller.
+     * <p>
+     * The returned future is completed once every sub-request is done, it is never completed exceptionally :
+     * documents that could not be fetched are reported as failures of the result.
+     * </p>
+     *
+     * @param multiGetQueryRecords list of MultiGetQueryRecord to fetch
+     * @return a future of the fetched documents and of the failed ones
+     */
+    default CompletableFuture<MultiGetResult> multiGetAsync(List<MultiGetQueryRecord> multiGetQueryRecords) {
+        return CompletableFuture.completedFuture(new MultiGetResult(multiGet(multiGetQueryRecords)));
+    }
+
     /**
      * Put a given document in elasticsearch bulk processor.
      *
@@ -245,6 +303,51 @@ public interface ElasticsearchClientService extends ControllerService {
      */
     void bulkPut(String docIndex, String docType, Map<String, ?> document, Optional<String> OptionalId);
 
+    /**
+     * Put a given record in elasticsearch bulk processor. Implementations should write the record
+     * straight to the bytes of the document, the default one goes through {@link #convertRecordToString(Record)}.
+     *
+     * @param docIndex index name
+     * @param docType type name
+     * @param record record to index
+     */
+    default void bulkPut(String docIndex, String docType, Record record, Optional<String> OptionalId) {
+        bulkPut(docIndex, docType, convertRecordToString(record), OptionalId);
+    }
+
+    /**
+     * Put a given record in elasticsearch bulk processor and get notified once it is indexed or has failed.
+     * Implementations notify the handler from the bulk processor threads when the bulk response is received,
+     * the default one cannot tell the outcome and acknowledges the record as soon as it is added to the bulk.
+     * Implementations telling the outcome fail the records without id, which cannot be matched against the response.
+     *
+     * @param docIndex index name
+     * @param docType type name
+     * @param record record to index
+     * @param handler handler notified of the outcome of the indexation
+     */
+    default void bulkPut(String docIndex, String docType, Record record, Optional<String> OptionalId,
+                         BulkResultHandler handler) {
+        bulkPut(docIndex, docType, record, OptionalId);
+        handler.onSuccess(record);
+    }
+
+    /**
+     * Stop notifying the given handler of the outcome of the records put with it, once the caller has given up
+     * waiting for them. Implementations tracking the pending records drop them.
+     *
+     * @param handler handler the records were put with
+     */
+    default void discardBulkResults(BulkResultHandler handler) {
+    }
+
+    /**
+     * Get the latency metrics and document counters of the bulks sent since the previous call and reset them.
+     */
+    default Map<String, Number> drainBulkMetrics() {
+        return Collections.emptyMap();
+    }
+
     /**
      * Return true if the specified index exists (also true if the name is an alias to an index).
      */
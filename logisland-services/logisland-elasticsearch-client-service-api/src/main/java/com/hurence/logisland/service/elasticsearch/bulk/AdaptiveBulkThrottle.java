@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.service.elasticsearch.bulk;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of concurrent bulk requests and the number of documents per bulk according to how the
+ * cluster copes with them. Both limits grow additively after each bulk answered in time without rejections,
+ * and are halved when documents are rejected because the cluster is overloaded or when a bulk takes longer
+ * than the target latency. Also gathers the bulk latency and document counters, rates are left to the reader of
+ * the metrics as the throttle is shared by processors draining it at their own pace.
+ */
+public class AdaptiveBulkThrottle {
+
+    private final int maxConcurrentRequests;
+    private final int maxBulkActions;
+    private final long targetLatencyMs;
+
+    // guarded by this
+    private int concurrentRequests;
+    private int runningRequests = 0;
+
+    private volatile int bulkActions;
+
+    private final LongAdder bulkRequests = new LongAdder();
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder failedDocuments = new LongAdder();
+    private final LongAdder rejectedDocuments = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * @param maxConcurrentRequests the configured number of concurrent bulk requests
+     * @param maxBulkActions the configured number of documents per bulk
+     * @param targetLatencyMs the bulk latency above which limits are reduced, 0 to only react to rejections
+     */
+    public AdaptiveBulkThrottle(int maxConcurrentRequests, int maxBulkActions, long targetLatencyMs) {
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        this.maxBulkActions = Math.max(1, maxBulkActions);
+        this.targetLatencyMs = targetLatencyMs;
+        this.concurrentRequests = this.maxConcurrentRequests;
+        this.bulkActions = this.maxBulkActions;
+    }
+
+    /**
+     * Called before a bulk is sent, blocks while the current number of concurrent requests is reached.
+     * The bulk is sent anyway if the thread is interrupted.
+     */
+    public synchronized void acquire() {
+        boolean interrupted = false;
+        while (runningRequests >= concurrentRequests && !interrupted) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        runningRequests++;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called once the response of a bulk is received.
+     *
+     * @param actions the number of documents of the bulk
+     * @param failedActions the number of documents that could not be indexed
+     * @param rejectedActions the number of documents still rejected by the overloaded cluster after retries
+     * @param latencyMs the time it took to get the response
+     */
+    public void release(int actions, int failedActions, int rejectedActions, long latencyMs) {
+        rejectedDocuments.add(rejectedActions);
+        release(actions, failedActions, latencyMs, rejectedActions > 0);
+    }
+
+    /**
+     * Called when a whole bulk failed, which is taken as a sign that the cluster is overloaded.
+     *
+     * @param actions the number of documents of the bulk
+     * @param latencyMs the time it took to fail
+     */
+    public void releaseOnError(int actions, long latencyMs) {
+        release(actions, actions, latencyMs, true);
+    }
+
+    private void release(int actions, int failedActions, long latencyMs, boolean overloaded) {
+        bulkRequests.increment();
+        documents.add(actions);
+        failedDocuments.add(failedActions);
+        totalLatency.add(latencyMs);
+        maxLatency.accumulateAndGet(latencyMs, Math::max);
+
+        final boolean slow = targetLatencyMs > 0 && latencyMs > targetLatencyMs;
+        synchronized (this) {
+            runningRequests = Math.max(0, runningRequests - 1);
+            if (overloaded || slow) {
+                concurrentRequests = Math.max(1, concurrentRequests / 2);
+                bulkActions = Math.max(1, bulkActions / 2);
+            } else {
+                concurrentRequests = Math.min(maxConcurrentRequests, concurrentRequests + 1);
+                bulkActions = Math.min(maxBulkActions, bulkActions + Math.max(1, maxBulkActions / 16));
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the current number of documents after which a bulk should be sent
+     */
+    public int getBulkActions() {
+        return bulkActions;
+    }
+
+    /**
+     * @return the current number of bulk requests allowed at the same time
+     */
+    public synchronized int getConcurrentRequests() {
+        return concurrentRequests;
+    }
+
+    /**
+     * Get the bulk metrics gathered since the previous call and reset them
+     */
+    public Map<String, Number> drainMetrics() {
+        final long requests = bulkRequests.sumThenReset();
+        final long latency = totalLatency.sumThenReset();
+
+        final Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("bulk_requests", requests);
+        metrics.put("bulk_documents", documents.sumThenReset());
+        metrics.put("bulk_failed_documents", failedDocuments.sumThenReset());
+        metrics.put("bulk_rejected_documents", rejectedDocuments.sumThenReset());
+        if (requests != 0) {
+            metrics.put("bulk_latency_avg_ms", (double) latency / requests);
+        }
+        metrics.put("bulk_latency_max_ms", maxLatency.getAndSet(0));
+        metrics.put("bulk_concurrent_requests", (long) getConcurrentRequests());
+        metrics.put("bulk_actions", (long) bulkActions);
+        return metrics;
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.service.elasticsearch.bulk;
+
+import com.hurence.logisland.record.Record;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The records put in the bulk processor whose bulk response has not been received yet, along with the
+ * handler to notify. Documents are tracked by the request that indexes them, so that a bulk response is only
+ * matched against the documents of its own bulk : a late response can never notify the handler of the same
+ * document sent again in another bulk. Within a bulk, documents are matched by type and id since the items of
+ * the rejected requests that have been retried are not in the order of the bulk anymore. The index is left out
+ * as responses hold the concrete index name when documents are written to an alias.
+ */
+public class PendingBulkDocuments {
+
+    private final Map<Object, PendingDocument> documents = new IdentityHashMap<>();
+
+    public synchronized void add(Object request, String type, String id, Record record, BulkResultHandler handler) {
+        documents.put(request, new PendingDocument(type, id, record, handler));
+    }
+
+    /**
+     * Stop tracking the documents of the given requests, once the response of their bulk is received
+     *
+     * @param requests the requests of the bulk
+     * @return the documents of the bulk to notify of the outcome of the items of the response
+     */
+    public Bulk remove(Iterable<?> requests) {
+        final Bulk bulk = new Bulk();
+        synchronized (this) {
+            for (Object request : requests) {
+                final PendingDocument document = documents.remove(request);
+                if (document != null) {
+                    bulk.add(document);
+                }
+            }
+        }
+        return bulk;
+    }
+
+    /**
+     * Stop tracking the documents put with the given handler, which is not notified of their outcome anymore
+     */
+    public synchronized void remove(BulkResultHandler handler) {
+        documents.values().removeIf(document -> document.handler == handler);
+    }
+
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * The pending documents of a single bulk
+     */
+    public static final class Bulk {
+
+        private final Map<String, Deque<PendingDocument>> documents = new HashMap<>();
+
+        private void add(PendingDocument document) {
+            documents.computeIfAbsent(getKey(document.type, document.id), key -> new ArrayDeque<>(1)).add(document);
+        }
+
+        /**
+         * Notify the handler of the oldest document of the bulk with the given identifiers that it has been indexed
+         */
+        public void succeeded(String type, String id) {
+            final PendingDocument document = remove(type, id);
+            if (document != null) {
+                document.handler.onSuccess(document.record);
+            }
+        }
+
+        /**
+         * Notify the handler of the oldest document of the bulk with the given identifiers that it could not be indexed
+         */
+        public void failed(String type, String id, String failureMessage) {
+            final PendingDocument document = remove(type, id);
+            if (document != null) {
+                document.handler.onFailure(document.record, failureMessage);
+            }
+        }
+
+        /**
+         * Notify the handlers of the documents of the bulk not matched by any item that they could not be indexed
+         */
+        public void failRemaining(String failureMessage) {
+            for (Deque<PendingDocument> sameIdDocuments : documents.values()) {
+                for (PendingDocument document : sameIdDocuments) {
+                    document.handler.onFailure(document.record, failureMessage);
+                }
+            }
+            documents.clear();
+        }
+
+        private PendingDocument remove(String type, String id) {
+            final String key = getKey(type, id);
+            final Deque<PendingDocument> sameIdDocuments = documents.get(key);
+            if (sameIdDocuments == null) {
+                return null;
+            }
+
+            final PendingDocument document = sameIdDocuments.poll();
+            if (sameIdDocuments.isEmpty()) {
+                documents.remove(key);
+            }
+            return document;
+        }
+    }
+
+    private static String getKey(String type, String id) {
+        return type + '/' + id;
+    }
+
+    private static final class PendingDocument {
+
+        private final String type;
+        private final String id;
+        private final Record record;
+        private final BulkResultHandler handler;
+
+        PendingDocument(String type, String id, Record record, BulkResultHandler handler) {
+            this.type = type;
+            this.id = id;
+            this.record = record;
+            this.handler = handler;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.service.elasticsearch.multiGet;
+
+
+/**
+ * A document which could not be fetched by a multiGet query, either because its own get failed
+ * (missing index for example) or because the whole sub-request it belonged to failed.
+ */
+public class MultiGetFailureRecord {
+
+    private final String indexName;
+    private final String typeName;
+    private final String documentId;
+    private final String message;
+
+    public MultiGetFailureRecord(final String indexName, final String typeName, final String documentId, final String message) {
+        this.indexName = indexName;
+        this.typeName = typeName;
+        this.documentId = documentId;
+        this.message = message;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -25,8 +25,13 @@ public class MultiGetQueryRecord {
     private final List<String> documentIds;
     private final String[] fieldsToInclude;
     private final String[] fieldsToExclude;
+    private final String routing;
 
-    public MultiGetQueryRecord(final String indexName, final String typeName, final List<String> documentIds, final String[] fieldsToInclude, final String[] fieldsToExclude) throws InvalidMultiGetQueryRecordException {
+    /**
+     * @param routing optional routing value applied to every document id of the query, so that each of them is
+     *                only fetched from the shard the routing value points to (null to use the document id)
+     */
+    public MultiGetQueryRecord(final String indexName, final String typeName, final List<String> documentIds, final String[] fieldsToInclude, final String[] fieldsToExclude, final String routing) throws InvalidMultiGetQueryRecordException {
         if(indexName == null)
             throw new InvalidMultiGetQueryRecordException("The index name cannot be null");
         if(indexName != null && indexName.isEmpty())
@@ -38,6 +43,11 @@ public class MultiGetQueryRecord {
         this.documentIds = documentIds;
         this.fieldsToInclude = fieldsToInclude;
         this.fieldsToExclude = fieldsToExclude;
+        this.routing = routing;
+    }
+
+    public MultiGetQueryRecord(final String indexName, final String typeName, final List<String> documentIds, final String[] fieldsToInclude, final String[] fieldsToExclude) throws InvalidMultiGetQueryRecordException {
+        this(indexName, typeName, documentIds, fieldsToInclude, fieldsToExclude, null);
     }
 
     public MultiGetQueryRecord(final String indexName, final String typeName, final List<String> documentIds)  throws InvalidMultiGetQueryRecordException {
@@ -63,4 +73,8 @@ public class MultiGetQueryRecord {
     public String[] getFieldsToExclude() {
         return fieldsToExclude;
     }
+
+    public String getRouting() {
+        return routing;
+    }
 }
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.service.elasticsearch.multiGet;
+
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a multiGet query : the documents found, and the documents that could not be fetched.
+ * Documents which simply do not exist are neither in the responses nor in the failures.
+ */
+public class MultiGetResult {
+
+    private final List<MultiGetResponseRecord> responses;
+    private final List<MultiGetFailureRecord> failures;
+
+    public MultiGetResult(final List<MultiGetResponseRecord> responses, final List<MultiGetFailureRecord> failures) {
+        this.responses = responses;
+        this.failures = failures;
+    }
+
+    public MultiGetResult(final List<MultiGetResponseRecord> responses) {
+        this(responses, Collections.emptyList());
+    }
+
+    public List<MultiGetResponseRecord> getResponses() {
+        return responses;
+    }
+
+    public List<MultiGetFailureRecord> getFailures() {
+        return failures;
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+}
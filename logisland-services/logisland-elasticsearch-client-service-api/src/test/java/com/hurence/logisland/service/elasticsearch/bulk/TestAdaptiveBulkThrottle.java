@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.service.elasticsearch.bulk;
+
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.record.StandardRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class TestAdaptiveBulkThrottle {
+
+    @Test
+    public void testRejectionsReduceLimits() {
+        final AdaptiveBulkThrottle throttle = new AdaptiveBulkThrottle(8, 1000, 0);
+
+        throttle.acquire();
+        throttle.release(1000, 10, 10, 200);
+        Assert.assertEquals(4, throttle.getConcurrentRequests());
+        Assert.assertEquals(500, throttle.getBulkActions());
+
+        throttle.acquire();
+        throttle.releaseOnError(500, 200);
+        Assert.assertEquals(2, throttle.getConcurrentRequests());
+        Assert.assertEquals(250, throttle.getBulkActions());
+
+        // slow bulks are fine as long as no target latency is set
+        throttle.acquire();
+        throttle.release(250, 0, 0, 60000);
+        Assert.assertEquals(3, throttle.getConcurrentRequests());
+        Assert.assertEquals(312, throttle.getBulkActions());
+    }
+
+    @Test
+    public void testLimitsGrowBackWhileFastEnough() {
+        final AdaptiveBulkThrottle throttle = new AdaptiveBulkThrottle(4, 100, 500);
+
+        throttle.acquire();
+        throttle.release(100, 0, 0, 1000);
+        Assert.assertEquals(2, throttle.getConcurrentRequests());
+        Assert.assertEquals(50, throttle.getBulkActions());
+
+        for (int i = 0; i < 20; i++) {
+            throttle.acquire();
+            throttle.release(50, 0, 0, 100);
+        }
+        Assert.assertEquals(4, throttle.getConcurrentRequests());
+        Assert.assertEquals(100, throttle.getBulkActions());
+
+        final Map<String, Number> metrics = throttle.drainMetrics();
+        Assert.assertEquals(21L, metrics.get("bulk_requests"));
+        Assert.assertEquals(1100L, metrics.get("bulk_documents"));
+        Assert.assertEquals(1000L, metrics.get("bulk_latency_max_ms"));
+        Assert.assertEquals(0L, throttle.drainMetrics().get("bulk_requests"));
+    }
+
+    @Test(timeout = 10000)
+    public void testAcquireBlocksWhileLimitIsReached() throws InterruptedException {
+        final AdaptiveBulkThrottle throttle = new AdaptiveBulkThrottle(1, 100, 0);
+        throttle.acquire();
+
+        final Thread waiting = new Thread(throttle::acquire);
+        waiting.start();
+        waiting.join(200);
+        Assert.assertTrue(waiting.isAlive());
+
+        throttle.release(100, 0, 0, 10);
+        waiting.join();
+    }
+
+    @Test
+    public void testPendingDocumentsWithSameId() {
+        final PendingBulkDocuments pendingDocuments = new PendingBulkDocuments();
+        final List<String> outcomes = new ArrayList<>();
+        final BulkResultHandler handler = new RecordingHandler(outcomes);
+
+        final Object firstRequest = new Object();
+        final Object secondRequest = new Object();
+        pendingDocuments.add(firstRequest, "type", "id", new StandardRecord().setId("first"), handler);
+        pendingDocuments.add(secondRequest, "type", "id", new StandardRecord().setId("second"), handler);
+        Assert.assertEquals(2, pendingDocuments.size());
+
+        final PendingBulkDocuments.Bulk bulk = pendingDocuments.remove(Arrays.asList(firstRequest, secondRequest));
+        Assert.assertEquals(0, pendingDocuments.size());
+        bulk.failed("type", "id", "rejected");
+        bulk.succeeded("type", "id");
+        bulk.succeeded("type", "unknown");
+        bulk.failRemaining("no response");
+
+        Assert.assertEquals(Arrays.asList("first:rejected", "second:ok"), outcomes);
+    }
+
+    @Test
+    public void testPendingDocumentsOnlyMatchedInTheirBulk() {
+        final PendingBulkDocuments pendingDocuments = new PendingBulkDocuments();
+        final List<String> outcomes = new ArrayList<>();
+        final BulkResultHandler timedOutHandler = new RecordingHandler(outcomes);
+        final BulkResultHandler handler = new RecordingHandler(outcomes);
+
+        // a document given up on, then sent again in another bulk
+        final Object timedOutRequest = new Object();
+        pendingDocuments.add(timedOutRequest, "type", "id", new StandardRecord().setId("timed out"), timedOutHandler);
+        pendingDocuments.remove(timedOutHandler);
+        Assert.assertEquals(0, pendingDocuments.size());
+
+        final Object request = new Object();
+        final Object otherRequest = new Object();
+        pendingDocuments.add(request, "type", "id", new StandardRecord().setId("sent again"), handler);
+        pendingDocuments.add(otherRequest, "type", "other", new StandardRecord().setId("other"), handler);
+
+        // the late response of the first bulk notifies nobody
+        pendingDocuments.remove(Collections.singletonList(timedOutRequest)).succeeded("type", "id");
+        Assert.assertTrue(outcomes.isEmpty());
+
+        // documents missing from the response of their bulk are failed
+        final PendingBulkDocuments.Bulk bulk = pendingDocuments.remove(Arrays.asList(request, otherRequest));
+        bulk.succeeded("type", "id");
+        bulk.failRemaining("no response");
+        Assert.assertEquals(Arrays.asList("sent again:ok", "other:no response"), outcomes);
+        Assert.assertEquals(0, pendingDocuments.size());
+    }
+
+    private static final class RecordingHandler implements BulkResultHandler {
+
+        private final List<String> outcomes;
+
+        RecordingHandler(List<String> outcomes) {
+            this.outcomes = outcomes;
+        }
+
+        @Override
+        public void onSuccess(Record record) {
+            outcomes.add(record.getId() + ":ok");
+        }
+
+        @Override
+        public void onFailure(Record record, String failureMessage) {
+            outcomes.add(record.getId() + ":" + failureMessage);
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.hurence.logisland.service.elasticsearch;
 
+import com.hurence.logisland.record.Field;
 import com.hurence.logisland.record.FieldDictionary;
 import com.hurence.logisland.record.Record;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -23,8 +24,9 @@ import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.text.SimpleDateFormat;
-import java.util.TimeZone;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
@@ -32,6 +34,12 @@ public class ElasticsearchRecordConverter {
 
     private static Logger logger = LoggerFactory.getLogger(ElasticsearchRecordConverter.class);
 
+    private static final DateTimeFormatter DATE_PRINTER = ISODateTimeFormat.dateTimeNoMillis();
+
+    // records of a stream share a few field names, no need to clean them up again and again
+    private static final int MAX_CACHED_FIELD_NAMES = 10000;
+    private static final Map<String, String> ES_FIELD_NAMES = new ConcurrentHashMap<>();
+
     /**
      * Converts an Event into an Elasticsearch document
      * to be indexed later
@@ -41,25 +49,45 @@ public class ElasticsearchRecordConverter {
      */
     public static String convertToString(Record record) {
         try {
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-            sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+            XContentBuilder document = convert(record, record.getAllFieldsSorted());
+            if (document != null) {
+                return document.string();
+            }
+        } catch (Throwable ex) {
+            logger.error("unable to convert record : {}, {}", record, ex.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Converts an Event into an Elasticsearch document builder, its bytes can be
+     * added to an index request as is without going through a String.
+     * Fields are not sorted as their order does not matter to Elasticsearch.
+     *
+     * @param record
+     * @return the document, or null if the record could not be converted
+     */
+    public static XContentBuilder convertToXContent(Record record) {
+        return convert(record, record.getAllFields());
+    }
+
+    private static XContentBuilder convert(Record record, Collection<Field> fields) {
+        try {
             XContentBuilder document = jsonBuilder().startObject();
 
             // convert event_time as ISO for ES
             if (record.hasField(FieldDictionary.RECORD_TIME)) {
                 try {
-                    DateTimeFormatter dateParser = ISODateTimeFormat.dateTimeNoMillis();
-                    document.field("@timestamp", dateParser.print(record.getField(FieldDictionary.RECORD_TIME).asLong()));
+                    document.field("@timestamp", DATE_PRINTER.print(record.getField(FieldDictionary.RECORD_TIME).asLong()));
                 } catch (Exception ex) {
                     logger.error("unable to parse record_time iso date for {}", record);
                 }
             }
 
             // add all other records
-            record.getAllFieldsSorted().forEach(field -> {
+            for (Field field : fields) {
                 try {
-                    // cleanup invalid es fields characters like '.'
-                    String fieldName = field.getName().replaceAll("\\.", "_");
+                    String fieldName = toEsFieldName(field.getName());
 
                     switch (field.getType()) {
 
@@ -89,15 +117,27 @@ public class ElasticsearchRecordConverter {
                 } catch (Throwable ex) {
                     logger.error("unable to process a field in record : {}, {}", record, ex.toString());
                 }
-            });
+            }
 
-            String result = document.endObject().string();
-            document.flush();
-            return result;
+            return document.endObject();
         } catch (Throwable ex) {
             logger.error("unable to convert record : {}, {}", record, ex.toString());
         }
         return null;
     }
 
-}
\ No newline at end of file
+    /**
+     * cleanup invalid es fields characters like '.'
+     */
+    static String toEsFieldName(String fieldName) {
+        String esFieldName = ES_FIELD_NAMES.get(fieldName);
+        if (esFieldName == null) {
+            esFieldName = fieldName.replace('.', '_');
+            if (ES_FIELD_NAMES.size() < MAX_CACHED_FIELD_NAMES) {
+                ES_FIELD_NAMES.put(fieldName, esFieldName);
+            }
+        }
+        return esFieldName;
+    }
+
+}
@@ -19,19 +19,32 @@ import com.hurence.logisland.component.InitializationException;
 import com.hurence.logisland.component.PropertyDescriptor;
 import com.hurence.logisland.controller.ControllerServiceInitializationContext;
 import com.hurence.logisland.processor.ProcessException;
+import com.hurence.logisland.record.FieldType;
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.record.StandardRecord;
+import com.hurence.logisland.service.elasticsearch.bulk.BulkResultHandler;
 import com.hurence.logisland.service.elasticsearch.multiGet.InvalidMultiGetQueryRecordException;
 import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetQueryRecord;
 import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResponseRecord;
+import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResult;
 import com.hurence.logisland.util.runner.TestRunner;
 import com.hurence.logisland.util.runner.TestRunners;
-import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.client.FilterClient;
 import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -39,6 +52,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestElasticsearch_2_4_0_ClientService {
 
@@ -88,11 +104,6 @@ public class TestElasticsearch_2_4_0_ClientService {
                                 getLogger().warn("There was failures while executing bulk [id:{}]," +
                                                 " done bulk request in {} ms with failure = {}",
                                         new Object[]{l, bulkResponse.getTookInMillis(), bulkResponse.buildFailureMessage()});
-                                for (BulkItemResponse item : bulkResponse.getItems()) {
-                                    if (item.isFailed()) {
-                                        errors.put(item.getId(), item.getFailureMessage());
-                                    }
-                                }
                             }
                         }
 
@@ -114,17 +125,137 @@ public class TestElasticsearch_2_4_0_ClientService {
         public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
 
             List<PropertyDescriptor> props = new ArrayList<>();
+            props.add(MULTIGET_MAX_IDS_PER_REQUEST);
+            props.add(MULTIGET_CONCURRENT_REQUESTS);
+            props.add(MULTIGET_TIMEOUT);
 
             return Collections.unmodifiableList(props);
         }
 
     }
 
+    /**
+     * Uses the bulk listener of the service, along with its adaptive throttling and result notifications.
+     */
+    private class BulkResultElasticsearchClientService extends Elasticsearch_2_4_0_ClientService {
+
+        @Override
+        protected void createElasticsearchClient(ControllerServiceInitializationContext context) throws ProcessException {
+            if (esClient != null) {
+                return;
+            }
+            esClient = esRule.getClient();
+        }
+
+        @Override
+        protected void createBulkProcessor(ControllerServiceInitializationContext context)
+        {
+            if (bulkProcessor != null) {
+                return;
+            }
+
+            bulkProcessor = BulkProcessor.builder(esClient, createBulkListener())
+                    .setBulkActions(1000)
+                    .setBulkSize(new ByteSizeValue(10, ByteSizeUnit.MB))
+                    .setFlushInterval(TimeValue.timeValueSeconds(1))
+                    .setConcurrentRequests(2)
+                    .build();
+        }
+
+        @Override
+        public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+
+            List<PropertyDescriptor> props = new ArrayList<>();
+            props.add(BULK_TARGET_LATENCY);
+
+            return Collections.unmodifiableList(props);
+        }
+    }
+
+    /**
+     * Either fails every multiget request on the calling thread, alternately by throwing and by calling the
+     * listener, or never answers them.
+     */
+    private class FailingMultiGetElasticsearchClientService extends MockElasticsearchClientService {
+
+        private final boolean answer;
+
+        FailingMultiGetElasticsearchClientService(boolean answer) {
+            this.answer = answer;
+        }
+
+        @Override
+        protected void createElasticsearchClient(ControllerServiceInitializationContext context) throws ProcessException {
+            if (esClient != null) {
+                return;
+            }
+            esClient = new FilterClient(esRule.getClient()) {
+
+                private final AtomicInteger multiGets = new AtomicInteger();
+
+                @Override
+                protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void doExecute(
+                        Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+                    if (!(request instanceof MultiGetRequest)) {
+                        super.doExecute(action, request, listener);
+                    } else if (answer) {
+                        if (multiGets.getAndIncrement() % 2 == 0) {
+                            throw new IllegalStateException("client is closed");
+                        }
+                        listener.onFailure(new IllegalStateException("no node available"));
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Sends the first multiget requests to the embedded node and never answers the next ones.
+     */
+    private class StallingMultiGetElasticsearchClientService extends MockElasticsearchClientService {
+
+        private final int answered;
+        private final AtomicInteger multiGets = new AtomicInteger();
+
+        StallingMultiGetElasticsearchClientService(int answered) {
+            this.answered = answered;
+        }
+
+        @Override
+        protected void createElasticsearchClient(ControllerServiceInitializationContext context) throws ProcessException {
+            if (esClient != null) {
+                return;
+            }
+            esClient = new FilterClient(esRule.getClient()) {
+
+                @Override
+                protected <Request extends ActionRequest, Response extends ActionResponse, RequestBuilder extends ActionRequestBuilder<Request, Response, RequestBuilder>> void doExecute(
+                        Action<Request, Response, RequestBuilder> action, Request request, ActionListener<Response> listener) {
+                    if (!(request instanceof MultiGetRequest) || multiGets.getAndIncrement() < answered) {
+                        super.doExecute(action, request, listener);
+                    }
+                }
+            };
+        }
+    }
+
     private ElasticsearchClientService configureElasticsearchClientService(final TestRunner runner) throws InitializationException
     {
-        final MockElasticsearchClientService elasticsearchClientService = new MockElasticsearchClientService();
+        return configureElasticsearchClientService(runner, Collections.emptyMap());
+    }
+
+    private ElasticsearchClientService configureElasticsearchClientService(final TestRunner runner,
+                                                                           final Map<PropertyDescriptor, String> properties) throws InitializationException
+    {
+        return configureElasticsearchClientService(runner, new MockElasticsearchClientService(), properties);
+    }
 
+    private ElasticsearchClientService configureElasticsearchClientService(final TestRunner runner,
+                                                                           final MockElasticsearchClientService elasticsearchClientService,
+                                                                           final Map<PropertyDescriptor, String> properties) throws InitializationException
+    {
         runner.addControllerService("elasticsearchClient", elasticsearchClientService);
+        properties.forEach((property, value) -> runner.setProperty(elasticsearchClientService, property, value));
 
         runner.enableControllerService(elasticsearchClientService);
         runner.setProperty(TestProcessor.ELASTICSEARCH_CLIENT_SERVICE, "elasticsearchClient");
@@ -292,6 +423,70 @@ public class TestElasticsearch_2_4_0_ClientService {
 
     }
 
+    @Test
+    public void testBulkPutWithResultHandler() throws Exception {
+        final String index = "foo";
+        final String type = "type1";
+
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+        final BulkResultElasticsearchClientService elasticsearchClientService = new BulkResultElasticsearchClientService();
+        runner.addControllerService("elasticsearchClient", elasticsearchClientService);
+        runner.enableControllerService(elasticsearchClientService);
+
+        elasticsearchClientService.createIndex(2, 1, index);
+        elasticsearchClientService.putMapping(index, type, MAPPING1.replace('\'', '"'));
+
+        final List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Record record = new StandardRecord("test").setId("id" + i);
+            record.setStringField("name", "fred" + i);
+            records.add(record);
+        }
+        records.get(0).setField("val", FieldType.INT, 33);
+        // not an integer, rejected by the mapping
+        records.get(1).setStringField("val", "thirty-three");
+
+        final CountDownLatch latch = new CountDownLatch(records.size());
+        final Map<String, String> failures = new HashMap<>();
+        final List<String> successes = new ArrayList<>();
+        final BulkResultHandler handler = new BulkResultHandler() {
+            @Override
+            public synchronized void onSuccess(Record record) {
+                successes.add(record.getId());
+                latch.countDown();
+            }
+
+            @Override
+            public synchronized void onFailure(Record record, String failureMessage) {
+                failures.put(record.getId(), failureMessage);
+                latch.countDown();
+            }
+        };
+
+        for (Record record : records) {
+            elasticsearchClientService.bulkPut(index, type, record, Optional.of(record.getId()), handler);
+        }
+        elasticsearchClientService.flushBulkProcessor();
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(2, successes.size());
+        Assert.assertEquals(1, failures.size());
+        Assert.assertTrue(failures.containsKey("id1"));
+
+        // the outcome of a document without id cannot be told
+        final Record recordWithoutId = new StandardRecord("test").setId("no id");
+        recordWithoutId.setStringField("name", "fred");
+        elasticsearchClientService.bulkPut(index, type, recordWithoutId, Optional.empty(), handler);
+        Assert.assertEquals(2, successes.size());
+        Assert.assertTrue(failures.containsKey("no id"));
+
+        Map<String, Number> metrics = elasticsearchClientService.drainBulkMetrics();
+        Assert.assertEquals(3L, metrics.get("bulk_documents"));
+        Assert.assertEquals(1L, metrics.get("bulk_failed_documents"));
+        Assert.assertEquals(0L, metrics.get("bulk_rejected_documents"));
+        Assert.assertEquals(0, metrics.get("bulk_pending_documents"));
+    }
+
     @Test
     public void testMultiGet() throws InitializationException, IOException, InterruptedException, InvalidMultiGetQueryRecordException {
         final String index1 = "index1";
@@ -460,6 +655,176 @@ public class TestElasticsearch_2_4_0_ClientService {
 
     }
 
+    @Test
+    public void testMultiGetChunkedWithRoutingAndFailures() throws Exception {
+        final String index = "chunked";
+        final String type = "type1";
+
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+        final Map<PropertyDescriptor, String> properties = new HashMap<>();
+        properties.put(ElasticsearchClientService.MULTIGET_MAX_IDS_PER_REQUEST, "2");
+        properties.put(ElasticsearchClientService.MULTIGET_CONCURRENT_REQUESTS, "2");
+        final ElasticsearchClientService elasticsearchClientService = configureElasticsearchClientService(runner, properties);
+
+        elasticsearchClientService.createIndex(2, 1, index);
+        List<String> documentIds = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            Map<String, Object> document = new HashMap<>();
+            document.put("value", "value" + i);
+            esRule.getClient().prepareIndex(index, type, "id" + i).setRouting("user1").setSource(document).get();
+            documentIds.add("id" + i);
+        }
+        esRule.refresh(index);
+
+        // 7 ids and 1 missing document split into 4 requests of 2 ids, along with a query on a missing index
+        List<String> queriedIds = new ArrayList<>(documentIds);
+        queriedIds.add("unknown");
+        List<MultiGetQueryRecord> multiGetQueryRecords = new ArrayList<>();
+        multiGetQueryRecords.add(new MultiGetQueryRecord(index, type, queriedIds, null, null, "user1"));
+        multiGetQueryRecords.add(new MultiGetQueryRecord("dummy", type, Arrays.asList("id0", "id1")));
+
+        MultiGetResult multiGetResult = elasticsearchClientService.multiGetAsync(multiGetQueryRecords).get();
+
+        // documents are returned in query order whatever the completion order of the requests
+        Assert.assertEquals(7, multiGetResult.getResponses().size());
+        for (int i = 0; i < 7; i++) {
+            MultiGetResponseRecord responseRecord = multiGetResult.getResponses().get(i);
+            Assert.assertEquals("id" + i, responseRecord.getDocumentId());
+            Assert.assertEquals("value" + i, responseRecord.getRetrievedFields().get("value"));
+        }
+        Assert.assertEquals(2, multiGetResult.getFailures().size());
+        multiGetResult.getFailures().forEach(failureRecord -> {
+            Assert.assertEquals("dummy", failureRecord.getIndexName());
+            Assert.assertNotNull(failureRecord.getMessage());
+        });
+
+        // the blocking variant only returns the fetched documents
+        Assert.assertEquals(7, elasticsearchClientService.multiGet(multiGetQueryRecords).size());
+        Assert.assertEquals(0, elasticsearchClientService.multiGet(Collections.emptyList()).size());
+    }
+
+    /**
+     * Not a real benchmark : measures the latency of multiGet queries of growing size against the embedded node,
+     * with and without splitting them into concurrent sub-requests.
+     */
+    @Ignore("benchmark, only logs timings")
+    @Test
+    public void testMultiGetLatencyByBatchSize() throws Exception {
+        final String index = "latency";
+        final String type = "type1";
+        final int documentCount = 5000;
+        final int[] batchSizes = {10, 100, 1000, 5000};
+        final int iterations = 5;
+
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+        final Map<PropertyDescriptor, String> properties = new HashMap<>();
+        properties.put(ElasticsearchClientService.MULTIGET_MAX_IDS_PER_REQUEST, "250");
+        properties.put(ElasticsearchClientService.MULTIGET_CONCURRENT_REQUESTS, "4");
+        final ElasticsearchClientService elasticsearchClientService = configureElasticsearchClientService(runner, properties);
+
+        elasticsearchClientService.createIndex(2, 1, index);
+        BulkRequestBuilder bulkRequestBuilder = esRule.getClient().prepareBulk();
+        List<String> documentIds = new ArrayList<>();
+        for (int i = 0; i < documentCount; i++) {
+            Map<String, Object> document = new HashMap<>();
+            document.put("name", "name" + i);
+            document.put("val", i);
+            bulkRequestBuilder.add(esRule.getClient().prepareIndex(index, type, "id" + i).setSource(document));
+            documentIds.add("id" + i);
+        }
+        Assert.assertFalse(bulkRequestBuilder.get().hasFailures());
+        esRule.refresh(index);
+
+        for (int batchSize : batchSizes) {
+            List<MultiGetQueryRecord> multiGetQueryRecords = Collections.singletonList(
+                    new MultiGetQueryRecord(index, type, documentIds.subList(0, batchSize)));
+
+            // warm up
+            Assert.assertEquals(batchSize, elasticsearchClientService.multiGet(multiGetQueryRecords).size());
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                Assert.assertEquals(batchSize, elasticsearchClientService.multiGet(multiGetQueryRecords).size());
+            }
+            long averageLatencyInMicros = (System.nanoTime() - start) / iterations / 1000;
+            logger.info("multiGet of {} ids : {} us on average", batchSize, averageLatencyInMicros);
+        }
+    }
+
+    @Test
+    public void testMultiGetSynchronousFailures() throws Exception {
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+        final Map<PropertyDescriptor, String> properties = new HashMap<>();
+        properties.put(ElasticsearchClientService.MULTIGET_MAX_IDS_PER_REQUEST, "1");
+        properties.put(ElasticsearchClientService.MULTIGET_CONCURRENT_REQUESTS, "1");
+        final ElasticsearchClientService elasticsearchClientService =
+                configureElasticsearchClientService(runner, new FailingMultiGetElasticsearchClientService(true), properties);
+
+        // as many requests failing on the calling thread as would overflow the stack if each one sent the next
+        final List<String> documentIds = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            documentIds.add("id" + i);
+        }
+        final List<MultiGetQueryRecord> multiGetQueryRecords =
+                Collections.singletonList(new MultiGetQueryRecord("index", "type", documentIds));
+
+        MultiGetResult multiGetResult = elasticsearchClientService.multiGetAsync(multiGetQueryRecords).get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(0, multiGetResult.getResponses().size());
+        Assert.assertEquals(20000, multiGetResult.getFailures().size());
+        Assert.assertEquals(0, elasticsearchClientService.multiGet(multiGetQueryRecords).size());
+    }
+
+    @Test
+    public void testMultiGetTimeout() throws Exception {
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+        final Map<PropertyDescriptor, String> properties = new HashMap<>();
+        properties.put(ElasticsearchClientService.MULTIGET_TIMEOUT, "200");
+        final ElasticsearchClientService elasticsearchClientService =
+                configureElasticsearchClientService(runner, new FailingMultiGetElasticsearchClientService(false), properties);
+
+        // the documents not fetched in time are left out of the result
+        final long start = System.currentTimeMillis();
+        Assert.assertEquals(0, elasticsearchClientService.multiGet(
+                Collections.singletonList(new MultiGetQueryRecord("index", "type", Arrays.asList("id0", "id1")))).size());
+        Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void testMultiGetTimeoutReturnsRetrievedDocuments() throws Exception {
+        final String index = "partial";
+        final String type = "type1";
+
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+        final Map<PropertyDescriptor, String> properties = new HashMap<>();
+        properties.put(ElasticsearchClientService.MULTIGET_MAX_IDS_PER_REQUEST, "2");
+        properties.put(ElasticsearchClientService.MULTIGET_CONCURRENT_REQUESTS, "1");
+        properties.put(ElasticsearchClientService.MULTIGET_TIMEOUT, "2000");
+        final StallingMultiGetElasticsearchClientService elasticsearchClientService = new StallingMultiGetElasticsearchClientService(1);
+        configureElasticsearchClientService(runner, elasticsearchClientService, properties);
+
+        elasticsearchClientService.createIndex(2, 1, index);
+        BulkRequestBuilder bulkRequestBuilder = esRule.getClient().prepareBulk();
+        for (int i = 0; i < 6; i++) {
+            Map<String, Object> document = new HashMap<>();
+            document.put("name", "name" + i);
+            // null values must not prevent the documents from being returned
+            document.put("comment", null);
+            bulkRequestBuilder.add(esRule.getClient().prepareIndex(index, type, "id" + i).setSource(document));
+        }
+        Assert.assertFalse(bulkRequestBuilder.get().hasFailures());
+        esRule.refresh(index);
+
+        // the first request is answered, the second one never is and the third one is not sent after the timeout
+        List<MultiGetResponseRecord> multiGetResponseRecords = elasticsearchClientService.multiGet(Collections.singletonList(
+                new MultiGetQueryRecord(index, type, Arrays.asList("id0", "id1", "id2", "id3", "id4", "id5"))));
+        Assert.assertEquals(2, multiGetResponseRecords.size());
+        for (MultiGetResponseRecord multiGetResponseRecord : multiGetResponseRecords) {
+            Assert.assertTrue(Arrays.asList("id0", "id1").contains(multiGetResponseRecord.getDocumentId()));
+            Assert.assertEquals("null", multiGetResponseRecord.getRetrievedFields().get("comment"));
+        }
+        Assert.assertEquals(2, elasticsearchClientService.multiGets.get());
+    }
+
     @Test
     public void testMultiGetInvalidRecords() throws InitializationException, IOException, InterruptedException, InvalidMultiGetQueryRecordException {
 
@@ -21,14 +21,20 @@ import com.hurence.logisland.annotation.lifecycle.OnDisabled;
 import com.hurence.logisland.annotation.lifecycle.OnEnabled;
 import com.hurence.logisland.component.InitializationException;
 import com.hurence.logisland.component.PropertyDescriptor;
+import com.hurence.logisland.component.PropertyValue;
 import com.hurence.logisland.controller.AbstractControllerService;
 import com.hurence.logisland.controller.ControllerServiceInitializationContext;
 import com.hurence.logisland.processor.ProcessException;
+import com.hurence.logisland.service.elasticsearch.bulk.AdaptiveBulkThrottle;
+import com.hurence.logisland.service.elasticsearch.bulk.BulkResultHandler;
+import com.hurence.logisland.service.elasticsearch.bulk.PendingBulkDocuments;
 import com.hurence.logisland.record.Record;
+import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetFailureRecord;
 import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetQueryRecord;
 import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResponseRecord;
+import com.hurence.logisland.service.elasticsearch.multiGet.MultiGetResult;
 import org.apache.commons.lang3.StringUtils;
-import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
 import org.elasticsearch.action.admin.indices.alias.IndicesAliasesResponse;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
@@ -50,7 +56,9 @@ import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 
@@ -68,9 +76,14 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 @Tags({ "elasticsearch", "client"})
 @CapabilityDescription("Implementation of ElasticsearchClientService for Elasticsearch 5.4.0.")
@@ -80,7 +93,13 @@ public class Elasticsearch_5_4_0_ClientService extends AbstractControllerService
     private volatile List<InetSocketAddress> esHosts;
     private volatile String authToken;
     protected volatile BulkProcessor bulkProcessor;
-    protected volatile Map<String/*id*/, String/*errors*/> errors = new HashMap<>();
+    protected volatile AdaptiveBulkThrottle bulkThrottle;
+    private final PendingBulkDocuments pendingDocuments = new PendingBulkDocuments();
+    private final Map<Long/*execution id*/, Long/*start time*/> bulkStartTimes = new ConcurrentHashMap<>();
+    private final AtomicInteger actionsSinceBulk = new AtomicInteger();
+    protected volatile int multiGetMaxIdsPerRequest;
+    protected volatile int multiGetConcurrentRequests;
+    protected volatile int multiGetTimeoutMs;
 
     @Override
     public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
@@ -93,6 +112,10 @@ public class Elasticsearch_5_4_0_ClientService extends AbstractControllerService
         props.add(BULK_SIZE);
         props.add(FLUSH_INTERVAL);
         props.add(CONCURRENT_REQUESTS);
+        props.add(BULK_TARGET_LATENCY);
+        props.add(MULTIGET_MAX_IDS_PER_REQUEST);
+        props.add(MULTIGET_CONCURRENT_REQUESTS);
+        props.add(MULTIGET_TIMEOUT);
         props.add(CLUSTER_NAME);
         props.add(PING_TIMEOUT);
         props.add(SAMPLER_INTERVAL);
@@ -112,7 +135,9 @@ public class Elasticsearch_5_4_0_ClientService extends AbstractControllerService
         synchronized(this) {
             try {
                 createElasticsearchClient(context);
+                configureBulkThrottle(context);
                 createBulkProcessor(context);
+                configureMultiGet(context);
             }catch (Exception e){
                 throw new InitializationException(e);
             }
@@ -272,33 +297,7 @@ public class Elasticsearch_5_4_0_ClientService extends AbstractControllerService
          */
         bulkProcessor = BulkProcessor.builder(
                 esClient,
-                new BulkProcessor.Listener() {
-                    @Override
-                    public void beforeBulk(long l, BulkRequest bulkRequest) {
-                        getLogger().debug("Going to execute bulk [id:{}] composed of {} actions", new Object[]{l, bulkRequest.numberOfActions()});
-                    }
-
-                    @Override
-                    public void afterBulk(long l, BulkRequest bulkRequest, BulkResponse bulkResponse) {
-                        getLogger().debug("Executed bulk [id:{}] composed of {} actions", new Object[]{l, bulkRequest.numberOfActions()});
-                        if (bulkResponse.hasFailures()) {
-                            getLogger().warn("There was failures while executing bulk [id:{}]," +
-                                            " done bulk request in {} ms with failure = {}",
-                                    new Object[]{l, bulkResponse.getTookInMillis(), bulkResponse.buildFailureMessage()});
-                            for (BulkItemResponse item : bulkResponse.getItems()) {
-                                if (item.isFailed()) {
-                                    errors.put(item.getId(), item.getFailureMessage());
-                                }
-                            }
-                        }
-                    }
-
-                    @Override
-                    public void afterBulk(long l, BulkRequest bulkRequest, Throwable throwable) {
-                        getLogger().error("something went wrong while bulk loading events to es : {}", new Object[]{throwable.getMessage()});
-                    }
-
-                })
+                createBulkListener())
                 .setBulkActions(context.getPropertyValue(BATCH_SIZE).asInteger())
                 .setBulkSize(new ByteSizeValue(context.getPropertyValue(BULK_SIZE).asInteger(), ByteSizeUnit.MB))
                 .setFlushInterval(TimeValue.timeValueSeconds(context.getPropertyValue(FLUSH_INTERVAL).asInteger()))
@@ -307,6 +306,90 @@ public class Elasticsearch_5_4_0_ClientService extends AbstractControllerService
                 .build();
     }
 
+    /**
+     * Create the bulk processor listener, which throttles the bulks and notifies the result handlers
+     * of the documents once their bulk response is received.
+     */
+    protected BulkProcessor.Listener createBulkListener() {
+        return new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long l, BulkRequest bulkRequest) {
+                getLogger().debug("Going to execute bulk [id:{}] composed of {} actions", new Object[]{l, bulkRequest.numberOfActions()});
+                // waits for a slot when the cluster is slowed down, which blocks the bulk processor
+                bulkThrottle.acquire();
+                actionsSinceBulk.set(0);
+                bulkStartTimes.put(l, System.currentTimeMillis());
+            }
+
+            @Override
+            public void afterBulk(long l, BulkRequest bulkRequest, BulkResponse bulkResponse) {
+                getLogger().debug("Executed bulk [id:{}] composed of {} actions", new Object[]{l, bulkRequest.numberOfActions()});
+                if (bulkResponse.hasFailures()) {
+                    getLogger().warn("There was failures while executing bulk [id:{}]," +
+                                    " done bulk request in {} ms with failure = {}",
+                            new Object[]{l, bulkResponse.getTookInMillis(), bulkResponse.buildFailureMessage()});
+                }
+
+                int failedActions = 0;
+                int rejectedActions = 0;
+                for (BulkItemResponse item : bulkResponse.getItems()) {
+                    if (item.isFailed()) {
+                        failedActions++;
+                        // still rejected once the backoff policy retries are exhausted
+                        if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                            rejectedActions++;
+                        }
+                    }
+                }
+                bulkThrottle.release(bulkRequest.numberOfActions(), failedActions, rejectedActions, getBulkLatency(l));
+
+                final PendingBulkDocuments.Bulk bulkDocuments = pendingDocuments.remove(bulkRequest.requests());
+                for (BulkItemResponse item : bulkResponse.getItems()) {
+                    if (item.isFailed()) {
+                        bulkDocuments.failed(item.getType(), item.getId(), item.getFailureMessage());
+                    } else {
+                        bulkDocuments.succeeded(item.getType(), item.getId());
+                    }
+                }
+                bulkDocuments.failRemaining("no item in the bulk response for the document");
+            }
+
+            @Override
+            public void afterBulk(long l, BulkRequest bulkRequest, Throwable throwable) {
+                getLogger().error("something went wrong while bulk loading events to es : {}", new Object[]{throwable.getMessage()});
+                bulkThrottle.releaseOnError(bulkRequest.numberOfActions(), getBulkLatency(l));
+
+                pendingDocuments.remove(bulkRequest.requests()).failRemaining("bulk failed : " + throwable.getMessage());
+            }
+        };
+    }
+
+    /**
+     * Read the adaptive bulk settings, falling back to the defaults when a property is not available in the context.
+     */
+    protected void configureBulkThrottle(ControllerServiceInitializationContext context) {
+        bulkThrottle = new AdaptiveBulkThrottle(
+                getIntegerOrDefault(context, CONCURRENT_REQUESTS),
+                getIntegerOrDefault(context, BATCH_SIZE),
+                getIntegerOrDefault(context, BULK_TARGET_LATENCY));
+    }
+
+    private long getBulkLatency(long executionId) {
+        final Long startTime = bulkStartTimes.remove(executionId);
+        return startTime != null ? System.currentTimeMillis() - startTime : 0L;
+    }
+
+    /**
+     * Add a request to the bulk processor, sending the bulk as soon as it holds as many documents as
+     * the throttle currently allows.
+     */
+    private void addToBulk(IndexRequest request) {
+        bulkProcessor.add(request);
+        if (actionsSinceBulk.incrementAndGet() >= bulkThrottle.getBulkActions()) {
+            bulkProcessor.flush();
+        }
+    }
+
     /**
      * set up BackoffPolicy
      */
@@ -347,7 +430,45 @@ public class Elasticsearch_5_4_0_ClientService extends AbstractControllerService
         {
             result.setId(OptionalId.get());
         }
-        bulkProcessor.add(result.request());
+        addToBulk(result.request());
+    }
+
+    @Override
+    public void bulkPut(String docIndex, String docType, Record record, Optional<String> OptionalId) {
+        bulkPut(docIndex, docType, record, OptionalId, null);
+    }
+
+    @Override
+    public void bulkPut(String docIndex, String docType, Record record, Optional<String> OptionalId,
+                        BulkResultHandler handler) {
+        // the document bytes go to the request as is, with no String in between
+        XContentBuilder document = ElasticsearchRecordConverter.convertToXContent(record);
+        if (document == null) {
+            getLogger().error("unable to index record {}", new Object[]{record});
+            if (handler != null) {
+                handler.onFailure(record, "unable to convert record to a document");
+            }
+            return;
+        }
+        if (handler != null && !OptionalId.isPresent()) {
+            // a generated id cannot be matched against the bulk response
+            handler.onFailure(record, "a document id is required to be notified of the indexation outcome");
+            return;
+        }
+
+        IndexRequestBuilder result = esClient
+                .prepareIndex(docIndex, docType)
+                .setSource(document)
+                .setOpType(IndexRequest.OpType.INDEX);
+        if(OptionalId.isPresent())
+        {
+            result.setId(OptionalId.get());
+        }
+        final IndexRequest request = result.request();
+        if (handler != null) {
+            pendingDocuments.add(request, docType, OptionalId.get(), record, handler);
+        }
+        addToBulk(request);
     }
 
     @Override
@@ -361,54 +482,268 @@ public class Elasticsearch_5_4_0_ClientService extends AbstractControllerService
         {
             result.setId(OptionalId.get());
         }
-        bulkProcessor.add(result.request());
+        addToBulk(result.request());
+    }
+
+    @Override
+    public void discardBulkResults(BulkResultHandler handler) {
+        pendingDocuments.remove(handler);
+    }
+
+    @Override
+    public Map<String, Number> drainBulkMetrics() {
+        final Map<String, Number> metrics = bulkThrottle.drainMetrics();
+        metrics.put("bulk_pending_documents", pendingDocuments.size());
+        return metrics;
+    }
+
+    /**
+     * Read the multiget settings, falling back to the defaults when a property is not available in the context.
+     */
+    protected void configureMultiGet(ControllerServiceInitializationContext context) {
+        multiGetMaxIdsPerRequest = getIntegerOrDefault(context, MULTIGET_MAX_IDS_PER_REQUEST);
+        multiGetConcurrentRequests = getIntegerOrDefault(context, MULTIGET_CONCURRENT_REQUESTS);
+        multiGetTimeoutMs = getIntegerOrDefault(context, MULTIGET_TIMEOUT);
+    }
+
+    private int getIntegerOrDefault(ControllerServiceInitializationContext context, PropertyDescriptor property) {
+        final PropertyValue propertyValue = context.getPropertyValue(property);
+        final Integer value = propertyValue != null ? propertyValue.asInteger() : null;
+        return value != null ? value : Integer.parseInt(property.getDefaultValue());
     }
 
     @Override
     public List<MultiGetResponseRecord> multiGet(List<MultiGetQueryRecord> multiGetQueryRecords){
 
-        List<MultiGetResponseRecord> multiGetResponseRecords = new ArrayList<>();
+        final MultiGetExecution multiGetExecution = new MultiGetExecution(buildMultiGetRequests(multiGetQueryRecords));
+        MultiGetResult multiGetResult;
+        try {
+            multiGetResult = multiGetExecution.start().get(multiGetTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            multiGetResult = multiGetExecution.cancel();
+            getLogger().error("MultiGet query of {} documents timed out after {} ms, returning the {} documents retrieved so far",
+                    new Object[]{countDocumentIds(multiGetQueryRecords), multiGetTimeoutMs, multiGetResult.getResponses().size()});
+            return multiGetResult.getResponses();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            multiGetResult = multiGetExecution.cancel();
+            getLogger().error("Interrupted while waiting for the MultiGet query of {} documents, returning the {} documents retrieved so far",
+                    new Object[]{countDocumentIds(multiGetQueryRecords), multiGetResult.getResponses().size()});
+            return multiGetResult.getResponses();
+        } catch (ExecutionException e) {
+            // not expected, failed sub-requests are reported as failures of the result
+            getLogger().error("MultiGet query failed : {}", new Object[]{e.getCause()});
+            return Collections.emptyList();
+        }
+
+        if (multiGetResult.hasFailures()) {
+            MultiGetFailureRecord firstFailure = multiGetResult.getFailures().get(0);
+            getLogger().error("MultiGet query failed for {} documents, first failure on {}/{}/{} : {}",
+                    new Object[]{multiGetResult.getFailures().size(), firstFailure.getIndexName(),
+                            firstFailure.getTypeName(), firstFailure.getDocumentId(), firstFailure.getMessage()});
+        }
+
+        return multiGetResult.getResponses();
+    }
+
+    private static int countDocumentIds(List<MultiGetQueryRecord> multiGetQueryRecords) {
+        int count = 0;
+        for (MultiGetQueryRecord multiGetQueryRecord : multiGetQueryRecords) {
+            count += multiGetQueryRecord.getDocumentIds().size();
+        }
+        return count;
+    }
+
+    @Override
+    public CompletableFuture<MultiGetResult> multiGetAsync(List<MultiGetQueryRecord> multiGetQueryRecords) {
+        return new MultiGetExecution(buildMultiGetRequests(multiGetQueryRecords)).start();
+    }
+
+    /**
+     * Split the queried documents into multiget requests of at most multiGetMaxIdsPerRequest ids, keeping
+     * the order of the queries.
+     */
+    private List<MultiGetRequest> buildMultiGetRequests(List<MultiGetQueryRecord> multiGetQueryRecords) {
 
-        MultiGetRequestBuilder multiGetRequestBuilder = esClient.prepareMultiGet();
+        final int maxIdsPerRequest = Math.max(multiGetMaxIdsPerRequest, 1);
+        List<MultiGetRequest> multiGetRequests = new ArrayList<>();
+        MultiGetRequest multiGetRequest = new MultiGetRequest();
 
         for (MultiGetQueryRecord multiGetQueryRecord : multiGetQueryRecords)
         {
             String index = multiGetQueryRecord.getIndexName();
             String type = multiGetQueryRecord.getTypeName();
-            List<String> documentIds = multiGetQueryRecord.getDocumentIds();
+            String routing = multiGetQueryRecord.getRouting();
             String[] fieldsToInclude = multiGetQueryRecord.getFieldsToInclude();
             String[] fieldsToExclude = multiGetQueryRecord.getFieldsToExclude();
+            FetchSourceContext fetchSourceContext = null;
             if ((fieldsToInclude != null && fieldsToInclude.length > 0) || (fieldsToExclude != null && fieldsToExclude.length > 0)) {
-                for (String documentId : documentIds) {
-                    MultiGetRequest.Item item = new MultiGetRequest.Item(index, type, documentId);
-                    item.fetchSourceContext(new FetchSourceContext(true, fieldsToInclude, fieldsToExclude));
-                    multiGetRequestBuilder.add(item);
+                fetchSourceContext = new FetchSourceContext(true, fieldsToInclude, fieldsToExclude);
+            }
+            for (String documentId : multiGetQueryRecord.getDocumentIds()) {
+                MultiGetRequest.Item item = new MultiGetRequest.Item(index, type, documentId);
+                if (fetchSourceContext != null) {
+                    item.fetchSourceContext(fetchSourceContext);
+                }
+                if (routing != null) {
+                    item.routing(routing);
+                }
+                if (multiGetRequest.getItems().size() >= maxIdsPerRequest) {
+                    multiGetRequests.add(multiGetRequest);
+                    multiGetRequest = new MultiGetRequest();
                 }
-            } else {
-                multiGetRequestBuilder.add(index, type, documentIds);
+                multiGetRequest.add(item);
             }
         }
+        if (!multiGetRequest.getItems().isEmpty()) {
+            multiGetRequests.add(multiGetRequest);
+        }
 
-        MultiGetResponse multiGetItemResponses = null;
-        try {
-            multiGetItemResponses = multiGetRequestBuilder.get();
-        } catch (ActionRequestValidationException e) {
-            getLogger().error("MultiGet query failed : {}", new Object[]{e.getMessage()});
+        return multiGetRequests;
+    }
+
+    /**
+     * Sends the multiget requests of a single query with at most multiGetConcurrentRequests of them in flight :
+     * each lane sends its next request from the listener of the previous one, so no thread is ever blocked
+     * waiting for elasticsearch. Once cancelled, the lanes stop sending requests and end as soon as their
+     * request in flight answers.
+     */
+    private class MultiGetExecution {
+
+        private final List<MultiGetRequest> multiGetRequests;
+        private final AtomicReferenceArray<List<MultiGetResponseRecord>> responses;
+        private final AtomicReferenceArray<List<MultiGetFailureRecord>> failures;
+        private final AtomicInteger nextRequest = new AtomicInteger();
+        private final AtomicInteger activeLanes;
+        private final CompletableFuture<MultiGetResult> result = new CompletableFuture<>();
+        private volatile boolean cancelled;
+
+        MultiGetExecution(List<MultiGetRequest> multiGetRequests) {
+            this.multiGetRequests = multiGetRequests;
+            this.responses = new AtomicReferenceArray<>(multiGetRequests.size());
+            this.failures = new AtomicReferenceArray<>(multiGetRequests.size());
+            this.activeLanes = new AtomicInteger(Math.min(Math.max(multiGetConcurrentRequests, 1), multiGetRequests.size()));
+        }
+
+        CompletableFuture<MultiGetResult> start() {
+            if (multiGetRequests.isEmpty()) {
+                result.complete(new MultiGetResult(new ArrayList<>()));
+            }
+            for (int lane = activeLanes.get(); lane > 0; lane--) {
+                sendNextRequest();
+            }
+            return result;
+        }
+
+        /**
+         * Stops sending the requests not sent yet and returns the documents retrieved so far.
+         */
+        MultiGetResult cancel() {
+            cancelled = true;
+            return collect();
+        }
+
+        private void sendNextRequest() {
+            // a lane moves on to its next request in this loop when the previous one failed synchronously or
+            // when its listener was called on this thread, and from the listener only when it is called later
+            while (true) {
+                final int requestIndex = nextRequest.getAndIncrement();
+                if (cancelled || requestIndex >= multiGetRequests.size()) {
+                    if (activeLanes.decrementAndGet() == 0) {
+                        complete();
+                    }
+                    return;
+                }
+
+                final MultiGetRequest multiGetRequest = multiGetRequests.get(requestIndex);
+                final AtomicBoolean sending = new AtomicBoolean(true);
+                try {
+                    esClient.multiGet(multiGetRequest, new ActionListener<MultiGetResponse>() {
+                        @Override
+                        public void onResponse(MultiGetResponse multiGetItemResponses) {
+                            try {
+                                onRequestResponse(requestIndex, multiGetItemResponses);
+                            } catch (Exception e) {
+                                // the lane must go on whatever happens, otherwise the execution never completes
+                                onRequestFailure(requestIndex, multiGetRequest, e);
+                            }
+                            continueLane();
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            onRequestFailure(requestIndex, multiGetRequest, e);
+                            continueLane();
+                        }
+
+                        private void continueLane() {
+                            if (!sending.compareAndSet(true, false)) {
+                                sendNextRequest();
+                            }
+                        }
+                    });
+                    if (sending.compareAndSet(true, false)) {
+                        // the listener will send the next request
+                        return;
+                    }
+                } catch (Exception e) {
+                    if (sending.compareAndSet(true, false)) {
+                        onRequestFailure(requestIndex, multiGetRequest, e);
+                    }
+                }
+            }
         }
 
-        if (multiGetItemResponses != null) {
+        private void onRequestResponse(int requestIndex, MultiGetResponse multiGetItemResponses) {
+            List<MultiGetResponseRecord> multiGetResponseRecords = new ArrayList<>();
+            List<MultiGetFailureRecord> multiGetFailureRecords = new ArrayList<>();
             for (MultiGetItemResponse itemResponse : multiGetItemResponses) {
+                if (itemResponse.isFailed()) {
+                    MultiGetResponse.Failure failure = itemResponse.getFailure();
+                    multiGetFailureRecords.add(new MultiGetFailureRecord(failure.getIndex(), failure.getType(), failure.getId(), failure.getMessage()));
+                    continue;
+                }
                 GetResponse response = itemResponse.getResponse();
                 if (response != null && response.isExists()) {
                     Map<String,Object> responseMap = response.getSourceAsMap();
                     Map<String,String> retrievedFields = new HashMap<>();
-                    responseMap.forEach((k,v) -> retrievedFields.put(k,v.toString()));
+                    responseMap.forEach((k,v) -> retrievedFields.put(k,String.valueOf(v)));
                     multiGetResponseRecords.add(new MultiGetResponseRecord(response.getIndex(), response.getType(), response.getId(), retrievedFields));
                 }
             }
+            responses.set(requestIndex, multiGetResponseRecords);
+            failures.set(requestIndex, multiGetFailureRecords);
+        }
+
+        private void onRequestFailure(int requestIndex, MultiGetRequest multiGetRequest, Exception e) {
+            List<MultiGetFailureRecord> multiGetFailureRecords = new ArrayList<>();
+            for (MultiGetRequest.Item item : multiGetRequest.getItems()) {
+                multiGetFailureRecords.add(new MultiGetFailureRecord(item.index(), item.type(), item.id(), e.getMessage()));
+            }
+            responses.set(requestIndex, Collections.emptyList());
+            failures.set(requestIndex, multiGetFailureRecords);
+        }
+
+        private void complete() {
+            result.complete(collect());
         }
 
-        return multiGetResponseRecords;
+        private MultiGetResult collect() {
+            // requests not answered yet have no entry
+            List<MultiGetResponseRecord> multiGetResponseRecords = new ArrayList<>();
+            List<MultiGetFailureRecord> multiGetFailureRecords = new ArrayList<>();
+            for (int i = 0; i < multiGetRequests.size(); i++) {
+                List<MultiGetResponseRecord> requestResponses = responses.get(i);
+                if (requestResponses != null) {
+                    multiGetResponseRecords.addAll(requestResponses);
+                }
+                List<MultiGetFailureRecord> requestFailures = failures.get(i);
+                if (requestFailures != null) {
+                    multiGetFailureRecords.addAll(requestFailures);
+                }
+            }
+            return new MultiGetResult(multiGetResponseRecords, multiGetFailureRecords);
+        }
     }
 
     @Override
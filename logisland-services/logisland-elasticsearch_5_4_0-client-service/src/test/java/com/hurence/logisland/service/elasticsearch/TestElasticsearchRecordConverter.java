@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2016 Hurence (support@hurence.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hurence.logisland.service.elasticsearch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hurence.logisland.record.FieldDictionary;
+import com.hurence.logisland.record.FieldType;
+import com.hurence.logisland.record.Record;
+import com.hurence.logisland.record.StandardRecord;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class TestElasticsearchRecordConverter {
+
+    private static Logger logger = LoggerFactory.getLogger(TestElasticsearchRecordConverter.class);
+
+    private Record getRecord(int i) {
+        Record record = new StandardRecord("apache_log");
+        record.setField(FieldDictionary.RECORD_TIME, FieldType.LONG, 1500000000000L + i);
+        record.setStringField("http.method", "GET");
+        record.setStringField("http.url", "/logisland/" + i);
+        record.setField("http.status", FieldType.INT, 200);
+        record.setField("bytes.out", FieldType.LONG, 1024L * i);
+        record.setField("duration", FieldType.DOUBLE, 0.5 * i);
+        record.setField("cached", FieldType.BOOLEAN, i % 2 == 0);
+        return record;
+    }
+
+    @Test
+    public void testSameDocument() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        final Record record = getRecord(1);
+
+        final XContentBuilder document = ElasticsearchRecordConverter.convertToXContent(record);
+        final Map<?, ?> bytesDocument = mapper.readValue(document.string(), Map.class);
+        final Map<?, ?> stringDocument = mapper.readValue(ElasticsearchRecordConverter.convertToString(record), Map.class);
+
+        Assert.assertEquals(stringDocument, bytesDocument);
+        Assert.assertEquals("GET", bytesDocument.get("http_method"));
+        Assert.assertEquals(200, bytesDocument.get("http_status"));
+        Assert.assertEquals("2017-07-14T02:40:00Z", bytesDocument.get("@timestamp"));
+    }
+
+    @Ignore("benchmark, only logs timings")
+    @Test
+    public void testConversionTime() throws Exception {
+        final List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            records.add(getRecord(i));
+        }
+
+        // warm up both paths before timing them
+        long size = 0;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            for (Record record : records) {
+                size += ElasticsearchRecordConverter.convertToString(record).getBytes(StandardCharsets.UTF_8).length;
+            }
+            final long stringTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Record record : records) {
+                size -= ElasticsearchRecordConverter.convertToXContent(record).bytes().length();
+            }
+            final long bytesTime = System.nanoTime() - start;
+
+            logger.info("converted {} records to bytes through a String in {} ms, straight to bytes in {} ms",
+                    records.size(), stringTime / 1000000, bytesTime / 1000000);
+        }
+
+        // both paths produce documents of the same size
+        Assert.assertEquals(0, size);
+    }
+}
@@ -21,6 +21,7 @@ import com.hurence.logisland.annotation.documentation.Tags;
 import com.hurence.logisland.component.PropertyDescriptor;
 import com.hurence.logisland.controller.ControllerService;
 import com.hurence.logisland.service.hbase.put.PutColumn;
+import com.hurence.logisland.service.hbase.put.PutFailureHandler;
 import com.hurence.logisland.service.hbase.put.PutRecord;
 import com.hurence.logisland.service.hbase.scan.Column;
 import com.hurence.logisland.service.hbase.scan.ResultHandler;
@@ -29,6 +30,7 @@ import com.hurence.logisland.validator.StandardValidators;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 
 @Tags({"hbase", "client"})
 @CapabilityDescription("A controller service for accessing an HBase client.")
@@ -94,6 +96,36 @@ public interface HBaseClientService extends ControllerService {
      */
     void put(String tableName, byte[] rowId, Collection<PutColumn> columns) throws IOException;
 
+    /**
+     * Puts a batch of mutations to the given table without waiting for them to be written. Implementations
+     * buffer the puts and send them in the background, blocking the caller only when too many puts are waiting
+     * to be written. The default implementation writes them synchronously.
+     *
+     * @param tableName the name of an HBase table
+     * @param puts a list of put mutations for the given table
+     * @param failureHandler notified of each put that could not be written, possibly from another thread
+     * @throws IOException thrown when there are communication errors with HBase
+     */
+    default void putAsync(String tableName, Collection<PutRecord> puts, PutFailureHandler failureHandler) throws IOException {
+        try {
+            put(tableName, puts);
+        } catch (IOException e) {
+            for (PutRecord putRecord : puts) {
+                failureHandler.onFailure(putRecord, e);
+            }
+        }
+    }
+
+    /**
+     * Waits for all the puts of the given table sent through {@link #putAsync} to be written,
+     * failures being reported to their failure handler before this method returns.
+     *
+     * @param tableName the name of an HBase table
+     * @throws IOException thrown when there are communication errors with HBase
+     */
+    default void flush(String tableName) throws IOException {
+    }
+
     /**
      * Scans the given table using the optional filter criteria and passing each result to the provided handler.
      *
@@ -118,6 +150,23 @@ public interface HBaseClientService extends ControllerService {
      */
     void scan(String tableName, byte[] startRow, byte[] endRow, Collection<Column> columns, ResultHandler handler) throws IOException;
 
+    /**
+     * Fetches the given rows of the given table and passes each row found to the handler, rows that do not exist
+     * are not passed to the handler. The default implementation scans each row one at a time, implementations
+     * should rather fetch them with batched multi-get requests.
+     *
+     * @param tableName the name of an HBase table
+     * @param rowIds the identifiers of the rows to fetch
+     * @param columns optional columns to return, if not specified all columns are returned
+     * @param handler a handler to process the rows found, always called from the calling thread
+     * @throws IOException thrown when there are communication errors with HBase
+     */
+    default void get(String tableName, List<byte[]> rowIds, Collection<Column> columns, ResultHandler handler) throws IOException {
+        for (byte[] rowId : rowIds) {
+            scan(tableName, rowId, rowId, columns, handler);
+        }
+    }
+
     /**
      * Converts the given boolean to it's byte representation.
      *
@@ -28,6 +28,7 @@ import com.hurence.logisland.hadoop.KerberosProperties;
 import com.hurence.logisland.hadoop.KerberosTicketRenewer;
 import com.hurence.logisland.hadoop.SecurityUtil;
 import com.hurence.logisland.service.hbase.put.PutColumn;
+import com.hurence.logisland.service.hbase.put.PutFailureHandler;
 import com.hurence.logisland.service.hbase.put.PutRecord;
 import com.hurence.logisland.service.hbase.scan.Column;
 import com.hurence.logisland.service.hbase.scan.ResultCell;
@@ -42,11 +43,16 @@ import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.filter.Filter;
@@ -57,14 +63,26 @@ import org.apache.hadoop.security.UserGroupInformation;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 @Tags({ "hbase", "client"})
@@ -84,6 +102,49 @@ public class HBase_1_1_2_ClientService extends AbstractControllerService impleme
 
     static final long TICKET_RENEWAL_PERIOD = 60000;
 
+    public static final PropertyDescriptor MULTIGET_BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("hbase.multiget.batch.size")
+            .description("The maximum number of rows fetched by a single multi-get request, " +
+                    "more rows are split in several requests.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("1000")
+            .build();
+
+    public static final PropertyDescriptor MULTIGET_PARALLELISM = new PropertyDescriptor.Builder()
+            .name("hbase.multiget.parallelism")
+            .description("The maximum number of multi-get requests sent concurrently when fetching many rows.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("1")
+            .build();
+
+    public static final PropertyDescriptor WRITE_BUFFER_SIZE = new PropertyDescriptor.Builder()
+            .name("hbase.write.buffer.size")
+            .description("The size in bytes of the write buffer of each table, asynchronous puts are sent " +
+                    "to HBase as soon as their buffer is full.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_LONG_VALIDATOR)
+            .defaultValue("2097152")
+            .build();
+
+    public static final PropertyDescriptor WRITE_FLUSH_INTERVAL = new PropertyDescriptor.Builder()
+            .name("hbase.write.flush.interval.ms")
+            .description("The maximum time in milliseconds asynchronous puts are kept in a write buffer before being sent to HBase.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_LONG_VALIDATOR)
+            .defaultValue("1000")
+            .build();
+
+    public static final PropertyDescriptor WRITE_MAX_INFLIGHT_PUTS = new PropertyDescriptor.Builder()
+            .name("hbase.write.max.inflight.puts")
+            .description("The maximum number of asynchronous puts not yet acknowledged by HBase, " +
+                    "callers are blocked until older puts are written when this number is reached.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("10000")
+            .build();
+
     private volatile Connection connection;
     private volatile UserGroupInformation ugi;
     private volatile KerberosTicketRenewer renewer;
@@ -91,6 +152,16 @@ public class HBase_1_1_2_ClientService extends AbstractControllerService impleme
     private KerberosProperties kerberosProperties;
     private volatile File kerberosConfigFile = null;
 
+    private volatile int multiGetBatchSize = 1000;
+    private volatile ExecutorService multiGetExecutor;
+
+    // The write buffers are shared by every processor using this service
+    private final Map<String, TableWriter> tableWriters = new ConcurrentHashMap<>();
+    private volatile long writeBufferSize = 2097152;
+    private volatile int maxInflightPuts = 10000;
+    private volatile Semaphore inflightPuts;
+    private volatile ScheduledExecutorService writeFlusher;
+
     // Holder of cached Configuration information so validation does not reload the same config over and over
     private final AtomicReference<ValidationResources> validationResourceHolder = new AtomicReference<>();
 
@@ -103,6 +174,28 @@ public class HBase_1_1_2_ClientService extends AbstractControllerService impleme
 
             this.connection = createConnection(context);
 
+            multiGetBatchSize = context.getPropertyValue(MULTIGET_BATCH_SIZE).asInteger();
+            final int multiGetParallelism = context.getPropertyValue(MULTIGET_PARALLELISM).asInteger();
+            if (multiGetParallelism > 1) {
+                final AtomicInteger threadCount = new AtomicInteger();
+                multiGetExecutor = Executors.newFixedThreadPool(multiGetParallelism, runnable -> {
+                    final Thread thread = new Thread(runnable, "hbase-multiget-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+
+            writeBufferSize = context.getPropertyValue(WRITE_BUFFER_SIZE).asLong();
+            maxInflightPuts = context.getPropertyValue(WRITE_MAX_INFLIGHT_PUTS).asInteger();
+            inflightPuts = new Semaphore(maxInflightPuts);
+            final long flushInterval = context.getPropertyValue(WRITE_FLUSH_INTERVAL).asLong();
+            writeFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "hbase-write-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            writeFlusher.scheduleWithFixedDelay(this::flushTableWriters, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
             // connection check
             if (this.connection != null) {
                 final Admin admin = this.connection.getAdmin();
@@ -140,6 +233,11 @@ public class HBase_1_1_2_ClientService extends AbstractControllerService impleme
         props.add(ZOOKEEPER_ZNODE_PARENT);
         props.add(HBASE_CLIENT_RETRIES);
         props.add(PHOENIX_CLIENT_JAR_LOCATION);
+        props.add(MULTIGET_BATCH_SIZE);
+        props.add(MULTIGET_PARALLELISM);
+        props.add(WRITE_BUFFER_SIZE);
+        props.add(WRITE_FLUSH_INTERVAL);
+        props.add(WRITE_MAX_INFLIGHT_PUTS);
 
         return Collections.unmodifiableList(props);
     }
@@ -261,6 +359,22 @@ public class HBase_1_1_2_ClientService extends AbstractControllerService impleme
             renewer.stop();
         }
 
+        if (writeFlusher != null) {
+            writeFlusher.shutdownNow();
+            writeFlusher = null;
+        }
+
+        // write what is still buffered before closing the connection
+        for (final TableWriter tableWriter : tableWriters.values()) {
+            tableWriter.close();
+        }
+        tableWriters.clear();
+
+        if (multiGetExecutor != null) {
+            multiGetExecutor.shutdownNow();
+            multiGetExecutor = null;
+        }
+
         if (connection != null) {
             try {
                 connection.close();
@@ -310,6 +424,71 @@ public class HBase_1_1_2_ClientService extends AbstractControllerService impleme
         }
     }
 
+    @Override
+    public void putAsync(final String tableName, final Collection<PutRecord> puts, final PutFailureHandler failureHandler)
+            throws IOException {
+
+        final TableWriter tableWriter = getTableWriter(tableName);
+
+        // acquire the in-flight budget by chunks so that a batch larger than the budget does not block forever
+        final List<PendingPut> pendingPuts = new ArrayList<>(Math.min(puts.size(), maxInflightPuts));
+        for (final PutRecord putRecord : puts) {
+            final Put put = new Put(putRecord.getRow());
+            for (final PutColumn column : putRecord.getColumns()) {
+                put.addColumn(
+                        column.getColumnFamily(),
+                        column.getColumnQualifier(),
+                        column.getBuffer());
+            }
+            pendingPuts.add(new PendingPut(put, putRecord, failureHandler));
+
+            if (pendingPuts.size() == maxInflightPuts) {
+                tableWriter.write(pendingPuts);
+                pendingPuts.clear();
+            }
+        }
+        if (!pendingPuts.isEmpty()) {
+            tableWriter.write(pendingPuts);
+        }
+    }
+
+    @Override
+    public void flush(final String tableName) throws IOException {
+        final TableWriter tableWriter = tableWriters.get(tableName);
+        if (tableWriter != null) {
+            tableWriter.flush();
+        }
+    }
+
+    private TableWriter getTableWriter(final String tableName) throws IOException {
+        TableWriter tableWriter = tableWriters.get(tableName);
+        if (tableWriter == null) {
+            synchronized (tableWriters) {
+                tableWriter = tableWriters.get(tableName);
+                if (tableWriter == null) {
+                    tableWriter = new TableWriter(tableName);
+                    tableWriters.put(tableName, tableWriter);
+                }
+            }
+        }
+        return tableWriter;
+    }
+
+    private void flushTableWriters() {
+        for (final TableWriter tableWriter : tableWriters.values()) {
+            try {
+                tableWriter.flush();
+            } catch (Exception e) {
+                getLogger().error("Failed to flush puts to HBase table {} due to {}", new Object[]{tableWriter.tableName, e});
+            }
+        }
+    }
+
+    // protected and extracted into separate method for testing
+    protected BufferedMutator createBufferedMutator(final BufferedMutatorParams params) throws IOException {
+        return connection.getBufferedMutator(params);
+    }
+
     @Override
     public void scan(final String tableName, final Collection<Column> columns, final String filterExpression, final long minTime, final ResultHandler handler)
             throws IOException {
@@ -374,6 +553,220 @@ public class HBase_1_1_2_ClientService extends AbstractControllerService impleme
         }
     }
 
+    @Override
+    public void get(final String tableName, final List<byte[]> rowIds, final Collection<Column> columns, final ResultHandler handler)
+            throws IOException {
+
+        // one multi-get request per chunk of rows
+        final List<List<Get>> batches = new ArrayList<>();
+        List<Get> gets = null;
+        for (final byte[] rowId : rowIds) {
+            if (gets == null || gets.size() >= multiGetBatchSize) {
+                gets = new ArrayList<>(Math.min(multiGetBatchSize, rowIds.size()));
+                batches.add(gets);
+            }
+            gets.add(createGet(rowId, columns));
+        }
+
+        final ExecutorService executor = multiGetExecutor;
+        if (executor == null || batches.size() <= 1) {
+            for (final List<Get> batch : batches) {
+                handleResults(getResults(tableName, batch), handler);
+            }
+            return;
+        }
+
+        final List<Future<Result[]>> futures = new ArrayList<>(batches.size());
+        for (final List<Get> batch : batches) {
+            futures.add(executor.submit(() -> getResults(tableName, batch)));
+        }
+
+        // the handler is only called from the calling thread
+        try {
+            for (final Future<Result[]> future : futures) {
+                handleResults(future.get(), handler);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while fetching rows from " + tableName);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            for (final Future<Result[]> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private Get createGet(final byte[] rowId, final Collection<Column> columns) {
+        final Get get = new Get(rowId);
+        if (columns != null) {
+            for (Column col : columns) {
+                if (col.getQualifier() == null) {
+                    get.addFamily(col.getFamily());
+                } else {
+                    get.addColumn(col.getFamily(), col.getQualifier());
+                }
+            }
+        }
+        return get;
+    }
+
+    private void handleResults(final Result[] results, final ResultHandler handler) {
+        for (final Result result : results) {
+            final Cell[] cells = result.rawCells();
+
+            // rows that do not exist come back as empty results
+            if (cells == null || cells.length == 0) {
+                continue;
+            }
+
+            final ResultCell[] resultCells = new ResultCell[cells.length];
+            for (int i=0; i < cells.length; i++) {
+                resultCells[i] = getResultCell(cells[i]);
+            }
+            handler.handle(result.getRow(), resultCells);
+        }
+    }
+
+    // protected and extracted into separate method for testing
+    protected Result[] getResults(final String tableName, final List<Get> gets) throws IOException {
+        try (final Table table = connection.getTable(TableName.valueOf(tableName))) {
+            return table.get(gets);
+        }
+    }
+
+    /**
+     * A put sent through a write buffer, along with the record it was built from
+     */
+    private final class PendingPut {
+
+        private final Put put;
+        private final PutRecord putRecord;
+        private final PutFailureHandler failureHandler;
+
+        // HBase may report a put both to the exception listener and through the flush
+        private final AtomicBoolean failed = new AtomicBoolean(false);
+
+        PendingPut(final Put put, final PutRecord putRecord, final PutFailureHandler failureHandler) {
+            this.put = put;
+            this.putRecord = putRecord;
+            this.failureHandler = failureHandler;
+        }
+
+        void fail(final Throwable cause) {
+            if (!failed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                failureHandler.onFailure(putRecord, cause);
+            } catch (Exception e) {
+                getLogger().error("Failure handler of HBase put failed due to {}", new Object[]{e});
+            }
+        }
+    }
+
+    /**
+     * The write buffer of a table. The puts sent through it are kept until the next flush
+     * so that failures reported by HBase can be routed back to the records they come from.
+     */
+    private final class TableWriter implements BufferedMutator.ExceptionListener {
+
+        private final String tableName;
+        private final BufferedMutator mutator;
+
+        // puts are identified by reference, this is what the HBase client reports on failures
+        private final Map<Row, PendingPut> pendingPuts = Collections.synchronizedMap(new IdentityHashMap<>());
+        private final Object flushLock = new Object();
+
+        TableWriter(final String tableName) throws IOException {
+            this.tableName = tableName;
+            this.mutator = createBufferedMutator(new BufferedMutatorParams(TableName.valueOf(tableName))
+                    .writeBufferSize(writeBufferSize)
+                    .listener(this));
+        }
+
+        void write(final List<PendingPut> puts) throws IOException {
+            // backpressure : when too many puts are in flight, write this table to release some budget
+            if (!inflightPuts.tryAcquire(puts.size())) {
+                flush();
+                try {
+                    inflightPuts.acquire(puts.size());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for puts to " + tableName + " to be written");
+                }
+            }
+
+            final List<Put> mutations = new ArrayList<>(puts.size());
+            for (final PendingPut pendingPut : puts) {
+                pendingPuts.put(pendingPut.put, pendingPut);
+                mutations.add(pendingPut.put);
+            }
+
+            try {
+                mutator.mutate(mutations);
+            } catch (IOException e) {
+                for (final PendingPut pendingPut : puts) {
+                    pendingPuts.remove(pendingPut.put);
+                    pendingPut.fail(e);
+                }
+                inflightPuts.release(puts.size());
+            }
+        }
+
+        void flush() throws IOException {
+            synchronized (flushLock) {
+                final List<PendingPut> flushedPuts;
+                synchronized (pendingPuts) {
+                    flushedPuts = new ArrayList<>(pendingPuts.values());
+                }
+                if (flushedPuts.isEmpty()) {
+                    return;
+                }
+
+                try {
+                    mutator.flush();
+                } catch (IOException e) {
+                    // the puts already reported by the exception listener are not failed again
+                    for (final PendingPut pendingPut : flushedPuts) {
+                        pendingPut.fail(e);
+                    }
+                    throw e;
+                } finally {
+                    for (final PendingPut pendingPut : flushedPuts) {
+                        pendingPuts.remove(pendingPut.put);
+                    }
+                    inflightPuts.release(flushedPuts.size());
+                }
+            }
+        }
+
+        void close() {
+            try {
+                flush();
+                mutator.close();
+            } catch (IOException e) {
+                getLogger().warn("Failed to close write buffer of HBase table {} due to {}", new Object[]{tableName, e});
+            }
+        }
+
+        @Override
+        public void onException(final RetriesExhaustedWithDetailsException exception, final BufferedMutator mutator) {
+            for (int i = 0; i < exception.getNumExceptions(); i++) {
+                final PendingPut pendingPut = pendingPuts.get(exception.getRow(i));
+                if (pendingPut != null) {
+                    pendingPut.fail(exception.getCause(i));
+                } else {
+                    getLogger().error("Failed to put row to HBase table {} due to {}", new Object[]{tableName, exception.getCause(i)});
+                }
+            }
+        }
+    }
+
     // protected and extracted into separate method for testing
     protected ResultScanner getResults(final Table table, final byte[] startRow, final byte[] endRow, final Collection<Column> columns) throws IOException {
         final Scan scan = new Scan();
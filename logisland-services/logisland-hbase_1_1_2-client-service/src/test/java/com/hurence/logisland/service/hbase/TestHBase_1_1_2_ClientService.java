@@ -27,10 +27,14 @@ import com.hurence.logisland.util.runner.TestRunner;
 import com.hurence.logisland.util.runner.TestRunners;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.junit.Before;
@@ -53,6 +57,7 @@ import java.util.NavigableMap;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -406,6 +411,179 @@ public class TestHBase_1_1_2_ClientService {
         hBaseClientService.scan(tableName, new ArrayList<Column>(), filter, System.currentTimeMillis(), handler);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMultiGet() throws InitializationException, IOException {
+        final String tableName = "logisland";
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+
+        // Mock an HBase Table so we can verify the get operations later
+        final Table table = Mockito.mock(Table.class);
+        when(table.getName()).thenReturn(TableName.valueOf(tableName));
+
+        // two rows per request, sent concurrently
+        final MockHBaseClientService service = new MockHBaseClientService(table, kerberosPropsWithFile);
+        runner.addControllerService("hbaseClient", service);
+        runner.setProperty(service, HBase_1_1_2_ClientService.HADOOP_CONF_FILES, "src/test/resources/hbase-site.xml");
+        runner.setProperty(service, HBase_1_1_2_ClientService.MULTIGET_BATCH_SIZE, "2");
+        runner.setProperty(service, HBase_1_1_2_ClientService.MULTIGET_PARALLELISM, "2");
+        runner.enableControllerService(service);
+        runner.setProperty(TestProcessor.HBASE_CLIENT_SERVICE, "hbaseClient");
+        runner.assertValid(service);
+
+        // stage some results in the mock service, row1 and row3 do not exist
+        final long now = System.currentTimeMillis();
+        final Map<String, String> cells = new HashMap<>();
+        cells.put("greeting", "hello");
+        service.addResult("row0", cells, now);
+        service.addResult("row2", cells, now);
+        service.addResult("row4", cells, now);
+
+        when(table.get(Mockito.anyListOf(Get.class))).thenAnswer(invocation -> {
+            final List<Get> gets = (List<Get>) invocation.getArguments()[0];
+            final Result[] results = new Result[gets.size()];
+            for (int i = 0; i < gets.size(); i++) {
+                results[i] = service.getResult(new String(gets.get(i).getRow(), StandardCharsets.UTF_8));
+            }
+            return results;
+        });
+
+        final List<byte[]> rowIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            rowIds.add(("row" + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        final CollectingResultHandler handler = new CollectingResultHandler();
+        final HBaseClientService hBaseClientService = runner.getProcessContext().getPropertyValue(TestProcessor.HBASE_CLIENT_SERVICE)
+                .asControllerService(HBaseClientService.class);
+        hBaseClientService.get(tableName, rowIds, null, handler);
+
+        // 5 rows in 3 requests, only the existing rows are handled, in the requested order
+        verify(table, times(3)).get(Mockito.anyListOf(Get.class));
+        assertEquals(Arrays.asList("row0", "row2", "row4"), new ArrayList<>(handler.results.keySet()));
+        verifyResultCell(handler.results.get("row2")[0], "logisland", "greeting", "hello");
+    }
+
+    @Test
+    public void testAsyncPuts() throws InitializationException, IOException {
+        final String tableName = "logisland";
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+
+        final Table table = Mockito.mock(Table.class);
+        when(table.getName()).thenReturn(TableName.valueOf(tableName));
+
+        // no more than 2 puts waiting to be written
+        final MockHBaseClientService service = new MockHBaseClientService(table, kerberosPropsWithFile);
+        runner.addControllerService("hbaseClient", service);
+        runner.setProperty(service, HBase_1_1_2_ClientService.HADOOP_CONF_FILES, "src/test/resources/hbase-site.xml");
+        runner.setProperty(service, HBase_1_1_2_ClientService.WRITE_MAX_INFLIGHT_PUTS, "2");
+        runner.setProperty(service, HBase_1_1_2_ClientService.WRITE_FLUSH_INTERVAL, "3600000");
+        runner.enableControllerService(service);
+        runner.setProperty(TestProcessor.HBASE_CLIENT_SERVICE, "hbaseClient");
+        runner.assertValid(service);
+
+        final List<PutRecord> putRecords = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final Collection<PutColumn> columns = Collections.singletonList(new PutColumn("family1".getBytes(StandardCharsets.UTF_8),
+                    "qualifier1".getBytes(StandardCharsets.UTF_8), ("content" + i).getBytes(StandardCharsets.UTF_8)));
+            putRecords.add(new PutRecord(tableName, ("row" + i).getBytes(StandardCharsets.UTF_8), columns, null));
+        }
+
+        // the last put fails when written
+        final List<Put> mutations = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            mutations.addAll((List<Put>) invocation.getArguments()[0]);
+            return null;
+        }).when(service.mutator).mutate(Mockito.anyListOf(Put.class));
+        Mockito.doAnswer(invocation -> {
+            final Put lastPut = mutations.get(mutations.size() - 1);
+            if (new String(lastPut.getRow(), StandardCharsets.UTF_8).equals("row2")) {
+                service.mutatorParams.getListener().onException(new RetriesExhaustedWithDetailsException(
+                        Collections.singletonList(new IOException("region server down")),
+                        Collections.singletonList(lastPut),
+                        Collections.singletonList("localhost:16020")), service.mutator);
+            }
+            return null;
+        }).when(service.mutator).flush();
+
+        final Map<String, Throwable> failures = new HashMap<>();
+        final HBaseClientService hBaseClientService = runner.getProcessContext().getPropertyValue(TestProcessor.HBASE_CLIENT_SERVICE)
+                .asControllerService(HBaseClientService.class);
+        hBaseClientService.putAsync(tableName, putRecords,
+                (putRecord, cause) -> failures.put(new String(putRecord.getRow(), StandardCharsets.UTF_8), cause));
+
+        // the third put had to wait for the first two to be written
+        verify(service.mutator, times(2)).mutate(Mockito.anyListOf(Put.class));
+        verify(service.mutator, times(1)).flush();
+        assertEquals(0, failures.size());
+
+        hBaseClientService.flush(tableName);
+        verify(service.mutator, times(2)).flush();
+        assertEquals(3, mutations.size());
+        verifyPut("row0", "family1", "qualifier1", "content0", mutations.get(0));
+        assertEquals(Collections.singleton("row2"), failures.keySet());
+        assertEquals("region server down", failures.get("row2").getMessage());
+    }
+
+    @Test
+    public void testAsyncPutFailedOnlyOnce() throws InitializationException, IOException {
+        final String tableName = "logisland";
+        final TestRunner runner = TestRunners.newTestRunner(TestProcessor.class);
+
+        final Table table = Mockito.mock(Table.class);
+        when(table.getName()).thenReturn(TableName.valueOf(tableName));
+
+        final MockHBaseClientService service = new MockHBaseClientService(table, kerberosPropsWithFile);
+        runner.addControllerService("hbaseClient", service);
+        runner.setProperty(service, HBase_1_1_2_ClientService.HADOOP_CONF_FILES, "src/test/resources/hbase-site.xml");
+        runner.setProperty(service, HBase_1_1_2_ClientService.WRITE_FLUSH_INTERVAL, "3600000");
+        runner.enableControllerService(service);
+        runner.setProperty(TestProcessor.HBASE_CLIENT_SERVICE, "hbaseClient");
+        runner.assertValid(service);
+
+        final List<PutRecord> putRecords = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final Collection<PutColumn> columns = Collections.singletonList(new PutColumn("family1".getBytes(StandardCharsets.UTF_8),
+                    "qualifier1".getBytes(StandardCharsets.UTF_8), ("content" + i).getBytes(StandardCharsets.UTF_8)));
+            putRecords.add(new PutRecord(tableName, ("row" + i).getBytes(StandardCharsets.UTF_8), columns, null));
+        }
+
+        // the first put is reported to the listener, then the whole flush fails
+        final List<Put> mutations = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            mutations.addAll((List<Put>) invocation.getArguments()[0]);
+            return null;
+        }).when(service.mutator).mutate(Mockito.anyListOf(Put.class));
+        Mockito.doAnswer(invocation -> {
+            service.mutatorParams.getListener().onException(new RetriesExhaustedWithDetailsException(
+                    Collections.singletonList(new IOException("region server down")),
+                    Collections.singletonList(mutations.get(0)),
+                    Collections.singletonList("localhost:16020")), service.mutator);
+            throw new IOException("flush failed");
+        }).when(service.mutator).flush();
+
+        final List<String> failedRows = new ArrayList<>();
+        final Map<String, Throwable> failures = new HashMap<>();
+        final HBaseClientService hBaseClientService = runner.getProcessContext().getPropertyValue(TestProcessor.HBASE_CLIENT_SERVICE)
+                .asControllerService(HBaseClientService.class);
+        hBaseClientService.putAsync(tableName, putRecords, (putRecord, cause) -> {
+            final String row = new String(putRecord.getRow(), StandardCharsets.UTF_8);
+            failedRows.add(row);
+            failures.put(row, cause);
+        });
+
+        try {
+            hBaseClientService.flush(tableName);
+            fail("the flush failure should be thrown");
+        } catch (IOException e) {
+            assertEquals("flush failed", e.getMessage());
+        }
+
+        assertEquals(Arrays.asList("row0", "row1"), failedRows);
+        assertEquals("region server down", failures.get("row0").getMessage());
+        assertEquals("flush failed", failures.get("row1").getMessage());
+    }
+
     private MockHBaseClientService configureHBaseClientService(final TestRunner runner, final Table table) throws InitializationException {
         final MockHBaseClientService service = new MockHBaseClientService(table, kerberosPropsWithFile);
         runner.addControllerService("hbaseClient", service);
@@ -446,7 +624,10 @@ public class TestHBase_1_1_2_ClientService {
 
         private Table table;
         private List<Result> results = new ArrayList<>();
+        private Map<String, Result> resultsByRow = new HashMap<>();
         private KerberosProperties kerberosProperties;
+        private BufferedMutator mutator = Mockito.mock(BufferedMutator.class);
+        private BufferedMutatorParams mutatorParams;
 
         public MockHBaseClientService(final Table table, final KerberosProperties kerberosProperties) {
             this.table = table;
@@ -499,6 +680,13 @@ public class TestHBase_1_1_2_ClientService {
             when(result.getRow()).thenReturn(rowArray);
             when(result.rawCells()).thenReturn(cellArray);
             results.add(result);
+            resultsByRow.put(rowKey, result);
+        }
+
+        public Result getResult(final String rowKey) {
+            final Result result = resultsByRow.get(rowKey);
+            // missing rows come back as results without cells
+            return result != null ? result : Mockito.mock(Result.class);
         }
 
         @Override
@@ -508,6 +696,12 @@ public class TestHBase_1_1_2_ClientService {
             return scanner;
         }
 
+        @Override
+        protected BufferedMutator createBufferedMutator(BufferedMutatorParams params) throws IOException {
+            this.mutatorParams = params;
+            return mutator;
+        }
+
         @Override
         protected Connection createConnection(ControllerServiceInitializationContext context) throws IOException {
             Connection connection = Mockito.mock(Connection.class);